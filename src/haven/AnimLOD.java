@@ -0,0 +1,202 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Animation level of detail for skeletal gobs. Composited and
+ * SkelSprite ask how often a gob's animation should be advanced,
+ * which depends on its distance from the map view's centre and on
+ * whether it is near the screen; time skipped is handed over on the
+ * next tick that does run, so animations keep their pace. Beyond the
+ * last distance, or nearer when off-screen, poses are frozen.
+ *
+ * Rebuilding a pose from its mods (reset, apply, blend, gbuild) only
+ * touches the pose's own arrays, so instead of doing it inside each
+ * gob's tick, it is queued here and the lot is evaluated once all
+ * gobs have ticked, on a fork-join pool when there are enough.
+ * Advancing the mods themselves stays on the ticking thread, since
+ * it fires effect tracks that spawn sprites. Poses of sprites ticked
+ * outside of OCache.ctick are rebuilt at once.
+ */
+public class AnimLOD {
+    public static final int FROZEN = 0;
+    /* Distances, in tiles, up to which animations run every tick, every other and every fourth. */
+    private static final double[] dists = {25, 50, 100};
+    private static final int[] onscreen = {1, 2, 4};
+    private static final int[] offscreen = {4, 8, FROZEN};
+    private static final int grain = 8, parallel = 32;
+    private static final ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), p -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+        t.setName("Pose evaluator " + t.getPoolIndex());
+        t.setDaemon(true);
+        return (t);
+    }, null, false);
+    private final List<Runnable> queued = new ArrayList<>();
+    /* Set while a Composited ticks its equipment, whose rate it has already limited. */
+    boolean driving = false;
+    /* Set by batch() until the next flush(); rebuilds asked for outside of that run at once. */
+    private boolean batching = false;
+    private Coord2d cc = null;
+    private Matrix4f pv = null;
+    private float z;
+    private long ticked, skipped, frozen, evaluated, bones, pflushes;
+    private int lposes, lbones;
+    private long lnanos;
+    private int qbones;
+
+    /* Sets where the map is viewed from. Called from MapView.tick. */
+    public void view(Coord2d cc, float z, Matrix4f pv) {
+        this.cc = cc;
+        this.z = z;
+        this.pv = pv;
+    }
+
+    private boolean visible(Coord2d rc) {
+        if (pv == null)
+            return (true);
+        float[] c = pv.mul4(new float[] {(float) rc.x, -(float) rc.y, z, 1});
+        float w = c[3] * 1.25f;
+        return ((w > 0) && (Math.abs(c[0]) < w) && (Math.abs(c[1]) < w));
+    }
+
+    /*
+     * Returns every how many ticks the gob's animation should be
+     * advanced, or FROZEN.
+     */
+    public int interval(Gob gob) {
+        if (!Config.animlod || (cc == null))
+            return (1);
+        double d = gob.rc.dist(cc) / MCache.tilesz.x;
+        int[] lv = visible(gob.rc) ? onscreen : offscreen;
+        for (int i = 0; i < dists.length; i++) {
+            if (d < dists[i])
+                return (lv[i]);
+        }
+        return (FROZEN);
+    }
+
+    /*
+     * Counts one tick of an animation at the given interval, returning
+     * whether it is due, n being the ticks since it last ran
+     * including this one.
+     */
+    public boolean due(int every, int n) {
+        if (every == FROZEN) {
+            frozen++;
+            return (false);
+        }
+        if (n < every) {
+            skipped++;
+            return (false);
+        }
+        ticked++;
+        return (true);
+    }
+
+    /*
+     * Queues a pose rebuild of a skeleton of the given number of bones
+     * until flush(). Sprites ticked outside of OCache.ctick, such as
+     * the placement preview, would otherwise wait a frame for it, so
+     * they are rebuilt at once.
+     */
+    public void defer(Runnable rebuild, int nbones) {
+        if (!batching) {
+            rebuild.run();
+            return;
+        }
+        queued.add(rebuild);
+        qbones += nbones;
+    }
+
+    private static class Eval extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        final Runnable[] jobs;
+        final int from, to;
+
+        Eval(Runnable[] jobs, int from, int to) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; i++)
+                    jobs[i].run();
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Eval(jobs, from, mid), new Eval(jobs, mid, to));
+            }
+        }
+    }
+
+    /* Starts queueing rebuilds. Called from OCache.ctick before the gobs tick. */
+    public void batch() {
+        batching = true;
+    }
+
+    /* Evaluates the poses queued since batch(). Called from OCache.ctick once all gobs have ticked. */
+    public void flush() {
+        batching = false;
+        long st = System.nanoTime();
+        int n = queued.size();
+        if (n >= parallel) {
+            pool.invoke(new Eval(queued.toArray(new Runnable[0]), 0, n));
+            pflushes++;
+        } else {
+            for (Runnable r : queued)
+                r.run();
+        }
+        queued.clear();
+        synchronized (this) {
+            lposes = n;
+            lbones = qbones;
+            lnanos = System.nanoTime() - st;
+            evaluated += n;
+            bones += qbones;
+        }
+        qbones = 0;
+    }
+
+    public synchronized void dump(PrintWriter out) {
+        out.printf("last frame: %d poses, %d bones evaluated in %.3f ms\n", lposes, lbones, lnanos / 1e6);
+        out.printf("%d ticks run, %d skipped, %d frozen; %d poses, %d bones evaluated, %d times in parallel\n",
+                ticked, skipped, frozen, evaluated, bones, pflushes);
+    }
+
+    public synchronized void reset() {
+        ticked = skipped = frozen = evaluated = bones = pflushes = 0;
+    }
+}
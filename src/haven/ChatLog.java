@@ -0,0 +1,367 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/*
+ * Chat logs, kept as one file per day. Lines are queued by the UI
+ * and written out in batches by a background thread, grouped by
+ * channel, so that each batch adds one block per channel to the
+ * day's log. Every block gets a record in the day's index file,
+ * giving its channel, time span and place in the log, so searches
+ * only have to read the blocks that can match.
+ *
+ * Log lines keep the format of the old single chatlog.txt:
+ *   [Channel][yyyy-MM-dd HH:mm:ss] Sender: text
+ */
+public class ChatLog {
+    public static final ChatLog global = new ChatLog(new File("chatlogs"));
+    private static final Pattern logname = Pattern.compile("\\d{4}-\\d{2}-\\d{2}\\.log");
+    private static final String nl = System.getProperty("line.separator");
+    /* How often the writer wakes up to write out what has been queued */
+    private static final long linger = 500;
+    private static final int maxbatch = 1000;
+    public final File dir;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final SimpleDateFormat dayfmt = new SimpleDateFormat("yyyy-MM-dd");
+    private final SimpleDateFormat linefmt = new SimpleDateFormat("[yyyy-MM-dd HH:mm:ss] ");
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private String day = null;
+    private FileOutputStream log = null;
+    private DataOutputStream idx = null;
+
+    public ChatLog(File dir) {
+        this.dir = dir;
+    }
+
+    private static class Entry {
+        final long time;
+        final String channel, text;
+
+        Entry(long time, String channel, String text) {
+            this.time = time;
+            this.channel = channel;
+            this.text = text;
+        }
+    }
+
+    public static class Hit {
+        public final long time;
+        public final String channel, sender, text;
+
+        Hit(long time, String channel, String sender, String text) {
+            this.time = time;
+            this.channel = channel;
+            this.sender = sender;
+            this.text = text;
+        }
+    }
+
+    /*
+     * Empty fields match anything; channel, sender and text match
+     * case-insensitively anywhere in the respective field. Only the
+     * latest limit matches are returned.
+     */
+    public static class Query {
+        public String channel = "", sender = "", text = "";
+        public long from = 0, to = Long.MAX_VALUE;
+        public int limit = 1000;
+        /* Number of index blocks and bytes of log read by the search */
+        public int blocks;
+        public long read;
+
+        boolean channel(String ch) {
+            return ((ch == null) || contains(ch, channel));
+        }
+
+        boolean overlaps(long a, long b) {
+            return ((b >= from) && (a <= to));
+        }
+
+        private static boolean contains(String s, String part) {
+            return (part.isEmpty() || s.toLowerCase().contains(part.toLowerCase()));
+        }
+
+        boolean matches(Hit h) {
+            return ((h.time >= from) && (h.time <= to) && contains(h.channel, channel) &&
+                    contains(h.sender, sender) && contains(h.text, text));
+        }
+    }
+
+    public void log(String channel, String text) {
+        log(System.currentTimeMillis(), channel, text);
+    }
+
+    /* Logs a line that was said at the given time, in milliseconds since the epoch. */
+    public void log(long time, String channel, String text) {
+        queue.add(new Entry(time, channel, text.replace('\n', ' ').replace('\r', ' ')));
+        /* Not under the monitor, which flush() holds while writing. */
+        if (started.compareAndSet(false, true)) {
+            Thread writer = new HackThread(this::run, "Chat log writer");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Thread.sleep(linger);
+                flush();
+            }
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /* Writes out whatever is queued. */
+    public synchronized void flush() {
+        List<Entry> batch = new ArrayList<>();
+        while (queue.drainTo(batch, maxbatch) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void open(String day) throws IOException {
+        closefiles();
+        dir.mkdirs();
+        File lf = new File(dir, day + ".log");
+        log = new FileOutputStream(lf, true);
+        idx = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, day + ".idx"), true)));
+        this.day = day;
+    }
+
+    private void closefiles() throws IOException {
+        try {
+            if (log != null)
+                log.close();
+            if (idx != null)
+                idx.close();
+        } finally {
+            log = null;
+            idx = null;
+            day = null;
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        /* Lines stay in order within each channel; channels are written in order of first line. */
+        Map<String, List<Entry>> blocks = new LinkedHashMap<>();
+        for (Entry e : batch)
+            blocks.computeIfAbsent(dayfmt.format(new Date(e.time)) + "\0" + e.channel, k -> new ArrayList<>()).add(e);
+        try {
+            for (Map.Entry<String, List<Entry>> b : blocks.entrySet()) {
+                String bday = b.getKey().substring(0, b.getKey().indexOf('\0'));
+                List<Entry> lines = b.getValue();
+                if (!bday.equals(day))
+                    open(bday);
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                for (Entry e : lines)
+                    buf.write(("[" + e.channel + "]" + linefmt.format(new Date(e.time)) + e.text + nl).getBytes(StandardCharsets.UTF_8));
+                /*
+                 * Other clients may append to the same day's files, so
+                 * where the block lands is only known under the lock,
+                 * and its record is written out before letting go.
+                 * The block is written before its record, so a record
+                 * never points past the end of the log.
+                 */
+                try (FileLock l = log.getChannel().lock()) {
+                    long off = log.getChannel().size();
+                    log.write(buf.toByteArray());
+                    idx.writeLong(lines.get(0).time);
+                    idx.writeLong(lines.get(lines.size() - 1).time);
+                    idx.writeLong(off);
+                    idx.writeInt(buf.size());
+                    idx.writeUTF(lines.get(0).channel);
+                    idx.flush();
+                }
+            }
+        } catch (IOException e) {
+            new Warning(e, "could not write chat log").issue();
+            try {
+                closefiles();
+            } catch (IOException e2) {
+            }
+        }
+    }
+
+    /*
+     * Writes out whatever is queued and closes the current day's
+     * files; they are reopened if anything more is logged.
+     */
+    public synchronized void close() {
+        flush();
+        try {
+            closefiles();
+        } catch (IOException e) {
+        }
+    }
+
+    private static long daystart(String name) throws ParseException {
+        return (new SimpleDateFormat("yyyy-MM-dd").parse(name.substring(0, 10)).getTime());
+    }
+
+    private static long dayend(long start) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(start);
+        c.add(Calendar.DAY_OF_MONTH, 1);
+        return (c.getTimeInMillis() - 1);
+    }
+
+    private static class Block {
+        final long from, to, off;
+        final int len;
+        final String channel;
+
+        Block(long from, long to, long off, int len, String channel) {
+            this.from = from;
+            this.to = to;
+            this.off = off;
+            this.len = len;
+            this.channel = channel;
+        }
+    }
+
+    private List<Block> index(File lf, String name, long start, long end) throws IOException {
+        List<Block> ret = new ArrayList<>();
+        File xf = new File(dir, name.substring(0, 10) + ".idx");
+        if (!xf.exists()) {
+            /* Without an index the whole day has to be read. */
+            ret.add(new Block(start, end, 0, (int) Math.min(lf.length(), Integer.MAX_VALUE), null));
+            return (ret);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(xf)))) {
+            while (true)
+                ret.add(new Block(in.readLong(), in.readLong(), in.readLong(), in.readInt(), in.readUTF()));
+        } catch (EOFException e) {
+            /* A record cut short by a crash is simply left out. */
+        }
+        return (ret);
+    }
+
+    private static Hit parse(String line, SimpleDateFormat fmt) {
+        int ce = line.indexOf("][");
+        if (!line.startsWith("[") || (ce < 0) || (line.length() < ce + 23))
+            return (null);
+        long time;
+        try {
+            time = fmt.parse(line.substring(ce + 2, ce + 21)).getTime();
+        } catch (ParseException e) {
+            return (null);
+        }
+        String text = line.substring(ce + 23);
+        int se = text.indexOf(": ");
+        String sender = (se > 0) ? text.substring(0, se) : "";
+        return (new Hit(time, line.substring(1, ce), sender, (se > 0) ? text.substring(se + 2) : text));
+    }
+
+    /*
+     * Searches the logs a day at a time, reading only those blocks
+     * whose channel and time span can match. Returns matches in
+     * chronological order. Gives up with whatever it has found when
+     * the calling thread is interrupted.
+     */
+    public List<Hit> search(Query q) throws IOException {
+        File[] files = dir.listFiles((d, n) -> logname.matcher(n).matches());
+        ArrayDeque<Hit> ret = new ArrayDeque<>();
+        if (files == null)
+            return (new ArrayList<>(ret));
+        Arrays.sort(files);
+        /* So that lines logged just before the search are found */
+        flush();
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        q.blocks = 0;
+        q.read = 0;
+        for (File lf : files) {
+            String name = lf.getName();
+            long start, end;
+            try {
+                start = daystart(name);
+            } catch (ParseException e) {
+                continue;
+            }
+            end = dayend(start);
+            if (!q.overlaps(start, end))
+                continue;
+            try (RandomAccessFile raf = new RandomAccessFile(lf, "r")) {
+                for (Block b : index(lf, name, start, end)) {
+                    if (Thread.currentThread().isInterrupted())
+                        return (new ArrayList<>(ret));
+                    if (!q.channel(b.channel) || !q.overlaps(b.from, b.to) || (b.off + b.len > raf.length()))
+                        continue;
+                    byte[] buf = new byte[b.len];
+                    raf.seek(b.off);
+                    raf.readFully(buf);
+                    q.blocks++;
+                    q.read += b.len;
+                    BufferedReader rd = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(buf), StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = rd.readLine()) != null) {
+                        Hit h = parse(line, fmt);
+                        if ((h == null) || !q.matches(h))
+                            continue;
+                        ret.add(h);
+                        if (ret.size() > q.limit)
+                            ret.removeFirst();
+                    }
+                }
+            }
+        }
+        return (new ArrayList<>(ret));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/*
+ * Searches the chat logs kept by ChatLog on a background thread,
+ * showing the latest matches.
+ */
+public class ChatSearchWnd extends Window {
+    private static final int limit = 1000;
+    /* Result lines rendered per tick */
+    private static final int perTick = 50;
+    private final TextEntry channel, sender, text, days;
+    private final Label status;
+    private final Textlog results;
+    private volatile Thread searcher = null;
+    private volatile List<ChatLog.Hit> found = null;
+    private volatile String done = null;
+    private int shown;
+    private final SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+
+    public ChatSearchWnd() {
+        super(Coord.z, "Search Chat Logs", "Search Chat Logs");
+        int x = 0;
+        x += add(new Label("Channel:"), new Coord(x, 3)).sz.x + 5;
+        x += add(channel = new TextEntry(100, "", null, s -> search()), new Coord(x, 0)).sz.x + 10;
+        x += add(new Label("Sender:"), new Coord(x, 3)).sz.x + 5;
+        x += add(sender = new TextEntry(100, "", null, s -> search()), new Coord(x, 0)).sz.x + 10;
+        x += add(new Label("Text:"), new Coord(x, 3)).sz.x + 5;
+        x += add(text = new TextEntry(150, "", null, s -> search()), new Coord(x, 0)).sz.x + 10;
+        x += add(new Label("Days:"), new Coord(x, 3)).sz.x + 5;
+        x += add(days = new TextEntry(40, "30", null, s -> search()), new Coord(x, 0)).sz.x + 10;
+        x += add(new Button(70, "Search", this::search), new Coord(x, 0)).sz.x;
+        results = add(new Textlog(new Coord(x, 350)), new Coord(0, 30));
+        results.maxLines = limit;
+        status = add(new Label(""), new Coord(0, 385));
+        pack();
+    }
+
+    private void search() {
+        if (searcher != null)
+            searcher.interrupt();
+        ChatLog.Query q = new ChatLog.Query();
+        q.channel = channel.text().trim();
+        q.sender = sender.text().trim();
+        q.text = text.text().trim();
+        q.limit = limit;
+        try {
+            int n = Integer.parseInt(days.text().trim());
+            if (n > 0)
+                q.from = System.currentTimeMillis() - n * 86400000L;
+        } catch (NumberFormatException e) {
+        }
+        results.clear();
+        status.settext("Searching...");
+        Thread th = new HackThread(() -> {
+            long st = System.nanoTime();
+            try {
+                List<ChatLog.Hit> hits = ChatLog.global.search(q);
+                finish(hits, String.format("%d matches, %d blocks (%d kB) read in %.0f ms%s", hits.size(), q.blocks, q.read / 1024,
+                        (System.nanoTime() - st) / 1e6, (hits.size() >= limit) ? ", showing the latest " + limit : ""));
+            } catch (Exception e) {
+                finish(null, "Search failed: " + e.getMessage());
+            }
+        }, "Chat log search");
+        th.setDaemon(true);
+        synchronized (this) {
+            found = null;
+            done = null;
+            searcher = th;
+        }
+        shown = 0;
+        th.start();
+    }
+
+    /* Called by the search thread, whose results are dropped if a newer search has started since. */
+    private synchronized void finish(List<ChatLog.Hit> hits, String msg) {
+        if (searcher != Thread.currentThread())
+            return;
+        if (hits != null)
+            found = hits;
+        done = msg;
+    }
+
+    public void tick(double dt) {
+        super.tick(dt);
+        List<ChatLog.Hit> hits = found;
+        if (hits != null) {
+            for (int i = 0; (i < perTick) && (shown < hits.size()); i++, shown++) {
+                ChatLog.Hit h = hits.get(shown);
+                results.append(String.format("[%s] %s: ", fmt.format(new Date(h.time)), h.channel) +
+                        (h.sender.isEmpty() ? h.text : h.sender + ": " + h.text));
+            }
+        }
+        String d = done;
+        if (d != null) {
+            status.settext(d);
+            done = null;
+        }
+    }
+
+    public void close() {
+        if (searcher != null)
+            searcher.interrupt();
+        ui.destroy(this);
+    }
+}
@@ -42,21 +42,20 @@ import java.awt.event.KeyEvent;
 import java.awt.font.TextAttribute;
 import java.awt.font.TextHitInfo;
 import java.awt.image.BufferedImage;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedCharacterIterator.Attribute;
 import java.text.CharacterIterator;
 import java.text.SimpleDateFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -181,45 +180,83 @@ public class ChatUI extends Widget {
 
 
     public static abstract class Channel extends Widget {
-        public final List<Message> msgs = new LinkedList<Message>();
+        /* Messages whose rendered text is kept while they are off screen. */
+        private static final int RENDERED = 256;
+        public final History msgs = new History();
+        private final Map<Message, Boolean> rendered = new LinkedHashMap<>(16, 0.75f, true);
         private final Scrollbar sb;
         private final IButton cb;
         public int urgency = 0;
 
         public static abstract class Message {
             public final double time = Utils.ntime();
+            private long seq = -1;
 
             public abstract Text text();
 
             public abstract Tex tex();
 
             public abstract Coord sz();
+
+            /* Frees the rendered text, which text() must then be able to redo. */
+            public void discard() {
+            }
+
+            /* The message as it should be written to the chat log. */
+            public String line() {
+                return (text().text);
+            }
         }
 
         public static class SimpleMessage extends Message {
-            private final Text t;
+            private final String rtext;
+            private final Color col;
+            private final int w;
+            private final Coord sz;
+            private Text t;
             public final String text;
 
             public SimpleMessage(String text, Color col, int w) {
                 this.text = text;
                 if (Config.chattimestamp)
-                    text = timestamp(text);
+                    text = timestamp(text, time);
+                this.rtext = RichText.Parser.quote(text);
+                this.col = col;
+                this.w = w;
+                this.t = render();
+                this.sz = t.sz();
+            }
+
+            private Text render() {
                 if (col == null)
-                    this.t = fnd.render(RichText.Parser.quote(text), w);
+                    return (fnd.render(rtext, w));
                 else
-                    this.t = fnd.render(RichText.Parser.quote(text), w, TextAttribute.FOREGROUND, col);
+                    return (fnd.render(rtext, w, TextAttribute.FOREGROUND, col));
             }
 
             public Text text() {
+                if (t == null)
+                    t = render();
                 return (t);
             }
 
             public Tex tex() {
-                return (t.tex());
+                return (text().tex());
             }
 
             public Coord sz() {
-                return (t.sz());
+                return (sz);
+            }
+
+            public void discard() {
+                if (t != null) {
+                    t.disposetex();
+                    t = null;
+                }
+            }
+
+            public String line() {
+                return (text);
             }
 
             @Override
@@ -228,6 +265,127 @@ public class ChatUI extends Widget {
             }
         }
 
+        /*
+         * The messages of a channel, as a ring buffer of at most
+         * Config.chathistory of them. The top of every message is
+         * kept, counted from the first message ever added, so that
+         * the message at a given height can be found by binary
+         * search and dropping the oldest message costs nothing.
+         */
+        public static class History extends AbstractList<Message> {
+            private Message[] buf = new Message[16];
+            private long[] top = new long[16];
+            private int[] h = new int[16];
+            private int head = 0, n = 0;
+            private long seq = 0;
+
+            private int idx(int i) {
+                return ((head + i) % buf.length);
+            }
+
+            public Message get(int i) {
+                if ((i < 0) || (i >= n))
+                    throw (new IndexOutOfBoundsException(Integer.toString(i)));
+                return (buf[idx(i)]);
+            }
+
+            public int size() {
+                return (n);
+            }
+
+            /* The index of msg, or -1 if it is no longer held. */
+            public int indexOf(Object o) {
+                if (!(o instanceof Message) || (n == 0))
+                    return (-1);
+                long i = ((Message) o).seq - buf[head].seq;
+                if ((i < 0) || (i >= n) || (buf[idx((int) i)] != o))
+                    return (-1);
+                return ((int) i);
+            }
+
+            public boolean contains(Object o) {
+                return (indexOf(o) >= 0);
+            }
+
+            private void grow() {
+                int nl = buf.length * 2;
+                Message[] nb = new Message[nl];
+                long[] nt = new long[nl];
+                int[] nh = new int[nl];
+                for (int i = 0; i < n; i++) {
+                    int o = idx(i);
+                    nb[i] = buf[o];
+                    nt[i] = top[o];
+                    nh[i] = h[o];
+                }
+                buf = nb;
+                top = nt;
+                h = nh;
+                head = 0;
+            }
+
+            private Message pop() {
+                Message old = buf[head];
+                buf[head] = null;
+                head = (head + 1) % buf.length;
+                n--;
+                return (old);
+            }
+
+            /* Adds msg, returning the messages that had to make room for it. */
+            List<Message> push(Message msg, int mh, int cap) {
+                List<Message> evicted = Collections.emptyList();
+                while (n >= Math.max(cap, 1)) {
+                    if (evicted.isEmpty())
+                        evicted = new ArrayList<>();
+                    evicted.add(pop());
+                }
+                if ((n == buf.length) && (n < cap))
+                    grow();
+                int i = idx(n);
+                top[i] = (n == 0) ? 0 : (top[idx(n - 1)] + h[idx(n - 1)]);
+                h[i] = mh;
+                buf[i] = msg;
+                msg.seq = seq++;
+                n++;
+                return (evicted);
+            }
+
+            /* The top of message i, relative to the first message. */
+            public int y(int i) {
+                return ((int) (top[idx(i)] - top[head]));
+            }
+
+            public int height() {
+                if (n == 0)
+                    return (0);
+                return (y(n - 1) + h[idx(n - 1)]);
+            }
+
+            /* Records a new height for message i. */
+            void resized(int i, int mh) {
+                int d = mh - h[idx(i)];
+                if (d == 0)
+                    return;
+                h[idx(i)] = mh;
+                for (int o = i + 1; o < n; o++)
+                    top[idx(o)] += d;
+            }
+
+            /* The index of the message that covers y, clamped to the held ones. */
+            public int at(int y) {
+                int lo = 0, hi = n - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi + 1) >>> 1;
+                    if (y(mid) <= y)
+                        lo = mid;
+                    else
+                        hi = mid - 1;
+                }
+                return (lo);
+            }
+        }
+
         public Channel(boolean closable) {
             sb = add(new Scrollbar(0, 0, 0));
             if (closable)
@@ -237,15 +395,60 @@ public class ChatUI extends Widget {
         }
 
         public void append(Message msg) {
+            List<Message> evicted;
             synchronized (msgs) {
-                msgs.add(msg);
-                int y = 0;
-                for (Message m : msgs)
-                    y += m.sz().y;
+                int mh = msg.sz().y, oh = msgs.height();
+                evicted = msgs.push(msg, mh, Config.chathistory);
+                for (Message old : evicted) {
+                    if (selects(old))
+                        selorig = lasthit = selstart = selend = null;
+                    rendered.remove(old);
+                }
+                touch(msg);
+                int nh = msgs.height();
                 boolean b = sb.val >= sb.max;
-                sb.max = y - ih();
+                sb.max = nh - ih();
                 if (b)
                     sb.val = sb.max;
+                else
+                    /* Keep the lines in view where they were as older ones drop out. */
+                    sb.val = Math.max(sb.val - (oh + mh - nh), sb.min);
+            }
+            for (Message old : evicted) {
+                archive(old);
+                old.discard();
+            }
+        }
+
+        /*
+         * Called with messages that have fallen out of the history,
+         * to write them to the chat log for later searching.
+         * Channels that log every message as it arrives need not.
+         */
+        protected void archive(Message msg) {
+            if (Config.chatsave)
+                ChatLog.global.log((long) (msg.time * 1000), name(), msg.line());
+        }
+
+        private boolean selects(Message msg) {
+            for (CharPos p : new CharPos[] {selorig, lasthit, selstart, selend}) {
+                if ((p != null) && (p.msg == msg))
+                    return (true);
+            }
+            return (false);
+        }
+
+        /* Marks msg as recently drawn, and frees the rendered text of those that have been off screen the longest. */
+        private void touch(Message msg) {
+            rendered.put(msg, Boolean.TRUE);
+            if (rendered.size() > RENDERED) {
+                for (Iterator<Message> i = rendered.keySet().iterator(); (rendered.size() > RENDERED) && i.hasNext(); ) {
+                    Message old = i.next();
+                    if (selects(old))
+                        continue;
+                    i.remove();
+                    old.discard();
+                }
             }
         }
 
@@ -276,25 +479,26 @@ public class ChatUI extends Widget {
             g.chcolor(0, 0, 0, 128);
             g.frect(Coord.z, sz);
             g.chcolor();
-            int y = 0;
-            boolean sel = false;
             synchronized (msgs) {
-                for (Message msg : msgs) {
-                    if ((selstart != null) && (msg == selstart.msg))
-                        sel = true;
-                    int y1 = y - sb.val;
-                    int y2 = y1 + msg.sz().y;
-                    if ((y2 > 0) && (y1 < ih())) {
-                        if (sel)
-                            drawsel(g, msg, y1);
-                        g.image(msg.tex(), new Coord(0, y1));
-                    }
-                    if ((selend != null) && (msg == selend.msg))
-                        sel = false;
-                    y += msg.sz().y;
+                int ss = -1, se = -1;
+                if (selstart != null) {
+                    ss = msgs.indexOf(selstart.msg);
+                    se = msgs.indexOf(selend.msg);
+                }
+                for (int i = (msgs.size() > 0) ? msgs.at(Math.max(sb.val, 0)) : 0; i < msgs.size(); i++) {
+                    Message msg = msgs.get(i);
+                    int y1 = msgs.y(i) - sb.val;
+                    if (y1 >= ih())
+                        break;
+                    /* Names in messages can change, and with them how the message wraps. */
+                    msgs.resized(i, msg.sz().y);
+                    if ((ss >= 0) && (se >= 0) && (i >= ss) && (i <= se))
+                        drawsel(g, msg, y1);
+                    g.image(msg.tex(), new Coord(0, y1));
+                    touch(msg);
                 }
+                sb.max = msgs.height() - ih();
             }
-            sb.max = y - ih();
             super.draw(g);
             updurgency(0);
         }
@@ -309,11 +513,10 @@ public class ChatUI extends Widget {
             if (sb != null) {
                 sb.move(new Coord(sz.x - (12 - marg.x), 34 - marg.y));
                 sb.resize(ih() - sb.c.y);
-                int y = 0;
-                for (Message m : msgs)
-                    y += m.sz().y;
                 boolean b = sb.val >= sb.max;
-                sb.max = y - ih();
+                synchronized (msgs) {
+                    sb.max = msgs.height() - ih();
+                }
                 if (b)
                     sb.val = sb.max;
             }
@@ -349,12 +552,9 @@ public class ChatUI extends Widget {
             public int compare(CharPos a, CharPos b) {
                 if (a.msg != b.msg) {
                     synchronized (msgs) {
-                        for (Message msg : msgs) {
-                            if (msg == a.msg)
-                                return (-1);
-                            else if (msg == b.msg)
-                                return (1);
-                        }
+                        int ai = msgs.indexOf(a.msg), bi = msgs.indexOf(b.msg);
+                        if ((ai >= 0) && (bi >= 0))
+                            return (ai - bi);
                     }
                     throw (new IllegalStateException("CharPos message is no longer contained in the log"));
                 } else if (a.part != b.part) {
@@ -372,21 +572,17 @@ public class ChatUI extends Widget {
         };
 
         public Message messageat(Coord c, Coord hc) {
-            int y = -sb.val;
+            int y = c.y + sb.val;
             synchronized (msgs) {
-                for (Message msg : msgs) {
-                    Coord sz = msg.sz();
-                    if ((c.y >= y) && (c.y < y + sz.y)) {
-                        if (hc != null) {
-                            hc.x = c.x;
-                            hc.y = c.y - y;
-                        }
-                        return (msg);
-                    }
-                    y += sz.y;
+                if ((msgs.size() == 0) || (y < 0) || (y >= msgs.height()))
+                    return (null);
+                int i = msgs.at(y);
+                if (hc != null) {
+                    hc.x = c.x;
+                    hc.y = y - msgs.y(i);
                 }
+                return (msgs.get(i));
             }
-            return (null);
         }
 
         public CharPos charat(Coord c) {
@@ -476,7 +672,8 @@ public class ChatUI extends Widget {
             StringBuilder buf = new StringBuilder();
             synchronized (msgs) {
                 boolean sel = false;
-                for (Message msg : msgs) {
+                int si = msgs.indexOf(start.msg);
+                for (Message msg : (si < 0) ? msgs : msgs.subList(si, msgs.size())) {
                     if (!(msg.text() instanceof RichText))
                         continue;
                     RichText rt = (RichText) msg.text();
@@ -705,6 +902,10 @@ public class ChatUI extends Widget {
             return (sz.y - in.sz.y);
         }
 
+        /* Lines are already in the chat log, from when they arrived. */
+        protected void archive(Message msg) {
+        }
+
         public void resize(Coord sz) {
             super.resize(sz);
             if (in != null) {
@@ -773,6 +974,10 @@ public class ChatUI extends Widget {
             return (sz.y - in.sz.y);
         }
 
+        /* Lines are already in the chat log, from when they arrived. */
+        protected void archive(Message msg) {
+        }
+
         public void resize(Coord sz) {
             super.resize(sz);
             if (in != null) {
@@ -858,7 +1063,7 @@ public class ChatUI extends Widget {
                 String nm = (b == null) ? "???" : (b.name);
                 if ((r == null) || !nm.equals(cn)) {
                     String tf = String.format("%s: %s", nm, text);
-                    r = fnd.render(RichText.Parser.quote(Config.chattimestamp ? timestamp(tf) : tf), w, TextAttribute.FOREGROUND, col);
+                    r = fnd.render(RichText.Parser.quote(Config.chattimestamp ? timestamp(tf, time) : tf), w, TextAttribute.FOREGROUND, col);
                     cn = nm;
                 }
                 return (r);
@@ -874,6 +1079,13 @@ public class ChatUI extends Widget {
                 else
                     return (r.sz());
             }
+
+            public void discard() {
+                if (r != null) {
+                    r.disposetex();
+                    r = null;
+                }
+            }
         }
 
         public class MyMessage extends SimpleMessage {
@@ -977,7 +1189,7 @@ public class ChatUI extends Widget {
                 String nm = (b == null) ? "???" : (b.name);
                 if ((r == null) || !nm.equals(cn)) {
                     String tf = String.format("%s: %s", nm, text);
-                    r = fnd.render(RichText.Parser.quote(Config.chattimestamp ? timestamp(tf) : tf), w, TextAttribute.FOREGROUND, col);
+                    r = fnd.render(RichText.Parser.quote(Config.chattimestamp ? timestamp(tf, time) : tf), w, TextAttribute.FOREGROUND, col);
                     cn = nm;
                 }
                 return (r);
@@ -993,6 +1205,13 @@ public class ChatUI extends Widget {
                 else
                     return (r.sz());
             }
+
+            public void discard() {
+                if (r != null) {
+                    r.disposetex();
+                    r = null;
+                }
+            }
         }
 
         public class MyMessage extends SimpleMessage {
@@ -1777,7 +1996,12 @@ public class ChatUI extends Widget {
     }
 
     public static String timestamp(String text) {
-        return "[" + new SimpleDateFormat("HH:mm").format(new Date()) + "] " + text;
+        return (timestamp(text, Utils.ntime()));
+    }
+
+    /* Stamps text with the given time, in seconds since the epoch as kept in Message.time. */
+    public static String timestamp(String text, double time) {
+        return "[" + new SimpleDateFormat("HH:mm").format(new Date((long) (time * 1000))) + "] " + text;
     }
 
     public static void save(String chatName, String text, String name) {
@@ -1787,19 +2011,8 @@ public class ChatUI extends Widget {
                     name + ": " + text);
     }
 
-    public synchronized static void save(String chatName, String text) {
-        if (Config.chatsave) {
-            try {
-                if (Config.chatlog == null) {
-                    OutputStreamWriter osw = new OutputStreamWriter(new FileOutputStream(Config.chatfile, true),
-                            Charset.forName("UTF-8").newEncoder());
-                    Config.chatlog = new PrintWriter(osw, true);
-                }
-                String date = new SimpleDateFormat("[yyyy-MM-dd HH:mm:ss] ").format(new Date());
-                Config.chatlog.println("[" + chatName + "]" + date + (Config.chattimestamp ? text.substring(8) : text));
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    public static void save(String chatName, String text) {
+        if (Config.chatsave)
+            ChatLog.global.log(chatName, Config.chattimestamp ? text.substring(8) : text);
     }
 }
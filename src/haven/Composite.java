@@ -64,7 +64,7 @@ public class Composite extends Drawable {
         if (gob.type == null) {
             Type.getType(res.name);
             // prevent mannequins to be recognized as players
-            if (gob.type == Type.HUMAN && gob.attr.containsKey(GobHealth.class))
+            if (gob.type == Type.HUMAN && (gob.getattr(GobHealth.class) != null))
                 gob.type = Type.UNKNOWN;
         }
     }
@@ -141,7 +141,7 @@ public class Composite extends Drawable {
         } else if (!retainequ) {
             updequ();
         }
-        comp.tick(dt);
+        comp.tick(dt, gob.glob.oc.anims, gob);
     }
 
     public Resource getres() {
@@ -118,8 +118,12 @@ public class Composited implements Rendered, MapView.Clickable {
                 }
                 build = true;
             }
-            if (build)
-                rebuild();
+            if (build) {
+                if (deferto != null)
+                    deferto.defer(Composited.this::repose, skel.blist.length);
+                else
+                    rebuild();
+            }
             if (done)
                 done();
             finished = done && ldone;
@@ -634,6 +638,33 @@ public class Composited implements Rendered, MapView.Clickable {
 
     private final AtomicLong ticktime = new AtomicLong(System.currentTimeMillis());
     private int buffertime = 0;
+    private AnimLOD deferto = null;
+    private int lodskip = 0;
+
+    private void repose() {
+        if (poses != null)
+            poses.rebuild();
+    }
+
+    /*
+     * Ticks at the rate the animation LOD gives the gob, leaving the
+     * pose to be rebuilt by AnimLOD.flush().
+     */
+    public void tick(int dt, AnimLOD lod, Gob gob) {
+        if (!lod.due(lod.interval(gob), ++lodskip)) {
+            buffertime += dt;
+            return;
+        }
+        lodskip = 0;
+        deferto = lod;
+        lod.driving = true;
+        try {
+            tick(dt);
+        } finally {
+            deferto = null;
+            lod.driving = false;
+        }
+    }
     public void tick(int dt) {
         if (configuration.allowAnim(ticktime)) {
             if (poses != null)
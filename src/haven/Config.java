@@ -80,6 +80,7 @@ public class Config {
     public static boolean trollexmap = Utils.getprefb("trollexmap", false);
     public static boolean disableBlackOutLinesOnMap = Utils.getprefb("disableBlackOutLinesOnMap", false);
     public static boolean mapscale = Utils.getprefb("mapscale", false);
+    public static boolean mappack = Utils.getprefb("mappack", false);
     public static boolean profilegpu = false;
     public static boolean nopreload = false;
     public static int mainport = 1870;
@@ -110,6 +111,7 @@ public class Config {
     public static boolean savemmap = Utils.getprefb("savemmap", false);
     public static boolean studylock = Utils.getprefb("studylock", false);
     public static boolean chatsave = Utils.getprefb("chatsave", false);
+    public static int chathistory = Utils.getprefi("chathistory", 1000);
     public static boolean chattimestamp = Utils.getprefb("chattimestamp", true);
     public static boolean flatcupboards = Utils.getprefb("flatcupboards", true);
     public static boolean flatwalls = Utils.getprefb("flatwalls", false);
@@ -198,6 +200,8 @@ public class Config {
     public static int qualitybgtransparency = Utils.getprefi("qualitybgtransparency", 5);
     public static boolean showwearbars = Utils.getprefb("showwearbars", true);
     public static boolean tilecenter = Utils.getprefb("tilecenter", false);
+    public static boolean cpupick = Utils.getprefb("cpupick", true);
+    public static boolean animlod = Utils.getprefb("animlod", true);
     public static boolean userazerty = Utils.getprefb("userazerty", false);
     public static boolean hlightcuropp = Utils.getprefb("hlightcuropp", false);
     public static boolean cRackmissing = Utils.getprefb("cRackmissing", false);
@@ -366,8 +370,6 @@ public class Config {
     public static Map<String, Boolean> curioslist = null;
     public static ObservableMap<String, Boolean> autodroplist = null;
 
-    public static final String chatfile = "chatlog.txt";
-    public static PrintWriter chatlog = null;
 
     public static final Map<String, CheckListboxItem> boulders = new HashMap<>();
     public static final Map<String, CheckListboxItem> bushes = new HashMap<>();
@@ -0,0 +1,183 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static haven.MCache.cmaps;
+import static haven.MCache.cutn;
+import static haven.MCache.cutsz;
+
+/*
+ * Decides when map cuts get built. Grids invalidate their own cuts
+ * when they arrive and the edge cuts of their neighbours, often
+ * several times over while an area streams in, so invalidations are
+ * only collected as they come and handed to Defer once a tick. A cut
+ * invalidated several times in between is built once, and a cut
+ * whose build is still queued is left to that build, which will see
+ * the new data anyway. Cuts whose border reaches into a grid that has
+ * not arrived wait for it, rather than failing with Loading over and
+ * over and then being built again when it comes. Builds are
+ * prioritised by how close they are to the camera.
+ */
+public class CutScheduler {
+    private static final int GRIDSTATS = 32;
+    private final MCache map;
+    private Map<MCache.Grid, Integer> pending = new LinkedHashMap<>();
+    private final Map<Long, Counts> grids = new LinkedHashMap<Long, Counts>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Long, Counts> eldest) {
+            return (size() > GRIDSTATS);
+        }
+    };
+    private volatile Coord focus = null;
+    private long invalidated, merged, started, joined;
+    private int waiting;
+
+    private static class Counts {
+        int invalidated, built;
+    }
+
+    public CutScheduler(MCache map) {
+        this.map = map;
+    }
+
+    private Counts counts(MCache.Grid g) {
+        Counts c = grids.get(g.id);
+        if (c == null)
+            grids.put(g.id, c = new Counts());
+        return (c);
+    }
+
+    /* Marks a cut of a grid as needing to be built. */
+    public synchronized void invalidate(MCache.Grid g, Coord cc) {
+        int bit = 1 << (cc.x + (cc.y * cutn.x));
+        Integer cur = pending.get(g);
+        if ((cur != null) && ((cur & bit) != 0))
+            merged++;
+        pending.put(g, ((cur == null) ? 0 : cur) | bit);
+        invalidated++;
+        counts(g).invalidated++;
+    }
+
+    /* Sets the map coordinate that builds are prioritised around. */
+    public void focus(Coord2d mc) {
+        if (mc != null)
+            focus = mc.floor(MCache.tilesz).div(cutsz);
+    }
+
+    private int prio(MCache.Grid g, Coord cc) {
+        Coord f = focus;
+        if (f == null)
+            return (1);
+        Coord c = g.gc.mul(cutn).add(cc);
+        int d = Math.max(Math.abs(c.x - f.x), Math.abs(c.y - f.y));
+        return (Math.max(1, 12 - d));
+    }
+
+    /* The first grid the cut's border reaches into that has not arrived, or null. */
+    private Coord missing(MCache.Grid g, Coord cc) {
+        Coord ul = g.ul.add(cc.mul(cutsz));
+        Coord gul = ul.sub(MeshCache.BORDER, MeshCache.BORDER).div(cmaps);
+        Coord gbr = ul.add(cutsz).add(MeshCache.BORDER, MeshCache.BORDER).div(cmaps);
+        for (int y = gul.y; y <= gbr.y; y++) {
+            for (int x = gul.x; x <= gbr.x; x++) {
+                Coord gc = new Coord(x, y);
+                if (!map.grids.containsKey(gc))
+                    return (gc);
+            }
+        }
+        return (null);
+    }
+
+    /* Hands the cuts invalidated since the last tick to Defer. Called from MCache.ctick. */
+    void flush() {
+        Map<MCache.Grid, Integer> batch;
+        synchronized (this) {
+            if (pending.isEmpty())
+                return;
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        Map<MCache.Grid, Integer> wait = new LinkedHashMap<>();
+        List<MCache.Grid> built = new ArrayList<>();
+        int nstarted = 0, njoined = 0;
+        synchronized (map.grids) {
+            for (Map.Entry<MCache.Grid, Integer> e : batch.entrySet()) {
+                MCache.Grid g = e.getKey();
+                /* Dropped since it was invalidated. */
+                if (map.grids.get(g.gc) != g)
+                    continue;
+                int mask = e.getValue();
+                for (int i = 0; i < cutn.x * cutn.y; i++) {
+                    if ((mask & (1 << i)) == 0)
+                        continue;
+                    Coord cc = new Coord(i % cutn.x, i / cutn.x);
+                    Coord gc = missing(g, cc);
+                    if (gc != null) {
+                        map.request(gc);
+                        wait.merge(g, 1 << i, (a, b) -> a | b);
+                    } else if (g.startcut(cc, prio(g, cc))) {
+                        built.add(g);
+                        nstarted++;
+                    } else {
+                        njoined++;
+                    }
+                }
+            }
+        }
+        synchronized (this) {
+            for (Map.Entry<MCache.Grid, Integer> e : wait.entrySet())
+                pending.merge(e.getKey(), e.getValue(), (a, b) -> a | b);
+            int n = 0;
+            for (int mask : pending.values())
+                n += Integer.bitCount(mask);
+            waiting = n;
+            started += nstarted;
+            joined += njoined;
+            for (MCache.Grid g : built)
+                counts(g).built++;
+        }
+    }
+
+    public synchronized void dump(PrintWriter out) {
+        out.printf("%d invalidated, %d merged, %d joined a queued build, %d builds started, %d cuts waiting for neighbours\n",
+                invalidated, merged, joined, started, waiting);
+        out.printf("%-18s %12s %8s\n", "grid", "invalidated", "built");
+        for (Map.Entry<Long, Counts> e : grids.entrySet())
+            out.printf("%-18x %12d %8d\n", e.getKey(), e.getValue().invalidated, e.getValue().built);
+    }
+
+    public synchronized void reset() {
+        invalidated = merged = started = joined = 0;
+        grids.clear();
+    }
+}
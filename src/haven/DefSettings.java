@@ -169,6 +169,7 @@ public class DefSettings {
     //pathfinding
     public static final IndirSetting<Boolean> LIMITPATHFINDING = new IndirSetting<>(global, "pathfinding.limit-search");
     public static final IndirSetting<Boolean> RESEARCHUNTILGOAL = new IndirSetting<>(global, "pathfinding.research-until-at-goal");
+    public static final IndirSetting<Integer> SCRIPTPATHFINDER = new IndirSetting<>(global, "pathfinding.script-pathfinder");  //[Int] 0, 1, 2 = { NBA*, JPS, hierarchical JPS }
 
     //Debug
     public static final IndirSetting<Boolean> DEBUG = new IndirSetting<>(global, "system.debug");
@@ -323,6 +324,7 @@ public class DefSettings {
         //pathfinding
         LIMITPATHFINDING.ensure(false);
         RESEARCHUNTILGOAL.ensure(true);
+        SCRIPTPATHFINDER.ensure(0);
         //Belts
         SHOWFKBELT.ensure(true);
         FKBELTPAGE.ensure(0);
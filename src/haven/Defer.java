@@ -35,13 +35,12 @@ import java.util.Collection;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Queue;
 import java.util.WeakHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class Defer extends ThreadGroup {
     private static final Map<ThreadGroup, Defer> groups = new WeakHashMap<>();
-    private final Queue<Future<?>> queue = new PrioQueue<>();
+    private final PrioQueue<Future<?>> queue = new PrioQueue<>();
     private final Collection<Thread> pool = new LinkedList<>();
     private static final int maxthreads = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
     private final AtomicInteger busy = new AtomicInteger(0);
@@ -218,14 +217,25 @@ public class Defer extends ThreadGroup {
             return (done(5));
         }
 
+        /* Whether the task has begun running; one that has not will see anything changed before it does. */
+        public boolean started() {
+            synchronized (this) {
+                return ((running != null) || (state == "done"));
+            }
+        }
+
         public int priority() {
             return (prio);
         }
 
         public void boostprio(int prio) {
             synchronized (this) {
-                if (this.prio < prio)
-                    this.prio = prio;
+                if (this.prio < prio) {
+                    synchronized (queue) {
+                        this.prio = prio;
+                        queue.update(this);
+                    }
+                }
             }
         }
     }
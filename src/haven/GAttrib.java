@@ -26,6 +26,8 @@
 
 package haven;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 public abstract class GAttrib {
@@ -48,6 +50,65 @@ public abstract class GAttrib {
         return (Gob.STATIC);
     }
 
+    private static final AtomicInteger nslots = new AtomicInteger(0);
+    /*
+     * Every direct subclass of GAttrib is given a slot the first time
+     * it is used, which its own subclasses share, so that a gob can
+     * have only one of them at a time.
+     */
+    private static final ClassValue<Integer> slot = new ClassValue<Integer>() {
+        protected Integer computeValue(Class<?> cl) {
+            Class<?> p = cl.getSuperclass();
+            if (p == GAttrib.class)
+                return (nslots.getAndIncrement());
+            if ((p == null) || !GAttrib.class.isAssignableFrom(p))
+                throw (new IllegalArgumentException(cl.getName()));
+            return (get(p));
+        }
+    };
+
+    /*
+     * The attributes of a gob, indexed by slot. The array is replaced
+     * rather than modified, so that reading needs no locking.
+     */
+    public static class Slots {
+        private static final GAttrib[] empty = {};
+        private volatile GAttrib[] attrs = empty;
+
+        public <C extends GAttrib> C get(Class<C> c) {
+            GAttrib[] attrs = this.attrs;
+            int i = slot.get(c);
+            if (i >= attrs.length)
+                return (null);
+            GAttrib a = attrs[i];
+            if (!c.isInstance(a))
+                return (null);
+            return (c.cast(a));
+        }
+
+        private synchronized void set(int i, GAttrib a) {
+            GAttrib[] cur = attrs;
+            if ((a == null) && ((i >= cur.length) || (cur[i] == null)))
+                return;
+            GAttrib[] n = Arrays.copyOf(cur, Math.max(cur.length, i + 1));
+            n[i] = a;
+            attrs = n;
+        }
+
+        public void put(GAttrib a) {
+            set(slot.get(a.getClass()), a);
+        }
+
+        public void remove(Class<? extends GAttrib> c) {
+            set(slot.get(c), null);
+        }
+
+        /* All slots as of now; unused ones are null. Must not be modified. */
+        public GAttrib[] all() {
+            return (attrs);
+        }
+    }
+
     public static class ParserMaker implements Resource.PublishedCode.Instancer {
         public Parser make(Class<?> cl, Resource ires, Object... argv) {
             if (Parser.class.isAssignableFrom(cl))
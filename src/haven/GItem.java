@@ -55,6 +55,7 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
     public List<ItemInfo> info = Collections.emptyList();
     private QBuff quality;
     public Tex metertex;
+    private TextCache.Ref meterref;
     public double studytime = 0.0;
     public boolean drop = false;
     private double dropTimer = 0;
@@ -85,6 +86,10 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
         public T overlay();
 
         public void drawoverlay(GOut g, T data);
+
+        /* Frees what overlay() made once it is no longer drawn. */
+        public default void dropoverlay(T data) {
+        }
     }
 
     public static class InfoOverlay<T> {
@@ -101,6 +106,10 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
                 inf.drawoverlay(g, data);
         }
 
+        public void dispose() {
+            inf.dropoverlay(data);
+        }
+
         public static <S> InfoOverlay<S> create(OverlayInfo<S> inf) {
             return (new InfoOverlay<S>(inf));
         }
@@ -114,7 +123,12 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
         }
 
         public default Tex overlay() {
-            return (new TexI(GItem.NumberInfo.numrender(itemnum(), numcolor())));
+            return (TextCache.global.get(Integer.toString(itemnum()), Config.largeqfont ? num12boldFnd : Text.num11Fnd, numcolor(), Color.BLACK));
+        }
+
+        public default void dropoverlay(Tex tex) {
+            if (tex != null)
+                tex.dispose();
         }
 
         public default void drawoverlay(GOut g, Tex tex) {
@@ -336,10 +350,24 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
             }
         } else if (name == "meter") {
             meter = (int) ((Number) args[0]).doubleValue();
-            metertex = Text.renderstroked(String.format("%d%%", meter), Color.WHITE, Color.BLACK, num10Fnd).tex();
+            metertex(String.format("%d%%", meter), Color.WHITE, num10Fnd);
         }
     }
 
+    /* Sets the text shown over the item for its meter, or clears it if text is null. */
+    public void metertex(String text, Color col, Text.Foundry fnd) {
+        TextCache.Ref prev = meterref;
+        meterref = (text == null) ? null : TextCache.global.get(text, fnd, col, Color.BLACK);
+        metertex = (meterref == null) ? null : meterref.tex();
+        if (prev != null)
+            prev.release();
+    }
+
+    public void destroy() {
+        metertex(null, null, null);
+        super.destroy();
+    }
+
     public void qualitycalc(List<ItemInfo> infolist) {
         for (ItemInfo info : infolist) {
             if (info instanceof QBuff) {
@@ -51,6 +51,7 @@ import haven.sloth.gui.Timer.TimersWnd;
 import haven.sloth.gui.chr.SkillnCredoWnd;
 import haven.sloth.gui.livestock.LivestockManager;
 import haven.sloth.gui.script.ScriptManager;
+import haven.sloth.script.pathfinding.NBAPathfinder;
 import integrations.mapv4.MappingClient;
 import modification.configuration;
 import modification.dev;
@@ -59,6 +60,7 @@ import modification.newQuickSlotsWdg;
 import java.awt.Color;
 import java.awt.event.KeyEvent;
 import java.awt.image.WritableRaster;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -273,6 +275,7 @@ public class GameUI extends ConsoleHost implements Console.Directory {
     protected void added() {
         resize(parent.sz);
         ui.gui = this;
+        ui.sess.glob.oc.callback(gobchanges);
         ui.cons.out = new java.io.PrintWriter(new java.io.Writer() {
             StringBuilder buf = new StringBuilder();
 
@@ -1096,7 +1099,7 @@ public class GameUI extends ConsoleHost implements Console.Directory {
             mmap = new LocalMiniMap(new Coord(133, 133), map);
             mmapwnd = adda(new MinimapWnd(mmap), new Coord(sz.x, 0), 1, 0);
             if (ResCache.global != null) {
-                MapFile file = MapFile.load(ResCache.global, mapfilename());
+                MapFile file = MapFile.load(Config.mappack ? PackCache.global() : PackCache.bypass(ResCache.global), mapfilename());
                 if (ui.sess != null && ui.sess.alive() && ui.sess.username != null) {
                     if (configuration.loadMapSetting(ui.sess.username, "mapper")) {
                         MappingClient.getInstance(ui.sess.username).ProcessMap(file, (m) -> {
@@ -2327,6 +2330,16 @@ public class GameUI extends ConsoleHost implements Console.Directory {
     private static final Tex nkeybg = Resource.loadtex("gfx/hud/hb-main");
 
     private Map<String, Console.Command> cmdmap = new TreeMap<String, Console.Command>();
+    /* Held here since OCache only keeps its callbacks weakly. */
+    private final OCache.ChangeCallback gobchanges = new OCache.ChangeCallback() {
+        public void changed(Gob ob) {
+            ui.changed();
+        }
+
+        public void removed(Gob ob) {
+            ui.changed();
+        }
+    };
 
     {
         cmdmap.put("afk", (cons, args) -> {
@@ -2355,6 +2368,87 @@ public class GameUI extends ConsoleHost implements Console.Directory {
             FoodInfo.showbaseq = Utils.parsebool(args[1]);
             msg("q10 FEP values in tooltips are now " + (FoodInfo.showbaseq ? "enabled" : "disabled"));
         });
+        cmdmap.put("odstats", (cons, args) -> {
+            if ((args.length > 1) && args[1].equals("reset"))
+                ui.sess.glob.oc.stats.reset();
+            else
+                ui.sess.glob.oc.stats.dump(cons.out);
+        });
+        cmdmap.put("pfsave", (cons, args) -> {
+            final Gob pl = map.player();
+            if (pl == null)
+                throw (new Exception("No player to save the surroundings of"));
+            final int r = ((args.length > 1) ? Integer.parseInt(args[1]) : 25) * MCache.tilesz2.x;
+            final Coord ul = pl.rc.floor().sub(r, r);
+            final File f = new File(String.format("pfmap-%d.hmap", System.currentTimeMillis()));
+            new NBAPathfinder(ui).capture(ul, new Coord(r * 2, r * 2)).save(f);
+            cons.out.println("Saved pathfinder hitmap to " + f.getAbsolutePath());
+        });
+        cmdmap.put("pfstats", (cons, args) -> {
+            if ((args.length > 1) && args[1].equals("reset"))
+                ui.sess.glob.paths.reset();
+            else
+                ui.sess.glob.paths.dump(cons.out);
+        });
+        cmdmap.put("chatsearch", (cons, args) -> {
+            add(new ChatSearchWnd(), new Coord(100, 100));
+        });
+        cmdmap.put("trace", (cons, args) -> {
+            String cmd = (args.length > 1) ? args[1] : "";
+            if (cmd.equals("on")) {
+                Trace.start((args.length > 2) ? Integer.parseInt(args[2]) : 1);
+            } else if (cmd.equals("off")) {
+                Trace.stop();
+            } else if (cmd.equals("dump")) {
+                double secs = (args.length > 2) ? Double.parseDouble(args[2]) : 10;
+                File f = new File((args.length > 3) ? args[3] : String.format("trace-%d.json", System.currentTimeMillis()));
+                int n = Trace.dump(f, secs);
+                cons.out.println("Wrote " + n + " events to " + f.getAbsolutePath());
+                return;
+            } else {
+                cons.out.println("Usage: trace on [N] | off | dump [SECONDS] [FILE]");
+            }
+            if (!Trace.enabled())
+                cons.out.println("Tracing is off");
+            else
+                cons.out.println((Trace.every() == 1) ? "Tracing every frame" : "Tracing one frame in " + Trace.every());
+        });
+        cmdmap.put("pickrec", (cons, args) -> {
+            final File f = new File((args.length > 1) ? args[1] : String.format("pick-%d.mpk", System.currentTimeMillis()));
+            map.pickrec(f.getAbsoluteFile(), this::msg);
+        });
+        cmdmap.put("meshcache", (cons, args) -> {
+            if ((args.length > 1) && args[1].equals("reset"))
+                ui.sess.glob.map.meshes.reset();
+            else
+                ui.sess.glob.map.meshes.dump(cons.out);
+        });
+        cmdmap.put("textcache", (cons, args) -> {
+            if ((args.length > 1) && args[1].equals("reset"))
+                TextCache.global.reset();
+            else
+                TextCache.global.dump(cons.out);
+        });
+        cmdmap.put("animstats", (cons, args) -> {
+            if ((args.length > 1) && args[1].equals("reset"))
+                ui.sess.glob.oc.anims.reset();
+            else
+                ui.sess.glob.oc.anims.dump(cons.out);
+        });
+        cmdmap.put("cutstats", (cons, args) -> {
+            if ((args.length > 1) && args[1].equals("reset"))
+                ui.sess.glob.map.builds.reset();
+            else
+                ui.sess.glob.map.builds.dump(cons.out);
+        });
+        cmdmap.put("netstats", (cons, args) -> {
+            if ((args.length > 1) && args[1].equals("reset")) {
+                ui.sess.rstats.reset();
+            } else {
+                ui.sess.rstats.dump(cons.out);
+                cons.out.printf("sends dropped: %d\n", ui.sess.dropped);
+            }
+        });
     }
 
     public void registerItemCallback(ItemClickCallback itemClickCallback) {
@@ -28,6 +28,8 @@ package haven;
 
 //import haven.sloth.script.pathfinding.GobHitmap;
 
+import haven.pathfinder.ObstacleField;
+import haven.pathfinder.PathService;
 import haven.res.gfx.fx.floatimg.DamageText;
 import haven.sloth.script.pathfinding.GobHitmap;
 
@@ -46,6 +48,8 @@ public class Glob {
     //TODO: Glob should honestly make the ui, not have the UI attach onto it.
     public WeakReference<UI> ui;
     public final GobHitmap gobhitmap;
+    public final ObstacleField pfield;
+    public final PathService paths;
     public static final double SERVER_TIME_RATIO = 3.29d;
     public double serverEpoch, localEpoch = Utils.rtime();
     public final Loader loader = new Loader();
@@ -93,6 +97,8 @@ public class Glob {
         this.sess = sess;
         gobhitmap = new GobHitmap();
         map = new MCache(sess);
+        pfield = new ObstacleField(map, oc);
+        paths = new PathService(() -> gobhitmap.version() + map.gridseq * 0xc2b2ae3d27d4eb4fL);
         party = new Party(this);
         reference.put(sess.username, this);
     }
@@ -195,6 +201,7 @@ public class Glob {
             }
         }
 
+        oc.applydeltas();
         oc.ctick(dt);
         map.ctick(dt);
 
@@ -52,6 +52,7 @@ import haven.sloth.gob.Mark;
 import haven.sloth.gob.Movable;
 import haven.sloth.gob.Type;
 import haven.sloth.io.HighlightData;
+import haven.sloth.script.pathfinding.GobHitmap;
 import haven.sloth.script.pathfinding.Hitbox;
 import integrations.mapv4.MappingClient;
 import modification.configuration;
@@ -61,7 +62,6 @@ import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -310,6 +310,11 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
             xl.prep(buf);
             rot.prep(buf);
         }
+
+        /* Where the gob was last placed for drawing, in GL coordinates, or null if it has not been yet. */
+        public Coord3f c() {
+            return (c);
+        }
     }
 
     public static class Static {
@@ -352,7 +357,7 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
     public int frame;
     public final Glob glob;
     public int quality = 0;
-    public final Map<Class<? extends GAttrib>, GAttrib> attr = new HashMap<>();
+    private final GAttrib.Slots attr = new GAttrib.Slots();
     private final Set<haven.sloth.gob.Rendered> renderedattrs = new HashSet<>();
     public final Collection<Overlay> ols = new LinkedList<Overlay>() {
         public boolean add(Overlay item) {
@@ -372,7 +377,7 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
     private final Collection<ResAttr.Load> lrdata = new LinkedList<ResAttr.Load>();
     private HitboxMesh hitboxmesh[];
     private boolean pathfinding_blackout = false;
-    private List<Coord> hitboxcoords;
+    private GobHitmap.Footprint hitboxcoords;
 
     private boolean discovered = false;
     public Type type;
@@ -552,6 +557,15 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
         }
     }
 
+    /**
+     * Where this gob currently sits on the gob hitmap, or null if it is not on it
+     */
+    public GobHitmap.Footprint footprint() {
+        synchronized (glob.gobhitmap) {
+            return hitboxcoords;
+        }
+    }
+
     public void updatePathfindingBlackout(final boolean val) {
         this.pathfinding_blackout = val;
         updateHitmap();
@@ -584,8 +598,8 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
             resname().ifPresent(this::discovered);
         }
 
-        synchronized (attr) {
-            for (GAttrib a : attr.values())
+        for (GAttrib a : attr.all()) {
+            if (a != null)
                 a.ctick(dt);
         }
 
@@ -690,9 +704,10 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
             }
         }
 
-        if (attr.size() > 0) {
-            sb.append("GAttribs: ").append(attr.size()).append("\n");
-            for (GAttrib ga : attr.values()) {
+        Collection<GAttrib> attrs = attrs();
+        if (attrs.size() > 0) {
+            sb.append("GAttribs: ").append(attrs.size()).append("\n");
+            for (GAttrib ga : attrs) {
                 if (ga != null) {
                     sb.append("ga: ").append("[").append(ga).append("]");
                     sb.append("\n");
@@ -800,10 +815,14 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
         addol(new Overlay(ol));
     }
 
+    /* Also disposes of the overlay's sprite, which belongs to this gob alone. */
     public void remol(Overlay ol) {
         synchronized (ols) {
-            ols.remove(ol);
+            if (!ols.remove(ol))
+                return;
         }
+        if (ol.spr != null)
+            ol.spr.dispose();
     }
 
     public Overlay daddol(final Overlay ol) {
@@ -832,8 +851,8 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
     }
 
     public void tick() {
-        synchronized (attr) {
-            for (GAttrib a : attr.values())
+        for (GAttrib a : attr.all()) {
+            if (a != null)
                 a.tick();
         }
         loadrattr();
@@ -846,14 +865,21 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
                 hitboxcoords = null;
             }
         }
-        synchronized (attr) {
-            for (GAttrib a : attr.values())
+        for (GAttrib a : attr.all()) {
+            if (a != null)
                 a.dispose();
         }
         for (ResAttr.Cell rd : rdata) {
             if (rd.attr != null)
                 rd.attr.dispose();
         }
+        /* Sprites of overlays added locally belong to this gob alone. */
+        synchronized (ols) {
+            for (Overlay ol : ols) {
+                if ((ol.res == null) && (ol.spr != null))
+                    ol.spr.dispose();
+            }
+        }
     }
 
     public void updsdt() {
@@ -878,6 +904,7 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
                 hitboxcoords = null;
             }
             this.rc = c;
+            glob.oc.index.update(this);
 
             if (isplayer()) {
                 if (glob.ui != null) {
@@ -934,22 +961,22 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
         return a;
     }
 
-    private Class<? extends GAttrib> attrclass(Class<? extends GAttrib> cl) {
-        while (true) {
-            Class<?> p = cl.getSuperclass();
-            if (p == GAttrib.class)
-                return (cl);
-            cl = p.asSubclass(GAttrib.class);
+    /* The attributes currently set, in no particular order */
+    public Collection<GAttrib> attrs() {
+        Collection<GAttrib> ret = new ArrayList<>();
+        for (GAttrib a : attr.all()) {
+            if (a != null)
+                ret.add(a);
         }
+        return (ret);
     }
 
     public void setattr(GAttrib a) {
         if (a instanceof haven.sloth.gob.Rendered)
             renderedattrs.add((haven.sloth.gob.Rendered) a);
-        Class<? extends GAttrib> ac = attrclass(a.getClass());
-        synchronized (attr) {
-            attr.put(ac, a);
-        }
+        attr.put(a);
+        if ((a instanceof Drawable) && (glob != null))
+            glob.oc.names.changed(this);
 //        if (DefSettings.SHOWPLAYERPATH.get() && gobpath == null && a instanceof LinMove) {
 //            final UI ui = glob.ui.get();
 //            if (ui != null) {
@@ -974,18 +1001,13 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
     }
 
     public <C extends GAttrib> C getattr(Class<C> c) {
-        synchronized (attr) {
-            GAttrib attr = this.attr.get(attrclass(c));
-            if (!c.isInstance(attr))
-                return (null);
-            return (c.cast(attr));
-        }
+        return (attr.get(c));
     }
 
     public void delattr(Class<? extends GAttrib> c) {
-        synchronized (attr) {
-            attr.remove(attrclass(c));
-        }
+        attr.remove(c);
+        if (Drawable.class.isAssignableFrom(c) && (glob != null))
+            glob.oc.names.changed(this);
     }
 
     private Class<? extends ResAttr> rattrclass(Class<? extends ResAttr> cl) {
@@ -1560,17 +1582,17 @@ public class Gob implements Sprite.Owner, Skeleton.ModOwner, Rendered, Skeleton.
             return ((seq == DYNAMIC) ? null : seq);
         } else if (getattr(Hidden.class) == null) {
             int rs = 0;
-            synchronized (attr) {
-                for (GAttrib attr : attr.values()) {
-                    Object as = attr.staticp();
-                    if (as == Rendered.CONSTANS) {
-                    } else if (as instanceof Static) {
-                    } else if (as == SemiStatic.class) {
-                        rs = Math.max(rs, 1);
-                    } else {
-                        rs = 2;
-                        break;
-                    }
+            for (GAttrib attr : attr.all()) {
+                if (attr == null)
+                    continue;
+                Object as = attr.staticp();
+                if (as == Rendered.CONSTANS) {
+                } else if (as instanceof Static) {
+                } else if (as == SemiStatic.class) {
+                    rs = Math.max(rs, 1);
+                } else {
+                    rs = 2;
+                    break;
                 }
             }
             synchronized (ols) {
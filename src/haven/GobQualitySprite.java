@@ -1,12 +1,14 @@
 package haven;
 
+import haven.sloth.gfx.TextMap;
+
 import java.awt.Color;
 
 
 public class GobQualitySprite extends Sprite {
-    private static Tex hlt0 = Text.renderstroked("0", new Color(255, 227, 168), Color.BLACK, Text.num12boldFnd).tex();
+    private static final TextMap glyphs = TextCache.global.glyphs(Text.num12boldFnd, new Color(255, 227, 168), Color.BLACK);
     public int val;
-    private Tex tex;
+    private String text;
     private static Matrix4f mv = new Matrix4f();
     private Projection proj;
     private Coord wndsz;
@@ -21,9 +23,7 @@ public class GobQualitySprite extends Sprite {
     public void draw(GOut g) {
         float[] c = mv.load(camp.fin(Matrix4f.id)).mul1(loc.fin(Matrix4f.id)).homoc();
         Coord sc = proj.get2dCoord(c, wndsz);
-        sc.x -= tex.sz().x / 2;
-        sc.y -= 40;
-        g.image(tex, sc);
+        glyphs.aprints(g, sc.sub(0, 40), 0.5, 0, text);
     }
 
     public boolean setup(RenderList rl) {
@@ -33,13 +33,11 @@ public class GobQualitySprite extends Sprite {
         wndsz = buf.get(PView.wnd).sz();
         loc = buf.get(PView.loc);
         camp = buf.get(PView.cam);
-        hlt0 = Text.renderstroked(String.valueOf(val), new Color(255, 227, 168), Color.BLACK, Text.num12boldFnd).tex();
         return true;
     }
 
     public void update(int val) {
         this.val = val;
-        hlt0 = Text.renderstroked("Quality " + String.valueOf(val), new Color(255, 227, 168), Color.BLACK, Text.num12boldFnd).tex();
-        tex = hlt0;
+        text = "Quality " + val;
     }
 }
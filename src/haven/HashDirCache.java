@@ -303,7 +303,7 @@ public class HashDirCache implements ResCache {
         });
     }
 
-    private Iterator<String> list() {
+    public Iterator<String> list() {
         return (list(true));
     }
 
@@ -355,6 +355,12 @@ public class HashDirCache implements ResCache {
         });
     }
 
+    /* When the entry was last stored, or 0 if there is none. */
+    public long mtime(String name) throws IOException {
+        File path = lookup(name, false);
+        return ((path == null) ? 0 : path.lastModified());
+    }
+
     public void remove(String name) throws IOException {
         File path = lookup(name, false);
         if (path == null)
@@ -705,7 +705,9 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory,
                     synchronized (curdraw) {
                         curdraw[0] = current;
                     }
-                    uglyjoglhack();
+                    try (Trace.Scope s = Trace.begin("render")) {
+                        uglyjoglhack();
+                    }
                     if (curf != null) {
                         curf.tick("aux");
                         curf.fin();
@@ -745,34 +747,50 @@ public class HavenPanel extends GLCanvas implements Runnable, Console.Directory,
                             CPUProfile.Frame curf = null;
                             if (Config.profile)
                                 curf = uprof.new Frame();
-                            synchronized (ui) {
-                                if (ui.sess != null)
-                                    ui.sess.glob.ctick();
-                                dispatch();
-                                ui.tick();
-                                if ((ui.root.sz.x != w) || (ui.root.sz.y != h))
-                                    ui.root.resize(new Coord(w, h));
-                            }
-                            if (curf != null)
-                                curf.tick("dsp");
+                            Trace.frame();
+                            try (Trace.Scope fs = Trace.begin("frame")) {
+                                synchronized (ui) {
+                                    if (ui.sess != null) {
+                                        try (Trace.Scope s = Trace.begin("ctick")) {
+                                            ui.sess.glob.ctick();
+                                        }
+                                    }
+                                    try (Trace.Scope s = Trace.begin("dispatch")) {
+                                        dispatch();
+                                    }
+                                    try (Trace.Scope s = Trace.begin("tick")) {
+                                        ui.tick();
+                                    }
+                                    if ((ui.root.sz.x != w) || (ui.root.sz.y != h))
+                                        ui.root.resize(new Coord(w, h));
+                                }
+                                if (curf != null)
+                                    curf.tick("dsp");
 
-                            BufferBGL buf = new BufferBGL();
-                            GLState.Applier state = this.state;
-                            rootdraw(state, ui, buf);
-                            if (curf != null)
-                                curf.tick("draw");
-                            synchronized (drawfun) {
-                                now = System.currentTimeMillis();
-                                while (bufdraw != null)
-                                    drawfun.wait();
-                                bufdraw = new Frame(buf, state.cgl);
-                                drawfun.notifyAll();
-                                fwaited += System.currentTimeMillis() - now;
-                            }
+                                BufferBGL buf = new BufferBGL();
+                                GLState.Applier state = this.state;
+                                try (Trace.Scope s = Trace.begin("draw")) {
+                                    rootdraw(state, ui, buf);
+                                }
+                                if (curf != null)
+                                    curf.tick("draw");
+                                try (Trace.Scope s = Trace.begin("wait for render")) {
+                                    synchronized (drawfun) {
+                                        now = System.currentTimeMillis();
+                                        while (bufdraw != null)
+                                            drawfun.wait();
+                                        bufdraw = new Frame(buf, state.cgl);
+                                        drawfun.notifyAll();
+                                        fwaited += System.currentTimeMillis() - now;
+                                    }
+                                }
 
-                            ui.audio.cycle();
-                            if (curf != null)
-                                curf.tick("aux");
+                                try (Trace.Scope s = Trace.begin("audio")) {
+                                    ui.audio.cycle();
+                                }
+                                if (curf != null)
+                                    curf.tick("aux");
+                            }
 
                             now = System.currentTimeMillis();
                             long fd = bgmode ? this.bgfd : this.fd;
@@ -33,6 +33,7 @@ import modification.configuration;
 import java.awt.Color;
 import java.awt.image.WritableRaster;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -111,7 +112,16 @@ public class Inventory extends Widget implements DTarget {
         }
     }
 
-    public final Map<String, Tex> cached = new HashMap<>();
+    private static final Color slotnumcol = new Color(255, 255, 255, 100);
+    private TextCache.Ref[] slotnums = new TextCache.Ref[0];
+
+    private Tex slotnum(int i) {
+        if (i >= slotnums.length)
+            slotnums = Arrays.copyOf(slotnums, i + 1);
+        if (slotnums[i] == null)
+            slotnums[i] = TextCache.global.get(Integer.toString(i + 1), Text.std, slotnumcol, null);
+        return (slotnums[i]);
+    }
 
     public void draw(GOut g) {
         Coord c = new Coord();
@@ -119,12 +129,21 @@ public class Inventory extends Widget implements DTarget {
             for (c.x = 0; c.x < isz.x; c.x++) {
                 g.image(invsq, c.mul(sqsz));
                 if (configuration.showinvnumber)
-                    g.aimage(cached.computeIfAbsent(c.y * isz.x + c.x + 1 + "", s -> Text.render(s, new Color(255, 255, 255, 100)).tex()), c.mul(sqsz).add(invsq.sz().div(2)), 0.5, 0.5);
+                    g.aimage(slotnum(c.y * isz.x + c.x), c.mul(sqsz).add(invsq.sz().div(2)), 0.5, 0.5);
             }
         }
         super.draw(g);
     }
 
+    public void destroy() {
+        for (TextCache.Ref ref : slotnums) {
+            if (ref != null)
+                ref.release();
+        }
+        slotnums = new TextCache.Ref[0];
+        super.destroy();
+    }
+
     public Inventory(Coord sz) {
 //        super(invsq.sz().add(new Coord(-1, -1)).mul(sz).add(new Coord(1, 1)));
         super(sqsz.mul(sz).add(1, 1));
@@ -41,6 +41,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
@@ -670,20 +671,41 @@ public abstract class ItemInfo {
     public static class AttrCache<R> implements Indir<R> {
         private final Supplier<List<ItemInfo>> from;
         private final Function<List<ItemInfo>, Supplier<R>> data;
+        private final Consumer<? super R> drop;
         private List<ItemInfo> forinfo = null;
         private Supplier<R> save;
 
-        public AttrCache(Supplier<List<ItemInfo>> from, Function<List<ItemInfo>, Supplier<R>> data) {
+        /*
+         * If drop is not null, it is given the data made for an info
+         * list once that has been replaced, and the current data on
+         * dispose(), so that data holding textures can free them.
+         */
+        public AttrCache(Supplier<List<ItemInfo>> from, Function<List<ItemInfo>, Supplier<R>> data, Consumer<? super R> drop) {
             this.from = from;
             this.data = data;
+            this.drop = drop;
+        }
+
+        public AttrCache(Supplier<List<ItemInfo>> from, Function<List<ItemInfo>, Supplier<R>> data) {
+            this(from, data, null);
+        }
+
+        private void drop(Supplier<R> save) {
+            if ((drop == null) || (save == null))
+                return;
+            R val = save.get();
+            if (val != null)
+                drop.accept(val);
         }
 
         public R get() {
             try {
                 List<ItemInfo> info = from.get();
                 if (info != forinfo) {
+                    Supplier<R> prev = save;
                     save = data.apply(info);
                     forinfo = info;
+                    drop(prev);
                 }
                 return (save.get());
             } catch (Loading l) {
@@ -691,6 +713,12 @@ public abstract class ItemInfo {
             }
         }
 
+        public void dispose() {
+            drop(save);
+            save = null;
+            forinfo = null;
+        }
+
         public static <I, R> Function<List<ItemInfo>, Supplier<R>> map1(Class<I> icl, Function<I, Supplier<R>> data) {
             return (info -> {
                 I inf = find(icl, info);
@@ -76,6 +76,10 @@ public class MCache {
     Session sess;
     final Set<Overlay> ols = new HashSet<>();
     public int olseq = 0;
+    public int gridseq = 0;
+    /* Cuts of unloaded grids, about nine grids' worth. */
+    public final MeshCache meshes = new MeshCache(cutn.x * cutn.y * 9);
+    public final CutScheduler builds = new CutScheduler(this);
     final Map<Integer, Defrag> fragbufs = new TreeMap<>();
 
     public static class LoadingMap extends Loading {
@@ -254,7 +258,8 @@ public class MCache {
 
         private class Cut {
             MapMesh mesh;
-            Defer.Future<MapMesh> dmesh;
+            MeshCache.Key key;
+            Defer.Future<Built> dmesh;
 
             //Grid layout view
             FastMesh grid;
@@ -263,6 +268,17 @@ public class MCache {
             Map<OverlayInfo, Rendered> ols = new HashMap<>();
         }
 
+        /* A built or reused cut, or just its key if the cut already in use is still good. */
+        private class Built {
+            final MeshCache.Key key;
+            final MapMesh mesh;
+
+            Built(MeshCache.Key key, MapMesh mesh) {
+                this.key = key;
+                this.mesh = mesh;
+            }
+        }
+
         private class Flavobj extends Gob {
             private Flavobj(Coord2d c, double a) {
                 super(sess.glob, c);
@@ -378,14 +394,20 @@ public class MCache {
 
         public MapMesh getcut(Coord cc) {
             Cut cut = geticut(cc);
+            if ((cut.mesh == null) && (cut.dmesh == null))
+                throw (new Loading("Waiting for neighbouring map data..."));
             if (cut.dmesh != null) {
                 if (cut.dmesh.done() || (cut.mesh == null)) {
-                    MapMesh old = cut.mesh;
-                    cut.mesh = cut.dmesh.get();
+                    Built b = cut.dmesh.get();
                     cut.dmesh = null;
-                    cut.ols.clear();
-                    if (old != null)
-                        old.dispose();
+                    if (b.mesh != null) {
+                        MapMesh old = cut.mesh;
+                        cut.mesh = b.mesh;
+                        cut.key = b.key;
+                        cut.ols.clear();
+                        if (old != null)
+                            old.dispose();
+                    }
                 }
             }
             return (cut.mesh);
@@ -426,25 +448,105 @@ public class MCache {
             return (cut.ols.get(id));
         }
 
-        private void buildcut(final Coord cc) {
-            final Cut cut = geticut(cc);
-            Defer.Future<?> prev = cut.dmesh;
-            cut.dmesh = Defer.later(new Defer.Callable<MapMesh>() {
-                public MapMesh call() {
-                    Random rnd = new Random(id);
-                    rnd.setSeed(rnd.nextInt() ^ cc.x);
-                    rnd.setSeed(rnd.nextInt() ^ cc.y);
-                    return (MapMesh.build(MCache.this, rnd, ul.add(cc.mul(cutsz)), cutsz));
+        private void buildcut(Coord cc) {
+            builds.invalidate(this, cc);
+        }
+
+        /*
+         * Starts building a cut and its grid overlay, unless builds of
+         * them that have not begun yet are queued already. Returns
+         * whether a new build of the cut was started.
+         */
+        boolean startcut(Coord cc, int prio) {
+            Cut cut = geticut(cc);
+            boolean ret = false;
+            if ((cut.dmesh == null) || cut.dmesh.started()) {
+                startmesh(cc);
+                ret = true;
+            }
+            cut.dmesh.boostprio(prio);
+            //automatically build a grid mesh with every cut
+            if ((cut.dgrid == null) || cut.dgrid.started())
+                buildgcut(cc);
+            cut.dgrid.boostprio(prio);
+            return (ret);
+        }
+
+        /*
+         * Builds or reuses a cut. A job that is superseded or cancelled
+         * after it has taken a mesh out of the cache, or built one,
+         * hands that mesh back to the cache in drop(), since nothing
+         * else will ever get it.
+         */
+        private class MeshJob implements Defer.Callable<Built> {
+            final Coord cc;
+            final MapMesh cur;
+            final MeshCache.Key curkey;
+            private boolean dropped = false;
+            private Built built = null;
+
+            MeshJob(Coord cc, MapMesh cur, MeshCache.Key curkey) {
+                this.cc = cc;
+                this.cur = cur;
+                this.curkey = curkey;
+            }
+
+            private Built build() {
+                Coord cul = ul.add(cc.mul(cutsz));
+                MeshCache.Key key = meshes.key(MCache.this, id, cul, cutsz);
+                if ((cur != null) && key.equals(curkey)) {
+                    meshes.same();
+                    return (new Built(key, null));
                 }
+                MapMesh m = meshes.take(key);
+                if (m != null)
+                    return (new Built(key, m));
+                Random rnd = new Random(id);
+                rnd.setSeed(rnd.nextInt() ^ cc.x);
+                rnd.setSeed(rnd.nextInt() ^ cc.y);
+                return (new Built(key, MapMesh.build(MCache.this, rnd, cul, cutsz)));
+            }
 
-                public String toString() {
-                    return ("Building map...");
+            public Built call() {
+                Built b = build();
+                synchronized (this) {
+                    if (!dropped) {
+                        built = b;
+                        return (b);
+                    }
                 }
-            });
+                meshes.put(b.key, b.mesh);
+                return (new Built(b.key, null));
+            }
+
+            void drop() {
+                Built b;
+                synchronized (this) {
+                    dropped = true;
+                    b = built;
+                    built = null;
+                }
+                if (b != null)
+                    meshes.put(b.key, b.mesh);
+            }
+
+            public String toString() {
+                return ("Building map...");
+            }
+        }
+
+        /* Cancels a cut build whose result will not be used. */
+        private void dropmesh(Defer.Future<Built> f) {
+            f.cancel();
+            ((MeshJob) f.task).drop();
+        }
+
+        private void startmesh(final Coord cc) {
+            final Cut cut = geticut(cc);
+            Defer.Future<Built> prev = cut.dmesh;
+            cut.dmesh = Defer.later(new MeshJob(cc, cut.mesh, cut.key));
             if (prev != null)
-                prev.cancel();
-            //automatically build a grid mesh with every cut
-            buildgcut(cc);
+                dropmesh(prev);
         }
 
         /**
@@ -507,9 +609,8 @@ public class MCache {
         public void dispose() {
             for (Cut cut : cuts) {
                 if (cut.dmesh != null)
-                    cut.dmesh.cancel();
-                if (cut.mesh != null)
-                    cut.mesh.dispose();
+                    dropmesh(cut.dmesh);
+                meshes.put(cut.key, cut.mesh);
                 if (cut.ols != null) {
                     for (Rendered r : cut.ols.values()) {
                         if (r instanceof Disposable)
@@ -758,6 +859,7 @@ public class MCache {
             }
             invalidate();
             seq++;
+            gridseq++;
         }
     }
 
@@ -766,6 +868,7 @@ public class MCache {
     }
 
     public void ctick(int dt) {
+        builds.flush();
         Collection<Grid> copy;
         synchronized (grids) {
             copy = new ArrayList<>(grids.values());
@@ -775,6 +878,7 @@ public class MCache {
     }
 
     public void invalidateAll() {
+        meshes.clear();
         Collection<Grid> copy;
         synchronized (grids) {
             copy = new ArrayList<>(grids.values());
@@ -37,9 +37,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -47,6 +49,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
@@ -79,6 +86,7 @@ public class MapFile {
     private Thread processor = null;
     private boolean gdirty = false;
     public final BackCache<Long, Segment> segments;
+    public final ZoomBuilder zbuilder = new ZoomBuilder();
 
     public MapFile(ResCache store, String filename) {
         this.store = store;
@@ -253,6 +261,7 @@ public class MapFile {
                 warn(e, "error when loading index: %s", e);
                 return (null);
             }
+            file.zbuilder.restore();
             instance = file;
             return (file);
         }
@@ -581,74 +590,142 @@ public class MapFile {
         }
     }
 
+    /* Runs tasks on a fixed set of threads while handing back the
+     * results in submission order, with at most a few tasks per
+     * thread in flight at any time. */
+    private static class Pipeline<T> implements AutoCloseable {
+        private final ExecutorService exec;
+        private final Deque<java.util.concurrent.Future<T>> pending = new ArrayDeque<>();
+        private final int window;
+
+        Pipeline(String name) {
+            int n = Math.max(1, Runtime.getRuntime().availableProcessors());
+            exec = Executors.newFixedThreadPool(n, task -> {
+                Thread th = new HackThread(task, name);
+                th.setDaemon(true);
+                return (th);
+            });
+            window = n * 4;
+        }
+
+        boolean full() {
+            return (pending.size() >= window);
+        }
+
+        boolean isEmpty() {
+            return (pending.isEmpty());
+        }
+
+        void submit(Callable<T> task) {
+            pending.add(exec.submit(task));
+        }
+
+        void add(T val) {
+            pending.add(CompletableFuture.completedFuture(val));
+        }
+
+        T take() throws InterruptedException {
+            try {
+                return (pending.remove().get());
+            } catch (ExecutionException e) {
+                Throwable c = e.getCause();
+                if (c instanceof RuntimeException)
+                    throw ((RuntimeException) c);
+                if (c instanceof Error)
+                    throw ((Error) c);
+                throw (new RuntimeException(c));
+            }
+        }
+
+        public void close() {
+            for (java.util.concurrent.Future<T> f : pending)
+                f.cancel(true);
+            exec.shutdownNow();
+        }
+    }
+
+    private byte[] exportgrid(Segment seg, Coord sc, long id) {
+        Grid grid = Grid.load(this, id);
+        if (grid == null) {
+            /* This /should/ never happen, but for unknown
+             * reasons (crashes? reboots?) some grids can be
+             * included but missing. It's not like they'll be
+             * coming back by any other means, however, so
+             * just ignore them here. */
+            return (null);
+        }
+        MessageBuf buf = new MessageBuf();
+        buf.adduint8(3);
+        buf.addint64(id);
+        buf.addint64(seg.id);
+        buf.addint64(grid.mtime);
+        buf.addcoord(sc);
+        buf.adduint8(grid.tilesets.length);
+        for (TileInfo tinf : grid.tilesets) {
+            buf.addstring(tinf.res.name);
+            buf.adduint16(tinf.res.ver);
+            buf.adduint8(tinf.prio);
+        }
+        buf.addint32(cmaps.x * cmaps.y);
+        buf.addbytes(grid.tiles);
+        DataGrid.savez(buf, grid.z);
+        DataGrid.saveols(buf, grid.ols);
+        return (buf.fin());
+    }
+
     public void export(boolean errors, Message out, ExportFilter filter, ExportStatus prog) throws InterruptedException {
         if (prog == null) prog = new ExportStatus() {
         };
         out.addbytes(EXPORT_SIG);
         ZMessage zout = new ZMessage(out);
         Collection<Long> segbuf = locked((Collection<Long> c) -> new ArrayList<>(c), lock.readLock()).apply(knownsegs);
-        int nseg = 0;
-        List<Long> ids = new ArrayList<>();
-        List<Long> dids = new ArrayList<>();
-        for (Long sid : segbuf) {
-            if (!filter.includeseg(sid))
-                continue;
-            Segment seg;
-            Collection<Pair<Coord, Long>> gridbuf = new ArrayList<>();
-            lock.readLock().lock();
-            try {
-                seg = segments.get(sid);
-                for (Map.Entry<Coord, Long> gd : seg.map.entrySet()) {
-                    if (filter.includegrid(seg, gd.getKey(), gd.getValue()))
-                        gridbuf.add(new Pair<>(gd.getKey(), gd.getValue()));
+        int nseg = 0, nexp = 0;
+        long start = System.nanoTime();
+        Set<Long> ids = new HashSet<>();
+        Set<Long> dids = new HashSet<>();
+        try (Pipeline<byte[]> pipe = new Pipeline<>("Mapfile exporter")) {
+            for (Long sid : segbuf) {
+                if (!filter.includeseg(sid))
+                    continue;
+                Segment seg;
+                List<Pair<Coord, Long>> gridbuf = new ArrayList<>();
+                lock.readLock().lock();
+                try {
+                    seg = segments.get(sid);
+                    for (Map.Entry<Coord, Long> gd : seg.map.entrySet()) {
+                        if (filter.includegrid(seg, gd.getKey(), gd.getValue()))
+                            gridbuf.add(new Pair<>(gd.getKey(), gd.getValue()));
+                    }
+                } finally {
+                    lock.readLock().unlock();
                 }
-            } finally {
-                lock.readLock().unlock();
-            }
-            int ngrid = 0;
-            for (Pair<Coord, Long> gd : gridbuf) { //check for bugs
-                if (ids.contains(gd.b)) {
-                    if (!dids.contains(gd.b))
+                for (Pair<Coord, Long> gd : gridbuf) { //check for bugs
+                    if (!ids.add(gd.b))
                         dids.add(gd.b);
-                } else
-                    ids.add(gd.b);
-            }
-            for (Pair<Coord, Long> gd : gridbuf) {
-                prog.grid(nseg, segbuf.size(), ngrid++, gridbuf.size());
-                Grid grid = Grid.load(this, gd.b);
-                if (grid == null) {
-                    /* This /should/ never happen, but for unknown
-                     * reasons (crashes? reboots?) some grids can be
-                     * included but missing. It's not like they'll be
-                     * coming back by any other means, however, so
-                     * just ignore them here. */
-                    continue;
                 }
-                if (!errors && dids.contains(gd.b))
-                    continue;
-                MessageBuf buf = new MessageBuf();
-                buf.adduint8(3);
-                buf.addint64(gd.b);
-                buf.addint64(seg.id);
-                buf.addint64(grid.mtime);
-                buf.addcoord(gd.a);
-                buf.adduint8(grid.tilesets.length);
-                for (TileInfo tinf : grid.tilesets) {
-                    buf.addstring(tinf.res.name);
-                    buf.adduint16(tinf.res.ver);
-                    buf.adduint8(tinf.prio);
-                }
-                buf.addint32(cmaps.x * cmaps.y);
-                buf.addbytes(grid.tiles);
-                DataGrid.savez(buf, grid.z);
-                DataGrid.saveols(buf, grid.ols);
-                byte[] od = buf.fin();
-                zout.addstring("grid");
-                zout.addint32(od.length);
-                zout.addbytes(od);
-                Utils.checkirq();
-            }
-            nseg++;
+                int ngrid = 0;
+                Iterator<Pair<Coord, Long>> gi = gridbuf.iterator();
+                while (gi.hasNext() || !pipe.isEmpty()) {
+                    if (gi.hasNext() && !pipe.full()) {
+                        Pair<Coord, Long> gd = gi.next();
+                        if (!errors && dids.contains(gd.b))
+                            pipe.add(null);
+                        else
+                            pipe.submit(() -> exportgrid(seg, gd.a, gd.b));
+                        continue;
+                    }
+                    byte[] od = pipe.take();
+                    prog.grid(nseg, segbuf.size(), ngrid++, gridbuf.size());
+                    if (od != null) {
+                        zout.addstring("grid");
+                        zout.addint32(od.length);
+                        zout.addbytes(od);
+                        prog.rate(++nexp, (System.nanoTime() - start) / 1e9);
+                    }
+                    Utils.checkirq();
+                }
+                nseg++;
+            }
         }
         Collection<Marker> markbuf = locked((Collection<Marker> c) -> new ArrayList<>(c), lock.readLock()).apply(markers);
         int nmark = 0;
@@ -757,6 +834,9 @@ public class MapFile {
         default void grid(int cs, int ns, int cg, int ng) {
         }
 
+        default void rate(int ngrids, double secs) {
+        }
+
         default void mark(int cm, int nm) {
         }
     }
@@ -779,6 +859,10 @@ public class MapFile {
             public boolean includemark(Marker mark, Marker prev) {
                 return (false);
             }
+
+            public boolean stores() {
+                return (false);
+            }
         };
 
         boolean includegrid(ImportedGrid grid, boolean hasprev);
@@ -788,6 +872,12 @@ public class MapFile {
         default void handleerror(RuntimeException exc, String ctx) {
             throw (exc);
         }
+
+        /* Whether any grids may be included at all, so that encoding
+         * them for storage can be done ahead of time. */
+        default boolean stores() {
+            return (true);
+        }
     }
 
     public static class GridInfo {
@@ -1552,7 +1642,17 @@ public class MapFile {
             z.finish();
         }
 
+        public byte[] encode() {
+            MessageBuf buf = new MessageBuf();
+            save(buf);
+            return (buf.fin());
+        }
+
         public void save(MapFile file) {
+            save(file, encode());
+        }
+
+        public void save(MapFile file, byte[] enc) {
             OutputStream fp = null;
             do {
                 try {
@@ -1569,8 +1669,14 @@ public class MapFile {
                     }
                 }
             } while (fp == null);
-            try (StreamMessage out = new StreamMessage(fp)) {
-                save(out);
+            try {
+                try {
+                    fp.write(enc);
+                } finally {
+                    fp.close();
+                }
+            } catch (IOException e) {
+                throw (new StreamMessage.IOError(e));
             }
         }
 
@@ -1608,28 +1714,14 @@ public class MapFile {
             this.sc = sc;
         }
 
-        /**
-         * Get the max mtime of the grids that make up this zoomgrid
-         */
-        public static long localmtime(MapFile file, Segment seg, int lvl, Coord sc) {
-            if ((lvl < 1) || ((sc.x & ((1 << lvl) - 1)) != 0) || ((sc.y & ((1 << lvl) - 1)) != 0))
-                throw (new IllegalArgumentException(String.format("%s %s", sc, lvl)));
-            DataGrid[] lower = new DataGrid[4];
-            long maxmtime = 0;
-            for (int i = 0; i < 4; i++) {
-                int x = i % 2, y = i / 2;
-                lower[i] = fetchg(file, seg, lvl - 1, sc.add(x << (lvl - 1), y << (lvl - 1)));
-                if (lower[i] != null) {
-                    maxmtime = Math.max(maxmtime, lower[i].mtime);
-                }
-            }
-            return maxmtime;
-        }
-
         public static ZoomGrid fetch(MapFile file, Segment seg, int lvl, Coord sc) {
             ZoomGrid loaded = load(file, seg.id, lvl, sc);
-            //zoom grids should update anytime a grid they are made from updated
-            if (loaded != null && loaded.mtime >= localmtime(file, seg, lvl, sc))
+            /* Stored zoom grids are rebuilt by the ZoomBuilder when
+             * any grid they are made from is updated, whether or not
+             * the levels between were stored, and invalidations are
+             * kept across restarts, so a stale one is only served
+             * until its rebuild finishes. */
+            if (loaded != null)
                 return (loaded);
             return (from(file, seg, lvl, sc));
         }
@@ -1862,50 +1954,6 @@ public class MapFile {
             }
         }
 
-        public static int inval(MapFile file, long seg, Coord sc) {
-            for (int lvl = 1; true; lvl++) {
-                sc = new Coord(sc.x & ~((1 << lvl) - 1), sc.y & ~((1 << lvl) - 1));
-                InputStream fp = null;
-                do {
-                    try {
-                        fp = file.sfetch("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y);
-                        fp.close();
-                        break;
-                    } catch (FileNotFoundException e) {
-                        return (lvl - 1);
-                    } catch (IOException e) {
-                        if (e.getMessage().contains("another process")) {
-                            try {
-                                Thread.sleep(100);
-                            } catch (Exception ex) {
-                                warn(e, "error when invalidating zoomgrid (%d, %d) in %x@%d: %s", sc.x, sc.y, seg, lvl, e);
-                                return (lvl - 1);
-                            }
-                        } else {
-                            warn(e, "error when invalidating zoomgrid (%d, %d) in %x@%d: %s", sc.x, sc.y, seg, lvl, e);
-                            return (lvl - 1);
-                        }
-                    }
-                } while (fp == null);
-                OutputStream ofp = null;
-                do {
-                    try {
-                        ofp = file.sstore("zgrid-%x-%d-%d-%d", seg, lvl, sc.x, sc.y);
-                        ofp.close();
-                        break;
-                    } catch (IOException e) {
-                        if (e.getMessage().contains("another process")) {
-                            try {
-                                Thread.sleep(100);
-                            } catch (Exception ex) {
-                            }
-                        } else {
-                        }
-                    }
-                } while (ofp == null);
-            }
-        }
-
         //v1 = no z levels
         //v2 = z levels
         public void save(Message fp) {
@@ -2031,6 +2079,227 @@ public class MapFile {
         }
     }
 
+    /*
+     * Keeps the stored zoom grid pyramid up to date. Grid updates
+     * only mark their level-1 zoom grid as dirty; the builder then
+     * collects dirty zoom grids in batches and rebuilds them level
+     * by level, in parallel within each level, marking the parent of
+     * every dirty zoom grid dirty in turn, all the way to the top. As
+     * with the old direct invalidation, only zoom grids that have been
+     * built before (or are currently in use) are rebuilt, so nothing
+     * is built that nobody asked for. Since ZoomGrid.from stores every
+     * level it computes on the way up, a zoom grid that has never
+     * been stored cannot have been built on, so the invalidation
+     * stops there instead of probing every level above it. Cleared
+     * zoom grids are kept as empty files for the same reason. The
+     * dirty set is persisted so that no invalidation is lost if the
+     * client exits mid-batch.
+     */
+    public class ZoomBuilder {
+        private final Set<ZKey> dirty = new HashSet<>();
+        private Thread th = null;
+        public int batches = 0, rebuilt = 0;
+
+        public void inval(long seg, Coord sc) {
+            ZKey key = new ZKey(seg, 1, sc);
+            synchronized (this) {
+                if (dirty.add(key)) {
+                    if (th == null) {
+                        th = new HackThread(this::run, "Mapfile zoom builder");
+                        th.setDaemon(true);
+                        th.start();
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        private void run() {
+            try {
+                while (true) {
+                    Set<ZKey> batch;
+                    synchronized (this) {
+                        long start = System.currentTimeMillis();
+                        while (dirty.isEmpty()) {
+                            if (System.currentTimeMillis() - start > 10000) {
+                                th = null;
+                                return;
+                            }
+                            wait(5000);
+                        }
+                    }
+                    /* Let updates arriving together (such as a
+                     * segment merge) land in the same batch. */
+                    Thread.sleep(500);
+                    synchronized (this) {
+                        batch = new HashSet<>(dirty);
+                    }
+                    save(batch);
+                    build(batch);
+                    Set<ZKey> left;
+                    synchronized (this) {
+                        dirty.removeAll(batch);
+                        left = new HashSet<>(dirty);
+                        batches++;
+                    }
+                    save(left);
+                }
+            } catch (InterruptedException e) {
+            } finally {
+                synchronized (this) {
+                    if (th == Thread.currentThread())
+                        th = null;
+                }
+            }
+        }
+
+        private void build(Set<ZKey> batch) throws InterruptedException {
+            Map<Integer, Set<ZKey>> levels = new java.util.TreeMap<>();
+            for (ZKey key : batch)
+                levels.computeIfAbsent(key.lvl, k -> new HashSet<>()).add(key);
+            try (Pipeline<ZKey> pipe = new Pipeline<>("Mapfile zoom builder")) {
+                for (int lvl = 1; !levels.isEmpty() && (lvl < 31); lvl++) {
+                    Set<ZKey> cur = levels.remove(lvl);
+                    if (cur == null)
+                        continue;
+                    Set<ZKey> next = levels.computeIfAbsent(lvl + 1, k -> new HashSet<>());
+                    Iterator<ZKey> ki = cur.iterator();
+                    while (ki.hasNext() || !pipe.isEmpty()) {
+                        if (ki.hasNext() && !pipe.full()) {
+                            ZKey key = ki.next();
+                            Segment seg;
+                            lock.readLock().lock();
+                            try {
+                                seg = segments.get(key.seg);
+                            } finally {
+                                lock.readLock().unlock();
+                            }
+                            if (seg != null)
+                                pipe.submit(() -> rebuild(seg, key));
+                            continue;
+                        }
+                        ZKey parent;
+                        try {
+                            parent = pipe.take();
+                        } catch (RuntimeException e) {
+                            warn(e, "error when rebuilding zoomgrid: %s", e);
+                            continue;
+                        }
+                        if (parent != null)
+                            next.add(parent);
+                    }
+                    if (next.isEmpty())
+                        levels.remove(lvl + 1);
+                }
+            }
+        }
+
+        private ZKey rebuild(Segment seg, ZKey key) {
+            ZoomCoord zc = new ZoomCoord(key.lvl, key.sc);
+            ZKey parent = new ZKey(key.seg, key.lvl + 1, key.sc);
+            if (!seg.zcached(zc) && !zexists(key))
+                return (null);
+            ZoomGrid zg;
+            lock.readLock().lock();
+            try {
+                zg = ZoomGrid.from(MapFile.this, seg, key.lvl, key.sc);
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (zg == null)
+                zclear(key);
+            seg.zupdate(zc, zg);
+            synchronized (this) {
+                rebuilt++;
+            }
+            return (parent);
+        }
+
+        /* Whether the zoom grid has been stored, even if only cleared since. */
+        private boolean zexists(ZKey key) {
+            try {
+                sfetch("zgrid-%x-%d-%d-%d", key.seg, key.lvl, key.sc.x, key.sc.y).close();
+                return (true);
+            } catch (IOException e) {
+                return (false);
+            }
+        }
+
+        private void zclear(ZKey key) {
+            try {
+                sstore("zgrid-%x-%d-%d-%d", key.seg, key.lvl, key.sc.x, key.sc.y).close();
+            } catch (IOException e) {
+                warn(e, "error when clearing zoomgrid (%d, %d) in %x@%d: %s", key.sc.x, key.sc.y, key.seg, key.lvl, e);
+            }
+        }
+
+        private void save(Set<ZKey> keys) {
+            try (StreamMessage out = new StreamMessage(sstore("zdirty"))) {
+                out.adduint8(1);
+                out.addint32(keys.size());
+                for (ZKey key : keys) {
+                    out.addint64(key.seg);
+                    out.adduint8(key.lvl);
+                    out.addcoord(key.sc);
+                }
+            } catch (IOException | Message.BinError e) {
+                warn(e, "could not save zoomgrid invalidations: %s", e);
+            }
+        }
+
+        void restore() {
+            InputStream fp;
+            try {
+                fp = sfetch("zdirty");
+            } catch (IOException e) {
+                return;
+            }
+            try (StreamMessage data = new StreamMessage(fp)) {
+                if (data.eom())
+                    return;
+                int ver = data.uint8();
+                if (ver != 1) {
+                    warn("unknown zoomgrid invalidation version: %d", ver);
+                    return;
+                }
+                synchronized (this) {
+                    for (int i = 0, no = data.int32(); i < no; i++)
+                        dirty.add(new ZKey(data.int64(), data.uint8(), data.coord()));
+                    if (!dirty.isEmpty() && (th == null)) {
+                        th = new HackThread(this::run, "Mapfile zoom builder");
+                        th.setDaemon(true);
+                        th.start();
+                    }
+                }
+            } catch (Message.BinError e) {
+                warn(e, "error when loading zoomgrid invalidations: %s", e);
+            }
+        }
+    }
+
+    private static class ZKey {
+        final long seg;
+        final int lvl;
+        final Coord sc;
+
+        ZKey(long seg, int lvl, Coord sc) {
+            this.seg = seg;
+            this.lvl = lvl;
+            this.sc = new Coord(sc.x & ~((1 << lvl) - 1), sc.y & ~((1 << lvl) - 1));
+        }
+
+        public int hashCode() {
+            return ((Long.hashCode(seg) * 31 + lvl) * 31 + sc.hashCode());
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof ZKey))
+                return (false);
+            ZKey that = (ZKey) o;
+            return ((this.seg == that.seg) && (this.lvl == that.lvl) && this.sc.equals(that.sc));
+        }
+    }
+
     private class Processor extends HackThread {
         Processor() {
             super("Mapfile processor");
@@ -2089,13 +2358,7 @@ public class MapFile {
                 map.remove(coord);
                 cache.remove(gridid);
                 ccache.remove(coord);
-                int zl = ZoomGrid.inval(MapFile.this, this.id, coord);
-                synchronized (zcache) {
-                    for (int lvl = 1; lvl < zl; lvl++) {
-                        ZoomCoord zc = new ZoomCoord(lvl, new Coord(coord.x & ~((1 << lvl) - 1), coord.y & ~((1 << lvl) - 1)));
-                        zcache.remove(zc);
-                    }
-                }
+                zbuilder.inval(this.id, coord);
             }
         }
 
@@ -2193,17 +2456,7 @@ public class MapFile {
 
         private void include(long id, Coord sc) {
             map.put(sc, id);
-            int zl = ZoomGrid.inval(MapFile.this, this.id, sc);
-            synchronized (zcache) {
-                for (int lvl = 1; lvl < zl; lvl++) {
-                    ZoomCoord zc = new ZoomCoord(lvl, new Coord(sc.x & ~((1 << lvl) - 1), sc.y & ~((1 << lvl) - 1)));
-                    ByZCoord zg = zcache.get(zc);
-                    if (zg != null) {
-                        zg.loading = loadzgrid(zc);
-                        zg.loaded = null;
-                    }
-                }
-            }
+            zbuilder.inval(this.id, sc);
             ByCoord bc;
             synchronized (ccache) {
                 bc = ccache.get(sc);
@@ -2212,6 +2465,26 @@ public class MapFile {
                 bc.cur = grid0(id);
         }
 
+        private boolean zcached(ZoomCoord zc) {
+            synchronized (zcache) {
+                return (zcache.containsKey(zc));
+            }
+        }
+
+        private void zupdate(ZoomCoord zc, ZoomGrid zg) {
+            synchronized (zcache) {
+                ByZCoord cur = zcache.get(zc);
+                if (cur != null) {
+                    if (zg != null) {
+                        cur.loaded = zg;
+                    } else {
+                        cur.loading = loadzgrid(zc);
+                        cur.loaded = null;
+                    }
+                }
+            }
+        }
+
         private void include(Grid grid, Coord sc) {
             checklock();
             include(grid.id, sc);
@@ -2305,8 +2578,7 @@ public class MapFile {
             return (chseg(ret));
         }
 
-        void importgrid(boolean errors, Message data) {
-            ImportedGrid grid = new ImportedGrid(data);
+        void importgrid(boolean errors, ImportedGrid grid, byte[] enc) {
             ImportedSegment seg = segs.get(grid.segid);
             if (seg == null) {
                 segs.put(grid.segid, seg = new ImportedSegment());
@@ -2332,7 +2604,7 @@ public class MapFile {
                 lock.writeLock().lock();
                 try {
                     Grid rgrid = grid.togrid();
-                    rgrid.save(MapFile.this);
+                    rgrid.save(MapFile.this, (enc != null) ? enc : rgrid.encode());
                     if (seg.noff == null) {
                         if (info == null) {
                             rseg = chseg(new Segment(seg.nseg = grid.gid));
@@ -2400,29 +2672,50 @@ public class MapFile {
             }
         }
 
+        /* Decoding and re-encoding grids is done in parallel, but
+         * applying them to the segments has to happen in file
+         * order, so every record turns into a step to run on the
+         * importing thread. */
+        private Runnable prepgrid(boolean errors, byte[] raw) {
+            try {
+                ImportedGrid grid = new ImportedGrid(new MessageBuf(raw));
+                byte[] enc = filter.stores() ? grid.togrid().encode() : null;
+                return (() -> {
+                    try {
+                        importgrid(errors, grid, enc);
+                    } catch (RuntimeException exc) {
+                        filter.handleerror(exc, "grid");
+                    }
+                });
+            } catch (RuntimeException exc) {
+                return (() -> filter.handleerror(exc, "grid"));
+            }
+        }
+
         void reimport(boolean errors, Message data) throws InterruptedException {
             if (!Arrays.equals(EXPORT_SIG, data.bytes(EXPORT_SIG.length)))
                 throw (new Message.FormatError("Invalid map file format"));
-            data = new ZMessage(data);
-            try {
-                while (!data.eom()) {
-                    String type = data.string();
-                    int len = data.int32();
-                    Message lay = new LimitMessage(data, len);
-                    if (type.equals("grid")) {
-                        try {
-                            importgrid(errors, lay);
-                        } catch (RuntimeException exc) {
-                            filter.handleerror(exc, "grid");
-                        }
-                    } else if (type.equals("mark")) {
-                        try {
-                            importmark(lay);
-                        } catch (RuntimeException exc) {
-                            filter.handleerror(exc, "mark");
+            Message zdata = new ZMessage(data);
+            try (Pipeline<Runnable> pipe = new Pipeline<>("Mapfile importer")) {
+                while (!zdata.eom() || !pipe.isEmpty()) {
+                    if (!zdata.eom() && !pipe.full()) {
+                        String type = zdata.string();
+                        int len = zdata.int32();
+                        byte[] raw = zdata.bytes(len);
+                        if (type.equals("grid")) {
+                            pipe.submit(() -> prepgrid(errors, raw));
+                        } else if (type.equals("mark")) {
+                            pipe.add(() -> {
+                                try {
+                                    importmark(new MessageBuf(raw));
+                                } catch (RuntimeException exc) {
+                                    filter.handleerror(exc, "mark");
+                                }
+                            });
                         }
+                        continue;
                     }
-                    lay.skip();
+                    pipe.take().run();
                     Utils.checkirq();
                 }
             } catch (InterruptedException e) {
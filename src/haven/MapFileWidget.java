@@ -82,19 +82,10 @@ public class MapFileWidget extends Widget {
     public static final double[] scaleFactors = new double[]{1 / 8.0, 1 / 4.0, 1 / 2.0, 1, 100 / 75.0, 100 / 50.0, 100 / 25.0, 100 / 15.0, 100 / 8.0}; //FIXME that his add more scale
     private static final Tex gridred = Resource.loadtex("gfx/hud/mmap/gridred");
 
-    public static Map<String, Tex> cachedTextTex = new HashMap<>();
+    private static final Text.Foundry markfnd = new Text.Foundry(latin.deriveFont(Font.BOLD), 12).aa(true);
     public static Map<String, Tex> cachedImageTex = new HashMap<>();
     public static Map<String, Tex> cachedZoomImageTex = new HashMap<>();
 
-    public static Tex getCachedTextTex(String text) {
-        Tex tex = cachedTextTex.get(text);
-        if (tex == null) {
-            Text.Foundry fnd = new Text.Foundry(latin.deriveFont(Font.BOLD), 12).aa(true);
-            tex = Text.renderstroked(text, Color.white, Color.BLACK, fnd).tex();
-            cachedTextTex.put(text, tex);
-        }
-        return (tex);
-    }
 
 
     public MapFileWidget(MapFile file, Coord sz) {
@@ -187,6 +178,11 @@ public class MapFileWidget extends Widget {
         }
     }
 
+    public void destroy() {
+        setmarkers(null);
+        super.destroy();
+    }
+
     public static class DisplayGrid {
         public final Segment seg;
         public final Coord sc;
@@ -259,6 +255,8 @@ public class MapFileWidget extends Widget {
         public Area hit;
         private Resource.Image img;
         private Coord cc;
+        private TextCache.Ref nmtex;
+        private String nmtexfor;
 
         static {
             Resource flag = Resource.local().loadwait("gfx/hud/mmap/flag");
@@ -274,6 +272,26 @@ public class MapFileWidget extends Widget {
                 this.hit = Area.sized(flagcc.inv(), flagbg.sz);
         }
 
+        /* The marker's name as drawn on the map, following renames. */
+        private Tex nmtex() {
+            String nm = m.nm;
+            if ((nmtex == null) || !nm.equals(nmtexfor)) {
+                TextCache.Ref prev = nmtex;
+                nmtex = TextCache.global.get(nm, markfnd, Color.white, Color.BLACK);
+                nmtexfor = nm;
+                if (prev != null)
+                    prev.release();
+            }
+            return (nmtex);
+        }
+
+        public void dispose() {
+            if (nmtex != null) {
+                nmtex.release();
+                nmtex = null;
+            }
+        }
+
         public void draw(GOut g, Coord c) {
             if (m instanceof PMarker) {
                 Coord ul = c.sub(flagcc);
@@ -283,7 +301,7 @@ public class MapFileWidget extends Widget {
                 g.image(flagbg, ul);
                 if (Config.mapdrawflags) {
 //                    Tex tex = Text.renderstroked(m.nm, Color.white, Color.BLACK, fnd).tex();
-                    Tex tex = getCachedTextTex(m.nm);
+                    Tex tex = nmtex();
                     if (tex != null) {
                         g.aimage(tex, ul.add(flagfg.sz.x / 2, -20), 0.5, 0);
                     }
@@ -321,7 +339,7 @@ public class MapFileWidget extends Widget {
                     if (Config.mapdrawquests) {
                         if (sm.res != null && (sm.res.name.startsWith("gfx/invobjs/small") || sm.res.name.contains("thingwall"))) {
 //                            Tex tex = Text.renderstroked(sm.nm, Color.white, Color.BLACK, fnd).tex();
-                            Tex ttex = getCachedTextTex(sm.nm);
+                            Tex ttex = nmtex();
                             if (ttex != null) {
                                 g.aimage(ttex, c.add(0, -15), 0.5, 1);
                             }
@@ -332,6 +350,15 @@ public class MapFileWidget extends Widget {
         }
     }
 
+    private void setmarkers(Collection<DisplayMarker> marks) {
+        Collection<DisplayMarker> prev = markers;
+        markers = marks;
+        if (prev != null) {
+            for (DisplayMarker mark : prev)
+                mark.dispose();
+        }
+    }
+
     private void remark(Location loc, Area ext) {
         if (file.lock.readLock().tryLock()) {
             try {
@@ -341,7 +368,7 @@ public class MapFileWidget extends Widget {
                     if ((mark.seg == loc.seg.id) && mext.contains(mark.tc.div(cmaps)))
                         marks.add(new DisplayMarker(mark));
                 }
-                markers = marks;
+                setmarkers(marks);
                 markerseq = file.markerseq;
             } finally {
                 file.lock.readLock().unlock();
@@ -364,7 +391,7 @@ public class MapFileWidget extends Widget {
             display = nd;
             dseg = loc.seg;
             dext = next;
-            markers = null;
+            setmarkers(null);
         }
     }
 
@@ -606,7 +633,7 @@ public class MapFileWidget extends Widget {
                         if (ui.modmeta && !ui.modshift && !ui.modctrl) {
                             ui.gui.map.queuemove(mc);
                         } else if (ui.modshift && !ui.modmeta && !ui.modctrl)
-                            ui.gui.map.pathto(mc);
+                            ui.gui.map.pathtolater(mc);
                         else if (ui.modctrl && !ui.modmeta && !ui.modshift) {
                             ui.gui.map.moveto(mc);
                         }
@@ -750,6 +777,7 @@ public class MapFileWidget extends Widget {
     public static class ExportWindow extends Window implements MapFile.ExportStatus {
         private Thread th;
         private volatile String prog = "Exporting map...";
+        private volatile String rate = "";
 
         public ExportWindow() {
             super(new Coord(300, 65), "Exporting map...", true);
@@ -774,7 +802,12 @@ public class MapFileWidget extends Widget {
         }
 
         public void grid(int cs, int ns, int cg, int ng) {
-            this.prog = String.format("Exporting map cut %,d/%,d in segment %,d/%,d", cg, ng, cs, ns);
+            this.prog = String.format("Exporting map cut %,d/%,d in segment %,d/%,d%s", cg, ng, cs, ns, rate);
+        }
+
+        public void rate(int ngrids, double secs) {
+            if (secs > 0)
+                this.rate = String.format(" (%,.0f/s)", ngrids / secs);
         }
 
         public void mark(int cm, int nm) {
@@ -0,0 +1,386 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Finds what is under a point of the map view without rendering
+ * anything, by casting a ray from the camera through the cursor.
+ * The ray is marched over the terrain heightfield and tested against
+ * the bounding boxes of whatever objects it passes near. Object hits
+ * are only as precise as those boxes, so this is meant for hover and
+ * placement feedback, where the clicklist render would otherwise
+ * stall the frame; clicks that are sent to the server still go
+ * through the clicklist.
+ */
+public class MapPick {
+    /* Terrain is sampled this often along the ray before the crossing is bisected. */
+    public static final double STEP = MCache.tilesz.x / 2;
+    private final Matrix4f ipv;
+    private final Coord sz;
+
+    /* Height of the terrain at a map coordinate. */
+    public interface Terrain {
+        double z(double x, double y);
+    }
+
+    /* An axis-aligned box in an object's own coordinates, with y pointing north as in its meshes. */
+    public static class Box {
+        public final float x1, y1, z1, x2, y2, z2;
+
+        public Box(float x1, float y1, float z1, float x2, float y2, float z2) {
+            this.x1 = Math.min(x1, x2);
+            this.y1 = Math.min(y1, y2);
+            this.z1 = Math.min(z1, z2);
+            this.x2 = Math.max(x1, x2);
+            this.y2 = Math.max(y1, y2);
+            this.z2 = Math.max(z1, z2);
+        }
+
+        public Box(Coord3f nb, Coord3f pb) {
+            this(nb.x, nb.y, nb.z, pb.x, pb.y, pb.z);
+        }
+
+        public Box union(Box o) {
+            return (new Box(Math.min(x1, o.x1), Math.min(y1, o.y1), Math.min(z1, o.z1),
+                    Math.max(x2, o.x2), Math.max(y2, o.y2), Math.max(z2, o.z2)));
+        }
+
+        /* How far from its origin the box reaches on the ground. */
+        public double reach() {
+            return (Math.sqrt(Math.max(x1 * x1, x2 * x2) + Math.max(y1 * y1, y2 * y2)));
+        }
+    }
+
+    /* An object as placed for drawing: its GL-space position and its angle. */
+    public static class Solid {
+        public final long id;
+        public final Gob gob;
+        public final Coord3f c;
+        public final double a;
+        public final Box box;
+
+        public Solid(long id, Gob gob, Coord3f c, double a, Box box) {
+            this.id = id;
+            this.gob = gob;
+            this.c = c;
+            this.a = a;
+            this.box = box;
+        }
+    }
+
+    /* A ray in map coordinates, from the near plane towards the far plane. */
+    public static class Ray {
+        public final double ox, oy, oz, dx, dy, dz, len;
+
+        public Ray(double ox, double oy, double oz, double ex, double ey, double ez) {
+            this.ox = ox;
+            this.oy = oy;
+            this.oz = oz;
+            double dx = ex - ox, dy = ey - oy, dz = ez - oz;
+            this.len = Math.sqrt((dx * dx) + (dy * dy) + (dz * dz));
+            this.dx = dx / len;
+            this.dy = dy / len;
+            this.dz = dz / len;
+        }
+
+        public Coord3f at(double t) {
+            return (new Coord3f((float) (ox + dx * t), (float) (oy + dy * t), (float) (oz + dz * t)));
+        }
+
+        public Coord2d ground(double t) {
+            return (new Coord2d(ox + dx * t, oy + dy * t));
+        }
+    }
+
+    public static class Hit {
+        public final double t;
+        public final Coord2d mc;
+        public final Solid solid;
+
+        public Hit(double t, Coord2d mc, Solid solid) {
+            this.t = t;
+            this.mc = mc;
+            this.solid = solid;
+        }
+    }
+
+    /*
+     * The projection and view matrices must be those the view was
+     * last drawn with, so that the ray matches what is on screen.
+     */
+    public MapPick(Matrix4f proj, Matrix4f view, Coord sz) {
+        this.ipv = proj.mul(view).invert();
+        this.sz = sz;
+    }
+
+    public boolean valid() {
+        return ((ipv != null) && (sz.x > 0) && (sz.y > 0));
+    }
+
+    private double[] unproject(double nx, double ny, double nz) {
+        float[] p = ipv.mul4(new float[] {(float) nx, (float) ny, (float) nz, 1});
+        /* GL space has y pointing north, map coordinates south. */
+        return (new double[] {p[0] / p[3], -p[1] / p[3], p[2] / p[3]});
+    }
+
+    public Ray ray(Coord sc) {
+        double nx = ((2.0 * sc.x) / sz.x) - 1, ny = 1 - ((2.0 * sc.y) / sz.y);
+        double[] n = unproject(nx, ny, -1), f = unproject(nx, ny, 1);
+        return (new Ray(n[0], n[1], n[2], f[0], f[1], f[2]));
+    }
+
+    private static double above(Ray r, Terrain map, double t) {
+        return ((r.oz + r.dz * t) - map.z(r.ox + r.dx * t, r.oy + r.dy * t));
+    }
+
+    /* Distance along the ray to where it first goes below the terrain, or NaN if it never does. */
+    public static double terrain(Ray r, Terrain map) {
+        double pt = 0;
+        if (above(r, map, pt) < 0)
+            return (Double.NaN);
+        for (double t = STEP; pt < r.len; t = Math.min(t + STEP, r.len)) {
+            if (above(r, map, t) <= 0) {
+                double lo = pt, hi = t;
+                while (hi - lo > 0.01) {
+                    double m = (lo + hi) / 2;
+                    if (above(r, map, m) <= 0)
+                        hi = m;
+                    else
+                        lo = m;
+                }
+                return (hi);
+            }
+            pt = t;
+        }
+        return (Double.NaN);
+    }
+
+    /* Distance along the ray to where it enters the solid's box, or NaN if it misses it. */
+    public static double solid(Ray r, Solid s) {
+        /* Bring the ray into the object's own coordinates, undoing
+         * the translation and rotation of Gob.GobLocation. */
+        double ca = Math.cos(s.a), sa = Math.sin(s.a);
+        double px = r.ox - s.c.x, py = -r.oy - s.c.y, pz = r.oz - s.c.z;
+        double gx = r.dx, gy = -r.dy;
+        double lox = (px * ca) - (py * sa), loy = (px * sa) + (py * ca);
+        double ldx = (gx * ca) - (gy * sa), ldy = (gx * sa) + (gy * ca);
+        double[] span = {0, r.len};
+        if (!slab(lox, ldx, s.box.x1, s.box.x2, span) ||
+                !slab(loy, ldy, s.box.y1, s.box.y2, span) ||
+                !slab(pz, r.dz, s.box.z1, s.box.z2, span))
+            return (Double.NaN);
+        return (span[0]);
+    }
+
+    private static boolean slab(double o, double d, double lo, double hi, double[] span) {
+        if (d == 0)
+            return ((o >= lo) && (o <= hi));
+        double a = (lo - o) / d, b = (hi - o) / d;
+        span[0] = Math.max(span[0], Math.min(a, b));
+        span[1] = Math.min(span[1], Math.max(a, b));
+        return (span[0] <= span[1]);
+    }
+
+    /* The nearest of the given solids the ray enters before the distance t, or null. */
+    public static Solid nearest(Ray r, double t, Iterable<Solid> solids) {
+        Solid hit = null;
+        for (Solid s : solids) {
+            double st = solid(r, s);
+            if (!Double.isNaN(st) && (st < t)) {
+                hit = s;
+                t = st;
+            }
+        }
+        return (hit);
+    }
+
+    /*
+     * Returns the terrain under the given screen point and the
+     * nearest of the given solids in front of it, or null if the ray
+     * does not hit the terrain.
+     */
+    public Hit pick(Coord sc, Terrain map, Iterable<Solid> solids) {
+        Ray r = ray(sc);
+        double t = terrain(r, map);
+        if (Double.isNaN(t))
+            return (null);
+        return (new Hit(t, r.ground(t), nearest(r, t, solids)));
+    }
+
+    /*
+     * The stretch of ground an object reaching up to the given height
+     * above the terrain hit could stand on while still crossing the
+     * ray, as the map coordinates at its two ends.
+     */
+    public static Coord2d[] shadow(Ray r, double t, double height) {
+        double st = t;
+        if (r.dz < 0)
+            st = Math.max(0, t + (height / r.dz));
+        return (new Coord2d[] {r.ground(st), r.ground(t)});
+    }
+
+    /*
+     * What a hover test saw, saved with the "pickrec" console command
+     * so that MapPick can be checked against the clicklist offline.
+     * The terrain is kept as the heights of tile corners around the
+     * cursor and interpolated as MCache.getcz does.
+     */
+    public static class Scene implements Terrain {
+        private static final int MAGIC = 0x4d504b31; /* MPK1 */
+        public final Coord sz, sc;
+        public final Matrix4f proj, view;
+        public final Coord tul, tsz;
+        public final float[] z;
+        public final List<Solid> solids;
+        /* What the clicklist found, null and -1 if nothing. */
+        public final Coord2d mc;
+        public final long gob;
+
+        public Scene(Coord sz, Coord sc, Matrix4f proj, Matrix4f view, Coord tul, Coord tsz, float[] z, List<Solid> solids, Coord2d mc, long gob) {
+            this.sz = sz;
+            this.sc = sc;
+            this.proj = proj;
+            this.view = view;
+            this.tul = tul;
+            this.tsz = tsz;
+            this.z = z;
+            this.solids = solids;
+            this.mc = mc;
+            this.gob = gob;
+        }
+
+        private double corner(int x, int y) {
+            x = Utils.clip(x - tul.x, 0, tsz.x - 1);
+            y = Utils.clip(y - tul.y, 0, tsz.y - 1);
+            return (z[x + (y * tsz.x)]);
+        }
+
+        public double z(double px, double py) {
+            double tw = MCache.tilesz.x, th = MCache.tilesz.y;
+            int ux = Utils.floordiv(px, tw), uy = Utils.floordiv(py, th);
+            double sx = Utils.floormod(px, tw) / tw;
+            double sy = Utils.floormod(py, th) / th;
+            return (((1.0 - sy) * (((1.0 - sx) * corner(ux, uy)) + (sx * corner(ux + 1, uy)))) +
+                    (sy * (((1.0 - sx) * corner(ux, uy + 1)) + (sx * corner(ux + 1, uy + 1)))));
+        }
+
+        public MapPick picker() {
+            return (new MapPick(proj, view, sz));
+        }
+
+        private static void writec(DataOutputStream out, Coord c) throws IOException {
+            out.writeInt(c.x);
+            out.writeInt(c.y);
+        }
+
+        private static Coord readc(DataInputStream in) throws IOException {
+            return (new Coord(in.readInt(), in.readInt()));
+        }
+
+        private static void writem(DataOutputStream out, Matrix4f m) throws IOException {
+            for (float v : m.m)
+                out.writeFloat(v);
+        }
+
+        private static Matrix4f readm(DataInputStream in) throws IOException {
+            Matrix4f m = new Matrix4f();
+            for (int i = 0; i < 16; i++)
+                m.m[i] = in.readFloat();
+            return (m);
+        }
+
+        public void save(File f) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(f))))) {
+                out.writeInt(MAGIC);
+                writec(out, sz);
+                writec(out, sc);
+                writem(out, proj);
+                writem(out, view);
+                writec(out, tul);
+                writec(out, tsz);
+                for (float v : z)
+                    out.writeFloat(v);
+                out.writeInt(solids.size());
+                for (Solid s : solids) {
+                    out.writeLong(s.id);
+                    out.writeFloat(s.c.x);
+                    out.writeFloat(s.c.y);
+                    out.writeFloat(s.c.z);
+                    out.writeDouble(s.a);
+                    Box b = s.box;
+                    for (float v : new float[] {b.x1, b.y1, b.z1, b.x2, b.y2, b.z2})
+                        out.writeFloat(v);
+                }
+                out.writeBoolean(mc != null);
+                if (mc != null) {
+                    out.writeDouble(mc.x);
+                    out.writeDouble(mc.y);
+                }
+                out.writeLong(gob);
+            }
+        }
+
+        public static Scene load(File f) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))))) {
+                if (in.readInt() != MAGIC)
+                    throw (new IOException("not a saved pick scene: " + f));
+                Coord sz = readc(in), sc = readc(in);
+                Matrix4f proj = readm(in), view = readm(in);
+                Coord tul = readc(in), tsz = readc(in);
+                float[] z = new float[tsz.x * tsz.y];
+                for (int i = 0; i < z.length; i++)
+                    z[i] = in.readFloat();
+                int n = in.readInt();
+                List<Solid> solids = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    long id = in.readLong();
+                    Coord3f c = new Coord3f(in.readFloat(), in.readFloat(), in.readFloat());
+                    double a = in.readDouble();
+                    Box b = new Box(in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat());
+                    solids.add(new Solid(id, null, c, a, b));
+                }
+                Coord2d mc = in.readBoolean() ? new Coord2d(in.readDouble(), in.readDouble()) : null;
+                long gob = in.readLong();
+                return (new Scene(sz, sc, proj, view, tul, tsz, z, solids, mc, gob));
+            }
+        }
+    }
+}
@@ -43,6 +43,7 @@ import haven.automation.ShooTargeted;
 import haven.automation.SteelRefueler;
 import haven.overlays.OverlaySelector;
 import haven.pathfinder.PFListener;
+import haven.pathfinder.PathService;
 import haven.pathfinder.Pathfinder;
 import haven.purus.Farmer;
 import haven.purus.pbot.PBotCharacterAPI;
@@ -69,6 +70,8 @@ import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import java.awt.Color;
 import java.awt.event.KeyEvent;
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
@@ -169,6 +172,11 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
     public haven.purus.pathfinder.Pathfinder pastaPathfinder;
     private long lastMove = System.currentTimeMillis();
     private Queue<Coord2d> movequeue = new ArrayDeque<>();
+    private final Object pathreqlock = new Object();
+    //Latest search started, which is only cancelled here if it is pathlater as nobody else waits on that one
+    private PathService.Request<Move[]> pathreq;
+    //Search started by pathtolater, whose route tick queues once it is found
+    private PathService.Request<Move[]> pathlater;
     private List<Coord2d> questQueue = new ArrayList<>();
     private Gob pathfindGob;
     private int pathfindGobMod = 0;
@@ -1160,8 +1168,10 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
             }
 
             public boolean setup(RenderList rl) {
-                for (Gob gob : obs)
-                    addgob(rl, gob);
+                try (Trace.Scope s = Trace.begin("GobSet.setup", nm)) {
+                    for (Gob gob : obs)
+                        addgob(rl, gob);
+                }
                 return (false);
             }
 
@@ -1443,25 +1453,27 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
         // This solution is bad but currently no better avaible
         if (Config.skybox) {
             boolean skyb = true;
-            if (player() != null) {
-                Coord pltc = new Coord((int) player().getc().x / 11, (int) player().getc().y / 11);
-                for (int x = -44; x < 44; x++) {
-                    for (int y = -44; y < 44; y++) {
-                        try {
-                            int t = glob.map.gettile(pltc.sub(x, y));
-                            Resource res = glob.map.tilesetr(t);
-                            if (res == null)
-                                continue;
-
-                            String name = res.name;
-                            if (name.equals("gfx/tiles/mine") ||
-                                    name.equals("gfx/tiles/boards")) {
+            try (Trace.Scope ts = Trace.begin("skybox check")) {
+                if (player() != null) {
+                    Coord pltc = new Coord((int) player().getc().x / 11, (int) player().getc().y / 11);
+                    for (int x = -44; x < 44; x++) {
+                        for (int y = -44; y < 44; y++) {
+                            try {
+                                int t = glob.map.gettile(pltc.sub(x, y));
+                                Resource res = glob.map.tilesetr(t);
+                                if (res == null)
+                                    continue;
+
+                                String name = res.name;
+                                if (name.equals("gfx/tiles/mine") ||
+                                        name.equals("gfx/tiles/boards")) {
+                                    skyb = false;
+                                    break;
+                                }
+                            } catch (Loading e) {
                                 skyb = false;
-                                break;
+//                                e.printStackTrace();
                             }
-                        } catch (Loading e) {
-                            skyb = false;
-//                            e.printStackTrace();
                         }
                     }
                 }
@@ -2088,6 +2100,12 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
         }
         movequeue.clear();
         movingto = null;
+        synchronized (pathreqlock) {
+            if (pathlater != null)
+                pathlater.cancel();
+            pathreq = null;
+            pathlater = null;
+        }
         ui.gui.pointer.update(null);
     }
 
@@ -2108,22 +2126,47 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 
     }
 
+    /**
+     * Starts searching for a route from the player to c, or to g when given, on the path service.
+     * Earlier searches are left running, since whoever started them may still be waiting on them;
+     * it is up to the caller to cancel the request once it no longer wants the route.
+     */
+    public PathService.Request<Move[]> requestpath(final Coord2d c, final Gob g) {
+        final haven.sloth.script.pathfinding.Pathfinder finder = haven.sloth.script.pathfinding.Pathfinder.create(ui);
+        final Coord start = new Coord(ui.sess.glob.oc.getgob(plgob).getc());
+        final Coord goal = c.floor();
+        final long target = (g != null) ? g.id : -1;
+        if (g != null)
+            finder.ignore(g);
+        final PathService.Request<Move[]> req = glob.paths.request(finder.kind(), start, goal, target, () -> {
+            final List<Move> moves = finder.path(start, goal);
+            return moves != null ? moves.toArray(new Move[0]) : null;
+        });
+        synchronized (pathreqlock) {
+            pathreq = req;
+        }
+        return req;
+    }
+
+    private static Move[] await(final PathService.Request<Move[]> req) {
+        try {
+            return req.get();
+        } catch (InterruptedException e) {
+            req.cancel();
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
     public Move[] findpath(final Coord2d c) {
-        final NBAPathfinder finder = new NBAPathfinder(ui);
-        final List<Move> moves = finder.path(new Coord(ui.sess.glob.oc.getgob(plgob).getc()), c.floor());
-        return moves != null ? moves.toArray(new Move[0]) : null;
+        return await(requestpath(c, null));
     }
 
     public Move[] findpath(final Gob g) {
-        g.updatePathfindingBlackout(true);
-        final Move[] moves = findpath(new Coord2d(g.getc()));
-        g.updatePathfindingBlackout(false);
-        return moves;
+        return await(requestpath(new Coord2d(g.getc()), g));
     }
 
-    public boolean pathto(final Coord2d c) {
-        clearmovequeue();
-        final Move[] moves = findpath(c);
+    private boolean follow(final Move[] moves) {
         if (moves != null) {
             for (final Move m : moves) {
                 queuemove(m.dest());
@@ -2134,23 +2177,57 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
         }
     }
 
+    public boolean pathto(final Coord2d c) {
+        clearmovequeue();
+        return follow(findpath(c));
+    }
+
+    /**
+     * Like pathto, but returns at once; tick queues the moves once the route is found, unless
+     * something else has been queued or searched for by then
+     */
+    public void pathtolater(final Coord2d c) {
+        clearmovequeue();
+        final PathService.Request<Move[]> req = requestpath(c, null);
+        synchronized (pathreqlock) {
+            pathlater = req;
+        }
+    }
+
+    private void followlater() {
+        final PathService.Request<Move[]> req;
+        synchronized (pathreqlock) {
+            if (pathlater == null || !pathlater.done())
+                return;
+            req = pathlater;
+            pathlater = null;
+            if (req != pathreq)
+                return;
+        }
+        if (req.cancelled() || !movequeue.isEmpty() || movingto != null)
+            return;
+        try {
+            follow(await(req));
+        } catch (RuntimeException e) {
+            new Warning(e, "could not find a path").issue();
+        }
+    }
+
     public boolean pathto(final Gob g) {
-        g.updatePathfindingBlackout(true);
-        boolean yea = pathto(new Coord2d(g.getc()));
+        clearmovequeue();
+        boolean yea = follow(findpath(g));
         pathfindGob = g;
         pathfindGobMouse = 1;
-        g.updatePathfindingBlackout(false);
         return yea;
     }
 
     public boolean pathtoRightClick(final Gob g, int mod) {
         //	PBotAPI.gui.map.purusPfRightClick(gob.gob, -1, 3, mod, null);
-        g.updatePathfindingBlackout(true);
-        boolean yea = pathto(new Coord2d(g.getc()));
+        clearmovequeue();
+        boolean yea = follow(findpath(g));
         pathfindGob = g;
         pathfindGobMod = mod;
         pathfindGobMouse = 3;
-        g.updatePathfindingBlackout(false);
         return yea;
     }
 
@@ -2183,6 +2260,7 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
 
     public void tick(double dt) {
         glob.map.sendreqs();
+        glob.map.builds.focus(cc);
         camload = null;
         try {
             if ((shake = shake * Math.pow(100, -dt)) < 0.01)
@@ -2194,11 +2272,17 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
         } catch (Loading e) {
             camload = e;
         }
+        try {
+            glob.oc.anims.view(cc, getcc().z, camera.proj.fin(Matrix4f.id).mul(camera.view.fin(Matrix4f.id)));
+        } catch (Loading e) {
+            glob.oc.anims.view(cc, 0, null);
+        }
         updateSpeed(dt);
         if (placing != null)
             placing.ctick((int) (dt * 1000));
         if (fakeGob != null)
             fakeGob.ctick((int) (dt * 1000));
+        followlater();
         if (!movequeue.isEmpty() && (System.currentTimeMillis() - lastMove > 500) && triggermove()) {
             movingto = movequeue.poll();
             ui.gui.pointer.update(movingto);
@@ -2265,7 +2349,7 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
             super(MapView.this.glob, Coord2d.z);
             setattr(new ResDrawable(this, res, sdt));
             if (ui.mc.isect(rootpos(), sz)) {
-                delay(new Adjust(ui.mc.sub(rootpos()), 0));
+                hovertest(new Adjust(ui.mc.sub(rootpos()), 0));
             }
         }
 
@@ -2275,7 +2359,7 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
         public Plob() {
             super(MapView.this.glob, Coord2d.z);
             if (ui.mc.isect(rootpos(), sz)) {
-                delay(new Adjust(ui.mc.sub(rootpos()), 0));
+                hovertest(new Adjust(ui.mc.sub(rootpos()), 0));
             }
         }
 
@@ -2406,6 +2490,17 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
             }
         }
 
+        /* Runs the test at once through MapPick, returning false if it has to wait for the clicklist. */
+        boolean runcpu() {
+            MapPick.Hit h = cpupick(pc, false);
+            if (h == null)
+                return (false);
+            synchronized (ui) {
+                hit(pc, h.mc);
+            }
+            return (true);
+        }
+
         protected abstract void hit(Coord pc, Coord2d mc);
 
         protected void nohit(Coord pc) {
@@ -2437,7 +2532,7 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
                 g.apply();
                 gl.glClear(GL.GL_DEPTH_BUFFER_BIT | GL.GL_COLOR_BUFFER_BIT);
                 checkmapclick(g, clickc, mc -> {
-                    mapcl = Config.tilecenter ? mc.div(11).floord().mul(11).add(5.5, 5.5) : mc;
+                    mapcl = center(mc);
                     ckdone(1);
                 });
                 g.st.set(bk);
@@ -2470,12 +2565,237 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
             }
         }
 
+        /* Runs the test at once through MapPick, returning false if it has to wait for the clicklist. */
+        boolean runcpu() {
+            MapPick.Hit h = cpupick(clickc, true);
+            if (h == null)
+                return (false);
+            mapcl = center(h.mc);
+            gobcl = ((h.solid != null) && (h.solid.gob != null)) ? new ClickInfo(null, h.solid.gob) : null;
+            ckdone(3);
+            return (true);
+        }
+
+        protected Coord2d center(Coord2d mc) {
+            if ((mc != null) && Config.tilecenter)
+                return (mc.div(11).floord().mul(11).add(5.5, 5.5));
+            return (mc);
+        }
+
         protected abstract void hit(Coord pc, Coord2d mc, ClickInfo inf);
 
         protected void nohit(Coord pc) {
         }
     }
 
+    /* Hover and placement tests are answered by MapPick when it can, and by the clicklist on the next frame otherwise. */
+    private void hovertest(Maptest t) {
+        if (!t.runcpu())
+            delay(t);
+    }
+
+    private void hovertest(Hittest t) {
+        if (!t.runcpu())
+            delay(t);
+    }
+
+    /* Objects taller than this above the terrain under the cursor are not looked for. */
+    private static final double PICKHEIGHT = 150;
+    /* Nor are those whose boxes reach further than this from their centers. */
+    private static final double PICKREACH = tilesz.x * 8;
+    /* Objects without a box that stand this close to the ray are left to the clicklist. */
+    private static final double PICKNEAR = tilesz.x * 2;
+    private static final MapPick.Box NOBOX = new MapPick.Box(0, 0, 0, 0, 0, 0);
+    private final Map<Resource, MapPick.Box> pickboxes = new WeakHashMap<>();
+
+    private MapPick.Box pickbox(Gob gob) {
+        Resource res;
+        try {
+            res = gob.getres();
+        } catch (Loading l) {
+            return (null);
+        }
+        if (res == null)
+            return (null);
+        MapPick.Box box;
+        synchronized (pickboxes) {
+            box = pickboxes.get(res);
+        }
+        if (box == null) {
+            for (FastMesh.MeshRes m : res.layers(FastMesh.MeshRes.class)) {
+                if ((m.m == null) || (m.m.nbounds() == null))
+                    continue;
+                MapPick.Box mb = new MapPick.Box(m.m.nbounds(), m.m.pbounds());
+                box = (box == null) ? mb : box.union(mb);
+            }
+            if (box == null)
+                box = NOBOX;
+            synchronized (pickboxes) {
+                pickboxes.put(res, box);
+            }
+        }
+        if ((box == NOBOX) || ((gob.getattr(Hidden.class) != null) && Config.hideuniquegobs)) {
+            /* Composites and hidden objects have no meshes of their
+             * own to go by, so their hitboxes are stood up to about a
+             * person's height instead. */
+            GobHitbox.BBox[] hb = GobHitbox.getBBox(gob);
+            if ((hb == null) || (hb.length == 0))
+                return (null);
+            double x1 = Double.POSITIVE_INFINITY, y1 = x1, x2 = Double.NEGATIVE_INFINITY, y2 = x2;
+            for (GobHitbox.BBox b : hb) {
+                for (Coord2d p : b.points) {
+                    x1 = Math.min(x1, p.x);
+                    y1 = Math.min(y1, p.y);
+                    x2 = Math.max(x2, p.x);
+                    y2 = Math.max(y2, p.y);
+                }
+            }
+            if (x1 > x2)
+                return (null);
+            /* Hitboxes have y pointing south, meshes north. */
+            return (new MapPick.Box((float) x1, (float) -y2, 0, (float) x2, (float) -y1, 20));
+        }
+        return (box);
+    }
+
+    private MapPick.Solid picksolid(Gob gob) {
+        Coord3f c = gob.loc.c();
+        if (c == null)
+            return (null);
+        MapPick.Box box = pickbox(gob);
+        if (box == null)
+            return (null);
+        return (new MapPick.Solid(gob.id, gob, c, gob.a, box));
+    }
+
+    private static double segdist(Coord2d p, Coord2d a, Coord2d b) {
+        Coord2d d = b.sub(a);
+        double l2 = (d.x * d.x) + (d.y * d.y);
+        double u = (l2 > 0) ? Utils.clip((((p.x - a.x) * d.x) + ((p.y - a.y) * d.y)) / l2, 0.0, 1.0) : 0;
+        return (p.dist(a.add(d.mul(u))));
+    }
+
+    /*
+     * The objects that might stand between the camera and the terrain
+     * hit at t, or null if one near the ray has no box to test against,
+     * such as one whose resource is still loading or that has neither
+     * meshes nor a hitbox, since only the clicklist can tell whether it
+     * was hit.
+     */
+    private List<MapPick.Solid> picksolids(MapPick.Ray r, double t) {
+        Coord2d[] sh = MapPick.shadow(r, t, PICKHEIGHT);
+        double len = sh[0].dist(sh[1]);
+        Set<Gob> seen = new HashSet<>();
+        List<MapPick.Solid> ret = new ArrayList<>();
+        for (double d = 0; ; d += PICKREACH) {
+            Coord2d c = (len > 0) ? sh[0].add(sh[1].sub(sh[0]).mul(Math.min(d, len) / len)) : sh[0];
+            for (Gob gob : glob.oc.index.radius(c, PICKREACH * 2, null)) {
+                if (seen.add(gob)) {
+                    MapPick.Solid s = picksolid(gob);
+                    if (s != null)
+                        ret.add(s);
+                    else if ((gob.rc != null) && (segdist(gob.rc, sh[0], sh[1]) < PICKNEAR))
+                        return (null);
+                }
+            }
+            if (d >= len)
+                break;
+        }
+        return (ret);
+    }
+
+    private double pickz(double x, double y) {
+        return (Config.disableelev ? 0 : glob.map.getcz(x, y));
+    }
+
+    private MapPick picker() {
+        return (new MapPick(camera.proj.fin(Matrix4f.id), camera.view.fin(Matrix4f.id), sz));
+    }
+
+    /* What is under the given point as far as MapPick can tell, or null if the clicklist has to be asked. */
+    private MapPick.Hit cpupick(Coord c, boolean gobs) {
+        if (!Config.cpupick)
+            return (null);
+        MapPick mp = picker();
+        if (!mp.valid())
+            return (null);
+        try {
+            MapPick.Ray r = mp.ray(c);
+            double t = MapPick.terrain(r, this::pickz);
+            if (Double.isNaN(t))
+                return (null);
+            if (!gobs)
+                return (new MapPick.Hit(t, r.ground(t), null));
+            List<MapPick.Solid> solids = picksolids(r, t);
+            if (solids == null)
+                return (null);
+            return (new MapPick.Hit(t, r.ground(t), MapPick.nearest(r, t, solids)));
+        } catch (Loading l) {
+            return (null);
+        }
+    }
+
+    /*
+     * Saves what MapPick and the clicklist would see under the cursor
+     * on the next frame, for haven.test.PickTest to compare offline.
+     */
+    public void pickrec(File file, Consumer<String> done) {
+        Coord c = ui.mc.sub(rootpos());
+        delay(new Hittest(c) {
+            protected Coord2d center(Coord2d mc) {
+                return (mc);
+            }
+
+            protected void hit(Coord pc, Coord2d mc, ClickInfo inf) {
+                long id = -1;
+                if (inf != null) {
+                    for (Rendered r : inf.array()) {
+                        if (r instanceof Gob)
+                            id = ((Gob) r).id;
+                    }
+                }
+                save(pc, mc, mc, id);
+            }
+
+            protected void nohit(Coord pc) {
+                Coord2d around;
+                try {
+                    around = new Coord2d(getcc());
+                } catch (Loading l) {
+                    done.accept("Could not record: the map is still loading");
+                    return;
+                }
+                save(pc, around, null, -1);
+            }
+
+            private void save(Coord pc, Coord2d around, Coord2d mc, long id) {
+                final int r = 48;
+                Coord tul = around.floor(tilesz).sub(r, r), tsz = new Coord(r * 2 + 1, r * 2 + 1);
+                float[] z = new float[tsz.x * tsz.y];
+                if (!Config.disableelev) {
+                    for (int y = 0; y < tsz.y; y++) {
+                        for (int x = 0; x < tsz.x; x++)
+                            z[x + (y * tsz.x)] = glob.map.getz_safe(tul.add(x, y));
+                    }
+                }
+                List<MapPick.Solid> solids = new ArrayList<>();
+                for (Gob gob : glob.oc.index.radius(around, r * tilesz.x, null)) {
+                    MapPick.Solid s = picksolid(gob);
+                    if (s != null)
+                        solids.add(new MapPick.Solid(s.id, null, new Coord3f(s.c), s.a, s.box));
+                }
+                MapPick.Scene sc = new MapPick.Scene(sz, pc, new Matrix4f(camera.proj.fin(Matrix4f.id)), new Matrix4f(camera.view.fin(Matrix4f.id)),
+                        tul, tsz, z, solids, mc, id);
+                try {
+                    sc.save(file);
+                    done.accept(String.format("Recorded %d objects to %s", solids.size(), file));
+                } catch (IOException e) {
+                    done.accept("Could not record: " + e);
+                }
+            }
+        });
+    }
+
     public static interface Clickable {
         public Object[] clickargs(ClickInfo inf);
     }
@@ -2950,24 +3270,24 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
         } else if (placing != null || fakeGob != null) {
             if (placing != null) {
                 if ((placing.lastmc == null) || !placing.lastmc.equals(c)) {
-                    delay(placing.new Adjust(c, ui.modflags()));
+                    hovertest(placing.new Adjust(c, ui.modflags()));
                 }
             }
             if (fakeGob != null) {
                 if ((fakeGob.lastmc == null) || !fakeGob.lastmc.equals(c)) {
-                    delay(fakeGob.new Adjust(c, ui.modflags()));
+                    hovertest(fakeGob.new Adjust(c, ui.modflags()));
                 }
             }
         }
         if (ui.modshift && !ui.modctrl && Config.detailedresinfo) {
-            delay(new Hover(c));
+            hovertest(new Hover(c));
         } else if (ui.modshift && !ui.modctrl && Config.resinfo) {
             long now = System.currentTimeMillis();
             if ((now - lastmmhittest > 500 || lasthittestc.dist(c) > tilesz.x) && ui.gui.hand.isEmpty()) {
                 lastmmhittest = now;
                 lasthittestc = c;
 
-                delay(new Hittest(c, 0) {
+                hovertest(new Hittest(c, 0) {
                     protected void hit(Coord pc, Coord2d mc, ClickInfo inf) {
                         if (inf != null) {
                             MapView.gobclickargs(inf);
@@ -3485,30 +3805,20 @@ public class MapView extends PView implements DTarget, Console.Directory, PFList
     public void aggroclosest() {
         OCache oc = ui.sess.glob.oc;
         synchronized (oc) {
-            Gob gobcls = null;
-            double gobclsdist = Double.MAX_VALUE;
-
-            for (Gob gob : oc) {
+            Gob pl = player();
+            Gob gobcls = oc.nearest(pl.rc, Double.MAX_VALUE, gob -> {
                 try {
                     Resource res = gob.getres();
-                    if (res != null && "body".equals(res.basename()) && gob.id != player().id) {
-                        if (!gob.isFriend()) {
-                            double dist = player().rc.dist(gob.rc);
-                            if (dist < gobclsdist) {
-                                gobcls = gob;
-                                gobclsdist = dist;
-                            }
-                        }
-                    }
+                    return (res != null && "body".equals(res.basename()) && gob.id != pl.id && !gob.isFriend());
                 } catch (Loading l) {
+                    return (false);
                 }
-            }
+            });
 
             if (gobcls != null) {
                 ui.gui.act("aggro");
                 wdgmsg("click", gobcls.sc, Coord.z, 1, ui.modflags(), 0, (int) gobcls.id, gobcls.rc.floor(posres), 0, 0);
                 pllastcc = gobcls.rc;
-                Gob pl = player();
                 wdgmsg("click", pl.sc, pl.rc.floor(posres), 3, 0);
                 pllastcc = pl.rc;
             }
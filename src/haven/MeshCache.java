@@ -0,0 +1,203 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+ * Map cuts kept after their grids are unloaded, so that walking back
+ * over terrain that has not changed reuses its meshes rather than
+ * building them again. A cut is keyed by where it is and by a
+ * signature of everything MapMesh.build reads: the tiles and heights
+ * of the cut and a border around it, the tileset resources and
+ * versions those tiles refer to, and the settings that change what
+ * gets built. Only a bounded number of cuts are kept, the least
+ * recently unloaded ones being disposed first. Cuts are only kept for
+ * as long as the session lasts; nothing is written to disk.
+ */
+public class MeshCache {
+    /* How far outside its cut MapMesh.build and the tilers look. */
+    static final int BORDER = 2;
+    private final int max;
+    private final Map<Key, MapMesh> cuts = new LinkedHashMap<>(16, 0.75f, true);
+    private int gen = 0;
+    private long hits, unchanged, misses, evicted;
+
+    public MeshCache(int max) {
+        this.max = max;
+    }
+
+    public static class Key {
+        public final long id;
+        public final Coord ul;
+        public final long sig;
+        private final int gen;
+
+        private Key(long id, Coord ul, long sig, int gen) {
+            this.id = id;
+            this.ul = ul;
+            this.sig = sig;
+            this.gen = gen;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return (false);
+            Key k = (Key) o;
+            return ((id == k.id) && ul.equals(k.ul) && (sig == k.sig) && (gen == k.gen));
+        }
+
+        public int hashCode() {
+            return (Objects.hash(id, ul, sig, gen));
+        }
+
+        public String toString() {
+            return (String.format("#<cut %x %s %016x>", id, ul, sig));
+        }
+    }
+
+    private static long mix(long h, long v) {
+        h ^= v;
+        h *= 0x100000001b3L;
+        return (h ^ (h >>> 29));
+    }
+
+    /*
+     * Computes the key of the cut of the given grid at ul. Like
+     * MapMesh.build, it throws Loading while the tiles around the cut
+     * are still being fetched.
+     */
+    public Key key(MCache map, long id, Coord ul, Coord sz) {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, (Config.disableelev ? 1 : 0) | (Config.disabletiletrans ? 2 : 0) | (Config.flatcaves ? 4 : 0) |
+                (Config.straightcavewall ? 8 : 0) | (Config.disableterrainsmooth ? 16 : 0));
+        boolean[] used = new boolean[256];
+        Coord tc = new Coord();
+        for (tc.y = ul.y - BORDER; tc.y < ul.y + sz.y + BORDER; tc.y++) {
+            for (tc.x = ul.x - BORDER; tc.x < ul.x + sz.x + BORDER; tc.x++) {
+                int t = map.gettile(tc);
+                double z = 0;
+                try {
+                    z = map.getfz(tc);
+                } catch (Loading l) {
+                    /* MapSurface counts heights it cannot get yet as 0. */
+                }
+                used[t] = true;
+                h = mix(h, t);
+                h = mix(h, Double.doubleToLongBits(z));
+            }
+        }
+        for (int t = 0; t < used.length; t++) {
+            if (!used[t])
+                continue;
+            Resource.Spec spec = map.nsets[t];
+            h = mix(h, t);
+            if (spec != null) {
+                h = mix(h, spec.name.hashCode());
+                h = mix(h, spec.ver);
+            }
+        }
+        synchronized (this) {
+            return (new Key(id, new Coord(ul), h, gen));
+        }
+    }
+
+    /* Takes a cut out of the cache to be used again, or returns null if there is none for the key. */
+    public synchronized MapMesh take(Key key) {
+        MapMesh m = cuts.remove(key);
+        if (m != null)
+            hits++;
+        else
+            misses++;
+        return (m);
+    }
+
+    /* Counts a rebuild that was skipped because the cut already in use has the same key. */
+    public synchronized void same() {
+        unchanged++;
+    }
+
+    /* Keeps a cut that is no longer shown, or disposes of it if it can never be used again. */
+    public void put(Key key, MapMesh m) {
+        if (m == null)
+            return;
+        MapMesh old = null;
+        synchronized (this) {
+            if ((key == null) || (key.gen != gen)) {
+                old = m;
+            } else {
+                old = cuts.put(key, m);
+                if (old == m)
+                    old = null;
+            }
+        }
+        if (old != null)
+            old.dispose();
+        trim();
+    }
+
+    private void trim() {
+        while (true) {
+            MapMesh m;
+            synchronized (this) {
+                if (cuts.size() <= max)
+                    return;
+                Iterator<MapMesh> i = cuts.values().iterator();
+                m = i.next();
+                i.remove();
+                evicted++;
+            }
+            m.dispose();
+        }
+    }
+
+    /* Drops every cut, as when a setting that changes how terrain is built has changed. */
+    public void clear() {
+        MapMesh[] drop;
+        synchronized (this) {
+            gen++;
+            drop = cuts.values().toArray(new MapMesh[0]);
+            cuts.clear();
+        }
+        for (MapMesh m : drop)
+            m.dispose();
+    }
+
+    public synchronized void dump(PrintWriter out) {
+        out.printf("%d cuts kept of %d; %d reused, %d unchanged, %d built, %d evicted\n",
+                cuts.size(), max, hits, unchanged, misses, evicted);
+    }
+
+    public synchronized void reset() {
+        hits = unchanged = misses = evicted = 0;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/*
+ * Maps resource names to the live objects currently using them, for
+ * lookups by exact name or by name prefix. Names are kept in sorted
+ * order, so that a prefix query is a range scan over only the
+ * matching names.
+ *
+ * Names are resolved lazily, since an object's resource is usually
+ * still loading when it changes: changed() only marks the object, and
+ * the name function is retried by resolve() until it stops throwing
+ * Loading. Only tracked objects are indexed.
+ */
+public class NameIndex<T> {
+    private final Function<? super T, String> namef;
+    private final NavigableMap<String, Set<T>> byname = new TreeMap<>();
+    private final Map<T, String> names = new IdentityHashMap<>();
+    private final Set<T> tracked = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<T> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public NameIndex(Function<? super T, String> namef) {
+        this.namef = namef;
+    }
+
+    public synchronized void track(T ob) {
+        if (tracked.add(ob))
+            pending.add(ob);
+    }
+
+    public synchronized void untrack(T ob) {
+        if (tracked.remove(ob)) {
+            pending.remove(ob);
+            setname(ob, null);
+        }
+    }
+
+    public synchronized void changed(T ob) {
+        if (tracked.contains(ob))
+            pending.add(ob);
+    }
+
+    private void setname(T ob, String nm) {
+        String cur = (nm == null) ? names.remove(ob) : names.put(ob, nm);
+        if ((cur != null) && !cur.equals(nm)) {
+            Set<T> set = byname.get(cur);
+            set.remove(ob);
+            if (set.isEmpty())
+                byname.remove(cur);
+        }
+        if ((nm != null) && !nm.equals(cur))
+            byname.computeIfAbsent(nm, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(ob);
+    }
+
+    public synchronized void resolve() {
+        if (pending.isEmpty())
+            return;
+        for (Iterator<T> i = pending.iterator(); i.hasNext(); ) {
+            T ob = i.next();
+            String nm;
+            try {
+                nm = namef.apply(ob);
+            } catch (Loading l) {
+                continue;
+            }
+            setname(ob, nm);
+            i.remove();
+        }
+    }
+
+    public synchronized String name(T ob) {
+        resolve();
+        return (names.get(ob));
+    }
+
+    public synchronized List<T> byname(String name) {
+        resolve();
+        Set<T> set = byname.get(name);
+        return ((set == null) ? Collections.emptyList() : new ArrayList<>(set));
+    }
+
+    public synchronized List<T> byprefix(String prefix) {
+        resolve();
+        List<T> ret = new ArrayList<>();
+        for (Set<T> set : byname.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values())
+            ret.addAll(set);
+        return (ret);
+    }
+
+    /* The distinct indexed names starting with prefix. */
+    public synchronized List<String> names(String prefix) {
+        resolve();
+        return (new ArrayList<>(byname.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet()));
+    }
+
+    /* Objects whose names are not yet known. */
+    public synchronized int unresolved() {
+        return (pending.size());
+    }
+}
@@ -34,15 +34,20 @@ import haven.sloth.gob.Hidden;
 import haven.sloth.gob.Holding;
 import modification.configuration;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.TreeMap;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static haven.MapView.markedGobs;
 
@@ -78,7 +83,88 @@ public class OCache implements Iterable<Gob> {
     private final Map<Long, DamageSprite> gobdmgs = new HashMap<>();
     public boolean isfight = false;
     private final Collection<ChangeCallback> cbs = new WeakList<>();
+    public final AnimLOD anims = new AnimLOD();
+
+
+    private final Queue<ObjDelta> deltas = new ArrayDeque<>();
+    private static final int maxdeltas = 1024;
+    private static final long maxdelay = 250;
+    private volatile List<Gob> snap = Collections.emptyList();
+    private volatile boolean snapdirty = false;
+    public final DeltaStats stats = new DeltaStats();
+    /* Server and virtual gobs by Gob.rc, kept current by Gob.move(). */
+    public final SpatialHash<Gob> index = new SpatialHash<>(MCache.tilesz.x * 8, g -> g.rc);
+    /* The same gobs by resource name, updated when their Drawable changes. */
+    public final NameIndex<Gob> names = new NameIndex<>(g -> {
+        Resource res = g.getres();
+        return ((res == null) ? null : res.name);
+    });
+
+    /* A decoded attribute delta, ready to be applied to a gob. */
+    public static class AttrDelta {
+        static final AttrDelta rem = new AttrDelta(OD_REM, null);
+        public final int type;
+        final Consumer<Gob> apply;
+
+        AttrDelta(int type, Consumer<Gob> apply) {
+            this.type = type;
+            this.apply = apply;
+        }
+    }
+
+    /* All deltas received for one gob in one object data message. */
+    public static class ObjDelta {
+        public final int fl, frame;
+        public final long id;
+        final AttrDelta[] attrs;
+        final long recv = System.currentTimeMillis();
+
+        public ObjDelta(int fl, long id, int frame, List<AttrDelta> attrs) {
+            this.fl = fl;
+            this.id = id;
+            this.frame = frame;
+            this.attrs = attrs.toArray(new AttrDelta[0]);
+        }
+    }
+
+    public static class DeltaStats {
+        private final long[] dtime = new long[OD_RESATTR + 1], dnum = new long[OD_RESATTR + 1];
+        private final long[] atime = new long[OD_RESATTR + 1], anum = new long[OD_RESATTR + 1];
+        private long batches, maxbatch;
+
+        synchronized void decoded(int type, long ns) {
+            dtime[type] += ns;
+            dnum[type]++;
+        }
+
+        synchronized void applied(int type, long ns) {
+            atime[type] += ns;
+            anum[type]++;
+        }
 
+        synchronized void batch(int n) {
+            batches++;
+            maxbatch = Math.max(maxbatch, n);
+        }
+
+        public synchronized void reset() {
+            Arrays.fill(dtime, 0);
+            Arrays.fill(dnum, 0);
+            Arrays.fill(atime, 0);
+            Arrays.fill(anum, 0);
+            batches = maxbatch = 0;
+        }
+
+        public synchronized void dump(java.io.PrintWriter out) {
+            out.printf("%d batches, largest %d gobs\n", batches, maxbatch);
+            out.printf("%4s %10s %10s %10s %10s\n", "type", "decoded", "dec us", "applied", "app us");
+            for (int i = 0; i < dnum.length; i++) {
+                if ((dnum[i] == 0) && (anum[i] == 0))
+                    continue;
+                out.printf("%4d %10d %10.1f %10d %10.1f\n", i, dnum[i], dtime[i] / 1e3, anum[i], atime[i] / 1e3);
+            }
+        }
+    }
 
     public interface ChangeCallback {
         public void changed(Gob ob);
@@ -133,6 +219,9 @@ public class OCache implements Iterable<Gob> {
         if (objs.containsKey(id) && !DefSettings.KEEPGOBS.get()) {
             if (!deleted.containsKey(id) || deleted.get(id) < frame) {
                 Gob old = objs.remove(id);
+                index.remove(old);
+                names.untrack(old);
+                snapdirty = true;
                 deleted.put(id, frame);
                 old.dispose();
                 for (ChangeCallback cb : cbs)
@@ -144,6 +233,9 @@ public class OCache implements Iterable<Gob> {
     public synchronized void remove(long id) {
         Gob old = objs.remove(id);
         if (old != null) {
+            index.remove(old);
+            names.untrack(old);
+            snapdirty = true;
             for (ChangeCallback cb : cbs)
                 cb.removed(old);
         }
@@ -156,12 +248,19 @@ public class OCache implements Iterable<Gob> {
     }
 
     public void ctick(int dt) {
-        synchronized (this) {
-            ArrayList<Gob> copy = new ArrayList<Gob>();
-            for (Gob g : this)
-                copy.add(g);
-            for (Gob g : copy) {
-                g.ctick(dt);
+        try (Trace.Scope s = Trace.begin("OCache.ctick")) {
+            anims.batch();
+            try {
+                synchronized (this) {
+                    ArrayList<Gob> copy = new ArrayList<Gob>();
+                    for (Gob g : this)
+                        copy.add(g);
+                    for (Gob g : copy) {
+                        g.ctick(dt);
+                    }
+                }
+            } finally {
+                anims.flush();
             }
         }
     }
@@ -194,8 +293,8 @@ public class OCache implements Iterable<Gob> {
      * For the Scripting API
      */
     @SuppressWarnings("unused")
-    public synchronized Gob[] getallgobs() {
-        return objs.values().toArray(new Gob[0]);
+    public Gob[] getallgobs() {
+        return objsnapshot().toArray(new Gob[0]);
     }
 
     public synchronized Gob getgob(long id) {
@@ -216,6 +315,9 @@ public class OCache implements Iterable<Gob> {
             } else {
                 Gob g = new Gob(glob, Coord2d.z, id, frame);
                 objs.put(id, g);
+                index.add(g);
+                names.track(g);
+                snapdirty = true;
                 return (g);
             }
         } else {
@@ -237,6 +339,9 @@ public class OCache implements Iterable<Gob> {
             virtual = true;
             synchronized (OCache.this) {
                 objs.put(id, this);
+                index.add(this);
+                names.track(this);
+                snapdirty = true;
                 OCache.this.changed(this);
             }
         }
@@ -251,11 +356,10 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void move(Gob gob, Message msg) {
+    public Consumer<Gob> move(Message msg) {
         Coord2d c = msg.coord().mul(posres);
         int ia = msg.uint16();
-        if (gob != null)
-            move(gob, c, (ia / 65536.0) * Math.PI * 2);
+        return (gob -> move(gob, c, (ia / 65536.0) * Math.PI * 2));
     }
 
     public synchronized void cres(Gob g, Indir<Resource> res, Message dat) {
@@ -272,15 +376,16 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void cres(Gob gob, Message msg) {
+    public Consumer<Gob> cres(Message msg) {
         int resid = msg.uint16();
         Message sdt = Message.nil;
         if ((resid & 0x8000) != 0) {
             resid &= ~0x8000;
             sdt = new MessageBuf(msg.bytes(msg.uint8()));
         }
-        if (gob != null)
-            cres(gob, getres(resid), sdt);
+        Indir<Resource> res = getres(resid);
+        Message dat = sdt;
+        return (gob -> cres(gob, res, dat));
     }
 
     public synchronized void linbeg(Gob g, Coord2d s, Coord2d v) {
@@ -291,11 +396,10 @@ public class OCache implements Iterable<Gob> {
         }
     }
 
-    public void linbeg(Gob gob, Message msg) {
+    public Consumer<Gob> linbeg(Message msg) {
         Coord2d s = msg.coord().mul(posres);
         Coord2d v = msg.coord().mul(posres);
-        if (gob != null)
-            linbeg(gob, s, v);
+        return (gob -> linbeg(gob, s, v));
     }
 
     public synchronized void linstep(Gob g, double t, double e) {
@@ -314,7 +418,7 @@ public class OCache implements Iterable<Gob> {
             lm.e = Double.NaN;
     }
 
-    public void linstep(Gob gob, Message msg) {
+    public Consumer<Gob> linstep(Message msg) {
         double t, e;
         int w = msg.int32();
         if (w == -1) {
@@ -327,8 +431,7 @@ public class OCache implements Iterable<Gob> {
             w = msg.int32();
             e = (w < 0) ? -1 : (w * 0x1p-10);
         }
-        if (gob != null)
-            linstep(gob, t, e);
+        return (gob -> linstep(gob, t, e));
     }
 
     public synchronized void speak(Gob g, float zo, String text) {
@@ -346,11 +449,12 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void speak(Gob gob, Message msg) {
+    public Consumer<Gob> speak(Message msg) {
         float zo = msg.int16() / 100.0f;
         String text = msg.string();
-        if (gob != null && !text.startsWith(ChatUI.CMD_PREFIX_HLIGHT))
-            speak(gob, zo, text);
+        if (text.startsWith(ChatUI.CMD_PREFIX_HLIGHT))
+            return (null);
+        return (gob -> speak(gob, zo, text));
     }
 
     public synchronized void composite(Gob g, Indir<Resource> base) {
@@ -363,10 +467,9 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void composite(Gob gob, Message msg) {
+    public Consumer<Gob> composite(Message msg) {
         Indir<Resource> base = getres(msg.uint16());
-        if (gob != null)
-            composite(gob, base);
+        return (gob -> composite(gob, base));
     }
 
     public synchronized void cmppose(Gob g, int pseq, List<ResData> poses, List<ResData> tposes, boolean interp, float ttime) {
@@ -385,7 +488,7 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void cmppose(Gob gob, Message msg) {
+    public Consumer<Gob> cmppose(Message msg) {
         List<ResData> poses = null, tposes = null;
         int pfl = msg.uint8();
         int seq = msg.uint8();
@@ -420,8 +523,9 @@ public class OCache implements Iterable<Gob> {
             }
             ttime = (msg.uint8() / 10.0f);
         }
-        if (gob != null)
-            cmppose(gob, seq, poses, tposes, interp, ttime);
+        List<ResData> fposes = poses, ftposes = tposes;
+        float fttime = ttime;
+        return (gob -> cmppose(gob, seq, fposes, ftposes, interp, fttime));
     }
 
     public synchronized void cmpmod(Gob g, List<Composited.MD> mod) {
@@ -433,7 +537,7 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void cmpmod(Gob gob, Message msg) {
+    public Consumer<Gob> cmpmod(Message msg) {
         List<Composited.MD> mod = new LinkedList<>();
         int mseq = 0;
         while (true) {
@@ -457,8 +561,7 @@ public class OCache implements Iterable<Gob> {
             md.id = mseq++;
             mod.add(md);
         }
-        if (gob != null)
-            cmpmod(gob, mod);
+        return (gob -> cmpmod(gob, mod));
     }
 
     public synchronized void cmpequ(Gob g, List<Composited.ED> equ) {
@@ -470,7 +573,7 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void cmpequ(Gob gob, Message msg) {
+    public Consumer<Gob> cmpequ(Message msg) {
         List<Composited.ED> equ = new LinkedList<Composited.ED>();
         int eseq = 0;
         while (true) {
@@ -499,8 +602,7 @@ public class OCache implements Iterable<Gob> {
             ed.id = eseq++;
             equ.add(ed);
         }
-        if (gob != null)
-            cmpequ(gob, equ);
+        return (gob -> cmpequ(gob, equ));
     }
 
     synchronized void changeHealthGobs() {
@@ -521,7 +623,7 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void avatar(Gob gob, Message msg) {
+    public Consumer<Gob> avatar(Message msg) {
         List<Indir<Resource>> layers = new LinkedList<>();
         while (true) {
             int layer = msg.uint16();
@@ -529,8 +631,7 @@ public class OCache implements Iterable<Gob> {
                 break;
             layers.add(getres(layer));
         }
-        if (gob != null)
-            avatar(gob, layers);
+        return (gob -> avatar(gob, layers));
     }
 
     public synchronized void zoff(Gob g, float off) {
@@ -548,10 +649,9 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void zoff(Gob gob, Message msg) {
+    public Consumer<Gob> zoff(Message msg) {
         float off = msg.int16() / 100.0f;
-        if (gob != null)
-            zoff(gob, off);
+        return (gob -> zoff(gob, off));
     }
 
     public synchronized void lumin(Gob g, Coord off, int sz, int str) {
@@ -559,12 +659,11 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void lumin(Gob gob, Message msg) {
+    public Consumer<Gob> lumin(Message msg) {
         Coord off = msg.coord();
         int sz = msg.uint16();
         int str = msg.uint8();
-        if (gob != null)
-            lumin(gob, off, sz, str);
+        return (gob -> lumin(gob, off, sz, str));
     }
 
     public synchronized void follow(Gob g, long oid, Indir<Resource> xfres, String xfname) {
@@ -594,16 +693,11 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void follow(Gob gob, Message msg) {
+    public Consumer<Gob> follow(Message msg) {
         long oid = msg.uint32();
-        Indir<Resource> xfres = null;
-        String xfname = null;
-        if (oid != 0xffffffffl) {
-            xfres = getres(msg.uint16());
-            xfname = msg.string();
-        }
-        if (gob != null)
-            follow(gob, oid, xfres, xfname);
+        Indir<Resource> xfres = (oid != 0xffffffffl) ? getres(msg.uint16()) : null;
+        String xfname = (oid != 0xffffffffl) ? msg.string() : null;
+        return (gob -> follow(gob, oid, xfres, xfname));
     }
 
     public synchronized void homostop(Gob g) {
@@ -622,16 +716,14 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void homing(Gob gob, Message msg) {
+    public Consumer<Gob> homing(Message msg) {
         long oid = msg.uint32();
         if (oid == 0xffffffffL) {
-            if (gob != null)
-                homostop(gob);
+            return (this::homostop);
         } else {
             Coord2d tgtc = msg.coord().mul(posres);
             double v = msg.int32() * 0x1p-10 * 11;
-            if (gob != null)
-                homing(gob, oid, tgtc, v);
+            return (gob -> homing(gob, oid, tgtc, v));
         }
     }
 
@@ -723,10 +815,10 @@ public class OCache implements Iterable<Gob> {
         }
     }
 
-    public void overlay(Gob gob, Message msg) {
-        int olid = msg.int32();
-        boolean prs = (olid & 1) != 0;
-        olid >>>= 1;
+    public Consumer<Gob> overlay(Message msg) {
+        int olid0 = msg.int32();
+        boolean prs = (olid0 & 1) != 0;
+        int olid = olid0 >>> 1;
         int resid = msg.uint16();
         Indir<Resource> res;
         Message sdt = Message.nil;
@@ -739,8 +831,8 @@ public class OCache implements Iterable<Gob> {
             }
             res = getres(resid);
         }
-        if (gob != null)
-            overlay(gob, olid, prs, res, sdt);
+        Message dat = sdt;
+        return (gob -> overlay(gob, olid, prs, res, dat));
     }
 
 
@@ -795,10 +887,9 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void health(Gob gob, Message msg) {
+    public Consumer<Gob> health(Message msg) {
         int hp = msg.uint8();
-        if (gob != null)
-            health(gob, hp);
+        return (gob -> health(gob, hp));
     }
 
     public synchronized void highlightGobs(final String gname) {
@@ -920,16 +1011,14 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void buddy(Gob gob, Message msg) {
+    public Consumer<Gob> buddy(Message msg) {
         String name = msg.string();
         if (name.length() > 0) {
             int group = msg.uint8();
             int btype = msg.uint8();
-            if (gob != null)
-                buddy(gob, name, group, btype);
+            return (gob -> buddy(gob, name, group, btype));
         } else {
-            if (gob != null)
-                buddy(gob, null, 0, 0);
+            return (gob -> buddy(gob, null, 0, 0));
         }
     }
 
@@ -941,16 +1030,14 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void icon(Gob gob, Message msg) {
+    public Consumer<Gob> icon(Message msg) {
         int resid = msg.uint16();
-        Indir<Resource> res;
         if (resid == 65535) {
-            if (gob != null)
-                icon(gob, (Indir<Resource>) null);
+            return (gob -> icon(gob, (Indir<Resource>) null));
         } else {
             int ifl = msg.uint8();
-            if (gob != null)
-                icon(gob, getres(resid));
+            Indir<Resource> res = getres(resid);
+            return (gob -> icon(gob, res));
         }
     }
 
@@ -988,75 +1075,188 @@ public class OCache implements Iterable<Gob> {
         changed(g);
     }
 
-    public void resattr(Gob gob, Message msg) {
+    public Consumer<Gob> resattr(Message msg) {
         Indir<Resource> resid = getres(msg.uint16());
         int len = msg.uint8();
         Message dat = (len > 0) ? new MessageBuf(msg.bytes(len)) : null;
-        if (gob != null)
-            resattr(gob, resid, dat);
+        return (gob -> resattr(gob, resid, dat));
     }
 
-    public void receive(Gob gob, int type, Message msg) {
+    private Consumer<Gob> decode0(int type, Message msg) {
         switch (type) {
             case OD_MOVE:
-                move(gob, msg);
-                break;
+                return (move(msg));
             case OD_RES:
-                cres(gob, msg);
-                break;
+                return (cres(msg));
             case OD_LINBEG:
-                linbeg(gob, msg);
-                break;
+                return (linbeg(msg));
             case OD_LINSTEP:
-                linstep(gob, msg);
-                break;
+                return (linstep(msg));
             case OD_HOMING:
-                homing(gob, msg);
-                break;
+                return (homing(msg));
             case OD_SPEECH:
-                speak(gob, msg);
-                break;
+                return (speak(msg));
             case OD_COMPOSE:
-                composite(gob, msg);
-                break;
+                return (composite(msg));
             case OD_CMPPOSE:
-                cmppose(gob, msg);
-                break;
+                return (cmppose(msg));
             case OD_CMPMOD:
-                cmpmod(gob, msg);
-                break;
+                return (cmpmod(msg));
             case OD_CMPEQU:
-                cmpequ(gob, msg);
-                break;
+                return (cmpequ(msg));
             case OD_ZOFF:
-                zoff(gob, msg);
-                break;
+                return (zoff(msg));
             case OD_LUMIN:
-                lumin(gob, msg);
-                break;
+                return (lumin(msg));
             case OD_AVATAR:
-                avatar(gob, msg);
-                break;
+                return (avatar(msg));
             case OD_FOLLOW:
-                follow(gob, msg);
-                break;
+                return (follow(msg));
             case OD_OVERLAY:
-                overlay(gob, msg);
-                break;
+                return (overlay(msg));
             case OD_HEALTH:
-                health(gob, msg);
-                break;
+                return (health(msg));
             case OD_BUDDY:
-                buddy(gob, msg);
-                break;
+                return (buddy(msg));
             case OD_ICON:
-                icon(gob, msg);
-                break;
+                return (icon(msg));
             case OD_RESATTR:
-                resattr(gob, msg);
-                break;
+                return (resattr(msg));
             default:
                 throw (new Session.MessageException("Unknown objdelta type: " + type, msg));
         }
     }
+
+    public AttrDelta decode(int type, Message msg) {
+        if (type == OD_REM)
+            return (AttrDelta.rem);
+        long st = System.nanoTime();
+        Consumer<Gob> apply = decode0(type, msg);
+        stats.decoded(type, System.nanoTime() - st);
+        return (new AttrDelta(type, apply));
+    }
+
+    /* Queues a decoded delta to be applied at the next applydeltas()
+     * call, normally from Glob.ctick(). Should the render loop not be
+     * ticking the glob (such as while paused), the caller applies the
+     * backlog itself rather than letting it grow without bound. */
+    public void receive(ObjDelta d) {
+        boolean drain;
+        synchronized (deltas) {
+            deltas.add(d);
+            long oldest = deltas.peek().recv;
+            drain = (deltas.size() > maxdeltas) || (System.currentTimeMillis() - oldest > maxdelay);
+        }
+        if (drain)
+            applydeltas();
+    }
+
+    public void applydeltas() {
+        synchronized (this) {
+            ObjDelta[] batch;
+            synchronized (deltas) {
+                if (deltas.isEmpty()) {
+                    batch = null;
+                } else {
+                    batch = deltas.toArray(new ObjDelta[0]);
+                    deltas.clear();
+                }
+            }
+            if (batch != null) {
+                for (ObjDelta d : batch)
+                    apply(d);
+                stats.batch(batch.length);
+            }
+            if (snapdirty)
+                refreshsnap();
+        }
+        names.resolve();
+    }
+
+    private void apply(ObjDelta d) {
+        if ((d.fl & 1) != 0)
+            remove(d.id, d.frame - 1);
+        Gob gob = getgob(d.id, d.frame);
+        if (gob != null) {
+            gob.frame = d.frame;
+            gob.virtual = ((d.fl & 2) != 0);
+        }
+        for (AttrDelta a : d.attrs) {
+            if (a == AttrDelta.rem) {
+                remove(d.id, d.frame - 1);
+            } else if ((gob != null) && (a.apply != null)) {
+                long st = System.nanoTime();
+                a.apply.accept(gob);
+                stats.applied(a.type, System.nanoTime() - st);
+            }
+        }
+    }
+
+    /* Gobs strictly closer than r to c, in no particular order. */
+    public List<Gob> inradius(Coord2d c, double r, Predicate<? super Gob> filter) {
+        return (index.radius(c, r, filter));
+    }
+
+    public List<Gob> inrect(Coord2d ul, Coord2d br, Predicate<? super Gob> filter) {
+        return (index.rect(ul, br, filter));
+    }
+
+    /* The k gobs closest to c within maxr, nearest first. */
+    public List<Gob> nearest(Coord2d c, int k, double maxr, Predicate<? super Gob> filter) {
+        return (index.nearest(c, k, maxr, filter));
+    }
+
+    public Gob nearest(Coord2d c, double maxr, Predicate<? super Gob> filter) {
+        return (index.nearest(c, maxr, filter));
+    }
+
+    /* Gobs whose resource is exactly name. */
+    public List<Gob> byname(String name) {
+        return (names.byname(name));
+    }
+
+    /* Gobs whose resource name starts with prefix, such as "gfx/terobjs/trees/". */
+    public List<Gob> byprefix(String prefix) {
+        return (names.byprefix(prefix));
+    }
+
+    private void refreshsnap() {
+        snap = Collections.unmodifiableList(Arrays.asList(objs.values().toArray(new Gob[0])));
+        snapdirty = false;
+    }
+
+    /**
+     * Returns an immutable snapshot of the server and virtual gobs,
+     * which may be read without holding the OCache lock. It is
+     * refreshed whenever deltas are applied, so it may lag the live
+     * set by at most a frame.
+     */
+    public List<Gob> objsnapshot() {
+        if (snapdirty) {
+            synchronized (this) {
+                if (snapdirty)
+                    refreshsnap();
+            }
+        }
+        return (snap);
+    }
+
+    /**
+     * Like objsnapshot, but also holding the local gobs, the same
+     * set that iterating the OCache goes through. Local gobs are
+     * copied anew on every call, under the OCache lock that ladd and
+     * lrem take.
+     */
+    public List<Gob> snapshot() {
+        List<Gob> objs = objsnapshot();
+        List<Gob> ret;
+        synchronized (this) {
+            if (local.isEmpty())
+                return (objs);
+            ret = new ArrayList<>(objs);
+            for (Collection<Gob> gc : local)
+                ret.addAll(gc);
+        }
+        return (Collections.unmodifiableList(ret));
+    }
 }
\ No newline at end of file
@@ -108,6 +108,7 @@ import static haven.DefSettings.OCEANWATERCOL;
 import static haven.DefSettings.PATHFINDINGTIER;
 import static haven.DefSettings.PLAYERPATHCOL;
 import static haven.DefSettings.RESEARCHUNTILGOAL;
+import static haven.DefSettings.SCRIPTPATHFINDER;
 import static haven.DefSettings.SHALLOWOCEANWATERCOL;
 import static haven.DefSettings.SHALLOWWATERCOL;
 import static haven.DefSettings.SHOWANIMALPATH;
@@ -1408,13 +1409,8 @@ public class OptWnd extends Window {
                 Utils.setprefb("chatsave", val);
                 Config.chatsave = val;
                 a = val;
-                if (!val && Config.chatlog != null) {
-                    try {
-                        Config.chatlog.close();
-                        Config.chatlog = null;
-                    } catch (Exception e) {
-                    }
-                }
+                if (!val)
+                    ChatLog.global.close();
             }
         });
         appender.add(new CheckBox("Save map tiles to disk - No performance benefit, this is only for creating your own maps or uploading.") {
@@ -1429,6 +1425,20 @@ public class OptWnd extends Window {
                 a = val;
             }
         });
+        appender.addRow(new Label("Chat lines kept per channel: "),
+                new HSlider(200, 100, 10000, Config.chathistory) {
+                    @Override
+                    public void changed() {
+                        Config.chathistory = val;
+                        Utils.setprefi("chathistory", val);
+                    }
+
+                    @Override
+                    public Object tooltip(Coord c0, Widget prev) {
+                        return Text.render("Older lines are dropped, and written to the chat log if it is being saved : " + val).tex();
+                    }
+                }
+        );
         appender.add(new CheckBox("Show timestamps in chats") {
             {
                 a = Config.chattimestamp;
@@ -3610,6 +3620,8 @@ public class OptWnd extends Window {
         appender.addRow(new IndirLabel(() -> String.format("Pathfinding Tier: %s", tiers[PATHFINDINGTIER.get()])), new IndirHSlider(200, 0, 2, PATHFINDINGTIER));
         appender.add(new IndirCheckBox("Limit pathfinding search to 40 tiles", LIMITPATHFINDING));
         appender.add(new IndirCheckBox("Research if goal was not found (requires Limited pathfinding)", RESEARCHUNTILGOAL));
+        final String[] finders = {"NBA*", "Jump point", "Hierarchical jump point"};
+        appender.addRow(new IndirLabel(() -> String.format("Script pathfinder: %s", finders[SCRIPTPATHFINDER.get()])), new IndirHSlider(200, 0, 2, SCRIPTPATHFINDER));
 
         appender.add(new Label("Flowermenu"));
         appender.addRow(new Label("Instant Flowermenu: "),
@@ -4348,6 +4360,7 @@ public class OptWnd extends Window {
             }
         });
         appender.add(new CheckBox("Map debug log", val -> Utils.setprefb("mapdebug", MapFile.debug = val), MapFile.debug));
+        appender.add(new CheckBox("Store map in a single pack file (restart)", val -> Utils.setprefb("mappack", Config.mappack = val), Config.mappack));
         appender.add(new IndirCheckBox("Debug sloth pathfinding", DEBUG));
         appender.add(new CheckBox("Debug purus pathfinding") {
             {
@@ -5164,6 +5177,7 @@ public class OptWnd extends Window {
                         gui.msg("Tile centering is now turned " + (Config.tilecenter ? "on." : "off."), Color.WHITE);
                 }, Config.tilecenter)
         );
+        appender.add(new CheckBox("Find hovered objects without rendering them", val -> Utils.setprefb("cpupick", Config.cpupick = val), Config.cpupick));
         appender.addRow(
                 new CheckBox("Hide game objects", val -> {
                     Utils.setprefb("hidegobs", Config.hidegobs = val);
@@ -6388,6 +6402,7 @@ public class OptWnd extends Window {
                             }
                         }
                 );
+                appender.add(new CheckBox("Animate distant and off-screen objects less often", val -> Utils.setprefb("animlod", Config.animlod = val), Config.animlod));
 //                appender.add(new CheckBox("Lower terrain draw distance - Will increase performance, but look like shit. (requires logout)") {
 //                    {
 //                        a = Config.lowerterraindistance;
@@ -227,12 +227,16 @@ public abstract class PView extends Widget {
             lm.prep(def);
             new Light.LightList().prep(def);
             try {
-                rls.setup(scene, def);
+                try (Trace.Scope s = Trace.begin("RenderList.setup")) {
+                    rls.setup(scene, def);
+                }
                 if (DefSettings.WIREFRAMEMODE.get())
                     g.gl.glPolygonMode(GL2.GL_FRONT_AND_BACK, GL2.GL_LINE);
                 if (curf != null)
                     curf.tick("setup");
-                rls.fin();
+                try (Trace.Scope s = Trace.begin("RenderList.fin")) {
+                    rls.fin();
+                }
                 if (curf != null)
                     curf.tick("sort");
                 GOut rg;
@@ -262,7 +266,9 @@ public abstract class PView extends Widget {
                 if (curf != null)
                     curf.tick("cls");
                 g.st.time = 0;
-                rls.render(rg);
+                try (Trace.Scope s = Trace.begin("RenderList.render")) {
+                    rls.render(rg);
+                }
                 if (DefSettings.WIREFRAMEMODE.get())
                     g.gl.glPolygonMode(GL2.GL_FRONT_AND_BACK, GL2.GL_FILL);
                 if (cstate.cur.fb != null)
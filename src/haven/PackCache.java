@@ -0,0 +1,838 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/*
+ * A ResCache that keeps all its entries in one append-only log
+ * file, rather than one file per entry like HashDirCache. Meant for
+ * the map file, which otherwise ends up with hundreds of thousands
+ * of tiny files.
+ *
+ * The directory contains a log file per generation ("<gen>.log"),
+ * of which only the current one is live, and an index file which
+ * is a snapshot of the name -> (offset, length) table along with
+ * how much of the log it covers; records appended after the last
+ * snapshot are recovered by scanning the log tail when opening. A
+ * background thread writes new index snapshots, and compacts the
+ * log into a new generation when enough of it is garbage.
+ *
+ * Several processes can have a pack open at once. Each holds a
+ * shared lock on the pack while it has it open, and appends with
+ * the log locked, first picking up whatever other processes have
+ * appended since; reads pick those up as well whenever the log has
+ * grown. Compacting replaces the log, so it is only done by a
+ * process that can get the pack to itself.
+ */
+public class PackCache implements ResCache {
+    private static final byte[] LOG_SIG = "Haven Pack 1".getBytes(Utils.ascii);
+    private static final byte[] IDX_SIG = "Haven Pack Index 1".getBytes(Utils.ascii);
+    private static final int REC_PUT = 1, REC_DEL = 2;
+    private static final long CHUNK = 1 << 26;
+    public final File dir;
+    public final ResCache back;
+    private final FileChannel lockch;
+    private FileLock dirlock;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock swaplock = new ReentrantReadWriteLock();
+    private final Object appmon = new Object();
+    private final Object bgmon = new Object();
+    private final Object maint = new Object();
+    private volatile Log log;
+    private boolean migrated;
+    private long covered, live, dead;
+    private boolean closed = false;
+
+    private static class Entry {
+        final long off;
+        final int len;
+
+        Entry(long off, int len) {
+            this.off = off;
+            this.len = len;
+        }
+    }
+
+    private static class Log {
+        final long gen;
+        final File path;
+        final RandomAccessFile fp;
+        final FileChannel ch;
+        final List<MappedByteBuffer> chunks = new ArrayList<>();
+        volatile long len;
+
+        Log(File dir, long gen) throws IOException {
+            this.gen = gen;
+            this.path = new File(dir, String.format("%016x.log", gen));
+            this.fp = new RandomAccessFile(path, "rw");
+            this.ch = fp.getChannel();
+            try (FileLock l = ch.lock()) {
+                if (ch.size() < LOG_SIG.length) {
+                    ch.truncate(0);
+                    write(ByteBuffer.wrap(LOG_SIG), 0);
+                    len = LOG_SIG.length;
+                } else {
+                    byte[] sig = new byte[LOG_SIG.length];
+                    read(ByteBuffer.wrap(sig), 0);
+                    if (!Arrays.equals(sig, LOG_SIG))
+                        throw (new IOException("Invalid pack log signature in " + path));
+                    len = ch.size();
+                }
+            } catch (IOException | RuntimeException e) {
+                fp.close();
+                throw (e);
+            }
+        }
+
+        void write(ByteBuffer buf, long pos) throws IOException {
+            while (buf.hasRemaining())
+                pos += ch.write(buf, pos);
+        }
+
+        void read(ByteBuffer buf, long pos) throws IOException {
+            while (buf.hasRemaining()) {
+                int rv = ch.read(buf, pos);
+                if (rv < 0)
+                    throw (new EOFException());
+                pos += rv;
+            }
+        }
+
+        /* Completed chunks never change, so they are mapped once and
+         * kept. Anything else is read directly. */
+        private ByteBuffer chunk(int n) throws IOException {
+            synchronized (chunks) {
+                while (chunks.size() <= n)
+                    chunks.add(null);
+                MappedByteBuffer ret = chunks.get(n);
+                if (ret == null)
+                    chunks.set(n, ret = ch.map(FileChannel.MapMode.READ_ONLY, n * CHUNK, CHUNK));
+                return (ret.duplicate());
+            }
+        }
+
+        byte[] get(long off, int len) throws IOException {
+            byte[] ret = new byte[len];
+            int n = (int) (off / CHUNK);
+            long end = (n + 1) * CHUNK;
+            if ((off + len <= end) && (end <= this.len)) {
+                ByteBuffer buf = chunk(n);
+                buf.position((int) (off - (n * CHUNK)));
+                buf.get(ret);
+            } else {
+                read(ByteBuffer.wrap(ret), off);
+            }
+            return (ret);
+        }
+
+        void close() throws IOException {
+            synchronized (chunks) {
+                chunks.clear();
+            }
+            fp.close();
+        }
+    }
+
+    public PackCache(File dir, ResCache back) throws IOException {
+        this.dir = dir;
+        this.back = back;
+        if (!dir.exists() && !dir.mkdirs())
+            throw (new IOException("Could not create pack directory " + dir));
+        RandomAccessFile lfp = new RandomAccessFile(new File(dir, "lock"), "rw");
+        this.lockch = lfp.getChannel();
+        boolean alone;
+        try {
+            FileLock lk = lockch.tryLock();
+            alone = (lk != null);
+            if (!alone)
+                lk = lockch.lock(0, Long.MAX_VALUE, true);
+            this.dirlock = lk;
+        } catch (OverlappingFileLockException e) {
+            lfp.close();
+            throw (new IOException("Pack " + dir + " is already open in this process"));
+        }
+        this.migrated = new File(dir, "migrated").exists();
+        try {
+            open(alone);
+            if (alone)
+                share();
+            File unpacked = new File(dir, "unpacked");
+            if ((back instanceof HashDirCache) && unpacked.exists())
+                reconcile((HashDirCache) back, unpacked, "map/");
+        } catch (IOException | RuntimeException e) {
+            lfp.close();
+            throw (e);
+        }
+        Thread bg = new HackThread(this::background, "Pack maintenance");
+        bg.setDaemon(true);
+        bg.start();
+    }
+
+    public PackCache(File dir) throws IOException {
+        this(dir, null);
+    }
+
+    /* Old generations are only cleaned up by a process that has the
+     * pack to itself, since others may still be reading them. */
+    private void open(boolean alone) throws IOException {
+        long gen = -1;
+        covered = LOG_SIG.length;
+        File idx = new File(dir, "index");
+        if (idx.exists()) {
+            try (DataInputStream fp = new DataInputStream(new BufferedInputStream(new FileInputStream(idx)))) {
+                byte[] sig = new byte[IDX_SIG.length];
+                fp.readFully(sig);
+                if (!Arrays.equals(sig, IDX_SIG))
+                    throw (new IOException("Invalid pack index signature"));
+                long igen = fp.readLong();
+                long icov = fp.readLong();
+                int n = fp.readInt();
+                for (int i = 0; i < n; i++) {
+                    String name = fp.readUTF();
+                    long off = fp.readLong();
+                    int len = fp.readInt();
+                    index.put(name, new Entry(off, len));
+                    live += len;
+                }
+                gen = igen;
+                covered = icov;
+            } catch (IOException e) {
+                new Warning(e, "pack index in " + dir + " is unusable, rescanning log").issue();
+                index.clear();
+                live = 0;
+                gen = -1;
+                covered = LOG_SIG.length;
+            }
+        }
+        if (gen < 0) {
+            for (long g : gens())
+                gen = Math.max(gen, g);
+            if (gen < 0)
+                gen = 0;
+        }
+        log = new Log(dir, gen);
+        if (covered > log.len) {
+            new Warning("pack index in " + dir + " is ahead of its log, rescanning").issue();
+            index.clear();
+            live = 0;
+            covered = LOG_SIG.length;
+        }
+        synchronized (appmon) {
+            try (FileLock l = log.ch.lock()) {
+                scan(covered);
+            }
+        }
+        if (alone) {
+            for (long g : gens()) {
+                if (g != gen)
+                    new File(dir, String.format("%016x.log", g)).delete();
+            }
+        }
+    }
+
+    /* Takes in the entries with the given prefix that were stored in
+     * the hashed-directory cache while it was being used without the
+     * pack, since the pack's own copies of them are older. */
+    private void reconcile(HashDirCache back, File unpacked, String prefix) throws IOException {
+        long since = unpacked.lastModified();
+        int n = 0;
+        for (Iterator<String> i = back.list(); i.hasNext(); ) {
+            String name = i.next();
+            if (!name.startsWith(prefix) || (back.mtime(name) < since))
+                continue;
+            byte[] data;
+            try (InputStream in = back.fetch(name)) {
+                data = Utils.readall(in);
+            } catch (FileNotFoundException e) {
+                continue;
+            }
+            append(REC_PUT, name, data, data.length);
+            n++;
+        }
+        unpacked.delete();
+        if (n > 0)
+            new Warning("took " + n + " newer entries from " + back + " into " + this).issue();
+    }
+
+    /* Trades the shared lock on the pack for an exclusive one, which
+     * only succeeds if no other process has it open. If it fails,
+     * the pack is shared again when this returns. */
+    private boolean exclusive() throws IOException {
+        swaplock.writeLock().lock();
+        try {
+            dirlock.release();
+            FileLock lk = lockch.tryLock();
+            if (lk != null) {
+                dirlock = lk;
+                return (true);
+            }
+            dirlock = lockch.lock(0, Long.MAX_VALUE, true);
+            follow();
+            return (false);
+        } finally {
+            swaplock.writeLock().unlock();
+        }
+    }
+
+    private void share() throws IOException {
+        swaplock.writeLock().lock();
+        try {
+            dirlock.release();
+            dirlock = lockch.lock(0, Long.MAX_VALUE, true);
+            follow();
+        } finally {
+            swaplock.writeLock().unlock();
+        }
+    }
+
+    /* Reopens the pack if another process compacted it into a newer
+     * generation while it was not locked. */
+    private void follow() throws IOException {
+        long gen = log.gen;
+        for (long g : gens())
+            gen = Math.max(gen, g);
+        if (gen != log.gen) {
+            log.close();
+            index.clear();
+            live = dead = 0;
+            open(false);
+        }
+    }
+
+    private List<Long> gens() {
+        List<Long> ret = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null)
+            return (ret);
+        for (File f : files) {
+            String nm = f.getName();
+            if ((nm.length() == 20) && nm.endsWith(".log")) {
+                try {
+                    ret.add(Long.parseUnsignedLong(nm.substring(0, 16), 16));
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+        return (ret);
+    }
+
+    /* Replays the records following an index snapshot, and cuts off
+     * any partially written record at the end. Called with appmon
+     * held and the log locked. */
+    private void scan(long pos) throws IOException {
+        long end = log.ch.size();
+        try (DataInputStream fp = new DataInputStream(new BufferedInputStream(new FileInputStream(log.path)))) {
+            for (long sk = pos; sk > 0; ) {
+                long rv = fp.skip(sk);
+                if (rv <= 0)
+                    throw (new EOFException());
+                sk -= rv;
+            }
+            while (pos < end) {
+                try {
+                    int type = fp.readUnsignedByte();
+                    byte[] nb = new byte[fp.readUnsignedShort()];
+                    fp.readFully(nb);
+                    String name = new String(nb, Utils.utf8);
+                    int len = fp.readInt();
+                    int crc = fp.readInt();
+                    long doff = pos + 1 + 2 + nb.length + 4 + 4;
+                    if ((len < 0) || (doff + len > end))
+                        break;
+                    byte[] data = new byte[len];
+                    fp.readFully(data);
+                    CRC32 sum = new CRC32();
+                    sum.update(data);
+                    if ((int) sum.getValue() != crc)
+                        break;
+                    if (type == REC_PUT)
+                        replace(name, new Entry(doff, len));
+                    else if (type == REC_DEL)
+                        replace(name, null);
+                    else
+                        break;
+                    pos = doff + len;
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+        if (pos < end) {
+            new Warning("truncating damaged pack log " + log.path + " at " + pos).issue();
+            log.ch.truncate(pos);
+        }
+        log.len = pos;
+    }
+
+    private void replace(String name, Entry e) {
+        Entry p = (e == null) ? index.remove(name) : index.put(name, e);
+        if (p != null) {
+            live -= p.len;
+            dead += p.len;
+        }
+        if (e != null)
+            live += e.len;
+    }
+
+    private static byte[] record(int type, String name, byte[] data, int off, int len) {
+        CRC32 sum = new CRC32();
+        sum.update(data, off, len);
+        byte[] nb = name.getBytes(Utils.utf8);
+        if (nb.length > 65535)
+            throw (new IllegalArgumentException("Pack entry name too long: " + name));
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(len + nb.length + 11);
+        try {
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeByte(type);
+            out.writeShort(nb.length);
+            out.write(nb);
+            out.writeInt(len);
+            out.writeInt((int) sum.getValue());
+            out.write(data, off, len);
+        } catch (IOException e) {
+            throw (new AssertionError(e));
+        }
+        return (buf.toByteArray());
+    }
+
+    /* Picks up what other processes have appended since this one
+     * last looked. Called with the swap lock held. */
+    private void refresh() throws IOException {
+        if (log.ch.size() == log.len)
+            return;
+        synchronized (appmon) {
+            try (FileLock l = log.ch.lock()) {
+                if (log.ch.size() != log.len)
+                    scan(log.len);
+            }
+        }
+    }
+
+    private void append(int type, String name, byte[] data, int len) throws IOException {
+        byte[] rec = record(type, name, data, 0, len);
+        swaplock.readLock().lock();
+        try {
+            if (closed)
+                throw (new IOException("Pack " + dir + " is closed"));
+            synchronized (appmon) {
+                try (FileLock l = log.ch.lock()) {
+                    if (log.ch.size() != log.len)
+                        scan(log.len);
+                    long pos = log.len;
+                    log.write(ByteBuffer.wrap(rec), pos);
+                    log.len = pos + rec.length;
+                    replace(name, (type == REC_PUT) ? new Entry(pos + rec.length - len, len) : null);
+                }
+            }
+        } finally {
+            swaplock.readLock().unlock();
+        }
+        synchronized (bgmon) {
+            bgmon.notifyAll();
+        }
+    }
+
+    public OutputStream store(String name) throws IOException {
+        return (new ByteArrayOutputStream() {
+            private boolean done = false;
+
+            public void close() throws IOException {
+                if (!done) {
+                    done = true;
+                    append(REC_PUT, name, buf, count);
+                }
+            }
+        });
+    }
+
+    private byte[] get(String name) throws IOException {
+        swaplock.readLock().lock();
+        try {
+            refresh();
+            Entry e = index.get(name);
+            if (e == null)
+                return (null);
+            return (log.get(e.off, e.len));
+        } finally {
+            swaplock.readLock().unlock();
+        }
+    }
+
+    public InputStream fetch(String name) throws IOException {
+        byte[] data = get(name);
+        if (data == null) {
+            if ((back == null) || migrated)
+                throw (new FileNotFoundException(name));
+            /* Entries still in the backing cache are moved over as
+             * they are used. */
+            try (InputStream in = back.fetch(name)) {
+                data = Utils.readall(in);
+            }
+            append(REC_PUT, name, data, data.length);
+        }
+        return (new ByteArrayInputStream(data));
+    }
+
+    public boolean contains(String name) {
+        return (index.containsKey(name));
+    }
+
+    public void remove(String name) throws IOException {
+        swaplock.readLock().lock();
+        try {
+            refresh();
+        } finally {
+            swaplock.readLock().unlock();
+        }
+        if (!index.containsKey(name))
+            throw (new FileNotFoundException(name));
+        append(REC_DEL, name, new byte[0], 0);
+    }
+
+    public Iterator<String> list() {
+        return (new ArrayList<>(index.keySet()).iterator());
+    }
+
+    private void checkpoint() throws IOException {
+        synchronized (maint) {
+            long gen, len;
+            String[] names;
+            Entry[] ents;
+            swaplock.writeLock().lock();
+            try {
+                refresh();
+                log.ch.force(false);
+                gen = log.gen;
+                len = log.len;
+                names = index.keySet().toArray(new String[0]);
+                ents = new Entry[names.length];
+                for (int i = 0; i < names.length; i++)
+                    ents[i] = index.get(names[i]);
+            } finally {
+                swaplock.writeLock().unlock();
+            }
+            File tmp = new File(dir, "index.new");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.write(IDX_SIG);
+                out.writeLong(gen);
+                out.writeLong(len);
+                out.writeInt(names.length);
+                for (int i = 0; i < names.length; i++) {
+                    out.writeUTF(names[i]);
+                    out.writeLong(ents[i].off);
+                    out.writeInt(ents[i].len);
+                }
+            }
+            Files.move(tmp.toPath(), new File(dir, "index").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            covered = len;
+        }
+    }
+
+    /* Copies all live records into a new log generation. Most of the
+     * copying is done without blocking writers; only records
+     * appended during the copy are transferred with the pack
+     * locked. Returns false without doing anything if other
+     * processes have the pack open. */
+    public boolean compact() throws IOException {
+        synchronized (maint) {
+            if (!exclusive())
+                return (false);
+            try {
+                compact0();
+            } finally {
+                share();
+            }
+            return (true);
+        }
+    }
+
+    private void compact0() throws IOException {
+        Log old = log;
+        Log nlog = new Log(dir, old.gen + 1);
+        try {
+            Map<String, Entry> snap = new HashMap<>(index);
+            Map<String, Entry> nidx = new HashMap<>();
+            for (Map.Entry<String, Entry> ent : snap.entrySet())
+                copy(old, nlog, ent.getKey(), ent.getValue(), nidx);
+            swaplock.writeLock().lock();
+            try {
+                for (Map.Entry<String, Entry> ent : index.entrySet()) {
+                    if (snap.get(ent.getKey()) != ent.getValue())
+                        copy(old, nlog, ent.getKey(), ent.getValue(), nidx);
+                }
+                nidx.keySet().retainAll(index.keySet());
+                index.clear();
+                index.putAll(nidx);
+                live = 0;
+                for (Entry e : nidx.values())
+                    live += e.len;
+                dead = 0;
+                log = nlog;
+                nlog = null;
+                covered = LOG_SIG.length;
+            } finally {
+                swaplock.writeLock().unlock();
+            }
+            checkpoint();
+            old.close();
+            /* Fails on Windows if something still maps the old log,
+             * in which case the next open cleans it up. */
+            old.path.delete();
+        } finally {
+            if (nlog != null) {
+                nlog.close();
+                nlog.path.delete();
+            }
+        }
+    }
+
+    private static void copy(Log from, Log to, String name, Entry e, Map<String, Entry> nidx) throws IOException {
+        byte[] data = from.get(e.off, e.len);
+        byte[] rec = record(REC_PUT, name, data, 0, data.length);
+        long pos = to.len;
+        to.write(ByteBuffer.wrap(rec), pos);
+        to.len = pos + rec.length;
+        nidx.put(name, new Entry(pos + rec.length - data.length, data.length));
+    }
+
+    private boolean needcompact() {
+        return ((dead > (32 << 20)) && (dead > live));
+    }
+
+    private boolean needcheckpoint() {
+        return (log.len - covered > (16 << 20));
+    }
+
+    private void background() {
+        try {
+            while (true) {
+                synchronized (bgmon) {
+                    while (!closed && !needcompact() && !needcheckpoint())
+                        bgmon.wait(60000);
+                    if (closed)
+                        return;
+                }
+                try {
+                    if (!needcompact()) {
+                        checkpoint();
+                    } else if (!compact()) {
+                        /* Try again once the other processes may
+                         * have let go of the pack. */
+                        if (needcheckpoint())
+                            checkpoint();
+                        synchronized (bgmon) {
+                            if (!closed)
+                                bgmon.wait(60000);
+                        }
+                    }
+                } catch (IOException e) {
+                    new Warning(e, "pack maintenance failed for " + dir).issue();
+                    Thread.sleep(60000);
+                }
+            }
+        } catch (InterruptedException e) {
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (bgmon) {
+            closed = true;
+            bgmon.notifyAll();
+        }
+        synchronized (maint) {
+            checkpoint();
+        }
+        swaplock.writeLock().lock();
+        try {
+            log.close();
+            dirlock.release();
+            dirlock.channel().close();
+        } finally {
+            swaplock.writeLock().unlock();
+        }
+    }
+
+    public String stats() {
+        return (String.format("%d entries, %d kB live, %d kB dead, gen %d", index.size(), live >> 10, dead >> 10, log.gen));
+    }
+
+    public String toString() {
+        return ("PackCache(" + dir + ")");
+    }
+
+    public static File dirfor(URI id) {
+        long h = 0;
+        String nm = id.toString();
+        for (int i = 0; i < nm.length(); i++)
+            h = (h * 31) + nm.charAt(i);
+        return (new File(HashDirCache.findbase(), String.format("pack-%016x", h)));
+    }
+
+    /* Opens the pack for the given hashed-directory cache, falling
+     * back to that cache itself if the pack cannot be used. */
+    public static ResCache create(HashDirCache back) {
+        if (back == null)
+            return (null);
+        try {
+            return (new PackCache(dirfor(back.id), back));
+        } catch (IOException | RuntimeException e) {
+            new Warning(e, "could not open pack cache, using " + back).issue();
+            return (bypass(back));
+        }
+    }
+
+    /* Notes that the given cache is about to be written to directly,
+     * so that a pack made from it takes in what is written once it
+     * is opened again. Returns the cache. */
+    public static ResCache bypass(ResCache back) {
+        if (back instanceof HashDirCache) {
+            File pack = dirfor(((HashDirCache) back).id);
+            File unpacked = new File(pack, "unpacked");
+            try {
+                if (pack.isDirectory())
+                    unpacked.createNewFile();
+            } catch (IOException e) {
+                new Warning(e, "could not mark " + pack + " as bypassed").issue();
+            }
+        }
+        return (back);
+    }
+
+    private static ResCache global = null;
+
+    /* The pack standing in for ResCache.global, for stores (such as
+     * the map file) that have been switched over to it. */
+    public static synchronized ResCache global() {
+        if (global == null) {
+            if (ResCache.global instanceof HashDirCache)
+                global = create((HashDirCache) ResCache.global);
+            else
+                global = ResCache.global;
+        }
+        return (global);
+    }
+
+    /* Copies every entry whose name starts with the given prefix from
+     * a hashed-directory cache into a pack. */
+    public static int migrate(HashDirCache from, PackCache to, String prefix) throws IOException {
+        int n = 0;
+        for (Iterator<String> i = from.list(); i.hasNext(); ) {
+            String name = i.next();
+            if (!name.startsWith(prefix) || to.contains(name))
+                continue;
+            byte[] data;
+            try (InputStream in = from.fetch(name)) {
+                data = Utils.readall(in);
+            } catch (FileNotFoundException e) {
+                continue;
+            }
+            to.append(REC_PUT, name, data, data.length);
+            n++;
+        }
+        /* Everything is in the pack now, so misses need not go to
+         * the old cache anymore. */
+        new File(to.dir, "migrated").createNewFile();
+        to.migrated = true;
+        return (n);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: PackCache ID-URI COMMAND [ARGS...]");
+            System.err.println("commands: migrate [PREFIX], ls, cat NAME, compact, stats");
+            System.exit(1);
+        }
+        HashDirCache hd;
+        if (args[0].indexOf(':') >= 0)
+            hd = new HashDirCache(URI.create(args[0]));
+        else
+            hd = new HashDirCache(args[0]);
+        PackCache pack = new PackCache(dirfor(hd.id));
+        try {
+            switch (args[1]) {
+                case "migrate":
+                    int n = migrate(hd, pack, (args.length > 2) ? args[2] : "map/");
+                    System.err.printf("migrated %d entries%n", n);
+                    break;
+                case "ls":
+                    for (Iterator<String> i = pack.list(); i.hasNext(); )
+                        System.out.println(i.next());
+                    break;
+                case "cat":
+                    try (InputStream fp = pack.fetch(args[2])) {
+                        System.out.write(Utils.readall(fp));
+                    }
+                    System.out.flush();
+                    break;
+                case "compact":
+                    if (!pack.compact())
+                        System.err.println("pack is in use by another process, not compacted");
+                    break;
+                case "stats":
+                    break;
+                default:
+                    System.err.printf("no such command: %s%n", args[1]);
+                    System.exit(1);
+            }
+            System.err.println(pack.stats());
+        } finally {
+            pack.close();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package haven;
 
+import haven.sloth.gfx.TextMap;
+
 import java.awt.Color;
 
 
@@ -7,23 +9,10 @@ public class PlantStageSprite extends Sprite {
     private static final Color stagecolor = new Color(255, 227, 168);
     private static final Tex stgmaxtex = Text.renderstroked("\u25CF", new Color(254, 100, 100), Color.BLACK, Text.num12boldFnd).tex();
     private static final Tex stghrvtex = Text.renderstroked("\u25CF", new Color(201, 180, 0), Color.BLACK, Text.num12boldFnd).tex();
-    private static final Tex[] stgtex = new Tex[]{
-            Text.renderstroked("2", stagecolor, Color.BLACK, Text.num12boldFnd).tex(),
-            Text.renderstroked("3", stagecolor, Color.BLACK, Text.num12boldFnd).tex(),
-            Text.renderstroked("4", stagecolor, Color.BLACK, Text.num12boldFnd).tex(),
-            Text.renderstroked("5", stagecolor, Color.BLACK, Text.num12boldFnd).tex(),
-            Text.renderstroked("6", stagecolor, Color.BLACK, Text.num12boldFnd).tex()
-    };
-    private static final Tex[] stgtexalt = new Tex[]{
-            Text.renderstroked("1", stagecolor, Color.BLACK, Text.num12boldFnd).tex(),
-            Text.renderstroked("2", stagecolor, Color.BLACK, Text.num12boldFnd).tex(),
-            Text.renderstroked("3", stagecolor, Color.BLACK, Text.num12boldFnd).tex(),
-            Text.renderstroked("4", stagecolor, Color.BLACK, Text.num12boldFnd).tex(),
-            Text.renderstroked("5", stagecolor, Color.BLACK, Text.num12boldFnd).tex(),
-            Text.renderstroked("6", stagecolor, Color.BLACK, Text.num12boldFnd).tex()
-    };
+    private static final TextMap glyphs = TextCache.global.glyphs(Text.num12boldFnd, stagecolor, Color.BLACK);
     public int stg;
     private Tex tex;
+    private String num;
     private static Matrix4f mv = new Matrix4f();
     private Projection proj;
     private Coord wndsz;
@@ -41,9 +30,13 @@ public class PlantStageSprite extends Sprite {
     public void draw(GOut g) {
         float[] c = mv.load(camp.fin(Matrix4f.id)).mul1(loc.fin(Matrix4f.id)).homoc();
         Coord sc = proj.get2dCoord(c, wndsz);
-        sc.x -= tex.sz().x / 2;
-        sc.y -= 10;
-        g.image(tex, sc);
+        if (tex != null) {
+            sc.x -= tex.sz().x / 2;
+            sc.y -= 10;
+            g.image(tex, sc);
+        } else {
+            glyphs.aprints(g, sc.sub(0, 10), 0.5, 0, num);
+        }
     }
 
     public boolean setup(RenderList rl) {
@@ -58,6 +51,7 @@ public class PlantStageSprite extends Sprite {
 
     public void update(int stg, int stgmax) {
         this.stg = stg;
+        num = null;
         if (multistg && stg == stgmax - 1)
             tex = stghrvtex;
         else if (offsetmultisg && stg == stgmax - 2)
@@ -65,10 +59,8 @@ public class PlantStageSprite extends Sprite {
         else if (stg == stgmax)
             tex = stgmaxtex;
         else {
-            if (Config.showfreshcropstage)
-                tex = stgtexalt[stg];
-            else
-                tex = stgtex[stg - 1];
+            tex = null;
+            num = Integer.toString(stg + 1);
         }
     }
 
@@ -26,51 +26,196 @@
 
 package haven;
 
+import java.util.AbstractQueue;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
-public class PrioQueue<E extends Prioritized> extends LinkedList<E> {
-    public E peek() {
-        E rv = null;
-        int mp = 0;
-        for (E e : this) {
-            int ep = e.priority();
-            if ((rv == null) || (ep > mp)) {
-                mp = ep;
-                rv = e;
-            }
+/*
+ * Indexed binary heap ordered by descending priority. Elements of
+ * equal priority are returned in insertion order. Since the
+ * priority of an element may change while it is queued, whoever
+ * changes it must call update() on the queue afterwards (with the
+ * same synchronization as any other access to the queue).
+ *
+ * Elements are identified by identity, and each element can be
+ * queued at most once; adding an element that is already queued
+ * only updates its position.
+ */
+public class PrioQueue<E extends Prioritized> extends AbstractQueue<E> {
+    private final Map<E, Entry<E>> index = new IdentityHashMap<>();
+    @SuppressWarnings("unchecked")
+    private Entry<E>[] heap = (Entry<E>[]) new Entry<?>[16];
+    private int size = 0;
+    private long seq = 0;
+
+    private static class Entry<E> {
+        final E el;
+        final long seq;
+        int idx;
+
+        Entry(E el, long seq) {
+            this.el = el;
+            this.seq = seq;
         }
-        return (rv);
     }
 
-    public E element() {
-        E rv;
-        if ((rv = peek()) == null)
-            throw (new NoSuchElementException());
-        return (rv);
+    private static <E extends Prioritized> boolean before(Entry<E> a, Entry<E> b) {
+        int pa = a.el.priority(), pb = b.el.priority();
+        if (pa != pb)
+            return (pa > pb);
+        return (a.seq < b.seq);
+    }
+
+    private void set(int i, Entry<E> e) {
+        heap[i] = e;
+        e.idx = i;
+    }
+
+    private boolean siftup(int i) {
+        Entry<E> e = heap[i];
+        int s = i;
+        while (i > 0) {
+            int p = (i - 1) >> 1;
+            if (!before(e, heap[p]))
+                break;
+            set(i, heap[p]);
+            i = p;
+        }
+        set(i, e);
+        return (i != s);
+    }
+
+    private void siftdown(int i) {
+        Entry<E> e = heap[i];
+        while (true) {
+            int c = (i << 1) + 1;
+            if (c >= size)
+                break;
+            if ((c + 1 < size) && before(heap[c + 1], heap[c]))
+                c++;
+            if (!before(heap[c], e))
+                break;
+            set(i, heap[c]);
+            i = c;
+        }
+        set(i, e);
+    }
+
+    private void fix(int i) {
+        if (!siftup(i))
+            siftdown(i);
+    }
+
+    private void removeat(int i) {
+        index.remove(heap[i].el);
+        int last = --size;
+        if (i != last) {
+            set(i, heap[last]);
+            heap[last] = null;
+            fix(i);
+        } else {
+            heap[last] = null;
+        }
+    }
+
+    public boolean offer(E el) {
+        if (el == null)
+            throw (new NullPointerException());
+        Entry<E> cur = index.get(el);
+        if (cur != null) {
+            fix(cur.idx);
+            return (true);
+        }
+        if (size == heap.length)
+            heap = Utils.extend(heap, heap.length * 2);
+        Entry<E> e = new Entry<>(el, seq++);
+        index.put(el, e);
+        set(size++, e);
+        siftup(e.idx);
+        return (true);
+    }
+
+    public E peek() {
+        return ((size == 0) ? null : heap[0].el);
     }
 
     public E poll() {
-        E rv = peek();
-        removeid(rv);
+        if (size == 0)
+            return (null);
+        E rv = heap[0].el;
+        removeat(0);
         return (rv);
     }
 
-    public E remove() {
-        E rv;
-        if ((rv = poll()) == null)
-            throw (new NoSuchElementException());
-        return (rv);
+    /* Must be called whenever the priority of a queued element
+     * has changed. Returns false if the element is not queued. */
+    public boolean update(E el) {
+        Entry<E> e = index.get(el);
+        if (e == null)
+            return (false);
+        fix(e.idx);
+        return (true);
     }
 
     public boolean removeid(E el) {
-        for (Iterator<E> i = iterator(); i.hasNext(); ) {
-            if (i.next() == el) {
-                i.remove();
-                return (true);
+        Entry<E> e = index.get(el);
+        if (e == null)
+            return (false);
+        removeat(e.idx);
+        return (true);
+    }
+
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object el) {
+        if (!(el instanceof Prioritized))
+            return (false);
+        return (removeid((E) el));
+    }
+
+    public boolean contains(Object el) {
+        return (index.containsKey(el));
+    }
+
+    public int size() {
+        return (size);
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            heap[i] = null;
+        index.clear();
+        size = 0;
+    }
+
+    /* Iterates over a snapshot of the queue, in heap order rather
+     * than in priority order. */
+    public Iterator<E> iterator() {
+        Object[] snap = new Object[size];
+        for (int i = 0; i < size; i++)
+            snap[i] = heap[i].el;
+        return (new Iterator<E>() {
+            int i = 0;
+            E last = null;
+
+            public boolean hasNext() {
+                return (i < snap.length);
             }
-        }
-        return (false);
+
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (i >= snap.length)
+                    throw (new NoSuchElementException());
+                return (last = (E) snap[i++]);
+            }
+
+            public void remove() {
+                if (last == null)
+                    throw (new IllegalStateException());
+                removeid(last);
+                last = null;
+            }
+        });
     }
 }
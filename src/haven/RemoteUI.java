@@ -63,11 +63,15 @@ public class RemoteUI implements UI.Receiver, UI.Runner {
                             int parent = msg.int32();
                             Object[] pargs = msg.list();
                             Object[] cargs = msg.list();
-                            ui.newwidget(id, type, parent, pargs, cargs);
+                            try (Trace.Scope s = Trace.begin("newwidget", type)) {
+                                ui.newwidget(id, type, parent, pargs, cargs);
+                            }
                         } else if (msg.type == RMessage.RMSG_WDGMSG) {
                             int id = msg.int32();
                             String name = msg.string();
-                            ui.uimsg(id, name, msg.list());
+                            try (Trace.Scope s = Trace.begin("uimsg", name)) {
+                                ui.uimsg(id, name, msg.list());
+                            }
                         } else if (msg.type == RMessage.RMSG_DSTWDG) {
                             int id = msg.int32();
                             ui.destroy(id);
@@ -82,13 +82,17 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 public class Resource implements Serializable {
@@ -121,6 +125,7 @@ public class Resource implements Serializable {
 
 
     private Collection<Layer> layers = new LinkedList<Layer>();
+    private transient LayerIndex lindex = null;
     public final String name;
     public int ver;
     public ResSource source;
@@ -445,11 +450,21 @@ public class Resource implements Serializable {
     }
 
     public static class Pool {
-        public int nloaders = 2;
-        private final Collection<Loader> loaders = new LinkedList<>();
-        private final List<ResSource> sources = new LinkedList<>();
+        /* Resources are loaded in two stages: a fixed number of
+         * loaders fetch the raw data from the sources, and decoders,
+         * of which there are as many as there are cores, parse the
+         * layers. At most maxfetched fetched resources may be
+         * waiting for a decoder before the loaders block. */
+        public int nloaders = 4;
+        public int ndecoders = Math.max(1, Runtime.getRuntime().availableProcessors());
+        public int maxfetched = 64;
+        private final Collection<Worker> loaders = new LinkedList<>();
+        private final Collection<Worker> decoders = new LinkedList<>();
+        private final List<ResSource> sources = new CopyOnWriteArrayList<>();
         private final Map<String, Resource> cache = new CacheMap<>();
         private final PrioQueue<Queued> queue = new PrioQueue<>();
+        private final Queue<Fetched> fetched = new LinkedList<>();
+        public final StageStats fetchstats = new StageStats("fetch"), decodestats = new StageStats("decode");
         private final Map<String, Queued> queued = new HashMap<>();
         private final Pool parent;
 
@@ -475,6 +490,7 @@ public class Resource implements Serializable {
             volatile boolean done = false;
             Resource res;
             LoadException error;
+            int nsrc = 0;
 
             Queued(String name, int ver, int prio) {
                 super(name, ver);
@@ -486,8 +502,14 @@ public class Resource implements Serializable {
             }
 
             public void boostprio(int prio) {
-                if (this.prio < prio)
-                    this.prio = prio;
+                if (this.prio < prio) {
+                    synchronized (queue) {
+                        if (this.prio < prio) {
+                            this.prio = prio;
+                            queue.update(this);
+                        }
+                    }
+                }
                 Queued p = awaiting;
                 if (p != null)
                     p.boostprio(prio);
@@ -545,31 +567,86 @@ public class Resource implements Serializable {
             }
         }
 
-        private void handle(Queued res) {
-            for (ResSource src : sources) {
+        private class Fetched {
+            final Queued res;
+            final ResSource src;
+            final int srcidx;
+            final byte[] data;
+            final long queued = System.nanoTime();
+
+            Fetched(Queued res, ResSource src, int srcidx, byte[] data) {
+                this.res = res;
+                this.src = src;
+                this.srcidx = srcidx;
+                this.data = data;
+            }
+        }
+
+        private void failed(Queued res, ResSource src, Throwable t) {
+            LoadException error;
+            if (t instanceof LoadException)
+                error = (LoadException) t;
+            else
+                error = new LoadException(String.format("Load error in resource %s(v%d), from %s", res.name, res.ver, src), t, null);
+            error.src = src;
+            if (res.error != null) {
+                error.prev = res.error;
+                error.addSuppressed(res.error);
+            }
+            res.error = error;
+        }
+
+        private void fetch(Queued res) throws InterruptedException {
+            long start = System.nanoTime();
+            for (int i = res.nsrc; i < sources.size(); i++) {
+                ResSource src = sources.get(i);
+                byte[] data;
                 try {
                     try (InputStream in = src.get(res.name)) {
-                        Resource ret = new Resource(this, res.name, res.ver);
-                        ret.source = src;
-                        ret.load(in);
-                        res.res = ret;
-                        res.error = null;
-                        break;
+                        data = Utils.readall(in);
                     }
                 } catch (Throwable t) {
-                    LoadException error;
-                    if (t instanceof LoadException)
-                        error = (LoadException) t;
-                    else
-                        error = new LoadException(String.format("Load error in resource %s(v%d), from %s", res.name, res.ver, src), t, null);
-                    error.src = src;
-                    if (res.error != null) {
-                        error.prev = res.error;
-                        error.addSuppressed(res.error);
+                    failed(res, src, t);
+                    continue;
+                }
+                fetchstats.done(start, data.length);
+                synchronized (fetched) {
+                    while (fetched.size() >= maxfetched)
+                        fetched.wait();
+                    fetched.add(new Fetched(res, src, i, data));
+                    fetched.notifyAll();
+                }
+                ckdec();
+                return;
+            }
+            fetchstats.done(start, 0);
+            res.done();
+        }
+
+        private void decode(Fetched f) {
+            Queued res = f.res;
+            long start = System.nanoTime();
+            try {
+                Resource ret = new Resource(this, res.name, res.ver);
+                ret.source = f.src;
+                ret.load(new ByteArrayInputStream(f.data));
+                res.res = ret;
+                res.error = null;
+            } catch (Throwable t) {
+                failed(res, f.src, t);
+                if (f.srcidx + 1 < sources.size()) {
+                    /* Try the remaining sources, like a failed fetch would. */
+                    decodestats.done(start, f.queued, f.data.length);
+                    res.nsrc = f.srcidx + 1;
+                    synchronized (queue) {
+                        queue.add(res);
+                        queue.notify();
                     }
-                    res.error = error;
+                    ckld();
+                    return;
                 }
             }
+            decodestats.done(start, f.queued, f.data.length);
             res.done();
         }
 
@@ -658,6 +735,24 @@ public class Resource implements Serializable {
             return (load(String.format("dyn/%x", id), 1));
         }
 
+        private void spawn(Collection<Worker> set, Worker n, String name) {
+            Thread th = AccessController.doPrivileged(new PrivilegedAction<Thread>() {
+                public Thread run() {
+                    return (new HackThread(loadergroup, n, name));
+                }
+            });
+            th.setDaemon(true);
+            th.start();
+            while (!n.added) {
+                try {
+                    set.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
         private void ckld() {
             int qsz;
             synchronized (queue) {
@@ -665,68 +760,192 @@ public class Resource implements Serializable {
             }
             synchronized (loaders) {
                 while (loaders.size() < Math.min(nloaders, qsz)) {
-                    final Loader n = new Loader();
-                    Thread th = AccessController.doPrivileged(new PrivilegedAction<Thread>() {
-                        public Thread run() {
-                            return (new HackThread(loadergroup, n, "Haven resource loader"));
-                        }
-                    });
-                    th.setDaemon(true);
-                    th.start();
-                    while (!n.added) {
-                        try {
-                            loaders.wait();
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            return;
-                        }
-                    }
+                    spawn(loaders, new Loader(), "Haven resource loader");
+                    if (Thread.currentThread().isInterrupted())
+                        return;
                 }
             }
         }
 
-        public class Loader implements Runnable {
+        private void ckdec() {
+            int qsz;
+            synchronized (fetched) {
+                qsz = fetched.size();
+            }
+            synchronized (decoders) {
+                while (decoders.size() < Math.min(ndecoders, qsz)) {
+                    spawn(decoders, new Decoder(), "Haven resource decoder");
+                    if (Thread.currentThread().isInterrupted())
+                        return;
+                }
+            }
+        }
+
+        private abstract class Worker implements Runnable {
+            private final Collection<Worker> set;
             private boolean added = false;
 
+            Worker(Collection<Worker> set) {
+                this.set = set;
+            }
+
+            /* Waits at most ten seconds for work, and returns false
+             * if none arrived. */
+            protected abstract boolean work() throws InterruptedException;
+
+            protected abstract void recheck();
+
             public void run() {
-                synchronized (loaders) {
-                    loaders.add(this);
+                synchronized (set) {
+                    set.add(this);
                     added = true;
-                    loaders.notifyAll();
+                    set.notifyAll();
                 }
                 boolean intd = false;
                 try {
-                    while (true) {
-                        Queued cur;
-                        synchronized (queue) {
-                            long start = System.currentTimeMillis(), now = start;
-                            while ((cur = queue.poll()) == null) {
-                                queue.wait(10000 - (now - start));
-                                now = System.currentTimeMillis();
-                                if (now - start >= 10000)
-                                    return;
-                            }
-                        }
-                        handle(cur);
-                        cur = null;
-                    }
+                    while (work()) ;
                 } catch (InterruptedException e) {
                     intd = true;
                 } finally {
-                    synchronized (loaders) {
-                        loaders.remove(this);
+                    synchronized (set) {
+                        set.remove(this);
                     }
                     if (!intd)
-                        ckld();
+                        recheck();
+                }
+            }
+        }
+
+        public class Loader extends Worker {
+            Loader() {
+                super(loaders);
+            }
+
+            protected boolean work() throws InterruptedException {
+                Queued cur;
+                synchronized (queue) {
+                    long start = System.currentTimeMillis(), now = start;
+                    while ((cur = queue.poll()) == null) {
+                        queue.wait(10000 - (now - start));
+                        now = System.currentTimeMillis();
+                        if (now - start >= 10000)
+                            return (false);
+                    }
+                }
+                try (Trace.Scope s = Trace.begin("fetch", cur.name)) {
+                    fetch(cur);
                 }
+                return (true);
+            }
+
+            protected void recheck() {
+                ckld();
+            }
+        }
+
+        public class Decoder extends Worker {
+            Decoder() {
+                super(decoders);
+            }
+
+            protected boolean work() throws InterruptedException {
+                Fetched cur;
+                synchronized (fetched) {
+                    long start = System.currentTimeMillis(), now = start;
+                    while ((cur = fetched.poll()) == null) {
+                        fetched.wait(10000 - (now - start));
+                        now = System.currentTimeMillis();
+                        if (now - start >= 10000)
+                            return (false);
+                    }
+                    /* Wake up a loader blocked on a full queue. */
+                    fetched.notifyAll();
+                }
+                try (Trace.Scope s = Trace.begin("decode", cur.res.name)) {
+                    decode(cur);
+                }
+                return (true);
+            }
+
+            protected void recheck() {
+                ckdec();
+            }
+        }
+
+        public static class StageStats {
+            public final String name;
+            private final AtomicLong n = new AtomicLong(), bytes = new AtomicLong();
+            private final AtomicLong busy = new AtomicLong(), wait = new AtomicLong();
+            private volatile long since = System.nanoTime();
+
+            public StageStats(String name) {
+                this.name = name;
+            }
+
+            void done(long start, long queued, long len) {
+                long now = System.nanoTime();
+                n.incrementAndGet();
+                bytes.addAndGet(len);
+                busy.addAndGet(now - start);
+                wait.addAndGet(start - queued);
+            }
+
+            void done(long start, long len) {
+                done(start, start, len);
+            }
+
+            public void reset() {
+                n.set(0);
+                bytes.set(0);
+                busy.set(0);
+                wait.set(0);
+                since = System.nanoTime();
+            }
+
+            public String format(int depth, int threads) {
+                long n = this.n.get();
+                double el = (System.nanoTime() - since) / 1e9;
+                return (String.format("%s: %d queued, %d threads, %d done (%.1f/s, %.1f kB/s), %.2f ms avg, %.2f ms avg wait",
+                        name, depth, threads, n, n / el, bytes.get() / el / 1024.0,
+                        (n == 0) ? 0.0 : (busy.get() / 1e6) / n, (n == 0) ? 0.0 : (wait.get() / 1e6) / n));
             }
         }
 
+        public void stats(PrintWriter out) {
+            if (parent != null)
+                parent.stats(out);
+            int qsz, fsz, nl, nd;
+            synchronized (queue) {
+                qsz = queue.size();
+            }
+            synchronized (fetched) {
+                fsz = fetched.size();
+            }
+            synchronized (loaders) {
+                nl = loaders.size();
+            }
+            synchronized (decoders) {
+                nd = decoders.size();
+            }
+            out.println(fetchstats.format(qsz, nl));
+            out.println(decodestats.format(fsz, nd));
+        }
+
+        public void resetstats() {
+            if (parent != null)
+                parent.resetstats();
+            fetchstats.reset();
+            decodestats.reset();
+        }
+
         public int qdepth() {
             int ret = (parent == null) ? 0 : parent.qdepth();
             synchronized (queue) {
                 ret += queue.size();
             }
+            synchronized (fetched) {
+                ret += fetched.size();
+            }
             return (ret);
         }
 
@@ -858,6 +1077,15 @@ public class Resource implements Serializable {
         remote().add(src);
     }
 
+    static {
+        Console.setscmd("resstats", (cons, args) -> {
+            if ((args.length > 1) && args[1].equals("reset"))
+                remote().resetstats();
+            else
+                remote().stats(cons.out);
+        });
+    }
+
     @Deprecated
     public static Resource load(String name, int ver) {
         return (remote().loadwait(name, ver));
@@ -1921,34 +2149,64 @@ public class Resource implements Serializable {
         return (layers);
     }
 
+    private static final ClassValue<List<Class<?>>> supertypes = new ClassValue<List<Class<?>>>() {
+        protected List<Class<?>> computeValue(Class<?> cl) {
+            Set<Class<?>> ret = new LinkedHashSet<>();
+            ret.add(cl);
+            if (cl.getSuperclass() != null)
+                ret.addAll(get(cl.getSuperclass()));
+            for (Class<?> iface : cl.getInterfaces())
+                ret.addAll(get(iface));
+            return (new ArrayList<>(ret));
+        }
+    };
+
+    /*
+     * The layers by every class and interface they are instances of,
+     * in load order, and IDLayers additionally by ID, so that lookups
+     * need not scan all layers.
+     */
+    private static class LayerIndex {
+        final Map<Class<?>, List<Layer>> bycl = new HashMap<>();
+        final Map<Class<?>, Map<Object, Layer>> byid = new HashMap<>();
+
+        LayerIndex(Collection<Layer> layers) {
+            for (Layer l : layers) {
+                for (Class<?> cl : supertypes.get(l.getClass())) {
+                    bycl.computeIfAbsent(cl, k -> new ArrayList<>(1)).add(l);
+                    if (l instanceof IDLayer)
+                        byid.computeIfAbsent(cl, k -> new HashMap<>()).putIfAbsent(((IDLayer<?>) l).layerid(), l);
+                }
+            }
+            for (Map.Entry<Class<?>, List<Layer>> e : bycl.entrySet())
+                e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+    }
+
+    private LayerIndex lindex() {
+        LayerIndex ret = lindex;
+        if (ret == null)
+            lindex = ret = new LayerIndex(layers);
+        return (ret);
+    }
+
+    @SuppressWarnings("unchecked")
     public <L extends Layer> Collection<L> layers(final Class<L> cl) {
         used = true;
-        return (new DefaultCollection<L>() {
-            public Iterator<L> iterator() {
-                return (Utils.filter(layers.iterator(), cl));
-            }
-        });
+        List<Layer> ret = lindex().bycl.get(cl);
+        return ((ret == null) ? Collections.emptyList() : (Collection<L>) ret);
     }
 
     public <L extends Layer> L layer(Class<L> cl) {
         used = true;
-        for (Layer l : layers) {
-            if (cl.isInstance(l))
-                return (cl.cast(l));
-        }
-        return (null);
+        List<Layer> ret = lindex().bycl.get(cl);
+        return ((ret == null) ? null : cl.cast(ret.get(0)));
     }
 
     public <I, L extends IDLayer<I>> L layer(Class<L> cl, I id) {
         used = true;
-        for (Layer l : layers) {
-            if (cl.isInstance(l)) {
-                L ll = cl.cast(l);
-                if (ll.layerid().equals(id))
-                    return (ll);
-            }
-        }
-        return (null);
+        Map<Object, Layer> ids = lindex().byid.get(cl);
+        return ((ids == null) ? null : cl.cast(ids.get(id)));
     }
 
     public boolean equals(Object other) {
@@ -1989,6 +2247,7 @@ public class Resource implements Serializable {
             layers.add(lc.cons(this, buf));
             buf.skip();
         }
+        this.lindex = new LayerIndex(layers);
         this.layers = layers;
         for (Layer l : layers)
             l.init();
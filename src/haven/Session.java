@@ -30,17 +30,22 @@ import haven.sloth.script.SessionDetails;
 import integrations.mapv4.MappingClient;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.net.PortUnreachableException;
 import java.net.SocketAddress;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.nio.channels.ClosedByInterruptException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TreeMap;
@@ -72,7 +77,7 @@ public class Session implements Resource.Resolver {
             "gfx/hud/chr/custom/asoft"
     };
 
-    DatagramSocket sk;
+    DatagramChannel sk;
     SocketAddress server;
     Thread rworker, sworker, ticker;
     Object[] args;
@@ -94,6 +99,67 @@ public class Session implements Resource.Resolver {
     public byte[] sesskey;
     private int localCacheId = -1;
     long sent = 0, recv = 0, pend = 0, retran = 0;
+    /* Datagrams given up on because the sending thread was interrupted while waiting for room. */
+    volatile long dropped = 0;
+    private final Object sendlock = new Object();
+    private Selector wsel = null;
+    final RecvStats rstats = new RecvStats();
+
+    public static class RecvStats {
+        private static final java.lang.management.ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+        private long start = System.nanoTime(), packets = 0, bytes = 0, alloc = 0;
+        private long fragbytes = 0, fraggrow = 0;
+        private long allocbase = -1;
+
+        private static long allocated(Thread th) {
+            if (tmx instanceof com.sun.management.ThreadMXBean) {
+                try {
+                    return (((com.sun.management.ThreadMXBean) tmx).getThreadAllocatedBytes(th.getId()));
+                } catch (UnsupportedOperationException e) {
+                }
+            }
+            return (-1);
+        }
+
+        synchronized void packet(int len) {
+            packets++;
+            bytes += len;
+        }
+
+        synchronized void defrag(int len, boolean grew) {
+            fragbytes += len;
+            if (grew)
+                fraggrow++;
+        }
+
+        /* Called periodically from the reader thread itself, so as to
+         * not query thread allocation counters per packet. */
+        synchronized void sample(Thread th) {
+            long cur = allocated(th);
+            if (cur < 0)
+                return;
+            if (allocbase >= 0)
+                alloc += cur - allocbase;
+            allocbase = cur;
+        }
+
+        public synchronized void reset() {
+            start = System.nanoTime();
+            packets = bytes = alloc = fragbytes = fraggrow = 0;
+            allocbase = -1;
+        }
+
+        public synchronized void dump(PrintWriter out) {
+            double t = Math.max((System.nanoTime() - start) / 1e9, 1e-3);
+            out.printf("packets: %d (%.1f/s)\n", packets, packets / t);
+            out.printf("bytes: %d (%.1f KiB/s)\n", bytes, bytes / t / 1024);
+            out.printf("defragmented: %d bytes, %d buffer resizes\n", fragbytes, fraggrow);
+            if (allocbase >= 0)
+                out.printf("reader allocation: %d bytes (%.1f per packet)\n", alloc, (packets > 0) ? ((double) alloc / packets) : 0.0);
+            else
+                out.printf("reader allocation: unavailable\n");
+        }
+    }
 
     @SuppressWarnings("serial")
     public static class MessageException extends RuntimeException {
@@ -284,7 +350,17 @@ public class Session implements Resource.Resolver {
     private class RWorker extends HackThread {
         boolean alive;
         int fragtype = -1;
+        /* Fragments are accumulated into a growable buffer. The buffer
+         * becomes the backing array of the reassembled message, so it
+         * is handed off rather than reused once a message completes. */
         byte[] fragbuf = null;
+        int fraglen = 0;
+        /* The received packet is only viewed in place; anything that
+         * is retained beyond its handling (reliable messages, map
+         * fragments) is copied out of it by Message.bytes(). */
+        final byte[] rbuf = new byte[65536];
+        final ByteBuffer rbb = ByteBuffer.wrap(rbuf);
+        volatile Selector sel;
 
         public RWorker() {
             super("Session reader");
@@ -303,25 +379,14 @@ public class Session implements Resource.Resolver {
                 int fl = msg.uint8();
                 long id = msg.uint32();
                 int frame = msg.int32();
-                synchronized (oc) {
-                    if ((fl & 1) != 0)
-                        oc.remove(id, frame - 1);
-                    Gob gob = oc.getgob(id, frame);
-                    if (gob != null) {
-                        gob.frame = frame;
-                        gob.virtual = ((fl & 2) != 0);
-                    }
-                    while (true) {
-                        int type = msg.uint8();
-                        if (type == OCache.OD_REM) {
-                            oc.remove(id, frame - 1);
-                        } else if (type == OCache.OD_END) {
-                            break;
-                        } else {
-                            oc.receive(gob, type, msg);
-                        }
-                    }
+                List<OCache.AttrDelta> attrs = new ArrayList<>();
+                while (true) {
+                    int type = msg.uint8();
+                    if (type == OCache.OD_END)
+                        break;
+                    attrs.add(oc.decode(type, msg));
                 }
+                oc.receive(new OCache.ObjDelta(fl, id, frame, attrs));
                 synchronized (objacks) {
                     if (objacks.containsKey(id)) {
                         ObjAck a = objacks.get(id);
@@ -344,19 +409,19 @@ public class Session implements Resource.Resolver {
                 if ((head & 0x80) == 0) {
                     if (fragbuf != null)
                         throw (new MessageException("Got start fragment while still defragmenting", msg));
-                    fragbuf = msg.bytes();
+                    fragbuf = new byte[Math.max((msg.rt - msg.rh) * 4, 4096)];
+                    fraglen = 0;
                     fragtype = head;
+                    fragadd(msg);
                 } else {
                     if ((head == 0x80) || (head == 0x81)) {
-                        byte[] frag = msg.bytes();
-                        byte[] curbuf = fragbuf;
-                        byte[] newbuf = new byte[curbuf.length + frag.length];
-                        System.arraycopy(curbuf, 0, newbuf, 0, curbuf.length);
-                        System.arraycopy(frag, 0, newbuf, curbuf.length, frag.length);
-                        fragbuf = newbuf;
+                        if (fragbuf == null)
+                            throw (new MessageException("Got continuation fragment without start", msg));
+                        fragadd(msg);
                         if (head == 0x81) {
-                            PMessage nmsg = new PMessage(fragtype, fragbuf);
+                            PMessage nmsg = new PMessage(fragtype, fragbuf, 0, fraglen);
                             fragbuf = null;
+                            fraglen = 0;
                             handlerel(nmsg);
                         }
                     } else {
@@ -412,6 +477,19 @@ public class Session implements Resource.Resolver {
             }
         }
 
+        private void fragadd(PMessage msg) {
+            int len = msg.rt - msg.rh;
+            boolean grew = false;
+            if (fraglen + len > fragbuf.length) {
+                fragbuf = Arrays.copyOf(fragbuf, Math.max(fragbuf.length * 2, fraglen + len));
+                grew = true;
+            }
+            System.arraycopy(msg.rbuf, msg.rh, fragbuf, fraglen, len);
+            fraglen += len;
+            msg.rh = msg.rt;
+            rstats.defrag(len, grew);
+        }
+
         private void getrel(int seq, PMessage msg) {
             if (seq == rseq) {
                 int lastack;
@@ -434,30 +512,55 @@ public class Session implements Resource.Resolver {
             }
         }
 
+        /* Returns the length of the next datagram, zero if none is
+         * available within a second, or -1 if the channel is gone. */
+        private int receive() throws IOException {
+            while (true) {
+                rbb.clear();
+                try {
+                    if (sk.read(rbb) > 0)
+                        return (rbb.position());
+                } catch (PortUnreachableException e) {
+                    /* ICMP error from a previous send; not fatal for UDP. */
+                    continue;
+                } catch (ClosedChannelException e) {
+                    return (-1);
+                }
+                if (sel.select(1000) == 0)
+                    return (0);
+                sel.selectedKeys().clear();
+            }
+        }
+
         public void run() {
             try {
                 alive = true;
                 try {
-                    sk.setSoTimeout(1000);
-                } catch (SocketException e) {
+                    sel = Selector.open();
+                    sk.register(sel, SelectionKey.OP_READ);
+                } catch (IOException e) {
                     throw (new RuntimeException(e));
                 }
+                long lastsample = 0;
                 while (alive) {
-                    DatagramPacket p = new DatagramPacket(new byte[65536], 65536);
+                    int len;
                     try {
-                        sk.receive(p);
-                    } catch (ClosedByInterruptException e) {
-                        /* Except apparently Sun's J2SE doesn't throw this when interrupted :P*/
-                        break;
-                    } catch (SocketTimeoutException e) {
-                        continue;
+                        len = receive();
                     } catch (IOException e) {
                         throw (new RuntimeException(e));
                     }
-                    if (!p.getSocketAddress().equals(server))
+                    if (len < 0)
+                        break;
+                    long now = System.currentTimeMillis();
+                    if (now - lastsample > 1000) {
+                        rstats.sample(this);
+                        lastsample = now;
+                    }
+                    if (len == 0)
                         continue;
-                    PMessage msg = new PMessage(p.getData()[0], p.getData(), 1, p.getLength() - 1);
-                    recv += p.getLength();
+                    PMessage msg = new PMessage(rbuf[0], rbuf, 1, len - 1);
+                    recv += len;
+                    rstats.packet(len);
                     if (msg.type == MSG_SESS) {
                         if (Objects.equals(state, "conn")) {
                             int error = msg.uint8();
@@ -502,8 +605,8 @@ public class Session implements Resource.Resolver {
                                 int type = msg.uint8();
                                 if ((type & 0x80) != 0) {
                                     type &= 0x7f;
-                                    int len = msg.uint16();
-                                    getrel(seq, new PMessage(type, msg.bytes(len)));
+                                    int mlen = msg.uint16();
+                                    getrel(seq, new PMessage(type, msg.bytes(mlen)));
                                 } else {
                                     getrel(seq, new PMessage(type, msg.bytes()));
                                 }
@@ -527,6 +630,12 @@ public class Session implements Resource.Resolver {
                     }
                 }
             } finally {
+                if (sel != null) {
+                    try {
+                        sel.close();
+                    } catch (IOException e) {
+                    }
+                }
                 synchronized (Session.this) {
                     state = "dead";
                     Session.this.notifyAll();
@@ -534,9 +643,14 @@ public class Session implements Resource.Resolver {
             }
         }
 
+        /* Interrupting a thread blocked on a channel closes the
+         * channel, which the writer still needs to say goodbye, so
+         * only wake the selector up. */
         public void interrupt() {
             alive = false;
-            super.interrupt();
+            Selector sel = this.sel;
+            if (sel != null)
+                sel.wakeup();
         }
     }
 
@@ -701,6 +815,15 @@ public class Session implements Resource.Resolver {
                     }
                 }
             } finally {
+                synchronized (sendlock) {
+                    if (wsel != null) {
+                        try {
+                            wsel.close();
+                        } catch (IOException e) {
+                        }
+                        wsel = null;
+                    }
+                }
                 synchronized (Session.this) {
                     state = "dead";
                     Session.this.notifyAll();
@@ -723,8 +846,12 @@ public class Session implements Resource.Resolver {
         glob = new Glob(this);
         character = new CharacterInfo();
         try {
-            sk = new DatagramSocket();
-        } catch (SocketException e) {
+            sk = DatagramChannel.open();
+            sk.configureBlocking(false);
+            /* Connecting filters out datagrams from anyone but the
+             * server in the kernel rather than per packet here. */
+            sk.connect(server);
+        } catch (IOException e) {
             throw (new RuntimeException(e));
         }
         rworker = new RWorker();
@@ -791,7 +918,25 @@ public class Session implements Resource.Resolver {
 
     public void sendmsg(byte[] msg) {
         try {
-            sk.send(new DatagramPacket(msg, msg.length, server));
+            ByteBuffer buf = ByteBuffer.wrap(msg);
+            synchronized (sendlock) {
+                /* The channel is non-blocking for the reader's sake,
+                 * so wait for room the way the old blocking send did
+                 * rather than lose the datagram. */
+                while (sk.write(buf) == 0) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        dropped++;
+                        new Warning("dropped outgoing message of " + msg.length + " bytes, send buffer full").issue();
+                        return;
+                    }
+                    if (wsel == null) {
+                        wsel = Selector.open();
+                        sk.register(wsel, SelectionKey.OP_WRITE);
+                    }
+                    wsel.select(1000);
+                    wsel.selectedKeys().clear();
+                }
+            }
             sent += msg.length;
         } catch (IOException e) {
         }
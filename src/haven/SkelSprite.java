@@ -50,6 +50,7 @@ public class SkelSprite extends Sprite implements Gob.Overlay.CUpd, Skeleton.Has
     private Morpher.Factory mmorph;
     private final PoseMorph pmorph;
     private Pose oldpose;
+    private int lodskip = 0, buffertime = 0;
     private float ipold;
     private boolean stat = true;
     private Rendered[] parts;
@@ -218,6 +219,16 @@ public class SkelSprite extends Sprite implements Gob.Overlay.CUpd, Skeleton.Has
     }
 
     public boolean tick(int idt) {
+        AnimLOD lod = (owner instanceof Gob) ? ((Gob) owner).glob.oc.anims : null;
+        if ((lod != null) && !lod.driving) {
+            if (!lod.due(lod.interval((Gob) owner), ++lodskip)) {
+                buffertime += idt;
+                return (false);
+            }
+            lodskip = 0;
+            idt += buffertime;
+            buffertime = 0;
+        }
         float dt = idt / 1000.0f;
         if (!stat || (ipold > 0)) {
             boolean done = true;
@@ -233,7 +244,10 @@ public class SkelSprite extends Sprite implements Gob.Overlay.CUpd, Skeleton.Has
                     oldpose = null;
                 }
             }
-            rebuild();
+            if (lod != null)
+                lod.defer(this::rebuild, skel.blist.length);
+            else
+                rebuild();
         }
         for (MeshAnim.Anim anim : manims)
             anim.tick(dt);
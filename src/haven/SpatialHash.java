@@ -0,0 +1,357 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/*
+ * A uniform grid over the plane, bucketing objects by the cell their
+ * position falls in. Positions are read through a function when an
+ * object is added or updated, so the owner must call update()
+ * whenever an object moves.
+ */
+public class SpatialHash<T> {
+    public final double csz;
+    private final Function<? super T, Coord2d> pos;
+    private final Map<Long, List<T>> cells = new HashMap<>();
+    private final Map<T, Long> where = new IdentityHashMap<>();
+    private int minx = Integer.MAX_VALUE, miny = Integer.MAX_VALUE;
+    private int maxx = Integer.MIN_VALUE, maxy = Integer.MIN_VALUE;
+    private boolean bdirty = false;
+    /* Where objects without a position yet are kept; see keyof(). */
+    private static final long NOWHERE = Long.MIN_VALUE;
+
+    public SpatialHash(double csz, Function<? super T, Coord2d> pos) {
+        this.csz = csz;
+        this.pos = pos;
+    }
+
+    private int cc(double v) {
+        return ((int) Math.floor(v / csz));
+    }
+
+    private static double dist2(Coord2d a, Coord2d b) {
+        double dx = a.x - b.x, dy = a.y - b.y;
+        return ((dx * dx) + (dy * dy));
+    }
+
+    private static long key(int x, int y) {
+        return (((long) x << 32) | (y & 0xffffffffL));
+    }
+
+    private void widen(long key) {
+        int x = (int) (key >> 32), y = (int) key;
+        minx = Math.min(minx, x);
+        miny = Math.min(miny, y);
+        maxx = Math.max(maxx, x);
+        maxy = Math.max(maxy, y);
+    }
+
+    private void put(T ob, long key) {
+        where.put(ob, key);
+        if (key == NOWHERE)
+            return;
+        cells.computeIfAbsent(key, k -> new ArrayList<>(4)).add(ob);
+        widen(key);
+    }
+
+    private void take(T ob, long key) {
+        if (key == NOWHERE)
+            return;
+        List<T> cell = cells.get(key);
+        for (int i = 0; i < cell.size(); i++) {
+            if (cell.get(i) == ob) {
+                int last = cell.size() - 1;
+                cell.set(i, cell.get(last));
+                cell.remove(last);
+                break;
+            }
+        }
+        if (cell.isEmpty()) {
+            cells.remove(key);
+            int x = (int) (key >> 32), y = (int) key;
+            if ((x == minx) || (x == maxx) || (y == miny) || (y == maxy))
+                bdirty = true;
+        }
+    }
+
+    /* Shrinks the bounds back to the occupied cells after an edge cell has emptied. */
+    private void bounds() {
+        if (!bdirty)
+            return;
+        minx = miny = Integer.MAX_VALUE;
+        maxx = maxy = Integer.MIN_VALUE;
+        for (long key : cells.keySet())
+            widen(key);
+        bdirty = false;
+    }
+
+    /*
+     * Objects at the origin have not been given a position yet, as
+     * with gobs created before their first move, so they are kept out
+     * of the cells (and the bounds) until update() finds them
+     * elsewhere.
+     */
+    private long keyof(T ob) {
+        Coord2d c = pos.apply(ob);
+        if ((c.x == 0) && (c.y == 0))
+            return (NOWHERE);
+        return (key(cc(c.x), cc(c.y)));
+    }
+
+    public synchronized void add(T ob) {
+        Long cur = where.get(ob);
+        long key = keyof(ob);
+        if (cur != null) {
+            if (cur == key)
+                return;
+            take(ob, cur);
+        }
+        put(ob, key);
+    }
+
+    public synchronized void remove(T ob) {
+        Long cur = where.remove(ob);
+        if (cur != null)
+            take(ob, cur);
+    }
+
+    /* Objects not currently in the index are ignored. */
+    public synchronized void update(T ob) {
+        Long cur = where.get(ob);
+        if (cur == null)
+            return;
+        long key = keyof(ob);
+        if (cur != key) {
+            take(ob, cur);
+            put(ob, key);
+        }
+    }
+
+    public synchronized int size() {
+        return (where.size());
+    }
+
+    public synchronized void clear() {
+        cells.clear();
+        where.clear();
+        minx = miny = Integer.MAX_VALUE;
+        maxx = maxy = Integer.MIN_VALUE;
+        bdirty = false;
+    }
+
+    private void scan(int x1, int y1, int x2, int y2, Predicate<? super T> test, List<T> buf) {
+        bounds();
+        x1 = Math.max(x1, minx); y1 = Math.max(y1, miny);
+        x2 = Math.min(x2, maxx); y2 = Math.min(y2, maxy);
+        if ((x1 > x2) || (y1 > y2))
+            return;
+        if ((long) (x2 - x1 + 1) * (y2 - y1 + 1) > cells.size()) {
+            /* Sparser to walk the occupied cells than the query area. */
+            for (Map.Entry<Long, List<T>> e : cells.entrySet()) {
+                int x = (int) (e.getKey() >> 32), y = (int) (long) e.getKey();
+                if ((x >= x1) && (x <= x2) && (y >= y1) && (y <= y2)) {
+                    for (T ob : e.getValue()) {
+                        if (test.test(ob))
+                            buf.add(ob);
+                    }
+                }
+            }
+        } else {
+            for (int y = y1; y <= y2; y++) {
+                for (int x = x1; x <= x2; x++) {
+                    List<T> cell = cells.get(key(x, y));
+                    if (cell == null)
+                        continue;
+                    for (T ob : cell) {
+                        if (test.test(ob))
+                            buf.add(ob);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Filters are run on a copy of the matches after the index has
+     * been let go of, since they may take other locks or be slow.
+     */
+    private static <T> List<T> filter(List<T> buf, Predicate<? super T> filter) {
+        if (filter != null)
+            buf.removeIf(ob -> !filter.test(ob));
+        return (buf);
+    }
+
+    /* All objects strictly closer than r to c that pass the filter. */
+    public List<T> radius(Coord2d c, double r, Predicate<? super T> filter) {
+        double r2 = r * r;
+        List<T> buf = new ArrayList<>();
+        synchronized (this) {
+            scan(cc(c.x - r), cc(c.y - r), cc(c.x + r), cc(c.y + r),
+                    ob -> (dist2(pos.apply(ob), c) < r2), buf);
+        }
+        return (filter(buf, filter));
+    }
+
+    /* All objects within the rectangle [ul, br) that pass the filter. */
+    public List<T> rect(Coord2d ul, Coord2d br, Predicate<? super T> filter) {
+        List<T> buf = new ArrayList<>();
+        synchronized (this) {
+            scan(cc(ul.x), cc(ul.y), cc(br.x), cc(br.y), ob -> {
+                Coord2d p = pos.apply(ob);
+                return ((p.x >= ul.x) && (p.y >= ul.y) && (p.x < br.x) && (p.y < br.y));
+            }, buf);
+        }
+        return (filter(buf, filter));
+    }
+
+    private void ringcell(int x, int y, Coord2d c, double lim2, List<Cand<T>> buf) {
+        List<T> cell = cells.get(key(x, y));
+        if (cell == null)
+            return;
+        for (T ob : cell) {
+            double d2 = dist2(pos.apply(ob), c);
+            if (d2 < lim2)
+                buf.add(new Cand<>(ob, d2));
+        }
+    }
+
+    /*
+     * Collects the objects closer than lim2 in the ring of cells d
+     * steps out from (cx, cy), and returns the next ring that may
+     * hold anything.
+     */
+    private int ring(int cx, int cy, int d, Coord2d c, double lim2, List<Cand<T>> buf) {
+        if (8L * d > cells.size()) {
+            /* Sparser to walk the occupied cells than the ring. */
+            long next = Integer.MAX_VALUE;
+            for (long key : cells.keySet()) {
+                long x = (int) (key >> 32), y = (int) key;
+                long cd = Math.max(Math.abs(x - cx), Math.abs(y - cy));
+                if (cd == d)
+                    ringcell((int) x, (int) y, c, lim2, buf);
+                else if (cd > d)
+                    next = Math.min(next, cd);
+            }
+            return ((int) next);
+        }
+        int x1 = Math.max(cx - d, minx), x2 = Math.min(cx + d, maxx);
+        for (int y = Math.max(cy - d, miny); y <= Math.min(cy + d, maxy); y++) {
+            if ((y == cy - d) || (y == cy + d)) {
+                for (int x = x1; x <= x2; x++)
+                    ringcell(x, y, c, lim2, buf);
+            } else {
+                if (cx - d >= minx)
+                    ringcell(cx - d, y, c, lim2, buf);
+                if (cx + d <= maxx)
+                    ringcell(cx + d, y, c, lim2, buf);
+            }
+        }
+        return (d + 1);
+    }
+
+    /*
+     * The k objects closest to c, nearest first, within maxr and
+     * passing the filter. Searches rings of cells outwards from c's
+     * cell, skipping those that hold no occupied cells, and stopping once no unvisited ring can
+     * hold anything closer than the k:th candidate found so far. The
+     * index is only locked while a ring is collected, so filters run
+     * without it.
+     */
+    public List<T> nearest(Coord2d c, int k, double maxr, Predicate<? super T> filter) {
+        if (k <= 0)
+            return (Collections.emptyList());
+        double maxr2 = maxr * maxr;
+        PriorityQueue<Cand<T>> best = new PriorityQueue<>(k + 1, Comparator.comparingDouble((Cand<T> e) -> e.d2).reversed());
+        List<Cand<T>> found = new ArrayList<>();
+        int cx = cc(c.x), cy = cc(c.y);
+        for (int d = 0; true; d++) {
+            /* Anything in ring d is at least (d - 1) cells away. */
+            double lim = Math.max(d - 1, 0) * csz;
+            if (lim * lim >= maxr2)
+                break;
+            double lim2 = (best.size() >= k) ? best.peek().d2 : maxr2;
+            if (lim * lim >= lim2)
+                break;
+            found.clear();
+            synchronized (this) {
+                bounds();
+                if (cells.isEmpty())
+                    break;
+                long near = Math.max(Math.max((long) minx - cx, (long) cx - maxx), Math.max((long) miny - cy, (long) cy - maxy));
+                long far = Math.max(Math.max(Math.abs((long) cx - minx), Math.abs((long) cx - maxx)),
+                        Math.max(Math.abs((long) cy - miny), Math.abs((long) cy - maxy)));
+                if (d > far)
+                    break;
+                if (d < near) {
+                    /* Rings short of the occupied cells hold nothing; check the limits again at the first that might. */
+                    d = (int) near - 1;
+                    continue;
+                }
+                d = ring(cx, cy, d, c, lim2, found) - 1;
+            }
+            for (Cand<T> e : found) {
+                if ((best.size() >= k) && (e.d2 >= best.peek().d2))
+                    continue;
+                if ((filter != null) && !filter.test(e.ob))
+                    continue;
+                best.add(e);
+                if (best.size() > k)
+                    best.poll();
+            }
+        }
+        List<T> ret = new ArrayList<>(best.size());
+        while (!best.isEmpty())
+            ret.add(best.poll().ob);
+        Collections.reverse(ret);
+        return (ret);
+    }
+
+    public T nearest(Coord2d c, double maxr, Predicate<? super T> filter) {
+        List<T> ret = nearest(c, 1, maxr, filter);
+        return (ret.isEmpty() ? null : ret.get(0));
+    }
+
+    private static class Cand<T> {
+        final T ob;
+        final double d2;
+
+        Cand(T ob, double d2) {
+            this.ob = ob;
+            this.d2 = d2;
+        }
+    }
+}
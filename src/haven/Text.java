@@ -446,6 +446,14 @@ public class Text {
         return (tex);
     }
 
+    /* Frees the texture; tex() makes a new one if it is needed again. */
+    public void disposetex() {
+        if (tex != null) {
+            tex.dispose();
+            tex = null;
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         String cmd = args[0].intern();
         if (cmd == "render") {
@@ -0,0 +1,219 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven;
+
+import haven.sloth.gfx.TextMap;
+
+import java.awt.Color;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+ * Rendered text textures shared by everything that labels things
+ * with short strings, so that a hundred gobs showing the same
+ * quality share one texture and a label is not rasterised and
+ * uploaded anew every time it is shown. Textures are kept by
+ * (text, foundry, colour, stroke) in an LRU bounded by their total
+ * pixel size.
+ *
+ * Textures are only handed out through Refs, which keep their texture
+ * from being evicted until they are released. A Ref draws as the
+ * texture it holds, and disposing of it releases it, so that it can
+ * stand in for a Tex owned by whatever draws it. For strings of
+ * printable ASCII drawn every frame, glyphs() gives a TextMap that
+ * draws them from one atlas texture instead.
+ */
+public class TextCache {
+    public static final TextCache global = new TextCache(8 << 20);
+    private static final String ascii;
+    private final long budget;
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Key, TextMap> glyphs = new HashMap<>();
+    private long bytes;
+    private long hits, misses, evictions;
+
+    static {
+        StringBuilder buf = new StringBuilder();
+        for (char c = 32; c < 127; c++)
+            buf.append(c);
+        ascii = buf.toString();
+    }
+
+    public TextCache(long budget) {
+        this.budget = budget;
+    }
+
+    private static class Key {
+        final String text;
+        final Text.Foundry fnd;
+        final Color col, stroke;
+
+        Key(String text, Text.Foundry fnd, Color col, Color stroke) {
+            this.text = text;
+            this.fnd = fnd;
+            this.col = col;
+            this.stroke = stroke;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return (false);
+            Key k = (Key) o;
+            return (text.equals(k.text) && (fnd == k.fnd) && col.equals(k.col) && Objects.equals(stroke, k.stroke));
+        }
+
+        public int hashCode() {
+            return (Objects.hash(text, System.identityHashCode(fnd), col, stroke));
+        }
+    }
+
+    private static class Entry {
+        final Tex tex;
+        final long bytes;
+        int refs = 0;
+
+        Entry(Tex tex) {
+            this.tex = tex;
+            this.bytes = 4L * tex.sz().x * tex.sz().y;
+        }
+    }
+
+    public class Ref extends Tex {
+        private final Tex tex;
+        private Entry e;
+
+        private Ref(Entry e) {
+            super(e.tex.sz());
+            this.e = e;
+            this.tex = e.tex;
+        }
+
+        public Tex tex() {
+            return (tex);
+        }
+
+        public void render(GOut g, Coord c, Coord ul, Coord br, Coord sz) {
+            tex.render(g, c, ul, br, sz);
+        }
+
+        public float tcx(int x) {
+            return (tex.tcx(x));
+        }
+
+        public float tcy(int y) {
+            return (tex.tcy(y));
+        }
+
+        public GLState draw() {
+            return (tex.draw());
+        }
+
+        public GLState clip() {
+            return (tex.clip());
+        }
+
+        /* Gives up the texture. Releasing a Ref twice does nothing. */
+        public void release() {
+            synchronized (TextCache.this) {
+                if (e == null)
+                    return;
+                e.refs--;
+                e = null;
+                trim();
+            }
+        }
+
+        public void dispose() {
+            release();
+        }
+    }
+
+    private Entry entry(String text, Text.Foundry fnd, Color col, Color stroke) {
+        Key key = new Key(text, fnd, col, stroke);
+        Entry e = entries.get(key);
+        if (e != null) {
+            hits++;
+            return (e);
+        }
+        misses++;
+        Text.Line line = (stroke == null) ? fnd.render(text, col) : fnd.renderstroked(text, col, stroke);
+        e = new Entry(line.tex());
+        bytes += e.bytes;
+        trim();
+        entries.put(key, e);
+        return (e);
+    }
+
+    private void trim() {
+        for (Iterator<Entry> i = entries.values().iterator(); (bytes > budget) && i.hasNext(); ) {
+            Entry e = i.next();
+            if (e.refs > 0)
+                continue;
+            i.remove();
+            bytes -= e.bytes;
+            e.tex.dispose();
+            evictions++;
+        }
+    }
+
+    /* A held texture of the text, or of its outline in stroke if that is not null. */
+    public synchronized Ref get(String text, Text.Foundry fnd, Color col, Color stroke) {
+        Entry e = entry(text, fnd, col, stroke);
+        e.refs++;
+        return (new Ref(e));
+    }
+
+    /* A glyph atlas of printable ASCII in the given font and colours, whose stroked glyphs use stroke. */
+    public synchronized TextMap glyphs(Text.Foundry fnd, Color col, Color stroke) {
+        Key key = new Key("", fnd, col, stroke);
+        TextMap ret = glyphs.get(key);
+        if (ret == null)
+            glyphs.put(key, ret = new TextMap("TextCache-" + glyphs.size(), fnd, col, stroke, ascii));
+        return (ret);
+    }
+
+    public synchronized void dump(PrintWriter out) {
+        int held = 0;
+        for (Entry e : entries.values()) {
+            if (e.refs > 0)
+                held++;
+        }
+        out.printf("%d hits, %d misses (%.1f%% hit rate), %d evicted\n", hits, misses,
+                ((hits + misses) > 0) ? (100.0 * hits / (hits + misses)) : 0.0, evictions);
+        out.printf("%d textures (%d held), %.1f of %.1f MB; %d glyph atlases\n", entries.size(), held,
+                bytes / 1048576.0, budget / 1048576.0, glyphs.size());
+    }
+
+    public synchronized void reset() {
+        hits = misses = evictions = 0;
+    }
+}
@@ -193,6 +193,17 @@ public class Textlog extends Widget {
         append(line, null);
     }
 
+    public void clear() {
+        synchronized (lines) {
+            for (ChatUI.Channel.Message m : lines) {
+                if (m instanceof SimpleMessage)
+                    ((SimpleMessage) m).t.disposetex();
+            }
+            lines.clear();
+        }
+        maxy = cury = 0;
+    }
+
     public void uimsg(String msg, Object... args) {
         if (msg == "apnd") {
             append((String) args[0]);
@@ -0,0 +1,270 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Nested timers for finding out where frames go, recorded per thread
+ * and dumped as Chrome trace-event JSON (chrome://tracing, Perfetto).
+ *
+ * Code to be timed is wrapped as
+ *   try(Trace.Scope s = Trace.begin("name")) { ... }
+ * which does nothing but read a volatile while not recording. When
+ * recording, every scope that closes appends one event to its
+ * thread's ring buffer, which only keeps the latest events. The
+ * rings are only allocated once a thread first records something,
+ * and hold haven.tracebuf events each (4096 unless set). Only every
+ * Nth frame is recorded if so asked, for all threads alike.
+ */
+public class Trace {
+    private static final int bufsz = Math.max(Integer.parseInt(Utils.getprop("haven.tracebuf", "4096")), 16);
+    private static final int maxdepth = 64, maxdead = 8;
+    private static final long epoch = System.nanoTime();
+    private static final List<Buf> bufs = new ArrayList<>();
+    private static final ThreadLocal<Buf> cur = ThreadLocal.withInitial(Buf::new);
+    private static final ClassValue<String> clnames = new ClassValue<String>() {
+        protected String computeValue(Class<?> cl) {
+            String nm = cl.getName();
+            return (nm.substring(nm.lastIndexOf('.') + 1));
+        }
+    };
+    private static volatile boolean enabled = false, recording = false;
+    private static volatile int every = 1;
+    private static int frameno = 0;
+    public static final Scope nil = new Scope(null);
+
+    public static class Scope implements AutoCloseable {
+        private final Buf buf;
+        private String name;
+        private Object arg;
+        private long start;
+
+        private Scope(Buf buf) {
+            this.buf = buf;
+        }
+
+        public void close() {
+            if (buf != null)
+                buf.end(this);
+        }
+    }
+
+    private static class Buf {
+        final Thread th = Thread.currentThread();
+        final String thread = th.getName();
+        final long tid = th.getId();
+        /* Allocated on the first event, and published by the write to count. */
+        String[] name;
+        Object[] arg;
+        long[] start, dur;
+        final Scope[] stack = new Scope[maxdepth];
+        int depth = 0;
+        /* Events ever recorded; those before count - bufsz are overwritten. */
+        volatile long count = 0;
+
+        Buf() {
+            for (int i = 0; i < maxdepth; i++)
+                stack[i] = new Scope(this);
+            synchronized (bufs) {
+                /* Resource loaders come and go, so only the buffers of the latest few dead threads are kept. */
+                int dead = 0;
+                for (int i = bufs.size() - 1; i >= 0; i--) {
+                    if (!bufs.get(i).th.isAlive() && (++dead > maxdead))
+                        bufs.remove(i);
+                }
+                bufs.add(this);
+            }
+        }
+
+        Scope begin(String name, Object arg) {
+            if (depth >= maxdepth)
+                return (nil);
+            Scope s = stack[depth++];
+            s.name = name;
+            s.arg = arg;
+            s.start = System.nanoTime();
+            return (s);
+        }
+
+        void end(Scope s) {
+            long now = System.nanoTime();
+            depth--;
+            if (name == null) {
+                name = new String[bufsz];
+                arg = new Object[bufsz];
+                start = new long[bufsz];
+                dur = new long[bufsz];
+            }
+            long c = count;
+            int i = (int) (c % bufsz);
+            name[i] = s.name;
+            arg[i] = s.arg;
+            start[i] = s.start;
+            dur[i] = now - s.start;
+            s.arg = null;
+            count = c + 1;
+        }
+    }
+
+    public static Scope begin(String name) {
+        if (!recording)
+            return (nil);
+        return (cur.get().begin(name, null));
+    }
+
+    /* The argument is only turned into a string when dumped. */
+    public static Scope begin(String name, Object arg) {
+        if (!recording)
+            return (nil);
+        return (cur.get().begin(name, arg));
+    }
+
+    public static Scope begin(Class<?> cl) {
+        if (!recording)
+            return (nil);
+        return (cur.get().begin(clnames.get(cl), null));
+    }
+
+    /* Called by the UI thread as each frame starts. */
+    public static void frame() {
+        if (enabled)
+            recording = (frameno++ % every) == 0;
+        else if (recording)
+            recording = false;
+    }
+
+    /* Starts recording every nth frame */
+    public static void start(int n) {
+        every = Math.max(n, 1);
+        frameno = 0;
+        enabled = true;
+    }
+
+    public static void stop() {
+        enabled = false;
+    }
+
+    public static boolean enabled() {
+        return (enabled);
+    }
+
+    public static int every() {
+        return (every);
+    }
+
+    private static class Event {
+        final long seq;
+        final String name;
+        final Object arg;
+        final long start, dur;
+
+        Event(long seq, String name, Object arg, long start, long dur) {
+            this.seq = seq;
+            this.name = name;
+            this.arg = arg;
+            this.start = start;
+            this.dur = dur;
+        }
+    }
+
+    private static List<Event> events(Buf buf, long from) {
+        List<Event> ret = new ArrayList<>();
+        long c = buf.count;
+        if (c == 0)
+            return (ret);
+        for (long e = Math.max(c - bufsz, 0); e < c; e++) {
+            int i = (int) (e % bufsz);
+            if (buf.start[i] >= from)
+                ret.add(new Event(e, buf.name[i], buf.arg[i], buf.start[i], buf.dur[i]));
+        }
+        /* The thread keeps recording while it is read, so drop whatever it may have overwritten meanwhile. */
+        long valid = buf.count - bufsz;
+        ret.removeIf(ev -> ev.seq <= valid);
+        return (ret);
+    }
+
+    private static void quote(Writer out, String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\'))
+                out.write('\\');
+            if (c < 0x20)
+                out.write(String.format("\\u%04x", (int) c));
+            else
+                out.write(c);
+        }
+        out.write('"');
+    }
+
+    /*
+     * Writes the events that started within the last secs seconds in
+     * the Chrome trace-event format. Returns the number written.
+     */
+    public static int dump(File file, double secs) throws IOException {
+        long from = System.nanoTime() - (long) (secs * 1e9);
+        List<Buf> bufs;
+        synchronized (Trace.bufs) {
+            bufs = new ArrayList<>(Trace.bufs);
+        }
+        int n = 0;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            boolean first = true;
+            for (Buf buf : bufs) {
+                out.write(first ? "" : ",\n");
+                first = false;
+                out.write(String.format("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":", buf.tid));
+                quote(out, buf.thread);
+                out.write("}}");
+                for (Event ev : events(buf, from)) {
+                    out.write(",\n{\"ph\":\"X\",\"name\":");
+                    quote(out, ev.name);
+                    out.write(String.format(",\"pid\":1,\"tid\":%d,\"ts\":%.3f,\"dur\":%.3f", buf.tid, (ev.start - epoch) / 1e3, ev.dur / 1e3));
+                    if (ev.arg != null) {
+                        out.write(",\"args\":{\"arg\":");
+                        quote(out, String.valueOf(ev.arg));
+                        out.write("}");
+                    }
+                    out.write("}");
+                    n++;
+                }
+            }
+            out.write("\n]}\n");
+        }
+        return (n);
+    }
+}
@@ -1,25 +1,20 @@
 package haven;
 
+import haven.sloth.gfx.TextMap;
+
 import java.awt.Color;
 
 
 public class TreeStageSprite extends Sprite {
-    private static final Tex[] treestg = new Tex[100];
-    private static final Color stagecolor = new Color(120, 255, 255);
+    private static final TextMap glyphs = TextCache.global.glyphs(Text.num12boldFnd, new Color(120, 255, 255), Color.BLACK);
     public int val;
-    private Tex tex;
+    private String text;
     private static Matrix4f mv = new Matrix4f();
     private Projection proj;
     private Coord wndsz;
     private Location.Chain loc;
     private Camera camp;
 
-    static {
-        for (int i = 0; i < 100; i++) {
-            treestg[i] = Text.renderstroked(i + "", stagecolor, Color.BLACK, Text.num12boldFnd).tex();
-        }
-    }
-
     public TreeStageSprite(int val) {
         super(null, null);
         update(val);
@@ -28,10 +23,8 @@ public class TreeStageSprite extends Sprite {
     public void draw(GOut g) {
         float[] c = mv.load(camp.fin(Matrix4f.id)).mul1(loc.fin(Matrix4f.id)).homoc();
         Coord sc = proj.get2dCoord(c, wndsz);
-        sc.x -= 8;
-        sc.y -= 10;
-        if (tex != null)
-            g.image(tex, sc);
+        if (text != null)
+            glyphs.prints(g, sc.sub(8, 10), text);
     }
 
     public boolean setup(RenderList rl) {
@@ -47,7 +40,7 @@ public class TreeStageSprite extends Sprite {
     public void update(int val) {
         this.val = val;
         if (val >= 0)
-            tex = treestg[val];
+            text = Integer.toString(val);
     }
 
     public Object staticp() {
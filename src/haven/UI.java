@@ -47,6 +47,8 @@ public class UI {
     protected final LinkedList<Grab> keygrab = new LinkedList<>(), mousegrab = new LinkedList<>();
     public final Map<Integer, Widget> widgets = new TreeMap<>();
     public final Map<Widget, Integer> rwidgets = new HashMap<>();
+    /* Notified on widget creation, destruction and messages, and gob changes. */
+    public final Waitable.Queue changes = new Waitable.Queue();
     Receiver rcvr;
     public Coord mc = Coord.z, lcc = Coord.z;
     public Session sess;
@@ -327,6 +329,7 @@ public class UI {
             dev.sysLogRemote("newwidget", wdg, id, type, parent, pargs, cargs);
         }
         next_predicted_id = id + 1;
+        changed();
     }
 
     public void addwidget(int id, int parent, Object[] pargs) {
@@ -346,6 +349,7 @@ public class UI {
             pwdg.addchild(wdg, pargs);
             dev.sysLogRemote("addwidget", wdg, id, null, parent, pargs, (Object) null);
         }
+        changed();
     }
 
     private void processWindowContent(long wndid, GameUI gui, Window pwdg, Widget wdg) {
@@ -494,6 +498,12 @@ public class UI {
             removeid(wdg);
             wdg.reqdestroy();
         }
+        changed();
+    }
+
+    /* Wakes up anything waiting on UI state, see Waitable.await(). */
+    public void changed() {
+        changes.wnotify();
     }
 
     public void destroy(int id) {
@@ -555,6 +565,7 @@ public class UI {
         }
         if (wdg != null) {
             wdg.uimsg(msg.intern(), args);
+            changed();
         } else {
             dev.resourceLog("Uimsg to non-existent widget ", id);
             return;
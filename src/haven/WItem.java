@@ -226,6 +226,9 @@ public class WItem extends Widget implements DTarget2 {
         }
         GItem.InfoOverlay<?>[] ret = buf.toArray(new GItem.InfoOverlay<?>[0]);
         return (() -> ret);
+    }, ols -> {
+        for (GItem.InfoOverlay<?> ol : ols)
+            ol.dispose();
     });
 
     public final AttrCache<Double> itemmeter = new AttrCache<>(this::info, AttrCache.map1(GItem.MeterInfo.class, minf -> {
@@ -236,13 +239,13 @@ public class WItem extends Widget implements DTarget2 {
                 int timeleft = (int) (itm.studytime * (1.0 - meter));
                 int hoursleft = timeleft / 60;
                 int minutesleft = timeleft - hoursleft * 60;
-                itm.metertex = Text.renderstroked(String.format("%d:%02d", hoursleft, minutesleft), hoursleft < 1 ? Color.YELLOW : Color.WHITE, Color.BLACK, num11Fnd).tex();
+                itm.metertex(String.format("%d:%02d", hoursleft, minutesleft), hoursleft < 1 ? Color.YELLOW : Color.WHITE, num11Fnd);
             } else {
-                itm.metertex = Text.renderstroked(String.format("%d%%", (int) (meter * 100)), Color.WHITE, Color.BLACK, num10Fnd).tex();
+                itm.metertex(String.format("%d%%", (int) (meter * 100)), Color.WHITE, num10Fnd);
             }
             return minf::meter;
         }
-        itm.metertex = null;
+        itm.metertex(null, null, null);
         return minf::meter;
     }));
     public final AttrCache<QualityList> itemq = new AttrCache<>(this::info, AttrCache.cache(info -> {
@@ -267,14 +270,14 @@ public class WItem extends Widget implements DTarget2 {
     public final AttrCache<Tex> heurnum = new AttrCache<>(this::info, AttrCache.cache(info -> {
         String num = ItemInfo.getCount(info);
         if (num == null) return null;
-        return Text.renderstroked(num, Color.WHITE, Color.BLACK).tex();
-    }));
+        return TextCache.global.get(num, Text.num11Fnd, Color.WHITE, Color.BLACK);
+    }), Tex::dispose);
 
     public final AttrCache<Tex> durability = new AttrCache<Tex>(this::info, AttrCache.cache(info -> {
         Pair<Integer, Integer> wear = ItemInfo.getWear(info);
         if (wear == null) return (null);
-        return Text.renderstroked(String.valueOf(wear.b - wear.a), DURABILITY_COLOR, Color.BLACK).tex();
-    })) {
+        return TextCache.global.get(String.valueOf(wear.b - wear.a), Text.num11Fnd, DURABILITY_COLOR, Color.BLACK);
+    }), Tex::dispose) {
         @Override
         public Tex get() {
             return Config.showwearbars ? super.get() : null;
@@ -286,8 +289,8 @@ public class WItem extends Widget implements DTarget2 {
     public final AttrCache<Tex> armor = new AttrCache<Tex>(this::info, AttrCache.cache(info -> {
         Pair<Integer, Integer> armor = ItemInfo.getArmor(info);
         if (armor == null) return (null);
-        return Text.renderstroked(String.format("%d/%d", armor.a, armor.b), ARMOR_COLOR, Color.BLACK).tex();
-    })) {
+        return TextCache.global.get(String.format("%d/%d", armor.a, armor.b), Text.num11Fnd, ARMOR_COLOR, Color.BLACK);
+    }), Tex::dispose) {
         @Override
         public Tex get() {
             return Config.showwearbars ? super.get() : null;
@@ -485,6 +488,14 @@ public class WItem extends Widget implements DTarget2 {
             destroycb.notifyDestroy();
     }
 
+    public void destroy() {
+        itemols.dispose();
+        heurnum.dispose();
+        durability.dispose();
+        armor.dispose();
+        super.destroy();
+    }
+
     public void registerDestroyCallback(WItemDestroyCallback cb) {
         this.destroycb = cb;
     }
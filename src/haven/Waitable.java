@@ -28,6 +28,14 @@ package haven;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 public interface Waitable {
@@ -182,4 +190,107 @@ public interface Waitable {
             }
         }
     }
+
+    /*
+     * Blocks until cond holds, re-evaluating it whenever q is
+     * notified, and in any case every recheck milliseconds to catch
+     * changes that q is not notified of. A negative timeout waits
+     * indefinitely. Returns whether cond came to hold.
+     */
+    public static boolean await(Queue q, BooleanSupplier cond, long timeout, long recheck) throws InterruptedException {
+        long end = (timeout < 0) ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+        boolean[] fired = {false};
+        Runnable wake = () -> {
+            synchronized (fired) {
+                fired[0] = true;
+                fired.notifyAll();
+            }
+        };
+        while (true) {
+            /* Register before checking, so that no change is missed. */
+            Waiting w = q.add(wake);
+            try {
+                if (cond.getAsBoolean())
+                    return (true);
+                long now = System.currentTimeMillis();
+                if (now >= end)
+                    return (false);
+                synchronized (fired) {
+                    if (!fired[0])
+                        fired.wait(Math.min(end - now, recheck));
+                    fired[0] = false;
+                }
+            } finally {
+                w.cancel();
+            }
+        }
+    }
+
+    /*
+     * Returns a future completed once cond holds. cond is evaluated
+     * once by the caller and then, after each notification of q, on
+     * the shared condition thread rather than the notifying one, which
+     * may be holding locks such as OCache's. It should still be cheap,
+     * since every when() shares that thread.
+     */
+    public static CompletableFuture<Void> when(Queue q, BooleanSupplier cond) {
+        return (when(q, cond, -1));
+    }
+
+    /*
+     * Like when(q, cond), but failing the future with a
+     * TimeoutException if cond has not come to hold within timeout
+     * milliseconds. A negative timeout waits indefinitely. However
+     * the future is completed, cancelling it included, it stops
+     * waiting on q.
+     */
+    public static CompletableFuture<Void> when(Queue q, BooleanSupplier cond, long timeout) {
+        CompletableFuture<Void> ret = new CompletableFuture<>();
+        Waiting[] cur = {null};
+        Runnable check = new Runnable() {
+            final Runnable wake = () -> Timeouts.checks.execute(this);
+
+            public void run() {
+                /* Register before checking, so that no change is missed. */
+                synchronized (cur) {
+                    if (ret.isDone())
+                        return;
+                    cur[0] = q.add(wake);
+                }
+                try {
+                    if (cond.getAsBoolean())
+                        ret.complete(null);
+                } catch (Throwable t) {
+                    ret.completeExceptionally(t);
+                }
+            }
+        };
+        ret.whenComplete((v, t) -> {
+            synchronized (cur) {
+                if (cur[0] != null) {
+                    cur[0].cancel();
+                    cur[0] = null;
+                }
+            }
+        });
+        check.run();
+        if ((timeout >= 0) && !ret.isDone()) {
+            ScheduledFuture<?> expire = Timeouts.timer.schedule(() -> ret.completeExceptionally(new TimeoutException()), timeout, TimeUnit.MILLISECONDS);
+            ret.whenComplete((v, t) -> expire.cancel(false));
+        }
+        return (ret);
+    }
+
+    public static class Timeouts {
+        static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new HackThread(r, "Wait timeouts");
+            t.setDaemon(true);
+            return (t);
+        });
+        static final ExecutorService checks = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new HackThread(r, "Wait conditions");
+            t.setDaemon(true);
+            return (t);
+        });
+    }
 }
@@ -642,6 +642,8 @@ public class Widget {
         unlink();
         if (parent != null)
             parent.cdestroy(this);
+        if (ui != null)
+            ui.changed();
     }
 
     public void cdestroy(Widget w) {
@@ -818,7 +820,9 @@ public class Widget {
 
         for (Widget wdg = child; wdg != null; wdg = next) {
             next = wdg.next;
-            wdg.tick(dt);
+            try (Trace.Scope s = Trace.begin(wdg.getClass())) {
+                wdg.tick(dt);
+            }
         }
         /* It would be very nice to do these things in harmless mix-in
          * classes, but alas, this is Java. */
@@ -846,7 +850,9 @@ public class Widget {
                 g2 = g.reclip(cc, wdg.sz);
             else
                 g2 = g.reclipl(cc, wdg.sz);
-            wdg.draw(g2);
+            try (Trace.Scope s = Trace.begin(wdg.getClass())) {
+                wdg.draw(g2);
+            }
             if (configuration.focusrectangle) {
                 RootWidget rw = getparent(RootWidget.class);
                 if (rw != null && Objects.equals(rw.lastfocused, wdg)) {
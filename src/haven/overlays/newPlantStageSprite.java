@@ -11,17 +11,14 @@ import haven.PView;
 import haven.Projection;
 import haven.RenderList;
 import haven.Sprite;
-import haven.Tex;
 import haven.Text;
-import org.json.JSONObject;
+import haven.TextCache;
 
 import java.awt.Color;
-import java.util.HashMap;
-import java.util.Map;
 
 public class newPlantStageSprite extends Sprite {
     public int stg;
-    private Tex tex;
+    private TextCache.Ref tex;
     private static Matrix4f mv = new Matrix4f();
     private Projection proj;
     private Coord wndsz;
@@ -29,27 +26,15 @@ public class newPlantStageSprite extends Sprite {
     private Camera camp;
     private final boolean multistg, offsetmultisg;
 
-    public static Map<String, Tex> cachedTex = new HashMap<>();
-
-    public static Tex getCachedTex(String text, Color color, Color bgcol) {
-        JSONObject jo = new JSONObject();
-        jo.put("name", text);
-        jo.put("col", color.hashCode());
-        jo.put("border", bgcol.hashCode());
-
-        Tex tex = cachedTex.get(jo.toString());
-        if (tex == null) {
-            tex = Text.renderstroked(text, color, bgcol, Text.num12boldFnd).tex();
-            cachedTex.put(jo.toString(), tex);
-        }
-        return (tex);
+    public static TextCache.Ref getCachedTex(String text, Color color, Color bgcol) {
+        return (TextCache.global.get(text, Text.num12boldFnd, color, bgcol));
     }
 
-    Tex stg(int stg, int stgmax, Color clr) {
+    TextCache.Ref stg(int stg, int stgmax, Color clr) {
         return getCachedTex(String.format("%d/%d", stg, stgmax), clr, Color.BLACK);
     }
 
-    Tex stg(int stg, int stgmax, Color clr, Color border) {
+    TextCache.Ref stg(int stg, int stgmax, Color clr, Color border) {
         return getCachedTex(String.format("%d/%d", stg, stgmax), clr, border);
     }
 
@@ -79,6 +64,7 @@ public class newPlantStageSprite extends Sprite {
     }
 
     public void update(int stg, int stgmax) {
+        TextCache.Ref prev = tex;
         this.stg = stg;
         int truestg = stg + 1;
         int truestgmax = stgmax + 1;
@@ -99,7 +85,13 @@ public class newPlantStageSprite extends Sprite {
             else
                 tex = stg(truestg, truestgmax, Color.red);
         }
-        tex.dispose();
+        if (prev != null)
+            prev.release();
+    }
+
+    public void dispose() {
+        if (tex != null)
+            tex.release();
     }
 
     public Object staticp() {
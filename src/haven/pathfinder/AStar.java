@@ -1,128 +1,187 @@
 package haven.pathfinder;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Set;
 
 
+/**
+ * A* over a visibility graph. Vertices are numbered as they are discovered, and all per-node
+ * state lives in arrays indexed by that number, with the open set as an indexed binary heap
+ * supporting decrease-key. Ties on f are broken by h and then by the order in which the nodes
+ * last had their cost lowered, as the PriorityQueue version did, so the route only depends on
+ * the graph and its edge order.
+ */
 public class AStar {
+    private static final int OPEN_NONE = -1;
+    private static final int CLOSED = -2;
+    private static int searches = 0;
+
+    private int search;
+    private int n = 0;
+    private Vertex[] verts = new Vertex[64];
+    private double[] g = new double[64];
+    private double[] h = new double[64];
+    private int[] order = new int[64];
+    private int[] prev = new int[64];
+    private Edge[] edge = new Edge[64];
+    // heap position of each node, or OPEN_NONE / CLOSED
+    private int[] pos = new int[64];
+    private int[] heap = new int[64];
+    private int hsz = 0;
+    private int orders = 0;
 
     public Iterable<Edge> route(Vertex start, Vertex end) {
-        Node dest = findShortestPath(new Path(start, end));
         LinkedList<Edge> path = new LinkedList<Edge>();
-        if (dest != null) {
-            while (dest.edge != null) {
-                path.addFirst(dest.edge);
-                dest = dest.prev;
+        int dest = findShortestPath(start, end);
+        if (dest >= 0) {
+            while (edge[dest] != null) {
+                path.addFirst(edge[dest]);
+                dest = prev[dest];
             }
         }
         return path;
     }
 
-    private Node findShortestPath(Path p) {
-        int order = 0;
-
-        Set<Node> closed = new HashSet<Node>();
-        PriorityQueue<Node> open = new PriorityQueue<Node>();
-
-        Node current = p.node(p.start);
-        current.reset(null, null, 0, order++);
-        open.add(current);
-
-        while (!open.isEmpty()) {
-            current = open.remove();
-
-            if (current.vertex.equals(p.end))
-                return current;
-
-            closed.add(current);
-            for (Edge edge : current.vertex.edges) {
-                Node n = p.node(edge.dest);
-
-                double g = current.g + edge.weight;
-                double f = g + n.h;
-
-                if (closed.contains(n) && f >= n.f())
-                    continue;
-
-                if (!open.contains(n) || f < n.f()) {
-                    open.remove(n);
-                    n.reset(current, edge, g, order++);
-                    open.add(n);
+    private int findShortestPath(Vertex start, Vertex end) {
+        synchronized (AStar.class) {
+            search = ++searches;
+        }
+        n = 0;
+        hsz = 0;
+        orders = 0;
+
+        int s = node(start, end);
+        reset(s, -1, null, 0);
+        push(s);
+
+        while (hsz > 0) {
+            int cur = pop();
+            Vertex cv = verts[cur];
+            if (cv == end)
+                return cur;
+
+            pos[cur] = CLOSED;
+            for (Edge e : cv.edges) {
+                int nb = node(e.dest, end);
+                double ng = g[cur] + e.weight;
+
+                if (pos[nb] == CLOSED) {
+                    if (ng + h[nb] >= g[nb] + h[nb])
+                        continue;
+                    reset(nb, cur, e, ng);
+                    push(nb);
+                } else if (pos[nb] == OPEN_NONE) {
+                    reset(nb, cur, e, ng);
+                    push(nb);
+                } else if (ng + h[nb] < g[nb] + h[nb]) {
+                    reset(nb, cur, e, ng);
+                    up(pos[nb]);
                 }
             }
         }
-        return null;
+        return -1;
     }
 
-    private static class Path {
-        private final Vertex start;
-        private final Vertex end;
-        private final Map<Vertex, Node> nodes;
+    /**
+     * Returns the node number of the vertex in the current search, numbering it if it is new.
+     */
+    private int node(Vertex v, Vertex end) {
+        if (v.search == search)
+            return v.id;
+        if (n == verts.length)
+            grow();
+        int id = n++;
+        v.search = search;
+        v.id = id;
+        verts[id] = v;
+        double dx = v.x - end.x;
+        double dy = v.y - end.y;
+        h[id] = Math.sqrt(dx * dx + dy * dy);
+        g[id] = Double.POSITIVE_INFINITY;
+        pos[id] = OPEN_NONE;
+        prev[id] = -1;
+        edge[id] = null;
+        return id;
+    }
 
-        public Path(Vertex start, Vertex end) {
-            this.start = start;
-            this.end = end;
-            nodes = new HashMap<Vertex, Node>();
-        }
+    /**
+     * Sets the node's cost and predecessor, moving it behind every node lowered before it on ties.
+     */
+    private void reset(int id, int p, Edge e, double ng) {
+        prev[id] = p;
+        edge[id] = e;
+        g[id] = ng;
+        order[id] = orders++;
+    }
 
-        private Node node(Vertex vertex) {
-            Node n = nodes.get(vertex);
-            if (n == null) {
-                n = new Node(vertex, heuristic(vertex, end));
-                nodes.put(vertex, n);
-            }
-            return n;
-        }
+    private void grow() {
+        int sz = verts.length * 2;
+        verts = Arrays.copyOf(verts, sz);
+        g = Arrays.copyOf(g, sz);
+        h = Arrays.copyOf(h, sz);
+        order = Arrays.copyOf(order, sz);
+        prev = Arrays.copyOf(prev, sz);
+        edge = Arrays.copyOf(edge, sz);
+        pos = Arrays.copyOf(pos, sz);
+        heap = Arrays.copyOf(heap, sz);
+    }
 
-        private double heuristic(Vertex a, Vertex b) {
-            double dx = a.x - b.x;
-            double dy = a.y - b.y;
-            return Math.sqrt(dx * dx + dy * dy);
-        }
+    private boolean less(int a, int b) {
+        double fa = g[a] + h[a], fb = g[b] + h[b];
+        if (fa != fb)
+            return fa < fb;
+        if (h[a] != h[b])
+            return h[a] < h[b];
+        return order[a] < order[b];
     }
 
-    private static class Node implements Comparable<Node> {
-        private final Vertex vertex;
-        private final double h;
-        private Node prev;
-        private Edge edge;
-        private double g;
-        private int order;
-
-        public Node(Vertex vertex, double h) {
-            this.vertex = vertex;
-            this.h = h;
-        }
+    private void push(int id) {
+        heap[hsz] = id;
+        pos[id] = hsz;
+        up(hsz++);
+    }
 
-        private void reset(Node prev, Edge edge, double g, int order) {
-            this.prev = prev;
-            this.edge = edge;
-            this.g = g;
-            this.order = order;
+    private int pop() {
+        int top = heap[0];
+        int last = heap[--hsz];
+        if (hsz > 0) {
+            heap[0] = last;
+            pos[last] = 0;
+            down(0);
         }
+        pos[top] = OPEN_NONE;
+        return top;
+    }
 
-        private double f() {
-            return g + h;
+    private void up(int i) {
+        int id = heap[i];
+        while (i > 0) {
+            int p = (i - 1) >> 1;
+            if (!less(id, heap[p]))
+                break;
+            heap[i] = heap[p];
+            pos[heap[i]] = i;
+            i = p;
         }
+        heap[i] = id;
+        pos[id] = i;
+    }
 
-        @Override
-        public int compareTo(Node n) {
-            if (this == n)
-                return 0;
-
-            int diff = (int) Math.signum(f() - n.f());
-
-            if (diff == 0)
-                diff = (int) Math.signum(h - n.h);
-
-            if (diff == 0)
-                diff = order = n.order;
-
-            return diff;
+    private void down(int i) {
+        int id = heap[i];
+        while (true) {
+            int c = (i << 1) + 1;
+            if (c >= hsz)
+                break;
+            if (c + 1 < hsz && less(heap[c + 1], heap[c]))
+                c++;
+            if (!less(heap[c], id))
+                break;
+            heap[i] = heap[c];
+            pos[heap[i]] = i;
+            i = c;
         }
+        heap[i] = id;
+        pos[id] = i;
     }
 }
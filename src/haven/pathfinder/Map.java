@@ -3,14 +3,12 @@ package haven.pathfinder;
 
 import haven.Coord;
 import haven.Gob;
-import haven.GobHitbox;
 import haven.MCache;
 import haven.Pair;
-import haven.Resource;
 
 import java.awt.Color;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -28,10 +26,10 @@ public class Map {
     public final static int origin = origintile * 11;
     public final static int sz = origin * 2;
     public static int plbbox = 3;
-    private final static int way = plbbox + 2;
-    private final static int clr = way + 1;
+    final static int way = plbbox + 2;
+    final static int clr = way + 1;
     private final static int concaveclr = 2;
-    private final static int tomaxside = 33;
+    final static int tomaxside = 33;
     private final static int mapborder = 4;
 
     private final static int tbbax = -2;
@@ -39,12 +37,14 @@ public class Map {
     private final static int tbbbx = 2;
     private final static int tbbby = 2;
 
-    private final byte[][] map = new byte[sz][sz];
-    private final TraversableObstacle[][] pomap = new TraversableObstacle[sz][sz];
+    private final byte[][] map;
+    private final TraversableObstacle[][] pomap;
     private final ArrayList<TraversableObstacle> tocandidates = new ArrayList<TraversableObstacle>(300);
+    private final ArrayList<TraversableObstacle> tos = new ArrayList<TraversableObstacle>();
     private Coord plc;
     private Coord endc;
-    private final MCache mcache;
+    private final ObstacleField field;
+    private ObstacleField.Raster raster;
     private Vertex vxstart;
     private Vertex vxend;
 
@@ -52,80 +52,61 @@ public class Map {
     private final static boolean DEBUG = false;
     public final static boolean DEBUG_TIMINGS = false;
 
-    public Map(Coord plc, Coord endc, MCache mcache) {
+    public Map(Coord plc, Coord endc, ObstacleField field) {
         this.plc = plc;
         this.endc = endc;
-        this.mcache = mcache;
+        this.field = field;
+        this.raster = field.lease();
+        this.map = raster.map;
+        this.pomap = raster.pomap;
         dbg = new Dbg(DEBUG);
         dbg.init();
     }
 
+    /**
+     * Hands the raster back to the obstacle field for reuse. The map must not be used afterwards.
+     */
+    public void release() {
+        if (raster == null)
+            return;
+        for (TraversableObstacle sm : tos) {
+            for (int i = 0; i < sm.raster.length; i += 3) {
+                for (int x = sm.raster[i + 1]; x <= sm.raster[i + 2]; x++)
+                    pomap[x][sm.raster[i]] = null;
+            }
+        }
+        tos.clear();
+        field.release(raster);
+        raster = null;
+    }
+
     private void initGeography() {
         Coord pltc = new Coord(plc.x / 11, plc.y / 11);
-
-        int dx = (int) (plc.x / 11.0d * 11.0d - pltc.x * 11) - 5;
-        int dy = (int) (plc.y / 11.0d * 11.0d - pltc.y * 11) - 5;
-
-        for (int x = -origintile; x < origintile; x++) {
-            for (int y = -origintile; y < origintile; y++) {
-                int t = mcache.gettile(pltc.sub(x, y));
-                Resource res = mcache.tilesetr(t);
-                if (res == null)
-                    continue;
-
-                String name = res.name;
-                if (!name.equals("gfx/tiles/deep") &&
-                        !name.equals("gfx/tiles/cave") &&
-                        !name.equals("gfx/tiles/nil") &&
-                        !name.startsWith("gfx/tiles/rocks/"))
-                    continue;
-
-
-                int gcx = origin - (x * 11) - dx;
-                int gcy = origin - (y * 11) - dy;
-
-                // exclude destination tile
-                if (endc.x < gcx + tbbax + plbbox && endc.x > gcx + tbbax - plbbox &&
-                        endc.y < gcy + tbbby + plbbox && endc.y > gcy + tbbay - plbbox) {
+        // tiles covered are pltc - origintile + 1 through pltc + origintile on each axis
+        Coord ta = pltc.sub(origintile - 1, origintile - 1);
+        Coord tb = pltc.add(origintile, origintile);
+        Coord ga = ta.div(MCache.cmaps), gb = tb.div(MCache.cmaps);
+        field.trim(pltc.div(MCache.cmaps));
+
+        for (int gx = ga.x; gx <= gb.x; gx++) {
+            for (int gy = ga.y; gy <= gb.y; gy++) {
+                Coord gc = new Coord(gx, gy);
+                BitSet blocked = field.terrain(gc);
+                Coord gul = gc.mul(MCache.cmaps);
+                if (blocked == null) {
+                    // not loaded yet, so nothing is known to be passable there
+                    for (int tx = Math.max(gul.x, ta.x); tx <= Math.min(gul.x + MCache.cmaps.x - 1, tb.x); tx++) {
+                        for (int ty = Math.max(gul.y, ta.y); ty <= Math.min(gul.y + MCache.cmaps.y - 1, tb.y); ty++)
+                            plotTerrain(tx, ty);
+                    }
                     continue;
                 }
-
-                // bounding box
-                Coord ca = new Coord(gcx + tbbax - plbbox, gcy + tbbay - plbbox);
-                Coord cb = new Coord(gcx + tbbbx + plbbox, gcy + tbbay - plbbox);
-                Coord cc = new Coord(gcx + tbbbx + plbbox, gcy + tbbby + plbbox);
-                Coord cd = new Coord(gcx + tbbax - plbbox, gcy + tbbby + plbbox);
-
-                // calculate waypoints located on the angular bisector of the corner
-                int wax = ca.x - 1;
-                int way = ca.y - 1;
-                int wbx = cb.x + 1;
-                int wby = cb.y - 1;
-                int wcx = cc.x + 1;
-                int wcy = cc.y + 1;
-                int wdx = cd.x - 1;
-                int wdy = cd.y + 1;
-
-                // exclude tiles near map edges so we won't need to do bounds checks all over the place
-                if (wax - mapborder < 0 || way - mapborder < 0 || wax + mapborder >= sz || way + mapborder >= sz ||
-                        wbx - mapborder < 0 || wby - mapborder < 0 || wbx + mapborder >= sz || wby + mapborder >= sz ||
-                        wcx - mapborder < 0 || wcy - mapborder < 0 || wcx + mapborder >= sz || wcy + mapborder >= sz ||
-                        wdx - mapborder < 0 || wdy - mapborder < 0 || wdx + mapborder >= sz || wdy + mapborder >= sz)
-                    continue;
-
-                // plot bounding box
-                Utils.plotTile(map, ca, cb, cd);
-
-                if (map[wax][way] == CELL_FREE)
-                    map[wax][way] = CELL_WP;
-                if (map[wbx][wby] == CELL_FREE)
-                    map[wbx][wby] = CELL_WP;
-                if (map[wcx][wcy] == CELL_FREE)
-                    map[wcx][wcy] = CELL_WP;
-                if (map[wdx][wdy] == CELL_FREE)
-                    map[wdx][wdy] = CELL_WP;
-
-                dbg.rect(ca.x, ca.y, cb.x, cb.y, cc.x, cc.y, cd.x, cd.y, Color.CYAN);
+                for (int i = blocked.nextSetBit(0); i >= 0; i = blocked.nextSetBit(i + 1)) {
+                    int tx = gul.x + (i % MCache.cmaps.x), ty = gul.y + (i / MCache.cmaps.x);
+                    if (tx < ta.x || tx > tb.x || ty < ta.y || ty > tb.y)
+                        continue;
+                    plotTerrain(tx, ty);
+                }
             }
         }
 
@@ -143,68 +124,68 @@ public class Map {
         }
     }
 
-    public void addGob(Gob gob) {
-        GobHitbox.BBox[] bbox = GobHitbox.getBBox(gob);
-        if (bbox == null || bbox.length != 1 || bbox[0].points.length != 4)
+    private void plotTerrain(int tx, int ty) {
+        // tile center relative to the origin (player's location)
+        int gcx = origin - plc.x + tx * 11 + 5;
+        int gcy = origin - plc.y + ty * 11 + 5;
+
+        // exclude destination tile
+        if (endc.x < gcx + tbbax + plbbox && endc.x > gcx + tbbax - plbbox &&
+                endc.y < gcy + tbbby + plbbox && endc.y > gcy + tbbay - plbbox) {
+            return;
+        }
+
+        // bounding box
+        Coord ca = new Coord(gcx + tbbax - plbbox, gcy + tbbay - plbbox);
+        Coord cb = new Coord(gcx + tbbbx + plbbox, gcy + tbbay - plbbox);
+        Coord cc = new Coord(gcx + tbbbx + plbbox, gcy + tbbby + plbbox);
+        Coord cd = new Coord(gcx + tbbax - plbbox, gcy + tbbby + plbbox);
+
+        // calculate waypoints located on the angular bisector of the corner
+        int wax = ca.x - 1;
+        int way = ca.y - 1;
+        int wbx = cb.x + 1;
+        int wby = cb.y - 1;
+        int wcx = cc.x + 1;
+        int wcy = cc.y + 1;
+        int wdx = cd.x - 1;
+        int wdy = cd.y + 1;
+
+        // exclude tiles near map edges so we won't need to do bounds checks all over the place
+        if (wax - mapborder < 0 || way - mapborder < 0 || wax + mapborder >= sz || way + mapborder >= sz ||
+                wbx - mapborder < 0 || wby - mapborder < 0 || wbx + mapborder >= sz || wby + mapborder >= sz ||
+                wcx - mapborder < 0 || wcy - mapborder < 0 || wcx + mapborder >= sz || wcy + mapborder >= sz ||
+                wdx - mapborder < 0 || wdy - mapborder < 0 || wdx + mapborder >= sz || wdy + mapborder >= sz)
             return;
 
-        Coord bboxa = new Coord(bbox[0].points[0]);
-        Coord bboxb = new Coord(bbox[0].points[2]);
+        // plot bounding box
+        Utils.plotTile(map, ca, cb, cd);
+
+        if (map[wax][way] == CELL_FREE)
+            map[wax][way] = CELL_WP;
+        if (map[wbx][wby] == CELL_FREE)
+            map[wbx][wby] = CELL_WP;
+        if (map[wcx][wcy] == CELL_FREE)
+            map[wcx][wcy] = CELL_WP;
+        if (map[wdx][wdy] == CELL_FREE)
+            map[wdx][wdy] = CELL_WP;
+
+        dbg.rect(ca.x, ca.y, cb.x, cb.y, cc.x, cc.y, cd.x, cd.y, Color.CYAN);
+    }
+
+    public void addGob(Gob gob) {
+        ObstacleField.Shape shape = field.shape(gob);
+        if (!shape.valid)
+            return;
 
         // gob coordinate relative to the origin (player's location)
         int gcx = origin - (plc.x - gob.rc.floor().x);
         int gcy = origin - (plc.y - gob.rc.floor().y);
 
-        // since non 90 degrees incremental rotation is wonky we slightly increase the bounding box for such gobs
-        // FIXME: but really should rotate around pixel's center
-        int rotadj = 0;
-        if (gob.a != 0 && gob.a != Math.PI && gob.a != Math.PI / 2.0 && gob.a != (3 * Math.PI) / 2) {
-            rotadj = 1;
-        }
-        Coord ca, cb, cc, cd, wa, wb, wc, wd, clra, clrb, clrc, clrd;
-
-        // do not rotate square gobs
-        // FIXME: rotating rasters realiably to mach actual bounding boxes is very tricky. need better way...
-        if (Math.abs(bboxa.x) + Math.abs(bboxb.x) == Math.abs(bboxa.y) + Math.abs(bboxb.y) && rotadj == 0) {
-            // bounding box
-            ca = new Coord(gcx + bboxa.x - plbbox, gcy + bboxa.y - plbbox);
-            cb = new Coord(gcx + bboxb.x + plbbox, gcy + bboxa.y - plbbox);
-            cc = new Coord(gcx + bboxb.x + plbbox, gcy + bboxb.y + plbbox);
-            cd = new Coord(gcx + bboxa.x - plbbox, gcy + bboxb.y + plbbox);
-
-            // calculate waypoints located on the angular bisector of the corner
-            wa = new Coord(gcx + bboxa.x - way, gcy + bboxa.y - way);
-            wb = new Coord(gcx + bboxb.x + way, gcy + bboxa.y - way);
-            wc = new Coord(gcx + bboxb.x + way, gcy + bboxb.y + way);
-            wd = new Coord(gcx + bboxa.x - way, gcy + bboxb.y + way);
-
-            // calculate TO clearance vertices
-            clra = new Coord(gcx + bboxa.x - clr, gcy + bboxa.y - clr);
-            clrb = new Coord(gcx + bboxb.x + clr, gcy + bboxa.y - clr);
-            clrc = new Coord(gcx + bboxb.x + clr, gcy + bboxb.y + clr);
-            clrd = new Coord(gcx + bboxa.x - clr, gcy + bboxb.y + clr);
-        } else {
-            // rotate the bounding box.
-            // FIXME: should rotate around pixel's center
-            double cos = Math.cos(gob.a);
-            double sin = Math.sin(gob.a);
-            ca = Utils.rotate(gcx + bboxa.x - plbbox, gcy + bboxa.y - plbbox, gcx, gcy, cos, sin);
-            cb = Utils.rotate(gcx + bboxb.x + plbbox, gcy + bboxa.y - plbbox, gcx, gcy, cos, sin);
-            cc = Utils.rotate(gcx + bboxb.x + plbbox, gcy + bboxb.y + plbbox, gcx, gcy, cos, sin);
-            cd = Utils.rotate(gcx + bboxa.x - plbbox, gcy + bboxb.y + plbbox, gcx, gcy, cos, sin);
-
-            // calculate waypoints located on the angular bisector of the corner
-            wa = Utils.rotate(gcx + bboxa.x - way - rotadj, gcy + bboxa.y - way - rotadj, gcx, gcy, cos, sin);
-            wb = Utils.rotate(gcx + bboxb.x + way + rotadj, gcy + bboxa.y - way - rotadj, gcx, gcy, cos, sin);
-            wc = Utils.rotate(gcx + bboxb.x + way + rotadj, gcy + bboxb.y + way + rotadj, gcx, gcy, cos, sin);
-            wd = Utils.rotate(gcx + bboxa.x - way - rotadj, gcy + bboxb.y + way + rotadj, gcx, gcy, cos, sin);
-
-            // calculate TO clearance vertices
-            clra = Utils.rotate(gcx + bboxa.x - clr - rotadj, gcy + bboxa.y - clr - rotadj, gcx, gcy, cos, sin);
-            clrb = Utils.rotate(gcx + bboxb.x + clr - rotadj, gcy + bboxa.y - clr - rotadj, gcx, gcy, cos, sin);
-            clrc = Utils.rotate(gcx + bboxb.x + clr + rotadj, gcy + bboxb.y + clr + rotadj, gcx, gcy, cos, sin);
-            clrd = Utils.rotate(gcx + bboxa.x - clr - rotadj, gcy + bboxb.y + clr + rotadj, gcx, gcy, cos, sin);
-        }
+        Coord wa = shape.wa.add(gcx, gcy);
+        Coord wb = shape.wb.add(gcx, gcy);
+        Coord wc = shape.wc.add(gcx, gcy);
+        Coord wd = shape.wd.add(gcx, gcy);
 
         // exclude gobs near map edges so we won't need to do bounds checks all over the place
         if (wa.x - mapborder < 0 || wa.y - mapborder < 0 || wa.x + mapborder >= sz || wa.y + mapborder >= sz ||
@@ -223,35 +204,42 @@ public class Map {
             map[wd.x][wd.y] = CELL_WP;
 
         // plot bounding box
-        HashMap<Integer, Utils.MinMax> raster = Utils.plotRect(map, ca, cb, cc, cd, CELL_BLK);
+        int[] rows = shape.rows;
+        int[] raster = shape.tocandidate ? new int[rows.length] : null;
+        for (int i = 0; i < rows.length; i += 3) {
+            int y = rows[i] + gcy;
+            for (int x = rows[i + 1] + gcx; x <= rows[i + 2] + gcx; x++)
+                map[x][y] = CELL_BLK;
+            if (raster != null) {
+                raster[i] = y;
+                raster[i + 1] = rows[i + 1] + gcx;
+                raster[i + 2] = rows[i + 2] + gcx;
+            }
+        }
 
         // store traversable obstacles candidates
-        if (bboxb.x <= tomaxside && bboxb.y <= tomaxside)
-            tocandidates.add(new TraversableObstacle(wa, wb, wc, wd, clra, clrb, clrc, clrd, raster));
+        if (raster != null) {
+            tocandidates.add(new TraversableObstacle(wa, wb, wc, wd,
+                    shape.clra.add(gcx, gcy), shape.clrb.add(gcx, gcy), shape.clrc.add(gcx, gcy), shape.clrd.add(gcx, gcy), raster));
+        }
 
-        dbg.rect(ca.x, ca.y, cb.x, cb.y, cc.x, cc.y, cd.x, cd.y, Color.CYAN);
+        dbg.rect(shape.ca.x + gcx, shape.ca.y + gcy, shape.cb.x + gcx, shape.cb.y + gcy,
+                shape.cc.x + gcx, shape.cc.y + gcy, shape.cd.x + gcx, shape.cd.y + gcy, Color.CYAN);
     }
 
     public void excludeGob(Gob gob) {
-        GobHitbox.BBox bbox[] = GobHitbox.getBBox(gob);
-        if (bbox == null || bbox.length != 1 || bbox[0].points.length != 4)
+        ObstacleField.Shape shape = field.shape(gob);
+        if (!shape.valid)
             return;
 
-        Coord bboxa = new Coord(bbox[0].points[0]);
-        Coord bboxb = new Coord(bbox[0].points[2]);
-
         // gob coordinate relative to the origin (player's location)
         int gcx = origin - (plc.x - gob.rc.floor().x);
         int gcy = origin - (plc.y - gob.rc.floor().y);
 
-        // rotate the bounding box.
-        // FIXME: should rotate around pixel's center
-        double cos = Math.cos(gob.a);
-        double sin = Math.sin(gob.a);
-        Coord ca = Utils.rotate(gcx + bboxa.x - plbbox, gcy + bboxa.y - plbbox, gcx, gcy, cos, sin);
-        Coord cb = Utils.rotate(gcx + bboxb.x + plbbox, gcy + bboxa.y - plbbox, gcx, gcy, cos, sin);
-        Coord cc = Utils.rotate(gcx + bboxb.x + plbbox, gcy + bboxb.y + plbbox, gcx, gcy, cos, sin);
-        Coord cd = Utils.rotate(gcx + bboxa.x - plbbox, gcy + bboxb.y + plbbox, gcx, gcy, cos, sin);
+        Coord ca = shape.xa.add(gcx, gcy);
+        Coord cb = shape.xb.add(gcx, gcy);
+        Coord cc = shape.xc.add(gcx, gcy);
+        Coord cd = shape.xd.add(gcx, gcy);
 
         // exclude the gob if it's near map edges so we won't need to do bounds checks all later on
         if (ca.x - mapborder < 0 || ca.y - mapborder < 0 || ca.x + mapborder >= sz || ca.y + mapborder >= sz ||
@@ -346,13 +334,14 @@ public class Map {
             map[sm.wc.x][sm.wc.y] = CELL_FREE;
             map[sm.wd.x][sm.wd.y] = CELL_FREE;
 
-            for (int y : sm.raster.keySet()) {
-                Utils.MinMax mm = sm.raster.get(y);
-                for (int x = mm.min; x <= mm.max; x++) {
+            for (int i = 0; i < sm.raster.length; i += 3) {
+                int y = sm.raster[i];
+                for (int x = sm.raster[i + 1]; x <= sm.raster[i + 2]; x++) {
                     map[x][y] = Map.CELL_TO;
                     pomap[x][y] = sm;
                 }
             }
+            tos.add(sm);
         }
     }
 
@@ -0,0 +1,264 @@
+package haven.pathfinder;
+
+import haven.Coord;
+import haven.Gob;
+import haven.GobHitbox;
+import haven.Loading;
+import haven.MCache;
+import haven.OCache;
+import haven.Resource;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.WeakHashMap;
+
+/**
+ * Obstacle data that outlives individual path searches.
+ * Gob bounding boxes are rasterised once, relative to the gob, and only redone when OCache reports
+ * the gob as changed or it turns; terrain is classified once per tileset and once per loaded grid.
+ * A search then only has to stamp these into a pooled raster around the player.
+ */
+public class ObstacleField implements OCache.ChangeCallback {
+    private final MCache mcache;
+    private final java.util.Map<Gob, Shape> shapes = new WeakHashMap<>();
+    private final java.util.Map<Coord, Terrain> terrain = new HashMap<>();
+    private final Resource.Spec[] tspecs = new Resource.Spec[256];
+    private final boolean[] tblock = new boolean[256];
+    private final ArrayDeque<Raster> pool = new ArrayDeque<>();
+    private int gen = 0;
+
+    public ObstacleField(MCache mcache, OCache oc) {
+        this.mcache = mcache;
+        oc.callback(this);
+    }
+
+    /**
+     * A gob's bounding box, padded and rotated as Map needs it, relative to the gob's floored position.
+     */
+    static class Shape {
+        private static final Shape NONE = new Shape();
+
+        final Resource res;
+        final GobHitbox.BBox[] bbox;
+        final double a;
+        final boolean valid;
+        // bounding box, waypoints and traversable obstacle clearance vertices
+        final Coord ca, cb, cc, cd, wa, wb, wc, wd, clra, clrb, clrc, clrd;
+        // the box as always rotated, which is what excluding a gob clears
+        final Coord xa, xb, xc, xd;
+        // y, min x, max x triples of the plotted bounding box
+        final int[] rows;
+        final boolean tocandidate;
+
+        private Shape() {
+            this.res = null;
+            this.bbox = null;
+            this.a = 0;
+            this.valid = false;
+            ca = cb = cc = cd = wa = wb = wc = wd = clra = clrb = clrc = clrd = xa = xb = xc = xd = null;
+            rows = null;
+            tocandidate = false;
+        }
+
+        Shape(Resource res, GobHitbox.BBox[] bbox, double a) {
+            this.res = res;
+            this.bbox = bbox;
+            this.a = a;
+            this.valid = bbox != null && bbox.length == 1 && bbox[0].points.length == 4;
+            if (!valid) {
+                ca = cb = cc = cd = wa = wb = wc = wd = clra = clrb = clrc = clrd = xa = xb = xc = xd = null;
+                rows = null;
+                tocandidate = false;
+                return;
+            }
+
+            Coord bboxa = new Coord(bbox[0].points[0]);
+            Coord bboxb = new Coord(bbox[0].points[2]);
+            final int plbbox = Map.plbbox, way = Map.way, clr = Map.clr;
+
+            // since non 90 degrees incremental rotation is wonky we slightly increase the bounding box for such gobs
+            int rotadj = 0;
+            if (a != 0 && a != Math.PI && a != Math.PI / 2.0 && a != (3 * Math.PI) / 2)
+                rotadj = 1;
+
+            double cos = Math.cos(a);
+            double sin = Math.sin(a);
+            // do not rotate square gobs
+            if (Math.abs(bboxa.x) + Math.abs(bboxb.x) == Math.abs(bboxa.y) + Math.abs(bboxb.y) && rotadj == 0) {
+                ca = new Coord(bboxa.x - plbbox, bboxa.y - plbbox);
+                cb = new Coord(bboxb.x + plbbox, bboxa.y - plbbox);
+                cc = new Coord(bboxb.x + plbbox, bboxb.y + plbbox);
+                cd = new Coord(bboxa.x - plbbox, bboxb.y + plbbox);
+
+                wa = new Coord(bboxa.x - way, bboxa.y - way);
+                wb = new Coord(bboxb.x + way, bboxa.y - way);
+                wc = new Coord(bboxb.x + way, bboxb.y + way);
+                wd = new Coord(bboxa.x - way, bboxb.y + way);
+
+                clra = new Coord(bboxa.x - clr, bboxa.y - clr);
+                clrb = new Coord(bboxb.x + clr, bboxa.y - clr);
+                clrc = new Coord(bboxb.x + clr, bboxb.y + clr);
+                clrd = new Coord(bboxa.x - clr, bboxb.y + clr);
+            } else {
+                ca = Utils.rotate(bboxa.x - plbbox, bboxa.y - plbbox, 0, 0, cos, sin);
+                cb = Utils.rotate(bboxb.x + plbbox, bboxa.y - plbbox, 0, 0, cos, sin);
+                cc = Utils.rotate(bboxb.x + plbbox, bboxb.y + plbbox, 0, 0, cos, sin);
+                cd = Utils.rotate(bboxa.x - plbbox, bboxb.y + plbbox, 0, 0, cos, sin);
+
+                wa = Utils.rotate(bboxa.x - way - rotadj, bboxa.y - way - rotadj, 0, 0, cos, sin);
+                wb = Utils.rotate(bboxb.x + way + rotadj, bboxa.y - way - rotadj, 0, 0, cos, sin);
+                wc = Utils.rotate(bboxb.x + way + rotadj, bboxb.y + way + rotadj, 0, 0, cos, sin);
+                wd = Utils.rotate(bboxa.x - way - rotadj, bboxb.y + way + rotadj, 0, 0, cos, sin);
+
+                clra = Utils.rotate(bboxa.x - clr - rotadj, bboxa.y - clr - rotadj, 0, 0, cos, sin);
+                clrb = Utils.rotate(bboxb.x + clr - rotadj, bboxa.y - clr - rotadj, 0, 0, cos, sin);
+                clrc = Utils.rotate(bboxb.x + clr + rotadj, bboxb.y + clr + rotadj, 0, 0, cos, sin);
+                clrd = Utils.rotate(bboxa.x - clr - rotadj, bboxb.y + clr + rotadj, 0, 0, cos, sin);
+            }
+            xa = Utils.rotate(bboxa.x - plbbox, bboxa.y - plbbox, 0, 0, cos, sin);
+            xb = Utils.rotate(bboxb.x + plbbox, bboxa.y - plbbox, 0, 0, cos, sin);
+            xc = Utils.rotate(bboxb.x + plbbox, bboxb.y + plbbox, 0, 0, cos, sin);
+            xd = Utils.rotate(bboxa.x - plbbox, bboxb.y + plbbox, 0, 0, cos, sin);
+
+            rows = Utils.rows(Utils.plotRect(null, ca, cb, cc, cd, Map.CELL_BLK));
+            tocandidate = bboxb.x <= Map.tomaxside && bboxb.y <= Map.tomaxside;
+        }
+    }
+
+    private static class Terrain {
+        final MCache.Grid grid;
+        final int seq;
+        final BitSet blocked;
+
+        Terrain(MCache.Grid grid, int seq, BitSet blocked) {
+            this.grid = grid;
+            this.seq = seq;
+            this.blocked = blocked;
+        }
+    }
+
+    static class Raster {
+        final byte[][] map = new byte[Map.sz][Map.sz];
+        final TraversableObstacle[][] pomap = new TraversableObstacle[Map.sz][Map.sz];
+    }
+
+    public synchronized void changed(Gob ob) {
+        shapes.remove(ob);
+        gen++;
+    }
+
+    public synchronized void removed(Gob ob) {
+        shapes.remove(ob);
+        gen++;
+    }
+
+    /**
+     * Returns the gob's cached shape, recomputing it if the gob has turned or its resource changed.
+     * Shapes of gobs whose resource is still loading are not cached.
+     */
+    Shape shape(Gob gob) {
+        Shape s;
+        int g;
+        synchronized (this) {
+            s = shapes.get(gob);
+            g = gen;
+        }
+        Resource res;
+        try {
+            res = gob.getres();
+        } catch (Loading l) {
+            res = null;
+        }
+        if (res == null)
+            return Shape.NONE;
+        if (s != null && s.res == res && (!s.valid || s.a == gob.a))
+            return s;
+        GobHitbox.BBox[] bbox = (s != null && s.res == res) ? s.bbox : GobHitbox.getBBox(gob);
+        s = new Shape(res, bbox, gob.a);
+        synchronized (this) {
+            if (gen == g)
+                shapes.put(gob, s);
+        }
+        return s;
+    }
+
+    private boolean blocking(int t) {
+        Resource.Spec spec = mcache.nsets[t];
+        if (spec == null)
+            return false;
+        if (tspecs[t] != spec) {
+            Resource res = mcache.tilesetr(t);
+            if (res == null)
+                return false;
+            String name = res.name;
+            tblock[t] = name.equals("gfx/tiles/deep") ||
+                    name.equals("gfx/tiles/cave") ||
+                    name.equals("gfx/tiles/nil") ||
+                    name.startsWith("gfx/tiles/rocks/");
+            tspecs[t] = spec;
+        }
+        return tblock[t];
+    }
+
+    /**
+     * The impassable tiles of the given grid, indexed like Grid.tiles, or null if the grid is not loaded,
+     * in which case it has been requested.
+     */
+    synchronized BitSet terrain(Coord gc) {
+        MCache.Grid grid = mcache.getgrido(gc).orElse(null);
+        if (grid == null) {
+            terrain.remove(gc);
+            return null;
+        }
+        Terrain t = terrain.get(gc);
+        if (t != null && t.grid == grid && t.seq == grid.seq)
+            return t.blocked;
+        int seq = grid.seq;
+        BitSet blocked = new BitSet(grid.tiles.length);
+        // tiles whose tileset is still loading are taken as blocked, and the result not kept
+        boolean complete = true;
+        for (int i = 0; i < grid.tiles.length; i++) {
+            int tile = grid.tiles[i];
+            if (blocking(tile)) {
+                blocked.set(i);
+            } else if (tspecs[tile] != mcache.nsets[tile]) {
+                blocked.set(i);
+                complete = false;
+            }
+        }
+        if (complete)
+            terrain.put(gc, new Terrain(grid, seq, blocked));
+        else
+            terrain.remove(gc);
+        return blocked;
+    }
+
+    /**
+     * Forgets terrain of grids more than two grids away from the given one.
+     */
+    synchronized void trim(Coord gc) {
+        for (Iterator<Coord> i = terrain.keySet().iterator(); i.hasNext(); ) {
+            Coord c = i.next();
+            if (Math.abs(c.x - gc.x) > 2 || Math.abs(c.y - gc.y) > 2)
+                i.remove();
+        }
+    }
+
+    synchronized Raster lease() {
+        Raster r = pool.poll();
+        return (r != null) ? r : new Raster();
+    }
+
+    /**
+     * Takes back a raster whose pomap has already been cleared by its user.
+     */
+    synchronized void release(Raster r) {
+        for (byte[] row : r.map)
+            Arrays.fill(row, Map.CELL_FREE);
+        if (pool.size() < 2)
+            pool.push(r);
+    }
+}
@@ -0,0 +1,278 @@
+package haven.pathfinder;
+
+import haven.Coord;
+import haven.DefSettings;
+import haven.HackThread;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Runs path searches on a small pool of worker threads shared by all sessions.
+ * Identical requests that are still being searched share one search, and finished routes are kept
+ * in an LRU cache keyed by start, goal, target, the search limit setting and the obstacle version they
+ * were found at. A route is only cached if the obstacles did not change while it was being searched.
+ */
+public class PathService {
+    private static final int WORKERS = 2;
+    private static final int CACHED = 64;
+    private static final int HISTORY = 32;
+    private static final Object NONE = new Object();
+    private static final ExecutorService pool;
+
+    static {
+        final AtomicInteger n = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(WORKERS, r -> {
+            Thread t = new HackThread(r, "Path search " + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private final LongSupplier version;
+    private final Map<Key, Job<?>> inflight = new HashMap<>();
+    private final Map<Key, Object> cache = new LinkedHashMap<Key, Object>(CACHED, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+            return size() > CACHED;
+        }
+    };
+    private final Deque<Timing> history = new ArrayDeque<>();
+    private long hits, coalesced, searched, cancelled, failed;
+
+    /**
+     * @param version Changes whenever anything a search looks at does
+     */
+    public PathService(LongSupplier version) {
+        this.version = version;
+    }
+
+    public static class Key {
+        final String kind;
+        final Coord start, goal;
+        final long target, version;
+        final boolean limited;
+
+        Key(String kind, Coord start, Coord goal, long target, boolean limited, long version) {
+            this.kind = kind;
+            this.start = start;
+            this.goal = goal;
+            this.target = target;
+            this.limited = limited;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return kind.equals(k.kind) && start.equals(k.start) && goal.equals(k.goal) && target == k.target && limited == k.limited && version == k.version;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, start, goal, target, limited, version);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s -> %s%s%s", kind, start, goal, (target != -1) ? " #" + target : "", limited ? ", limited" : "");
+        }
+    }
+
+    private static class Timing {
+        final Key key;
+        final String outcome;
+        final long queued, ran;
+        final int waiters;
+
+        Timing(Key key, String outcome, long queued, long ran, int waiters) {
+            this.key = key;
+            this.outcome = outcome;
+            this.queued = queued;
+            this.ran = ran;
+            this.waiters = waiters;
+        }
+    }
+
+    private class Job<T> implements Runnable {
+        final Key key;
+        final Callable<T> search;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long created = System.nanoTime();
+        Future<?> task;
+        int waiters = 1;
+
+        Job(Key key, Callable<T> search) {
+            this.key = key;
+            this.search = search;
+        }
+
+        public void run() {
+            final long start = System.nanoTime();
+            T ret = null;
+            Throwable err = null;
+            try {
+                ret = search.call();
+            } catch (Throwable t) {
+                err = t;
+            }
+            final long end = System.nanoTime();
+            final boolean still = version.getAsLong() == key.version;
+            synchronized (PathService.this) {
+                if (inflight.get(key) == this)
+                    inflight.remove(key);
+                if (result.isCancelled())
+                    return;
+                if (err != null) {
+                    failed++;
+                } else {
+                    searched++;
+                    if (still && !Thread.currentThread().isInterrupted())
+                        cache.put(key, (ret != null) ? ret : NONE);
+                }
+                record(new Timing(key, (err != null) ? "failed" : still ? "searched" : "searched, stale", start - created, end - start, waiters));
+            }
+            if (err != null)
+                result.completeExceptionally(err);
+            else
+                result.complete(ret);
+        }
+    }
+
+    /**
+     * One caller's interest in a search. Cancelling it only stops the search once no other caller
+     * is waiting on the same one.
+     */
+    public class Request<T> {
+        private final Job<T> job;
+        private final CompletableFuture<T> own;
+
+        private Request(Job<T> job) {
+            this.job = job;
+            this.own = new CompletableFuture<>();
+            job.result.whenComplete((v, t) -> {
+                if (t == null)
+                    own.complete(v);
+                else
+                    own.completeExceptionally(t);
+            });
+        }
+
+        private Request(T value) {
+            this.job = null;
+            this.own = CompletableFuture.completedFuture(value);
+        }
+
+        /**
+         * Waits for the route, which is null if there is none or the request was cancelled
+         */
+        public T get() throws InterruptedException {
+            try {
+                return own.get();
+            } catch (CancellationException e) {
+                return null;
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        public boolean done() {
+            return own.isDone();
+        }
+
+        public boolean cancelled() {
+            return own.isCancelled();
+        }
+
+        /**
+         * Calls back with the route once it is found, from the worker that found it
+         */
+        public void then(Consumer<T> cb) {
+            own.thenAccept(cb);
+        }
+
+        public void cancel() {
+            synchronized (PathService.this) {
+                if (job == null || own.isDone())
+                    return;
+                own.cancel(false);
+                if (--job.waiters > 0 || job.result.isDone())
+                    return;
+                if (inflight.get(job.key) == job)
+                    inflight.remove(job.key);
+                job.task.cancel(true);
+                job.result.cancel(false);
+                cancelled++;
+                record(new Timing(job.key, "cancelled", System.nanoTime() - job.created, 0, 0));
+            }
+        }
+    }
+
+    /**
+     * Requests a route, sharing a search already underway for the same one
+     *
+     * @param kind   Which pathfinder, since they do not return the same kind of route
+     * @param target Id of the gob the route leads to, or -1
+     * @param search Finds the route, returning null if there is none. Runs on a worker thread and should
+     *               give up when interrupted.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Request<T> request(String kind, Coord start, Coord goal, long target, Callable<T> search) {
+        final Key key = new Key(kind, start, goal, target, DefSettings.LIMITPATHFINDING.get(), version.getAsLong());
+        synchronized (this) {
+            final Object hit = cache.get(key);
+            if (hit != null) {
+                hits++;
+                record(new Timing(key, "cached", 0, 0, 1));
+                return new Request<>((hit != NONE) ? (T) hit : null);
+            }
+            Job<T> job = (Job<T>) inflight.get(key);
+            if (job != null) {
+                coalesced++;
+                job.waiters++;
+                return new Request<>(job);
+            }
+            job = new Job<>(key, search);
+            inflight.put(key, job);
+            final Request<T> req = new Request<>(job);
+            job.task = pool.submit(job);
+            return req;
+        }
+    }
+
+    private void record(Timing t) {
+        history.addFirst(t);
+        if (history.size() > HISTORY)
+            history.removeLast();
+    }
+
+    public synchronized void reset() {
+        history.clear();
+        cache.clear();
+        hits = coalesced = searched = cancelled = failed = 0;
+    }
+
+    public synchronized void dump(PrintWriter out) {
+        out.printf("%d searched, %d cached, %d coalesced, %d cancelled, %d failed; %d routes cached, %d in flight\n",
+                searched, hits, coalesced, cancelled, failed, cache.size(), inflight.size());
+        out.printf("%-18s %10s %10s %7s  %s\n", "outcome", "queued ms", "search ms", "waiters", "request");
+        for (Timing t : history)
+            out.printf("%-18s %10.2f %10.2f %7d  %s\n", t.outcome, t.queued / 1e6, t.ran / 1e6, t.waiters, t.key);
+    }
+}
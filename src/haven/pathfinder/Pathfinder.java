@@ -7,12 +7,13 @@ import haven.Coordf;
 import haven.Gob;
 import haven.GobHitbox;
 import haven.LinMove;
-import haven.MCache;
 import haven.MapView;
 import haven.OCache;
 import haven.Pair;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -20,7 +21,6 @@ import static haven.OCache.posres;
 
 public class Pathfinder implements Runnable {
     private OCache oc;
-    private MCache map;
     private MapView mv;
     private Coord dest;
     public boolean terminate = false;
@@ -38,7 +38,6 @@ public class Pathfinder implements Runnable {
         this.dest = dest;
         this.action = action;
         this.oc = mv.glob.oc;
-        this.map = mv.glob.map;
         this.mv = mv;
     }
 
@@ -50,7 +49,6 @@ public class Pathfinder implements Runnable {
         this.modflags = modflags;
         this.action = action;
         this.oc = mv.glob.oc;
-        this.map = mv.glob.map;
         this.mv = mv;
     }
 
@@ -80,40 +78,93 @@ public class Pathfinder implements Runnable {
         notifyListeners();
     }
 
+    // What a search decided: the destinations of each leg of a route, or a step aside when
+    // starting inside a gob's bounding box, in map coordinates relative to the start
+    private static class Plan {
+        static final Plan STUCK = new Plan(null, null);
+        final Coord step;
+        final List<Coord> dests;
+
+        Plan(Coord step, List<Coord> dests) {
+            this.step = step;
+            this.dests = dests;
+        }
+    }
+
     public void pathfind(Coord src) {
+        final PathService.Request<Plan> req = mv.glob.paths.request("Map", src, dest, (gob != null) ? gob.id : -1, () -> plan(src));
+        final Plan plan;
+        try {
+            plan = req.get();
+        } catch (InterruptedException e) {
+            req.cancel();
+            terminate = true;
+            return;
+        }
+        if (plan == null || plan == Plan.STUCK) {
+            terminate = true;
+            return;
+        }
+        follow(src, plan);
+    }
+
+    private Plan plan(Coord src) {
+        haven.pathfinder.Map m = new haven.pathfinder.Map(src, dest, mv.glob.pfield);
+        try {
+            return plan(src, m);
+        } finally {
+            m.dbgdump();
+            m.release();
+        }
+    }
+
+    private Plan plan(Coord src, haven.pathfinder.Map m) {
         long starttotal = System.nanoTime();
-        haven.pathfinder.Map m = new haven.pathfinder.Map(src, dest, map);
-        Gob player = mv.player();
 
         long start = System.nanoTime();
-        synchronized (oc) {
-            for (Gob gob : oc) {
-                if (gob.isplayer())
-                    continue;
-                // need to exclude destination gob so it won't get into TO candidates list
-                if (this.gob != null && this.gob.id == gob.id)
-                    continue;
-                GobHitbox.BBox[] box = GobHitbox.getBBox(gob);
-                if (box != null && box.length == 1 && box[0].points.length == 4 && isInsideBoundBox(gob.rc.floor(), gob.a, box, player.rc.floor())) {
-                    m.excludeGob(gob);
-                    continue;
-                }
-                m.addGob(gob);
+        for (Gob gob : oc.snapshot()) {
+            if (gob.isplayer())
+                continue;
+            // need to exclude destination gob so it won't get into TO candidates list
+            if (this.gob != null && this.gob.id == gob.id)
+                continue;
+            ObstacleField.Shape shape = mv.glob.pfield.shape(gob);
+            if (shape.valid && isInsideBoundBox(gob.rc.floor(), gob.a, shape.bbox, src)) {
+                m.excludeGob(gob);
+                continue;
             }
+            m.addGob(gob);
         }
 
         // if player is located at a position occupied by a gob (can happen when starting too close to gobs)
         // move it slightly away from it
         if (m.isOriginBlocked()) {
             Pair<Integer, Integer> freeloc = m.getFreeLocation();
+            if (freeloc == null)
+                return Plan.STUCK;
+            return new Plan(new Coord(freeloc.a, freeloc.b), null);
+        }
 
-            if (freeloc == null) {
-                terminate = true;
-                m.dbgdump();
-                return;
-            }
+        // exclude any bounding boxes overlapping the destination gob
+        if (this.gob != null)
+            m.excludeGob(this.gob);
 
-            mc = new Coord2d(src.x + freeloc.a - Map.origin, src.y + freeloc.b - Map.origin).floor(posres);
+        if (Map.DEBUG_TIMINGS)
+            System.out.println("      Gobs Processing: " + (double) (System.nanoTime() - start) / 1000000.0 + " ms.");
+
+        List<Coord> dests = new ArrayList<>();
+        for (Edge e : m.main())
+            dests.add(new Coord(e.dest.x, e.dest.y));
+        if (Map.DEBUG_TIMINGS)
+            System.out.println("--------------- Total: " + (double) (System.nanoTime() - starttotal) / 1000000.0 + " ms.");
+        return new Plan(null, dests);
+    }
+
+    private void follow(Coord src, Plan plan) {
+        Gob player = mv.player();
+
+        if (plan.step != null) {
+            mc = new Coord2d(src.x + plan.step.x - Map.origin, src.y + plan.step.y - Map.origin).floor(posres);
             mv.wdgmsg("click", Coord.z, mc, 1, 0);
 
             // FIXME
@@ -125,28 +176,14 @@ public class Pathfinder implements Runnable {
 
             // need to recalculate map
             moveinterupted = true;
-            m.dbgdump();
             return;
         }
 
-        // exclude any bounding boxes overlapping the destination gob
-        if (this.gob != null)
-            m.excludeGob(this.gob);
-
-        if (Map.DEBUG_TIMINGS)
-            System.out.println("      Gobs Processing: " + (double) (System.nanoTime() - start) / 1000000.0 + " ms.");
-
-        Iterable<Edge> path = m.main();
-        if (Map.DEBUG_TIMINGS)
-            System.out.println("--------------- Total: " + (double) (System.nanoTime() - starttotal) / 1000000.0 + " ms.");
-
-        m.dbgdump();
-
-        Iterator<Edge> it = path.iterator();
+        Iterator<Coord> it = plan.dests.iterator();
         while (it.hasNext() && !moveinterupted && !terminate) {
-            Edge e = it.next();
+            Coord d = it.next();
 
-            mc = new Coord2d(src.x + e.dest.x - Map.origin, src.y + e.dest.y - Map.origin).floor(posres);
+            mc = new Coord2d(src.x + d.x - Map.origin, src.y + d.y - Map.origin).floor(posres);
 
             if (action != null && !it.hasNext())
                 mv.ui.gui.act(action);
@@ -156,7 +193,7 @@ public class Pathfinder implements Runnable {
             } else {
                 mv.wdgmsg("click", Coord.z, mc, 1, 0);
             }
-            mv.pllastcc = new Coord2d(src.x + e.dest.x - Map.origin, src.y + e.dest.y - Map.origin);
+            mv.pllastcc = new Coord2d(src.x + d.x - Map.origin, src.y + d.y - Map.origin);
 
             // wait for gob to start moving
             long moveWaitStart = System.currentTimeMillis();
@@ -203,7 +240,6 @@ public class Pathfinder implements Runnable {
                 interruptedRetries--;
                 if (interruptedRetries == 0)
                     terminate = true;
-                m.dbgdump();
                 return;
             }
         }
@@ -2,15 +2,14 @@ package haven.pathfinder;
 
 import haven.Coord;
 
-import java.util.HashMap;
-
 public class TraversableObstacle {
     public Coord wa, wb, wc, wd;
     public Coord clra, clrb, clrc, clrd;
-    public HashMap<Integer, Utils.MinMax> raster;
+    // y, min x, max x triples
+    public int[] raster;
 
     public TraversableObstacle(Coord wa, Coord wb, Coord wc, Coord wd,
-                               Coord clra, Coord clrb, Coord clrc, Coord clrd, HashMap<Integer, Utils.MinMax> raster) {
+                               Coord clra, Coord clrb, Coord clrc, Coord clrd, int[] raster) {
         this.wa = wa;
         this.wb = wb;
         this.wc = wc;
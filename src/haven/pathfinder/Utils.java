@@ -26,7 +26,7 @@ public class Utils {
     public static HashMap<Integer, MinMax> plotRect(byte[][] map, Coord ca, Coord cb, Coord cc, Coord cd, byte celltype) {
         HashMap<Integer, MinMax> raster = new HashMap<Integer, MinMax>();
 
-        // Very naive implementation for plotting rotated rectangles:
+        // Very naive implementation for plotting rotated rectangles (map may be null to only compute the raster):
         //  1. Draw frame using Bresenham's line algorithm. saving min-max X coordinates pairs along the way.
         //  2. Fill the interior using min-max X coordinate pairs.
         Utils.plotLine(map, raster, ca.x, ca.y, cb.x, cb.y, celltype);
@@ -34,15 +34,29 @@ public class Utils {
         Utils.plotLine(map, raster, cd.x, cd.y, cc.x, cc.y, celltype);
         Utils.plotLine(map, raster, ca.x, ca.y, cd.x, cd.y, celltype);
 
-        for (int y : raster.keySet()) {
-            MinMax mm = raster.get(y);
-            for (int x = mm.min; x < mm.max; x++)
-                map[x][y] = celltype;
+        if (map != null) {
+            for (int y : raster.keySet()) {
+                MinMax mm = raster.get(y);
+                for (int x = mm.min; x < mm.max; x++)
+                    map[x][y] = celltype;
+            }
         }
 
         return raster;
     }
 
+    // flattens a raster into y, min x, max x triples
+    public static int[] rows(HashMap<Integer, MinMax> raster) {
+        int[] rows = new int[raster.size() * 3];
+        int i = 0;
+        for (java.util.Map.Entry<Integer, MinMax> e : raster.entrySet()) {
+            rows[i++] = e.getKey();
+            rows[i++] = e.getValue().min;
+            rows[i++] = e.getValue().max;
+        }
+        return rows;
+    }
+
     public static HashMap<Integer, MinMax> plotRotRect(byte[][] map, Dbg dbg, Coord a, Coord b, int gcx, int gcy, double cos, double sin) {
         HashMap<Integer, MinMax> raster = new HashMap<Integer, MinMax>();
 
@@ -81,7 +95,8 @@ public class Utils {
 
         if (dy <= dx) {
             for (; ; ) {
-                map[x1][y1] = val;
+                if (map != null)
+                    map[x1][y1] = val;
 
                 MinMax minmax = vx.get(y1);
                 if (minmax == null) {
@@ -104,7 +119,8 @@ public class Utils {
             }
         } else {
             for (; ; ) {
-                map[x1][y1] = val;
+                if (map != null)
+                    map[x1][y1] = val;
 
                 MinMax minmax = vx.get(y1);
                 if (minmax == null) {
@@ -1,15 +1,17 @@
 package haven.pathfinder;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Vertex {
     public final int x;
     public final int y;
-    public final Set<Edge> edges = new HashSet<Edge>();
+    public final List<Edge> edges = new ArrayList<Edge>();
+    // node number within the AStar search that last visited this vertex
+    int search, id;
 
     public Vertex(int x, int y) {
         this.x = x;
         this.y = y;
     }
-}
\ No newline at end of file
+}
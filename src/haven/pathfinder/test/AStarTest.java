@@ -0,0 +1,112 @@
+package haven.pathfinder.test;
+
+import haven.pathfinder.AStar;
+import haven.pathfinder.Edge;
+import haven.pathfinder.Vertex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AStarTest {
+    private static List<Vertex> graph(long seed, int n, double p) {
+        Random rnd = new Random(seed);
+        List<Vertex> vs = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            vs.add(new Vertex(rnd.nextInt(900), rnd.nextInt(900)));
+        for (Vertex a : vs) {
+            for (Vertex b : vs) {
+                if (a != b && rnd.nextDouble() < p) {
+                    double dx = a.x - b.x, dy = a.y - b.y;
+                    a.edges.add(new Edge(a, b, Math.sqrt(dx * dx + dy * dy)));
+                }
+            }
+        }
+        return vs;
+    }
+
+    private static double dijkstra(List<Vertex> vs, Vertex start, Vertex end) {
+        double[] d = new double[vs.size()];
+        boolean[] done = new boolean[vs.size()];
+        Arrays.fill(d, Double.POSITIVE_INFINITY);
+        d[vs.indexOf(start)] = 0;
+        while (true) {
+            int u = -1;
+            for (int i = 0; i < d.length; i++) {
+                if (!done[i] && (u < 0 || d[i] < d[u]))
+                    u = i;
+            }
+            if (u < 0 || d[u] == Double.POSITIVE_INFINITY)
+                return Double.POSITIVE_INFINITY;
+            if (vs.get(u) == end)
+                return d[u];
+            done[u] = true;
+            for (Edge e : vs.get(u).edges) {
+                int v = vs.indexOf(e.dest);
+                d[v] = Math.min(d[v], d[u] + e.weight);
+            }
+        }
+    }
+
+    private static double cost(Vertex start, Vertex end, Iterable<Edge> path) {
+        double c = 0;
+        Vertex at = start;
+        for (Edge e : path) {
+            assertSame(at, e.src);
+            c += e.weight;
+            at = e.dest;
+        }
+        assertSame(end, at);
+        return c;
+    }
+
+    @Test
+    public void shortestPaths() {
+        for (int seed = 0; seed < 20; seed++) {
+            List<Vertex> vs = graph(seed, 60, 0.1);
+            AStar astar = new AStar();
+            for (int i = 1; i < vs.size(); i++) {
+                Vertex start = vs.get(0), end = vs.get(i);
+                double best = dijkstra(vs, start, end);
+                Iterable<Edge> path = astar.route(start, end);
+                if (best == Double.POSITIVE_INFINITY)
+                    assertFalse(path.iterator().hasNext());
+                else
+                    assertEquals(best, cost(start, end, path), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void deterministicTies() {
+        // a grid with unit edges has many equally short routes
+        Vertex[][] grid = new Vertex[10][10];
+        for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 10; y++)
+                grid[x][y] = new Vertex(x, y);
+        }
+        for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 10; y++) {
+                if (x + 1 < 10)
+                    grid[x][y].edges.add(new Edge(grid[x][y], grid[x + 1][y], 1));
+                if (y + 1 < 10)
+                    grid[x][y].edges.add(new Edge(grid[x][y], grid[x][y + 1], 1));
+            }
+        }
+        Iterable<Edge> a = new AStar().route(grid[0][0], grid[9][9]);
+        Iterable<Edge> b = new AStar().route(grid[0][0], grid[9][9]);
+        assertEquals(18, cost(grid[0][0], grid[9][9], a), 0);
+        Iterator<Edge> ib = b.iterator();
+        for (Edge e : a)
+            assertSame(e, ib.next());
+        assertTrue(!ib.hasNext());
+    }
+}
@@ -11,15 +11,15 @@ import haven.PView;
 import haven.Projection;
 import haven.RenderList;
 import haven.Sprite;
-import haven.Tex;
 import haven.Text;
+import haven.TextCache;
 
 import java.awt.Color;
 
 public class gobText extends Sprite {
     // Text custom text above gob
 
-    private Tex tex;
+    private TextCache.Ref tex;
     private static Matrix4f mv = new Matrix4f();
     private Projection proj;
     private Coord wndsz;
@@ -60,8 +60,15 @@ public class gobText extends Sprite {
     }
 
     public void update(String text) {
-        String str = text;
-        tex = Text.render(text, color).tex();
+        TextCache.Ref prev = tex;
+        tex = TextCache.global.get(text, Text.std, color, null);
+        if (prev != null)
+            prev.release();
+    }
+
+    public void dispose() {
+        if (tex != null)
+            tex.release();
     }
 
     public Object staticp() {
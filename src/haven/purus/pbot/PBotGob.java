@@ -74,7 +74,7 @@ public class PBotGob {
      * @param id Id of the gobtext
      */
     public void removeGobText(int id) {
-        gob.ols.remove(gob.findol(id));
+        gob.remol(gob.findol(id));
         ui.gui.map.glob.oc.changed(gob);
     }
 
@@ -5,12 +5,14 @@ import haven.Coord2d;
 import haven.Gob;
 import haven.Loading;
 import haven.MCache;
+import haven.Resource;
 import haven.UI;
 import haven.automation.GobSelectCallback;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
@@ -63,34 +65,94 @@ public class PBotGobAPI {
      */
     public static List<PBotGob> getAllGobs(UI ui) {
         List<PBotGob> list = new ArrayList<>();
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                list.add(new PBotGob(gob));
-            }
+        for (Gob gob : ui.sess.glob.oc.snapshot()) {
+            list.add(new PBotGob(gob));
         }
         return list;
     }
 
     /**
-     * List of all gobs in radius
+     * List of all gobs within a rectangle
      *
-     * @return List of all gobs in radius
+     * @param ul upper-left corner, inclusive
+     * @param br bottom-right corner, exclusive
+     * @return List of all gobs within the rectangle
      */
-    public static List<PBotGob> getGobsInRadius(UI ui, double radius) {
+    public static List<PBotGob> getGobsInRect(UI ui, Coord2d ul, Coord2d br) {
+        return (wrap(ui.sess.glob.oc.inrect(ul, br, null)));
+    }
+
+    /**
+     * The gobs closest to the player, excluding the player
+     *
+     * @param k      maximum number of gobs to return
+     * @param radius search radius
+     * @return List of at most k gobs, nearest first
+     */
+    public static List<PBotGob> getNearestGobs(UI ui, int k, double radius) {
         Coord2d plc = player(ui).getRcCoords();
-        double min = radius;
+        return (wrap(ui.sess.glob.oc.nearest(plc, k, radius, gob -> !gob.isplayer())));
+    }
 
-        List<PBotGob> list = new ArrayList<>();
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                if (gob.isplayer()) continue;
-                double dist = gob.rc.dist(plc);
-                if (dist < min) {
-                    list.add(new PBotGob(gob));
-                }
+    private static List<PBotGob> wrap(List<Gob> gobs) {
+        List<PBotGob> list = new ArrayList<>(gobs.size());
+        for (Gob gob : gobs)
+            list.add(new PBotGob(gob));
+        return (list);
+    }
+
+    private static List<Gob> byname(UI ui, String... names) {
+        if (names.length == 1)
+            return (ui.sess.glob.oc.byname(names[0]));
+        List<Gob> ret = new ArrayList<>();
+        for (String name : new LinkedHashSet<>(Arrays.asList(names)))
+            ret.addAll(ui.sess.glob.oc.byname(name));
+        return (ret);
+    }
+
+    /* The literal text every match of a regex must start with. */
+    private static String litprefix(String regex) {
+        /* An alternation may match without any common prefix. */
+        if (regex.indexOf('|') >= 0)
+            return ("");
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if ((i == 0) && (c == '^'))
+                continue;
+            if ("\\[](){}.*+?^$|".indexOf(c) >= 0) {
+                /* A quantifier makes the preceding character optional. */
+                if (((c == '*') || (c == '?') || (c == '{')) && (buf.length() > 0))
+                    buf.setLength(buf.length() - 1);
+                break;
             }
+            buf.append(c);
         }
-        return list;
+        return (buf.toString());
+    }
+
+    private static boolean matches(Gob gob, List<Pattern> patterns) {
+        try {
+            Resource res = gob.getres();
+            if (res == null)
+                return (false);
+            for (Pattern p : patterns) {
+                if (p.matcher(res.name).matches())
+                    return (true);
+            }
+        } catch (Loading l) {
+        }
+        return (false);
+    }
+
+    /**
+     * List of all gobs in radius
+     *
+     * @return List of all gobs in radius
+     */
+    public static List<PBotGob> getGobsInRadius(UI ui, double radius) {
+        Coord2d plc = player(ui).getRcCoords();
+        return (wrap(ui.sess.glob.oc.inradius(plc, radius, gob -> !gob.isplayer())));
     }
 
     /**
@@ -101,20 +163,7 @@ public class PBotGobAPI {
      * @return List of all gobs in radius
      */
     public static List<PBotGob> getGobsInRadius(UI ui, Coord2d center, double radius) {
-        double min = radius;
-
-        List<PBotGob> list = new ArrayList<>();
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                if (gob.isplayer())
-                    continue;
-                double dist = gob.rc.dist(center);
-                if (dist < min) {
-                    list.add(new PBotGob(gob));
-                }
-            }
-        }
-        return list;
+        return (wrap(ui.sess.glob.oc.inradius(center, radius, gob -> !gob.isplayer())));
     }
 
     /**
@@ -126,21 +175,7 @@ public class PBotGobAPI {
      * @return List of all gobs in radius
      */
     public static List<PBotGob> getGobsInRadius(UI ui, double cx, double cy, double radius) {
-        Coord2d center = new Coord2d(cx, cy);
-        double min = radius;
-
-        List<PBotGob> list = new ArrayList<>();
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                if (gob.isplayer())
-                    continue;
-                double dist = gob.rc.dist(center);
-                if (dist < min) {
-                    list.add(new PBotGob(gob));
-                }
-            }
-        }
-        return list;
+        return (getGobsInRadius(ui, new Coord2d(cx, cy), radius));
     }
 
     /**
@@ -152,25 +187,10 @@ public class PBotGobAPI {
      * @return List of all gobs in radius
      */
     public static List<PBotGob> findObjectsByNames(UI ui, Coord2d center, double radius, String... names) {
-        double min = radius;
-
         List<PBotGob> list = new ArrayList<>();
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                double dist = gob.rc.dist(center);
-                if (dist < min) {
-                    boolean matches = false;
-                    for (String name : names) {
-                        if (gob.getres() != null && gob.getres().name.equals(name)) {
-                            matches = true;
-                            break;
-                        }
-                    }
-                    if (matches) {
-                        list.add(new PBotGob(gob));
-                    }
-                }
-            }
+        for (Gob gob : byname(ui, names)) {
+            if (gob.rc.dist(center) < radius)
+                list.add(new PBotGob(gob));
         }
         return list;
     }
@@ -189,28 +209,7 @@ public class PBotGobAPI {
      * @return List of all gobs in radius
      */
     public static List<PBotGob> findObjectsByNames(UI ui, double cx, double cy, double radius, String... names) {
-        Coord2d center = new Coord2d(cx, cy);
-        double min = radius;
-
-        List<PBotGob> list = new ArrayList<>();
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                double dist = gob.rc.dist(center);
-                if (dist < min) {
-                    boolean matches = false;
-                    for (String name : names) {
-                        if (gob.getres() != null && gob.getres().name.equals(name)) {
-                            matches = true;
-                            break;
-                        }
-                    }
-                    if (matches) {
-                        list.add(new PBotGob(gob));
-                    }
-                }
-            }
-        }
-        return list;
+        return (findObjectsByNames(ui, new Coord2d(cx, cy), radius, names));
     }
 
     public static List<PBotGob> findObjectsByNames(UI ui, double cx, double cy, double radius, List<String> names) {
@@ -225,28 +224,7 @@ public class PBotGobAPI {
      * @return List of all gobs in radius
      */
     public static List<PBotGob> findObjectsByNames(UI ui, double radius, String... names) {
-        Coord2d plc = player(ui).getRcCoords();
-        double min = radius;
-
-        List<PBotGob> list = new ArrayList<>();
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                double dist = gob.rc.dist(plc);
-                if (dist < min) {
-                    boolean matches = false;
-                    for (String name : names) {
-                        if (gob.getres() != null && gob.getres().name.equals(name)) {
-                            matches = true;
-                            break;
-                        }
-                    }
-                    if (matches) {
-                        list.add(new PBotGob(gob));
-                    }
-                }
-            }
-        }
-        return list;
+        return (findObjectsByNames(ui, player(ui).getRcCoords(), radius, names));
     }
 
     public static List<PBotGob> findObjectsByNames(UI ui, double radius, List<String> names) {
@@ -254,28 +232,40 @@ public class PBotGobAPI {
     }
 
     public static List<PBotGob> findObjectsByNames(UI ui, String... names) {
-        List<PBotGob> list = new ArrayList<>();
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                boolean matches = false;
-                for (String name : names) {
-                    if (gob.getres() != null && gob.getres().name.equals(name)) {
-                        matches = true;
-                        break;
-                    }
-                }
-                if (matches) {
-                    list.add(new PBotGob(gob));
-                }
-            }
-        }
-        return list;
+        return (wrap(byname(ui, names)));
     }
 
     public static List<PBotGob> findObjectsByNames(UI ui, List<String> names) {
         return (findObjectsByNames(ui, names.toArray(new String[0])));
     }
 
+    /**
+     * List of all gobs whose resource name starts with the given prefix
+     *
+     * @param prefix resource name prefix, such as "gfx/terobjs/trees/"
+     * @return List of all matching gobs
+     */
+    public static List<PBotGob> findObjectsByPrefix(UI ui, String prefix) {
+        return (wrap(ui.sess.glob.oc.byprefix(prefix)));
+    }
+
+    /**
+     * List of all gobs in radius whose resource name starts with the given prefix
+     *
+     * @param radius search radius
+     * @param prefix resource name prefix, such as "gfx/terobjs/trees/"
+     * @return List of all matching gobs in radius
+     */
+    public static List<PBotGob> findObjectsByPrefix(UI ui, double radius, String prefix) {
+        Coord2d plc = player(ui).getRcCoords();
+        List<PBotGob> list = new ArrayList<>();
+        for (Gob gob : ui.sess.glob.oc.byprefix(prefix)) {
+            if (gob.rc.dist(plc) < radius)
+                list.add(new PBotGob(gob));
+        }
+        return list;
+    }
+
 //    public static List<PBotGob> getAllGobs() {
 //        return getAllGobs(PBotAPI.modeui());
 //    }
@@ -288,13 +278,10 @@ public class PBotGobAPI {
      */
     public static void waitForGob(UI ui, double x, double y) {
         Coord2d expected = new Coord2d(x, y);
-        while (true) {
-            for (PBotGob gob : getAllGobs(ui)) {
-                if (gob.getRcCoords().equals(expected) && player(ui).getGobId() != gob.getGobId())
-                    return;
-            }
-            PBotUtils.sleep(25);
-        }
+        PBotUtils.waitUntil(ui, () -> {
+            long plid = player(ui).getGobId();
+            return (!ui.sess.glob.oc.inradius(expected, 1, gob -> gob.rc.equals(expected) && (gob.id != plid)).isEmpty());
+        });
     }
 
 //    public static void waitForGob(double x, double y) {
@@ -302,36 +289,11 @@ public class PBotGobAPI {
 //    }
 
     public static PBotGob getClosestGobInRadius(UI ui, double radius) {
-        Coord2d plc = player(ui).getRcCoords();
-        double min = radius;
-        Gob nearest = null;
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                double dist = gob.rc.dist(plc);
-                if (dist < min) {
-                    min = dist;
-                    nearest = gob;
-                }
-            }
-        }
-        if (nearest == null)
-            return (null);
-        else
-            return (new PBotGob(nearest));
+        return (getClosestGobInRadius(ui, player(ui).getRcCoords(), radius));
     }
 
     public static PBotGob getClosestGobInRadius(UI ui, Coord2d center, double radius) {
-        double min = radius;
-        Gob nearest = null;
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                double dist = gob.rc.dist(center);
-                if (dist < min) {
-                    min = dist;
-                    nearest = gob;
-                }
-            }
-        }
+        Gob nearest = ui.sess.glob.oc.nearest(center, radius, null);
         if (nearest == null)
             return (null);
         else
@@ -347,27 +309,21 @@ public class PBotGobAPI {
      */
     public static PBotGob findGobByNames(UI ui, double radius, String... pattern) {
         Coord2d plc = player(ui).getRcCoords();
-        double min = radius;
-        Gob nearest = null;
         List<Pattern> patterns = Arrays.stream(pattern).map(Pattern::compile).collect(Collectors.toList());
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
+        Gob nearest = null;
+        double min = radius;
+        /* Only the gobs named with each pattern's literal prefix can match. */
+        for (String p : pattern) {
+            String prefix = litprefix(p);
+            if (prefix.isEmpty()) {
+                nearest = ui.sess.glob.oc.nearest(plc, radius, gob -> matches(gob, patterns));
+                break;
+            }
+            for (Gob gob : ui.sess.glob.oc.byprefix(prefix)) {
                 double dist = gob.rc.dist(plc);
-                if (dist < min) {
-                    boolean matches = false;
-                    try {
-                        for (Pattern p : patterns) {
-                            if (gob.getres() != null && p.matcher(gob.getres().name).matches()) {
-                                matches = true;
-                                break;
-                            }
-                        }
-                    } catch (Loading l) {
-                    }
-                    if (matches) {
-                        min = dist;
-                        nearest = gob;
-                    }
+                if ((dist < min) && matches(gob, patterns)) {
+                    min = dist;
+                    nearest = gob;
                 }
             }
         }
@@ -382,35 +338,7 @@ public class PBotGobAPI {
     }
 
     public static PBotGob findGobByNames(UI ui, String... pattern) {
-        Coord2d plc = player(ui).getRcCoords();
-        double min = Double.MAX_VALUE;
-        Gob nearest = null;
-        List<Pattern> patterns = Arrays.stream(pattern).map(Pattern::compile).collect(Collectors.toList());
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                double dist = gob.rc.dist(plc);
-                if (dist < min) {
-                    boolean matches = false;
-                    try {
-                        for (Pattern p : patterns) {
-                            if (gob.getres() != null && p.matcher(gob.getres().name).matches()) {
-                                matches = true;
-                                break;
-                            }
-                        }
-                    } catch (Loading l) {
-                    }
-                    if (matches) {
-                        min = dist;
-                        nearest = gob;
-                    }
-                }
-            }
-        }
-        if (nearest == null)
-            return null;
-        else
-            return new PBotGob(nearest);
+        return (findGobByNames(ui, Double.MAX_VALUE, pattern));
     }
 
     public static PBotGob findGobByNames(UI ui, List<String> pattern) {
@@ -428,11 +356,9 @@ public class PBotGobAPI {
      * @return Gob with coordinates or null
      */
     public static PBotGob getGobWithCoords(UI ui, Coord2d c) {
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc) {
-                if (gob.rc.x == c.x && gob.rc.y == c.y)
-                    return new PBotGob(gob);
-            }
+        for (Gob gob : ui.sess.glob.oc.snapshot()) {
+            if (gob.rc.x == c.x && gob.rc.y == c.y)
+                return new PBotGob(gob);
         }
         return null;
     }
@@ -462,12 +388,8 @@ public class PBotGobAPI {
      * @return Object, or null if not found
      */
     public static PBotGob findGobById(UI ui, long id) {
-        synchronized (ui.sess.glob.oc) {
-            for (Gob gob : ui.sess.glob.oc)
-                if (gob.id == id)
-                    return (new PBotGob(gob));
-        }
-        return (null);
+        Gob gob = ui.sess.glob.oc.getgob(id);
+        return ((gob == null) ? null : new PBotGob(gob));
     }
 
 //    public static PBotGob findGobById(long id) {
@@ -543,13 +465,7 @@ public class PBotGobAPI {
 
     public static boolean placeThing(UI ui, double x, double y, int timeout) {
         ui.gui.map.wdgmsg("place", new Coord2d(x, y).floor(posres), 0, 1, 0);
-        for (int i = 0, sleep = 10; ui.gui.map.placing != null; i += sleep) {
-            if (i >= timeout) {
-                return (false);
-            }
-            PBotUtils.sleep(sleep);
-        }
-        return (true);
+        return (PBotUtils.waitUntil(ui, () -> ui.gui.map.placing == null, timeout));
     }
 
     public static void unplaceThing(UI ui) {
@@ -558,13 +474,7 @@ public class PBotGobAPI {
 
     public static boolean unplaceThing(UI ui, int timeout) {
         ui.gui.map.wdgmsg("place", player(ui).getRcCoords().floor(posres), 0, 3, 0);
-        for (int i = 0, sleep = 10; ui.gui.map.placing != null; i += sleep) {
-            if (i >= timeout) {
-                return (false);
-            }
-            PBotUtils.sleep(sleep);
-        }
-        return (true);
+        return (PBotUtils.waitUntil(ui, () -> ui.gui.map.placing == null, timeout));
     }
 
 //    public static void placeThing(double x, double y) {
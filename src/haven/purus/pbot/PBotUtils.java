@@ -18,6 +18,7 @@ import haven.Resource;
 import haven.Speedget;
 import haven.UI;
 import haven.WItem;
+import haven.Waitable;
 import haven.Widget;
 import haven.Window;
 import haven.automation.Discord;
@@ -32,6 +33,8 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Pattern;
 
 import static haven.OCache.posres;
@@ -62,6 +65,55 @@ public class PBotUtils {
         }
     }
 
+    /**
+     * Waits until a condition holds. The condition is re-checked as soon as
+     * the UI or any gob changes, and otherwise every 10 ms as the old polling
+     * loops did, for state that changes without a notification.
+     *
+     * @param cond    Condition to wait for
+     * @param timeout Timeout in milliseconds, or negative to wait indefinitely
+     * @return true if the condition came to hold, false on timeout or interruption
+     */
+    public static boolean waitUntil(UI ui, BooleanSupplier cond, int timeout) {
+        try {
+            return (Waitable.await(ui.changes, cond, timeout, 10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return (false);
+        }
+    }
+
+    /**
+     * Waits indefinitely until a condition holds
+     *
+     * @param cond Condition to wait for
+     */
+    public static void waitUntil(UI ui, BooleanSupplier cond) {
+        waitUntil(ui, cond, -1);
+    }
+
+    /**
+     * Returns a future that completes once a condition holds. After the first
+     * check, the condition is evaluated on a thread shared by all such futures
+     * whenever the UI or any gob changes, so it should be quick.
+     *
+     * @param cond Condition to wait for
+     */
+    public static CompletableFuture<Void> when(UI ui, BooleanSupplier cond) {
+        return (Waitable.when(ui.changes, cond));
+    }
+
+    /**
+     * Like when, but the future fails with a TimeoutException if the condition
+     * has not held within the given time
+     *
+     * @param cond    Condition to wait for
+     * @param timeout Milliseconds to wait, or -1 to wait indefinitely
+     */
+    public static CompletableFuture<Void> when(UI ui, BooleanSupplier cond, long timeout) {
+        return (Waitable.when(ui.changes, cond, timeout));
+    }
+
     /**
      * Kills thread
      */
@@ -164,22 +216,11 @@ public class PBotUtils {
      * Closes flowermenu, if it is open
      */
     public static void waitFlowermenuClose(UI ui) {
-        while (ui.root.findchild(FlowerMenu.class) != null)
-            sleep(25);
+        waitUntil(ui, () -> ui.root.findchild(FlowerMenu.class) == null);
     }
 
     public static boolean waitFlowermenuClose(UI ui, int limit) {
-        int cycles = 0;
-        int sleep = 25;
-        while (ui.root.findchild(FlowerMenu.class) != null) {
-            if (cycles == limit) {
-                return false;
-            } else {
-                sleep(sleep);
-                cycles += sleep;
-            }
-        }
-        return true;
+        return (waitUntil(ui, () -> ui.root.findchild(FlowerMenu.class) == null, limit));
     }
 
 //    public static void waitFlowermenuClose() {
@@ -320,16 +361,18 @@ public class PBotUtils {
      */
     public static void craftItem(UI ui, String name, int makeAll) {
         openCraftingWnd(ui, name);
-        loop:
-        while (true) {
+        Widget[] wnd = {null};
+        waitUntil(ui, () -> {
             for (Widget w : ui.widgets.values()) {
                 if (w instanceof Makewindow) {
-                    ui.gui.wdgmsg(w, "make", makeAll);
-                    break loop;
+                    wnd[0] = w;
+                    return (true);
                 }
             }
-            sleep(25);
-        }
+            return (false);
+        });
+        if (wnd[0] != null)
+            ui.gui.wdgmsg(wnd[0], "make", makeAll);
     }
 
 //    public static void craftItem(String name, int makeAll) {
@@ -340,9 +383,7 @@ public class PBotUtils {
      * Waits for flower menu to appear
      */
     public static void waitForFlowerMenu(UI ui) {
-        while (ui.root.findchild(FlowerMenu.class) == null) {
-            sleep(15);
-        }
+        waitUntil(ui, () -> ui.root.findchild(FlowerMenu.class) != null);
     }
 
 //    public static void waitForFlowerMenu() {
@@ -350,18 +391,7 @@ public class PBotUtils {
 //    }
 
     public static boolean waitForFlowerMenu(UI ui, int limit) {
-        int cycles = 0;
-        int sleep = 10;
-        while (ui.root.findchild(FlowerMenu.class) == null) {
-            if (cycles == limit) {
-                return false;
-            } else {
-                sleep(sleep);
-                cycles += sleep;
-//                PBotUtils.sysMsg(ui, "Cycles: " + cycles);
-            }
-        }
-        return true;
+        return (waitUntil(ui, () -> ui.root.findchild(FlowerMenu.class) != null, limit));
     }
 
 //    public static boolean waitForFlowerMenu(int limit) {
@@ -377,28 +407,16 @@ public class PBotUtils {
             menu.choose(null);
             menu.destroy();
         }
-        while (ui.root.findchild(FlowerMenu.class) != null) {
-            sleep(15);
-        }
+        waitUntil(ui, () -> ui.root.findchild(FlowerMenu.class) == null);
     }
 
     public static boolean closeFlowermenu(UI ui, int limit) {
-        int cycles = 0;
-        int sleep = 15;
         FlowerMenu menu = ui.root.findchild(FlowerMenu.class);
         if (menu != null) {
             menu.choose(null);
             menu.destroy();
         }
-        while (ui.root.findchild(FlowerMenu.class) != null) {
-            if (cycles == limit) {
-                return false;
-            } else {
-                sleep(sleep);
-                cycles += sleep;
-            }
-        }
-        return true;
+        return (waitUntil(ui, () -> ui.root.findchild(FlowerMenu.class) == null, limit));
     }
 
 //    public static void closeFlowermenu() {
@@ -411,13 +429,8 @@ public class PBotUtils {
      */
     public static void waitForHourglass(UI ui) {
         double prog = ui.gui.prog;
-        while (prog == ui.gui.prog) {
-            prog = ui.gui.prog;
-            sleep(5);
-        }
-        while (ui.gui.prog >= 0) {
-            sleep(50);
-        }
+        waitUntil(ui, () -> ui.gui.prog != prog);
+        waitUntil(ui, () -> ui.gui.prog < 0);
     }
 
 //    public static void waitForHourglass() {
@@ -433,17 +446,9 @@ public class PBotUtils {
      */
     public static boolean waitForHourglass(UI ui, int timeout) {
         double prog = ui.gui.prog;
-        int retries = 0;
-        while (prog == ui.gui.prog) {
-            if (retries > timeout / 5)
-                return false;
-            retries++;
-            prog = ui.gui.prog;
-            sleep(5);
-        }
-        while (ui.gui.prog >= 0) {
-            sleep(25);
-        }
+        if (!waitUntil(ui, () -> ui.gui.prog != prog, timeout))
+            return false;
+        waitUntil(ui, () -> ui.gui.prog < 0);
         return true;
     }
 
@@ -708,20 +713,12 @@ public class PBotUtils {
      */
     public static void dropItemFromHand(UI ui, int mod) {
         ui.gui.map.wdgmsg("drop", Coord.z, ui.gui.map.player().rc.floor(posres), mod);
-        while (getItemAtHand(ui) != null)
-            sleep(25);
+        waitUntil(ui, () -> getItemAtHand(ui) == null);
     }
 
     public static boolean dropItemFromHand(UI ui, int mod, int timeout) {
         ui.gui.map.wdgmsg("drop", Coord.z, ui.gui.map.player().rc.floor(posres), mod);
-        int retries = 0;
-        while (getItemAtHand(ui) != null) {
-            if (retries > timeout / 25)
-                return false;
-            retries++;
-            sleep(25);
-        }
-        return true;
+        return (waitUntil(ui, () -> getItemAtHand(ui) == null, timeout));
     }
 
 //    public static void dropItemFromHand(int mod) {
@@ -1692,20 +1689,11 @@ public class PBotUtils {
      * @param windowName Name of the window
      */
     public static void waitForWindow(UI ui, String windowName) {
-        while (ui.gui.getwnd(windowName) == null) {
-            sleep(50);
-        }
+        waitUntil(ui, () -> ui.gui.getwnd(windowName) != null);
     }
 
     public static boolean waitForWindow(UI ui, String windowName, int timeout) {
-        int retries = 0;
-        while (ui.gui.getwnd(windowName) == null) {
-            if (retries > timeout / 50)
-                return false;
-            retries++;
-            sleep(50);
-        }
-        return true;
+        return (waitUntil(ui, () -> ui.gui.getwnd(windowName) != null, timeout));
     }
 
 //    public static void waitForWindow(String windowName) {
@@ -2082,8 +2070,7 @@ public class PBotUtils {
 //    }
 
     public static void pfwait(UI ui) {
-        while (ui.gui != null && ui.gui.map != null && !ui.gui.map.isclearmovequeue())
-            PBotUtils.sleep(10);
+        waitUntil(ui, () -> ui.gui == null || ui.gui.map == null || ui.gui.map.isclearmovequeue());
     }
 
     public static String getRes(PBotGob gob) {
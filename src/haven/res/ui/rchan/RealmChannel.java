@@ -62,7 +62,7 @@ public class RealmChannel extends ChatUI.MultiChat {
                     nm = "???";
                 if ((r == null) || !nm.equals(cn)) {
                     String tf = String.format("%s: %s", nm, text);
-                    r = ChatUI.fnd.render(RichText.Parser.quote(Config.chattimestamp ? ChatUI.timestamp(tf) : tf), w, TextAttribute.FOREGROUND, col);
+                    r = ChatUI.fnd.render(RichText.Parser.quote(Config.chattimestamp ? ChatUI.timestamp(tf, time) : tf), w, TextAttribute.FOREGROUND, col);
                     cn = nm;
                 }
             }
@@ -79,6 +79,13 @@ public class RealmChannel extends ChatUI.MultiChat {
             else
                 return (r.sz());
         }
+
+        public void discard() {
+            if (r != null) {
+                r.disposetex();
+                r = null;
+            }
+        }
     }
 
     public PNamedMessage msgbyname(String nm) {
@@ -2,501 +2,404 @@ package haven.sloth.script.pathfinding;
 
 import com.google.common.flogger.FluentLogger;
 import haven.Coord;
-import haven.Coord2d;
 import haven.Gob;
+import haven.MCache;
 import haven.OCache;
 import haven.UI;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * A hitmap for Gobs
- * Conflicts are resolves by keeping a list of gobs that are on a given tile
+ * Occupancy is kept in fixed-size chunks aligned to map grids, each holding a bitset of occupied
+ * units plus a per-unit count of the gobs covering it, so overlapping gobs can come and go independently.
+ * A chunk is dropped once the last gob covering it is removed, so chunks go away with the gobs of
+ * unloaded grids rather than with the grids themselves, and a gob that is kept is never read as free.
  * Player gob is ignored
  */
 public class GobHitmap {
-    private final static HitTile nulltile = new HitTile(null);
-    private final static HitTile gobtile = new HitTile(Tile.GOB);
+    /** Chunk size in units; grids are exactly ten chunks wide. */
+    public static final int CSZ = (MCache.cmaps.x * (int) MCache.tilesz.x) / 10;
+    private static final int GRIDCHUNKS = (MCache.cmaps.x * (int) MCache.tilesz.x) / CSZ;
+
+    private static class Chunk {
+        private final int cx, cy;
+        private final long[] bits = new long[((CSZ * CSZ) + 63) >> 6];
+        private final char[] refs = new char[CSZ * CSZ];
+        private int set = 0;
+
+        private Chunk(final int cx, final int cy) {
+            this.cx = cx;
+            this.cy = cy;
+        }
 
+        private boolean get(final int i) {
+            return (bits[i >> 6] & (1L << i)) != 0;
+        }
 
-    private static class HitTile {
-        private final Tile tile;
-        private final Set<Long> ownedby = new HashSet<>();
+        private void inc(int i, final int n) {
+            for (final int e = i + n; i < e; i++) {
+                if (refs[i]++ == 0) {
+                    bits[i >> 6] |= 1L << i;
+                    set++;
+                }
+            }
+        }
 
-        private HitTile(final Tile t) {
-            this.tile = t;
+        private void dec(int i, final int n) {
+            for (final int e = i + n; i < e; i++) {
+                if (refs[i] != 0 && --refs[i] == 0) {
+                    bits[i >> 6] &= ~(1L << i);
+                    set--;
+                }
+            }
         }
+    }
 
-        public void add(Gob g) {
-            ownedby.add(g.id);
+    /**
+     * The units covered by one placement of a gob, as row spans that each lie within a single chunk.
+     * Spans remember the chunk they were counted into, so that removal can take them out of it directly.
+     */
+    public static class Footprint {
+        private final Chunk[] chunks;
+        private final int[] spans;
+        private final long hash;
+
+        private Footprint(final Chunk[] chunks, final int[] spans) {
+            this.chunks = chunks;
+            this.spans = spans;
+            long h = 0xcbf29ce484222325L;
+            for (int v : spans)
+                h = (h ^ v) * 0x100000001b3L;
+            this.hash = h;
         }
 
-        public void rem(Gob g) {
-            ownedby.remove(g.id);
+        private boolean covers(final Chunk ch, final int x, final int y) {
+            for (int i = 0, s = 0; i < spans.length; i += 3, s++) {
+                if (chunks[s] == ch && spans[i] == y && spans[i + 1] <= x && x <= spans[i + 2])
+                    return true;
+            }
+            return false;
         }
 
-        public boolean isEmpty() {
-            return ownedby.isEmpty();
+        public int area() {
+            int a = 0;
+            for (int i = 0; i < spans.length; i += 3)
+                a += spans[i + 2] - spans[i + 1] + 1;
+            return a;
         }
     }
 
     private static final FluentLogger logger = FluentLogger.forEnclosingClass();
-    private final Map<Coord, HitTile> map = new HashMap<>();
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    private Chunk last = null;
+    //Sum of the hashes of all placed footprints, so taking a gob off and putting it back restores it
+    private long placed = 0;
 
-    public synchronized BufferedImage debug2(final Coord tl, final Coord br) {
-        //Update tl/br if needed
-        for (final Coord c : map.keySet()) {
-            if (c.x < tl.x)
-                tl.x = c.x;
-            else if (c.x > br.x)
-                br.x = c.x;
-
-            if (c.y < tl.y)
-                tl.y = c.y;
-            else if (c.y > br.y)
-                br.y = c.y;
-        }
-        final BufferedImage buf = new BufferedImage(br.x - tl.x + 1, br.y - tl.y + 1, BufferedImage.TYPE_INT_RGB);
+    private static long key(final int cx, final int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
 
-        //Render our hitmap
-        final HashMap<Tile, Color> tmap = new HashMap<>();
-        tmap.put(Tile.GOB, Color.RED);
-        tmap.put(Tile.DEEPWATER, Color.BLUE);
-        tmap.put(Tile.SHALLOWWATER, Color.CYAN);
-        tmap.put(Tile.CAVE, Color.GRAY);
-        tmap.put(Tile.RIDGE, Color.YELLOW);
-        tmap.put(Tile.PLAYER, Color.GREEN);
-
-        for (final Coord c : map.keySet()) {
-            final Coord offset = c.sub(tl);
-            buf.setRGB(offset.x, offset.y, tmap.get(map.get(c).tile).getRGB());
-        }
+    private Chunk chunk(final int cx, final int cy) {
+        final Chunk l = last;
+        if (l != null && l.cx == cx && l.cy == cy)
+            return l;
+        final Chunk ch = chunks.get(key(cx, cy));
+        if (ch != null)
+            last = ch;
+        return ch;
+    }
 
-        return buf;
+    public synchronized boolean checkHit(final int x, final int y) {
+        final int cx = Math.floorDiv(x, CSZ), cy = Math.floorDiv(y, CSZ);
+        final Chunk ch = chunk(cx, cy);
+        return ch != null && ch.get(((y - cy * CSZ) * CSZ) + (x - cx * CSZ));
     }
 
-    public synchronized void debug() {
-        if (map.size() > 0) {
-            //find our boundaries
-            Coord tl = new Coord(map.keySet().iterator().next());
-            Coord br = new Coord(tl);
-            for (final Coord c : map.keySet()) {
-                if (c.x < tl.x)
-                    tl.x = c.x;
-                else if (c.x > br.x)
-                    br.x = c.x;
-
-                if (c.y < tl.y)
-                    tl.y = c.y;
-                else if (c.y > br.y)
-                    br.y = c.y;
-            }
-            final BufferedImage buf = new BufferedImage(br.x - tl.x + 1, br.y - tl.y + 1, BufferedImage.TYPE_INT_RGB);
-            final HashMap<Tile, Color> tmap = new HashMap<>();
-            tmap.put(Tile.GOB, Color.RED);
-            tmap.put(Tile.DEEPWATER, Color.BLUE);
-            tmap.put(Tile.SHALLOWWATER, Color.CYAN);
-            tmap.put(Tile.CAVE, Color.GRAY);
-            tmap.put(Tile.RIDGE, Color.YELLOW);
-            tmap.put(Tile.PLAYER, Color.GREEN);
-
-            for (final Coord c : map.keySet()) {
-                final Coord offset = c.sub(tl);
-                buf.setRGB(offset.x, offset.y, tmap.get(map.get(c).tile).getRGB());
-            }
+    public boolean checkHit(final Coord c) {
+        return checkHit(c.x, c.y);
+    }
 
-            try {
-                javax.imageio.ImageIO.write(buf, "png", new File("hitmap4.png"));
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+    /**
+     * Whether any unit in the inclusive rectangle (x1, y1) - (x2, y2) is occupied
+     */
+    public boolean checkHit(final int x1, final int y1, final int x2, final int y2) {
+        return checkHit(x1, y1, x2, y2, null);
     }
 
-    public synchronized boolean checkHit(final Coord c) {
-        return map.containsKey(c);
+    /**
+     * Like checkHit, but not counting the given footprint, so that one search can go through the gob
+     * it is headed for without taking it off the hitmap for everyone else
+     */
+    public synchronized boolean checkHit(final int x1, final int y1, final int x2, final int y2, final Footprint except) {
+        for (int cy = Math.floorDiv(y1, CSZ); cy <= Math.floorDiv(y2, CSZ); cy++) {
+            for (int cx = Math.floorDiv(x1, CSZ); cx <= Math.floorDiv(x2, CSZ); cx++) {
+                final Chunk ch = chunk(cx, cy);
+                if (ch == null || ch.set == 0)
+                    continue;
+                final int ox = cx * CSZ, oy = cy * CSZ;
+                final int ax = Math.max(x1, ox) - ox, bx = Math.min(x2, ox + CSZ - 1) - ox;
+                final int ay = Math.max(y1, oy) - oy, by = Math.min(y2, oy + CSZ - 1) - oy;
+                for (int y = ay; y <= by; y++) {
+                    for (int i = y * CSZ + ax, e = y * CSZ + bx; i <= e; i++) {
+                        if (ch.get(i) && (except == null || ch.refs[i] > 1 || !except.covers(ch, ox + (i - y * CSZ), oy + y)))
+                            return true;
+                    }
+                }
+            }
+        }
+        return false;
     }
 
-    public synchronized List<Coord> add(final Gob g) {
+    public synchronized Footprint add(final Gob g) {
         final UI ui = g.glob.ui.get();
         if (ui != null && ui.gui != null && ui.gui.map != null && g.id != ui.gui.map.plgob && !(g instanceof OCache.Virtual) && g.id >= 0) {
-            return fill(g);
+            return place(outlines(g));
         } else {
             return null;
         }
     }
 
-    public synchronized void rem(final Gob g, final List<Coord> coords) {
-        if (coords != null) {
-            for (final Coord c : coords) {
-                final HitTile tile = map.get(c);
-                if (tile != null) {
-                    tile.rem(g);
-                    if (tile.isEmpty()) {
-                        map.remove(c);
-                    }
-                }
-            }
-        }
+    public synchronized void rem(final Gob g, final Footprint fp) {
+        rem(fp);
     }
 
-    //Some modified Bresenham's line alg for steep slopes from a berkeley slide
-    private void drawline(Coord c1, Coord c2, final Gob g, final List<Coord> coords) {
-        drawline(c1.x, c1.y, c2.x, c2.y, g, coords);
+    public synchronized void rem(final Footprint fp) {
+        if (fp == null)
+            return;
+        placed -= fp.hash;
+        for (int i = 0, s = 0; i < fp.spans.length; i += 3, s++) {
+            final Chunk ch = fp.chunks[s];
+            if (chunks.get(key(ch.cx, ch.cy)) != ch)
+                continue;
+            ch.dec(((fp.spans[i] - ch.cy * CSZ) * CSZ) + (fp.spans[i + 1] - ch.cx * CSZ), fp.spans[i + 2] - fp.spans[i + 1] + 1);
+            if (ch.set == 0)
+                drop(ch);
+        }
     }
 
     /**
-     * Drawing the outline of our gob
+     * Rasterises the given polygons, which may overlap each other, and counts every covered unit once
      */
-    private void drawline(int x0, int y0, int x1, int y1, final Gob g, final List<Coord> coords) {
-        boolean steep = Math.abs(y1 - y0) > Math.abs(x1 - x0);
-        if (steep) {
-            //Reverse the axis
-            int t = x0;
-            x0 = y0;
-            y0 = t;
-
-            t = x1;
-            x1 = y1;
-            y1 = t;
-        }
-        if (x0 > x1) {
-            int t = x0;
-            x0 = x1;
-            x1 = t;
-
-            t = y0;
-            y0 = y1;
-            y1 = t;
-        }
-
-        float
-                slope = ((float) y1 - y0) / ((float) x1 - x0),
-                dErr = Math.abs(slope);
-        int yStep = y0 > y1 ? -1 : 1;
-        float err = 0.0f;
-        int y = y0;
-
-        for (int x = x0; x <= x1; ++x) {
-            final Coord c;
-            if (steep) {
-                //Reverse the axis
-                c = new Coord(y, x);
-            } else {
-                c = new Coord(x, y);
-            }
-            map.put(c, map.getOrDefault(c, gobtile));
-            map.get(c).add(g);
-            coords.add(c);
-
-            err += dErr;
-            if (err >= 0.5f) {
-                y += yStep;
-                err -= 1.0;
+    public synchronized Footprint place(final List<Coord[]> polys) {
+        final int[] spans = merge(rasterise(polys));
+        final List<Chunk> refs = new ArrayList<>();
+        int[] split = new int[spans.length];
+        int n = 0;
+        for (int i = 0; i < spans.length; i += 3) {
+            final int y = spans[i], cy = Math.floorDiv(y, CSZ);
+            for (int x = spans[i + 1]; x <= spans[i + 2]; ) {
+                final int cx = Math.floorDiv(x, CSZ);
+                final int e = Math.min(spans[i + 2], cx * CSZ + CSZ - 1);
+                Chunk ch = chunk(cx, cy);
+                if (ch == null) {
+                    ch = new Chunk(cx, cy);
+                    chunks.put(key(cx, cy), ch);
+                    last = ch;
+                }
+                ch.inc(((y - cy * CSZ) * CSZ) + (x - cx * CSZ), e - x + 1);
+                refs.add(ch);
+                if (n + 3 > split.length)
+                    split = Arrays.copyOf(split, split.length * 2);
+                split[n++] = y;
+                split[n++] = x;
+                split[n++] = e;
+                x = e + 1;
             }
         }
+        final Footprint fp = new Footprint(refs.toArray(new Chunk[0]), Arrays.copyOf(split, n));
+        placed += fp.hash;
+        return fp;
+    }
+
+    private void drop(final Chunk ch) {
+        chunks.remove(key(ch.cx, ch.cy));
+        if (last == ch)
+            last = null;
     }
 
     /**
-     * Filling in the inner space of a gob that is at an angle.
+     * Identifies what is currently placed: equal versions mean the same set of footprints, so a
+     * path found at one version is still good at it even if gobs were taken off and put back since
      */
-    private void fillspace(Coord start, final Gob g, final List<Coord> coords) {
-        ArrayDeque<Coord> queue = new ArrayDeque<>();
-        queue.push(start);
-
-        Coord c;
-        while (queue.size() > 0) {
-            c = queue.pop();
-            if (map.getOrDefault(c, nulltile).tile != Tile.GOB) {
-                map.put(c, map.getOrDefault(c, gobtile));
-                map.get(c).add(g);
-                coords.add(c);
-                queue.add(c.add(1, 0));
-                queue.add(c.add(0, 1));
-                queue.add(c.add(-1, 0));
-                queue.add(c.add(0, -1));
-            }
-        }
+    public synchronized long version() {
+        return placed;
     }
 
-    private List<Coord> fill(final Gob g) {
-        final List<Coord> coords = new ArrayList<>();
+    public synchronized int chunks() {
+        return chunks.size();
+    }
+
+    private static List<Coord[]> outlines(final Gob g) {
+        final List<Coord[]> polys = new ArrayList<>();
         final Hitbox[] hb = Hitbox.hbfor(g);
         if (hb != null) {
+            final Coord gc = new Coord(g.getc());
             for (Hitbox h : hb) {
                 if (h.canHit()) {
-                    ArrayList<Coord> coordes = new ArrayList<>();
-                    for (int j = 0; j < h.points.length; j++) {
-                        Coord c = new Coord(h.points[j].round().x, h.points[j].round().y);
-                        c = c.rotate((float) g.a);
-                        final Coord gc = new Coord(g.getc());
-                        c = gc.add(c);
-                        coordes.add(c);
-                    }
-
-                    for (int i = 0; i < coordes.size(); i++) {
-                        int i1 = i == coordes.size() - 1 ? 0 : i + 1;
-                        drawline(coordes.get(i), coordes.get(i1), g, coords);
-                    }
-
-                    double allx = 0;
-                    double ally = 0;
-                    for (Coord coorde : coordes) {
-                        allx += coorde.x;
-                        ally += coorde.y;
-                    }
-                    final Coord center = new Coord(Math.round(allx / coordes.size()), Math.round(ally / coordes.size()));
-                    fillspace(center, g, coords);
+                    final Coord[] poly = new Coord[h.points.length];
+                    for (int j = 0; j < h.points.length; j++)
+                        poly[j] = gc.add(h.points[j].round().rotate((float) g.a));
+                    polys.add(poly);
                 }
             }
         } else {
             logger.atFine().log("No hitbox found for %s", g.resname());
         }
-        return coords;
+        return polys;
     }
 
-    private List<Coord> fill2(final Gob g) {
-        final List<Coord> coords = new ArrayList<>();
-        final Hitbox[] hb = Hitbox.hbfor(g);
-        if (hb != null) {
-            for (Hitbox h : hb) {
-                if (h.canHit()) {
-                    List<Coord2d> coordes = new ArrayList<>(Arrays.asList(h.points));
-
-                    final double gd = Math.toDegrees(g.a);
-                    if (gd == 90 || gd == 270) {
-                        //Easy case, simple rotations
-                        //Reverse the axis
-                        coordes.forEach(c -> c = new Coord2d(c.y, c.x));
-                    } else if (gd != 0 && gd != 180) {
-                        //some angle that's not trival
-                        //idea: calculate the four corner points
-                        //draw line between these four corner points
-                        //then do a fill within these 4 lines that will fill any
-                        //point not filled within it already and check for more until
-                        //no more are found
-
-                        //Only problem is making sure that initial point within the four lines
-                        // is actually within (half-way point between two opposite corners to get
-                        // center of rectangle hitbox)
-                        //rotate
-                        coordes.forEach(c -> c = c.rotate((float) g.a));
-
-                        //translate back
-                        final Coord gc = g.getc().round();
-                        coordes.forEach(c -> c = c.add(gc));
-
-                        //Draw lines
-                        for (int i = 0; i < coordes.size(); i++) {
-                            int i1 = i == coordes.size() - 1 ? 0 : i + 1;
-                            drawline(coordes.get(i).round(), coordes.get(i1).round(), g, coords);
-                        }
-
-                        //Fill from center
-                        double allx = 0;
-                        double ally = 0;
-                        for (Coord2d coorde : coordes) {
-                            allx += coorde.x;
-                            ally += coorde.y;
-                        }
-                        final Coord center = new Coord(Math.round(allx / coordes.size()), Math.round(ally / coordes.size()));
-                        fillspace(center, g, coords);
+    /**
+     * Scanline rasterisation into (y, x1, x2) row spans. A row gets the interior of the polygon
+     * at its center line by the even-odd rule, plus whatever part of each edge passes within
+     * half a unit of it, so that the outline is covered the same way a drawn line would be.
+     */
+    private static int[] rasterise(final List<Coord[]> polys) {
+        int[] out = new int[64];
+        int n = 0;
+        double[] xs = new double[8];
+        for (final Coord[] p : polys) {
+            if (p.length == 0)
+                continue;
+            int miny = Integer.MAX_VALUE, maxy = Integer.MIN_VALUE;
+            for (final Coord c : p) {
+                miny = Math.min(miny, c.y);
+                maxy = Math.max(maxy, c.y);
+            }
+            if (xs.length < p.length)
+                xs = new double[p.length];
+            for (int y = miny; y <= maxy; y++) {
+                int nx = 0;
+                for (int i = 0; i < p.length; i++) {
+                    final Coord a = p[i], b = p[(i + 1) % p.length];
+                    if ((a.y <= y && y < b.y) || (b.y <= y && y < a.y))
+                        xs[nx++] = a.x + ((double) (y - a.y) * (b.x - a.x)) / (b.y - a.y);
+                }
+                Arrays.sort(xs, 0, nx);
+                for (int i = 0; i + 1 < nx; i += 2) {
+                    if (n + 3 > out.length)
+                        out = Arrays.copyOf(out, out.length * 2);
+                    out[n++] = y;
+                    out[n++] = (int) Math.round(xs[i]);
+                    out[n++] = (int) Math.round(xs[i + 1]);
+                }
+                for (int i = 0; i < p.length; i++) {
+                    final Coord a = p[i], b = p[(i + 1) % p.length];
+                    final int ey1 = Math.min(a.y, b.y), ey2 = Math.max(a.y, b.y);
+                    if (y < ey1 || y > ey2)
                         continue;
+                    final double x1, x2;
+                    if (a.y == b.y) {
+                        x1 = a.x;
+                        x2 = b.x;
+                    } else {
+                        final double ya = Math.max(y - 0.5, ey1), yb = Math.min(y + 0.5, ey2);
+                        x1 = a.x + ((ya - a.y) * (b.x - a.x)) / (b.y - a.y);
+                        x2 = a.x + ((yb - a.y) * (b.x - a.x)) / (b.y - a.y);
                     }
+                    if (n + 3 > out.length)
+                        out = Arrays.copyOf(out, out.length * 2);
+                    out[n++] = y;
+                    out[n++] = (int) Math.round(Math.min(x1, x2));
+                    out[n++] = (int) Math.round(Math.max(x1, x2));
+                }
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
 
-                    //Handle gd = 0, 90, 180 or 270
-                    coordes.forEach(c -> c = c.add(g.getc().round()));
+    /**
+     * Sorts spans by row and start, and joins overlapping or touching spans within a row
+     */
+    private static int[] merge(final int[] spans) {
+        final int cnt = spans.length / 3;
+        final Integer[] idx = new Integer[cnt];
+        for (int i = 0; i < cnt; i++)
+            idx[i] = i;
+        Arrays.sort(idx, (a, b) -> {
+            if (spans[a * 3] != spans[b * 3])
+                return Integer.compare(spans[a * 3], spans[b * 3]);
+            return Integer.compare(spans[a * 3 + 1], spans[b * 3 + 1]);
+        });
+        final int[] out = new int[spans.length];
+        int n = 0;
+        for (final int i : idx) {
+            final int y = spans[i * 3], x1 = spans[i * 3 + 1], x2 = spans[i * 3 + 2];
+            if (n > 0 && out[n - 3] == y && x1 <= out[n - 1] + 1) {
+                out[n - 1] = Math.max(out[n - 1], x2);
+            } else {
+                out[n++] = y;
+                out[n++] = x1;
+                out[n++] = x2;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
 
-                    Coord off = Coord.z;
-                    Coord br = Coord.z;
-                    for (Coord2d c : coordes) {
-                        if (c.x < off.x) off.x = c.round().x;
-                        if (c.y < off.y) off.y = c.round().y;
-                        if (c.x > br.x) br.x = c.round().x;
-                        if (c.y > br.y) br.y = c.round().y;
-                    }
+    private interface UnitCallback {
+        void unit(int x, int y);
+    }
 
-                    for (int x = off.x; x < br.x; ++x)
-                        for (int y = off.y; y < br.y; ++y) {
-                            //if (configuration.contains(coordes, new Coord2d(x, y))) {
-                            final Coord c = new Coord(x, y);
-                            map.put(c, map.getOrDefault(c, gobtile));
-                            map.get(c).add(g);
-                            coords.add(c);
-                            //}
-                        }
+    private void units(final UnitCallback cb) {
+        for (final Chunk ch : chunks.values()) {
+            for (int w = 0; w < ch.bits.length; w++) {
+                long word = ch.bits[w];
+                while (word != 0) {
+                    final int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    cb.unit(ch.cx * CSZ + (i % CSZ), ch.cy * CSZ + (i / CSZ));
                 }
             }
-        } else {
-            logger.atFine().log("No hitbox found for %s", g.resname());
         }
-        return coords;
     }
 
-    private List<Coord> fill3(final Gob g) {
-        final List<Coord> coords = new ArrayList<>();
-        final Hitbox[] hb = Hitbox.hbfor(g);
-        if (hb != null) {
-            for (Hitbox h : hb) {
-                if (h.canHit()) {
-                    final Coord hoff = new Coord(h.offset());
-                    final Coord hsz = new Coord(h.size());
-                    final double gd = Math.toDegrees(g.a);
-                    if (gd == 0 || gd == 90 || gd == 180 || gd == 270) {
-                        if (gd == 90 || gd == 270) {
-                            //Easy case, simple rotations
-                            //Reverse the axis
-                            int tmp = hoff.x;
-                            hoff.x = hoff.y;
-                            hoff.y = tmp;
-                            tmp = hsz.x;
-                            hsz.x = hsz.y;
-                            hsz.y = tmp;
-                        }
-
-                        //Handle gd = 0, 90, 180 or 270
-                        Coord off = g.getc().round().add(hoff);
-                        Coord br = off.add(hsz);
-
-                        int x, y;
-                        for (x = off.x; x < br.x; ++x)
-                            for (y = off.y; y < br.y; ++y) {
-                                final Coord c = new Coord(x, y);
-                                map.put(c, map.getOrDefault(c, gobtile));
-                                map.get(c).add(g);
-                                coords.add(c);
-                            }
-                    } else if (gd != 0 && gd != 180) {
-                        //some angle that's not trival
-                        //idea: calculate the four corner points
-                        //draw line between these four corner points
-                        //then do a fill within these 4 lines that will fill any
-                        //point not filled within it already and check for more until
-                        //no more are found
-
-                        //Only problem is making sure that initial point within the four lines
-                        // is actually within (half-way point between two opposite corners to get
-                        // center of rectangle hitbox)
-                        Coord
-                                tl = hoff,
-                                tr = hoff.add(hsz.x, 0),
-                                bl = hoff.add(0, hsz.y),
-                                br = hoff.add(hsz);
-                        //rotate
-                        tl = tl.rot((float) g.a);
-                        tr = tr.rot((float) g.a);
-                        bl = bl.rot((float) g.a);
-                        br = br.rot((float) g.a);
-
-                        //translate back
-                        final Coord gc = g.getc().round();
-                        tl = gc.add(tl);
-                        tr = gc.add(tr);
-                        bl = gc.add(bl);
-                        br = gc.add(br);
-
-                        //Draw lines
-                        drawline(tl, tr, g, coords);
-                        drawline(tr, br, g, coords);
-                        drawline(bl, br, g, coords);
-                        drawline(tl, bl, g, coords);
-
-                        //Fill from center
-                        final Coord center = new Coord((tl.x + br.x) / 2.0f, (tl.y + br.y) / 2.0f);
-                        fillspace(center, g, coords);
-                    }
-                }
+    public synchronized BufferedImage debug2(final Coord tl, final Coord br) {
+        //Update tl/br if needed
+        units((x, y) -> {
+            if (x < tl.x)
+                tl.x = x;
+            else if (x > br.x)
+                br.x = x;
+
+            if (y < tl.y)
+                tl.y = y;
+            else if (y > br.y)
+                br.y = y;
+        });
+        final BufferedImage buf = new BufferedImage(br.x - tl.x + 1, br.y - tl.y + 1, BufferedImage.TYPE_INT_RGB);
+
+        //Render our hitmap
+        final int rgb = Color.RED.getRGB();
+        units((x, y) -> buf.setRGB(x - tl.x, y - tl.y, rgb));
+
+        return buf;
+    }
+
+    public synchronized void debug() {
+        if (chunks.values().stream().anyMatch(ch -> ch.set > 0)) {
+            //find our boundaries
+            final Coord tl = new Coord(Integer.MAX_VALUE, Integer.MAX_VALUE);
+            final Coord br = new Coord(Integer.MIN_VALUE, Integer.MIN_VALUE);
+            units((x, y) -> {
+                tl.x = Math.min(tl.x, x);
+                tl.y = Math.min(tl.y, y);
+                br.x = Math.max(br.x, x);
+                br.y = Math.max(br.y, y);
+            });
+            final BufferedImage buf = debug2(tl, br);
+
+            try {
+                javax.imageio.ImageIO.write(buf, "png", new File("hitmap4.png"));
+            } catch (Exception e) {
+                e.printStackTrace();
             }
-        } else {
-            logger.atFine().log("No hitbox found for %s", g.resname());
         }
-        return coords;
     }
-
-//    private List<Coord> fill(final Gob g) {
-//        final List<Coord> coords = new ArrayList<>();
-//        final Hitbox hb = Hitbox.hbfor(g);
-//        if (hb != null) {
-//            if (hb.canHit()) {
-//                final Coord hoff = new Coord(hb.offset());
-//                final Coord hsz = new Coord(hb.size());
-//                final double gd = Math.toDegrees(g.a);
-//                if (gd == 90 || gd == 270) {
-//                    //Easy case, simple rotations
-//                    //Reverse the axis
-//                    int tmp = hoff.x;
-//                    hoff.x = hoff.y;
-//                    hoff.y = tmp;
-//                    tmp = hsz.x;
-//                    hsz.x = hsz.y;
-//                    hsz.y = tmp;
-//                } else if (gd != 0 && gd != 180) {
-//                    //some angle that's not trival
-//                    //idea: calculate the four corner points
-//                    //draw line between these four corner points
-//                    //then do a fill within these 4 lines that will fill any
-//                    //point not filled within it already and check for more until
-//                    //no more are found
-//
-//                    //Only problem is making sure that initial point within the four lines
-//                    // is actually within (half-way point between two opposite corners to get
-//                    // center of rectangle hitbox)
-//                    Coord
-//                            tl = hoff,
-//                            tr = hoff.add(hsz.x, 0),
-//                            bl = hoff.add(0, hsz.y),
-//                            br = hoff.add(hsz);
-//                    //rotate
-//                    tl = tl.rot((float) g.a);
-//                    tr = tr.rot((float) g.a);
-//                    bl = bl.rot((float) g.a);
-//                    br = br.rot((float) g.a);
-//
-//                    //translate back
-//                    final Coord gc = g.getc().round();
-//                    tl = gc.add(tl);
-//                    tr = gc.add(tr);
-//                    bl = gc.add(bl);
-//                    br = gc.add(br);
-//
-//                    //Draw lines
-//                    drawline(tl, tr, g, coords);
-//                    drawline(tr, br, g, coords);
-//                    drawline(bl, br, g, coords);
-//                    drawline(tl, bl, g, coords);
-//
-//                    //Fill from center
-//                    final Coord center = new Coord((tl.x + br.x) / 2.0f, (tl.y + br.y) / 2.0f);
-//                    fillspace(center, g, coords);
-//                    return coords;
-//                }
-//
-//                //Handle gd = 0, 90, 180 or 270
-//                Coord off = g.getc().round().add(hoff);
-//                Coord br = off.add(hsz);
-//
-//                int x, y;
-//                for (x = off.x; x < br.x; ++x)
-//                    for (y = off.y; y < br.y; ++y) {
-//                        final Coord c = new Coord(x, y);
-//                        map.put(c, map.getOrDefault(c, gobtile));
-//                        map.get(c).add(g);
-//                        coords.add(c);
-//                    }
-//            }
-//        } else {
-//            logger.atFine().log("No hitbox found for %s", g.resname());
-//        }
-//        return coords;
-//    }
 }
@@ -0,0 +1,319 @@
+package haven.sloth.script.pathfinding;
+
+import haven.Coord;
+import haven.DefSettings;
+import haven.MCache;
+import haven.UI;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Jump point search over the unit grid, moving in 8 directions without cutting corners.
+ * Straight and diagonal runs through open ground are scanned rather than queued, so only the points
+ * where the path can turn end up in the open set. Hit checks are memoized for the duration of a search.
+ * <p>
+ * In hierarchical mode a coarse search is first done over whole tiles, and the unit level search is
+ * then confined to a corridor of tiles around that route. If the corridor turns out to be too tight
+ * the full unit level search is done instead.
+ */
+public class JPSPathfinder extends Pathfinder {
+    private static final double SQRT2 = Math.sqrt(2);
+    //Space around the start and goal a unit level search may wander into
+    private static final int MARGIN = 220;
+    //Tiles around the start and goal the coarse search may wander into
+    private static final int CMARGIN = 100;
+    //Tiles of slack kept on either side of the coarse route
+    private static final int CORRIDOR = 2;
+    private static final int TILE = MCache.tilesz2.x;
+
+    @FunctionalInterface
+    private interface Grid {
+        boolean free(final int x, final int y);
+    }
+
+    private final boolean hierarchical;
+    private final Map<Long, byte[]> known = new HashMap<>();
+    private long lastck;
+    private byte[] last;
+
+    public JPSPathfinder(final UI ui, final boolean hierarchical) {
+        super(ui);
+        this.hierarchical = hierarchical;
+    }
+
+    public JPSPathfinder(final HitFun hitfun, final boolean hierarchical) {
+        super(hitfun);
+        this.hierarchical = hierarchical;
+    }
+
+    private static long key(final int x, final int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    private static double octile(final int dx, final int dy) {
+        final int ax = Math.abs(dx), ay = Math.abs(dy);
+        return Math.max(ax, ay) + (SQRT2 - 1) * Math.min(ax, ay);
+    }
+
+    /**
+     * checkHit, remembered in 32x32 chunks: 0 = unknown, 1 = free, 2 = hit
+     */
+    private boolean passable(final int x, final int y) {
+        final long ck = key(x >> 5, y >> 5);
+        byte[] chunk;
+        if (ck == lastck && last != null) {
+            chunk = last;
+        } else {
+            chunk = known.get(ck);
+            if (chunk == null)
+                known.put(ck, chunk = new byte[32 * 32]);
+            lastck = ck;
+            last = chunk;
+        }
+        final int i = ((y & 31) << 5) | (x & 31);
+        if (chunk[i] == 0)
+            chunk[i] = checkHit(new Coord(x, y)) ? (byte) 2 : (byte) 1;
+        return chunk[i] == 1;
+    }
+
+    private class Search {
+        private final Grid grid;
+        private final int x1, y1, x2, y2;
+        private final int gx, gy;
+        private final Map<Long, Node> open = new HashMap<>();
+        private final Set<Long> closed = new HashSet<>();
+        private final PriorityQueue<Node> pq = new PriorityQueue<>();
+        //Closest node to the goal seen, for when it can't be reached
+        Node nearest;
+
+        Search(final Grid grid, final Coord ul, final Coord br, final Coord goal) {
+            this.grid = grid;
+            this.x1 = ul.x;
+            this.y1 = ul.y;
+            this.x2 = br.x;
+            this.y2 = br.y;
+            this.gx = goal.x;
+            this.gy = goal.y;
+        }
+
+        private boolean free(final int x, final int y) {
+            return x >= x1 && y >= y1 && x <= x2 && y <= y2 && grid.free(x, y);
+        }
+
+        private boolean isgoal(final int x, final int y) {
+            return x == gx && y == gy;
+        }
+
+        /**
+         * Scans from x,y in direction dx,dy for the next jump point.
+         * Returns null if the scan runs into something first.
+         */
+        private Coord jump(int x, int y, final int dx, final int dy) {
+            while (true) {
+                if (!free(x, y))
+                    return null;
+                if (isgoal(x, y))
+                    return new Coord(x, y);
+                if (dx != 0 && dy != 0) {
+                    //Any straight run from here that finds something makes this a turning point
+                    if (jump(x + dx, y, dx, 0) != null || jump(x, y + dy, 0, dy) != null)
+                        return new Coord(x, y);
+                    //No squeezing between two diagonal corners
+                    if (!free(x + dx, y) || !free(x, y + dy))
+                        return null;
+                } else if (dx != 0) {
+                    if ((free(x, y - 1) && !free(x - dx, y - 1)) || (free(x, y + 1) && !free(x - dx, y + 1)))
+                        return new Coord(x, y);
+                } else {
+                    if ((free(x - 1, y) && !free(x - 1, y - dy)) || (free(x + 1, y) && !free(x + 1, y - dy)))
+                        return new Coord(x, y);
+                }
+                x += dx;
+                y += dy;
+            }
+        }
+
+        private void push(final Node parent, final Coord c) {
+            final long k = key(c.x, c.y);
+            if (closed.contains(k))
+                return;
+            final double g = parent.g + octile(c.x - parent.c.x, c.y - parent.c.y);
+            final Node old = open.get(k);
+            if (old == null || g < old.g) {
+                final Node n = new Node(parent, c, g, octile(gx - c.x, gy - c.y));
+                open.put(k, n);
+                pq.add(n);
+            }
+        }
+
+        private void step(final Node n, final int dx, final int dy) {
+            final Coord jp = jump(n.c.x + dx, n.c.y + dy, dx, dy);
+            if (jp != null)
+                push(n, jp);
+        }
+
+        private void successors(final Node n) {
+            final int x = n.c.x, y = n.c.y;
+            if (n.parent == null) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        if ((dx == 0 && dy == 0) || (dx != 0 && dy != 0 && (!free(x + dx, y) || !free(x, y + dy))))
+                            continue;
+                        step(n, dx, dy);
+                    }
+                }
+                return;
+            }
+            final int dx = Integer.signum(x - n.parent.c.x), dy = Integer.signum(y - n.parent.c.y);
+            if (dx != 0 && dy != 0) {
+                final boolean h = free(x + dx, y), v = free(x, y + dy);
+                if (v)
+                    step(n, 0, dy);
+                if (h)
+                    step(n, dx, 0);
+                if (h && v)
+                    step(n, dx, dy);
+            } else if (dx != 0) {
+                final boolean next = free(x + dx, y), up = free(x, y - 1), down = free(x, y + 1);
+                if (next) {
+                    step(n, dx, 0);
+                    if (up)
+                        step(n, dx, -1);
+                    if (down)
+                        step(n, dx, 1);
+                }
+                if (up)
+                    step(n, 0, -1);
+                if (down)
+                    step(n, 0, 1);
+            } else {
+                final boolean next = free(x, y + dy), left = free(x - 1, y), right = free(x + 1, y);
+                if (next) {
+                    step(n, 0, dy);
+                    if (left)
+                        step(n, -1, dy);
+                    if (right)
+                        step(n, 1, dy);
+                }
+                if (left)
+                    step(n, -1, 0);
+                if (right)
+                    step(n, 1, 0);
+            }
+        }
+
+        /**
+         * Returns the jump points from start to goal, or null if the goal can't be reached
+         */
+        List<Coord> run(final Coord start) {
+            final Node st = new Node(null, start, 0, octile(gx - start.x, gy - start.y));
+            open.put(key(start.x, start.y), st);
+            pq.add(st);
+            while (!pq.isEmpty()) {
+                //Cancelled
+                if (Thread.currentThread().isInterrupted())
+                    return null;
+                final Node n = pq.poll();
+                final long k = key(n.c.x, n.c.y);
+                //Stale entry for a node that has since been reached more cheaply
+                if (open.get(k) != n)
+                    continue;
+                open.remove(k);
+                closed.add(k);
+                expanded++;
+                if (nearest == null || n.h < nearest.h)
+                    nearest = n;
+                if (isgoal(n.c.x, n.c.y))
+                    return collect(n);
+                successors(n);
+            }
+            return null;
+        }
+    }
+
+    private static Coord ul(final Coord a, final Coord b, final int margin) {
+        return new Coord(Math.min(a.x, b.x) - margin, Math.min(a.y, b.y) - margin);
+    }
+
+    private static Coord br(final Coord a, final Coord b, final int margin) {
+        return new Coord(Math.max(a.x, b.x) + margin, Math.max(a.y, b.y) + margin);
+    }
+
+    private Search flat(final Coord start, final Coord goal) {
+        Coord ul = ul(start, goal, MARGIN), br = br(start, goal, MARGIN);
+        if (DefSettings.LIMITPATHFINDING.get()) {
+            ul = new Coord(Math.max(ul.x, start.x - 440), Math.max(ul.y, start.y - 440));
+            br = new Coord(Math.min(br.x, start.x + 440), Math.min(br.y, start.y + 440));
+        }
+        return new Search(this::passable, ul, br, goal);
+    }
+
+    private static Coord tile(final Coord c) {
+        return new Coord(Math.floorDiv(c.x, TILE), Math.floorDiv(c.y, TILE));
+    }
+
+    /**
+     * Searches whole tiles, judging each by whether the player could stand in its middle, and
+     * returns the tiles within CORRIDOR of the route found
+     */
+    private Set<Long> corridor(final Coord start, final Coord goal) {
+        final Coord st = tile(start), gt = tile(goal);
+        final Grid tiles = (tx, ty) -> (tx == st.x && ty == st.y) || (tx == gt.x && ty == gt.y) ||
+                passable(tx * TILE + TILE / 2, ty * TILE + TILE / 2);
+        final List<Coord> route = new Search(tiles, ul(st, gt, CMARGIN), br(st, gt, CMARGIN), gt).run(st);
+        if (route == null)
+            return null;
+        final Set<Long> ret = new HashSet<>();
+        Coord prev = route.get(0);
+        for (final Coord jp : route) {
+            final int dx = Integer.signum(jp.x - prev.x), dy = Integer.signum(jp.y - prev.y);
+            for (Coord c = prev; ; c = c.add(dx, dy)) {
+                for (int x = -CORRIDOR; x <= CORRIDOR; x++)
+                    for (int y = -CORRIDOR; y <= CORRIDOR; y++)
+                        ret.add(key(c.x + x, c.y + y));
+                if (c.equals(jp))
+                    break;
+            }
+            prev = jp;
+        }
+        return ret;
+    }
+
+    private List<Coord> findpath(final Coord start, final Coord goal) {
+        expanded = 0;
+        if (hierarchical && !DefSettings.LIMITPATHFINDING.get()) {
+            final Set<Long> corridor = corridor(start, goal);
+            if (corridor != null) {
+                final Grid inside = (x, y) -> corridor.contains(key(Math.floorDiv(x, TILE), Math.floorDiv(y, TILE))) && passable(x, y);
+                final List<Coord> path = new Search(inside, ul(start, goal, CMARGIN * TILE), br(start, goal, CMARGIN * TILE), goal).run(start);
+                if (path != null)
+                    return path;
+            }
+        }
+        final Search s = flat(start, goal);
+        final List<Coord> path = s.run(start);
+        if (path == null && DefSettings.LIMITPATHFINDING.get() && s.nearest != null)
+            return collect(s.nearest);
+        return path;
+    }
+
+    @Override
+    public String kind() {
+        return hierarchical ? "Hierarchical " + super.kind() : super.kind();
+    }
+
+    public ArrayList<Move> path(final Coord start, final Coord goal) {
+        try {
+            return advreduce(findpath(start, goal));
+        } finally {
+            known.clear();
+            last = null;
+        }
+    }
+}
@@ -34,6 +34,11 @@ public class NBAPathfinder extends Pathfinder {
         level = 0;
     }
 
+    public NBAPathfinder(final HitFun hitfun) {
+        super(hitfun);
+        level = 0;
+    }
+
     /**
      * This executes from both sides simultaneously
      * s is the source for this side
@@ -64,6 +69,7 @@ public class NBAPathfinder extends Pathfinder {
      * 23: end while
      */
     private List<Coord> findpath(final Coord start, final Coord goal) {
+        expanded = 0;
         final PriorityQueue<Node> startpq = new PriorityQueue<>();
         final PriorityQueue<Node> goalpq = new PriorityQueue<>();
         final Map<Coord, Node> startNodes = new HashMap<>();
@@ -90,6 +96,9 @@ public class NBAPathfinder extends Pathfinder {
 
         //10: while any v ∈ M has g(v) < ∞ do //While we have verts that have g(v) defined
         while (!startpq.isEmpty() && (!goalpq.isEmpty() || DefSettings.LIMITPATHFINDING.get())) {
+            //Cancelled
+            if (Thread.currentThread().isInterrupted())
+                return null;
             //Do it in lock step to simulate it being simultaneous.
             fs = expand(startpq, goal, start, start, fs, ft, startNodes, endNodes, ignore, Side.SOURCE);
             ft = expand(goalpq, start, goal, start, ft, fs, endNodes, startNodes, ignore, Side.GOAL);
@@ -131,6 +140,7 @@ public class NBAPathfinder extends Pathfinder {
         if (!M.isEmpty()) {
             //11:   u0 = arg min{g(v) + h(v) | v ∈ M}; // u0 is selected by taking the min vert with g(v) + h(v)
             final Node node = M.poll();
+            expanded++;
             //13:   if g(u0) + h(u0) − h(t) ≥ L or g(u0) + ˜f − h˜(u0) ≥ L then // - h(t) -> -0???
             //negate to only consider non-rejected nodes
             if (!(node.f >= best || (node.g + ftilda - heuristic.distance(node.c, source)) >= best)) {
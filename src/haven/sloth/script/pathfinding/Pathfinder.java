@@ -40,7 +40,7 @@ public abstract class Pathfinder {
     }
 
     @FunctionalInterface
-    interface HitFun {
+    public interface HitFun {
         boolean check(final Coord mc);
     }
 
@@ -50,18 +50,73 @@ public abstract class Pathfinder {
     }
 
     protected final UI ui;
+    private final boolean boating;
     private final HitFun hitfun;
     final HeuristicFun heuristic;
+    //Nodes taken off the open set by the last search
+    protected long expanded;
+    //Gob this search may walk through, usually the one it is headed for
+    private Gob ignored;
 
     Pathfinder(final UI ui) {
         this.ui = ui;
         //Check to see if we're boating
-        hitfun = areWeBoating() ? this::hitOnBoat : this::hitOnLand;
+        boating = areWeBoating();
+        hitfun = boating ? this::hitOnBoat : this::hitOnLand;
+        heuristic = this::manhattanDistance;
+    }
+
+    /**
+     * A pathfinder without a session, checking only the given hit function, for replaying saved hitmaps
+     */
+    Pathfinder(final HitFun hitfun) {
+        this.ui = null;
+        this.boating = false;
+        this.hitfun = hitfun;
         heuristic = this::manhattanDistance;
     }
 
     public abstract List<Move> path(final Coord start, final Coord goal);
 
+    /**
+     * Lets this search go through the given gob, leaving it on the hitmap for other searches
+     */
+    public void ignore(final Gob g) {
+        this.ignored = g;
+    }
+
+    public long expanded() {
+        return expanded;
+    }
+
+    /**
+     * Names what this pathfinder searches for, since different ones can find different routes between the same points
+     */
+    public String kind() {
+        return boating ? getClass().getSimpleName() + " on water" : getClass().getSimpleName();
+    }
+
+    /**
+     * Which pathfinder scripts and map clicks should use, as picked in the options
+     */
+    public static Pathfinder create(final UI ui) {
+        switch (DefSettings.SCRIPTPATHFINDER.get()) {
+            case 1:
+                return new JPSPathfinder(ui, false);
+            case 2:
+                return new JPSPathfinder(ui, true);
+            default:
+                return new NBAPathfinder(ui);
+        }
+    }
+
+    /**
+     * Captures what this pathfinder considers a hit over the given area, for replaying searches offline
+     */
+    public SavedHitmap capture(final Coord ul, final Coord sz) {
+        return SavedHitmap.capture(ul, sz, this::checkHit);
+    }
+
     //D and D2 can scale based off terrain/speed we can run, future something to look at maybe.
     private static final double D = 1;
     private static final double D2 = Math.sqrt(2);
@@ -115,14 +170,17 @@ public abstract class Pathfinder {
 //        }
 
         Coord2d pc = PBotGobAPI.player(ui).getRcCoords();
+        if (pc.dist(new Coord2d(mc)) <= 3)
+            return (false);
+        final GobHitmap.Footprint except = (ignored != null) ? ignored.footprint() : null;
         for (Hitbox h : plhb) {
             final Coord2d c = h.offset().add(mc);
             final Coord2d br = h.size().add(c).add(1, 1);
-            Coord2d xy = Coord2d.z;
-            for (xy.x = c.x; xy.x < br.x; xy.x += 0.5)
-                for (xy.y = c.y; xy.y < br.y; xy.y += 0.5)
-                    if (ui.sess.glob.gobhitmap.checkHit(xy.floor()) && pc.dist(new Coord2d(mc)) > 3)
-                        return (true);
+            //The last half-unit sample before br on each axis
+            final double lx = c.x + 0.5 * (Math.ceil((br.x - c.x) * 2) - 1);
+            final double ly = c.y + 0.5 * (Math.ceil((br.y - c.y) * 2) - 1);
+            if (ui.sess.glob.gobhitmap.checkHit((int) Math.floor(c.x), (int) Math.floor(c.y), (int) Math.floor(lx), (int) Math.floor(ly), except))
+                return (true);
         }
 
         return (false);
@@ -160,7 +218,7 @@ public abstract class Pathfinder {
         for (Hitbox h : plhb) {
             final Coord2d c = h.offset().add(mc);
             final Coord2d br = h.size().add(c).add(1, 1);
-            Coord2d xy = Coord2d.z;
+            Coord2d xy = new Coord2d(0, 0);
             for (xy.x = c.x; xy.x < br.x; xy.x += 0.5)
                 for (xy.y = c.y; xy.y < br.y; xy.y += 0.5) {
                     final Tile t = ui.sess.glob.map.gethitmap(xy.div(MCache.tilesz2).floor());
@@ -204,7 +262,7 @@ public abstract class Pathfinder {
         for (Hitbox h : plhb) {
             final Coord2d c = h.offset().add(mc);
             final Coord2d br = h.size().add(c).add(1, 1);
-            Coord2d xy = Coord2d.z;
+            Coord2d xy = new Coord2d(0, 0);
             for (xy.x = c.x; xy.x < br.x; xy.x += 0.5)
                 for (xy.y = c.y; xy.y < br.y; xy.y += 0.5) {
                     final Tile t = ui.sess.glob.map.gethitmap(xy.div(MCache.tilesz2).floor());
@@ -216,7 +274,7 @@ public abstract class Pathfinder {
     }
 
     final boolean checkHit(final Coord mc) {
-        return hitGob(mc) || hitfun.check(mc);
+        return (ui != null && hitGob(mc)) || hitfun.check(mc);
     }
 
     /**
@@ -357,7 +415,7 @@ public abstract class Pathfinder {
      */
     final ArrayList<Move> advreduce(final List<Coord> lines) {
         if (lines != null) {
-            if (DefSettings.DEBUG.get())
+            if (ui != null && DefSettings.DEBUG.get())
                 debugl(lines);
             final ArrayList<Move> blines = new ArrayList<>(lines.size());
             for (int i = 0; i < lines.size() - 1; ++i) {
@@ -384,7 +442,7 @@ public abstract class Pathfinder {
                 //The next line should start from `best`
                 i = best - 1;
             }
-            if (DefSettings.DEBUG.get())
+            if (ui != null && DefSettings.DEBUG.get())
                 debug(blines);
             return blines;
         } else {
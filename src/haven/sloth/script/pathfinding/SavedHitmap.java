@@ -0,0 +1,80 @@
+package haven.sloth.script.pathfinding;
+
+import haven.Coord;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A window of pathfinder hit results captured from a live session so searches can be replayed offline.
+ * Each unit holds what checkHit returned for the player standing there, so a replay sees exactly the
+ * obstacles, terrain and hitbox padding the live pathfinder did. Everything outside the window is a hit.
+ */
+public class SavedHitmap implements Pathfinder.HitFun {
+    private static final int MAGIC = 0x484d5031; //HMP1
+    public final Coord ul, sz;
+    private final BitSet hits;
+
+    public SavedHitmap(final Coord ul, final Coord sz, final BitSet hits) {
+        this.ul = ul;
+        this.sz = sz;
+        this.hits = hits;
+    }
+
+    public boolean check(final Coord mc) {
+        final int x = mc.x - ul.x, y = mc.y - ul.y;
+        if (x < 0 || y < 0 || x >= sz.x || y >= sz.y)
+            return true;
+        return hits.get(y * sz.x + x);
+    }
+
+    public static SavedHitmap capture(final Coord ul, final Coord sz, final Pathfinder.HitFun hit) {
+        final BitSet hits = new BitSet(sz.x * sz.y);
+        final Coord c = new Coord(0, 0);
+        for (int y = 0; y < sz.y; y++) {
+            for (int x = 0; x < sz.x; x++) {
+                c.x = ul.x + x;
+                c.y = ul.y + y;
+                if (hit.check(c))
+                    hits.set(y * sz.x + x);
+            }
+        }
+        return new SavedHitmap(ul, sz, hits);
+    }
+
+    public void save(final File f) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(f))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(ul.x);
+            out.writeInt(ul.y);
+            out.writeInt(sz.x);
+            out.writeInt(sz.y);
+            final long[] words = hits.toLongArray();
+            out.writeInt(words.length);
+            for (long w : words)
+                out.writeLong(w);
+        }
+    }
+
+    public static SavedHitmap load(final File f) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(f))))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("not a saved hitmap: " + f);
+            final Coord ul = new Coord(in.readInt(), in.readInt());
+            final Coord sz = new Coord(in.readInt(), in.readInt());
+            final long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++)
+                words[i] = in.readLong();
+            return new SavedHitmap(ul, sz, BitSet.valueOf(words));
+        }
+    }
+}
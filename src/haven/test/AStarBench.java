@@ -0,0 +1,202 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.pathfinder.AStar;
+import haven.pathfinder.Dbg;
+import haven.pathfinder.Edge;
+import haven.pathfinder.Map;
+import haven.pathfinder.Utils;
+import haven.pathfinder.Vertex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/*
+ * Compares the pathfinder's A* against the PriorityQueue-based
+ * version it replaced, over visibility graphs built the way
+ * haven.pathfinder.Map builds them: padded box obstacles scattered
+ * over the pathfinding raster, with waypoints off their corners and
+ * edges between every pair of mutually visible waypoints. Route costs
+ * of both versions are cross-checked.
+ *
+ * Usage: AStarBench [ROUTES]
+ */
+public class AStarBench {
+    /* The previous implementation, minus its order tie-break bug. */
+    private static class Legacy {
+        Node find(Vertex start, Vertex end) {
+            int order = 0;
+            Set<Node> closed = new HashSet<>();
+            PriorityQueue<Node> open = new PriorityQueue<>();
+            java.util.Map<Vertex, Node> nodes = new HashMap<>();
+            Node current = node(nodes, start, end);
+            current.reset(null, null, 0, order++);
+            open.add(current);
+            while (!open.isEmpty()) {
+                current = open.remove();
+                if (current.vertex == end)
+                    return (current);
+                closed.add(current);
+                for (Edge edge : current.vertex.edges) {
+                    Node n = node(nodes, edge.dest, end);
+                    double g = current.g + edge.weight;
+                    double f = g + n.h;
+                    if (closed.contains(n) && f >= n.f())
+                        continue;
+                    if (!open.contains(n) || f < n.f()) {
+                        open.remove(n);
+                        n.reset(current, edge, g, order++);
+                        open.add(n);
+                    }
+                }
+            }
+            return (null);
+        }
+
+        Node node(java.util.Map<Vertex, Node> nodes, Vertex v, Vertex end) {
+            Node n = nodes.get(v);
+            if (n == null) {
+                double dx = v.x - end.x, dy = v.y - end.y;
+                nodes.put(v, n = new Node(v, Math.sqrt(dx * dx + dy * dy)));
+            }
+            return (n);
+        }
+
+        static class Node implements Comparable<Node> {
+            final Vertex vertex;
+            final double h;
+            Node prev;
+            Edge edge;
+            double g;
+            int order;
+
+            Node(Vertex vertex, double h) {
+                this.vertex = vertex;
+                this.h = h;
+            }
+
+            void reset(Node prev, Edge edge, double g, int order) {
+                this.prev = prev;
+                this.edge = edge;
+                this.g = g;
+                this.order = order;
+            }
+
+            double f() {
+                return (g + h);
+            }
+
+            public int compareTo(Node n) {
+                int diff = Double.compare(f(), n.f());
+                if (diff == 0)
+                    diff = Double.compare(h, n.h);
+                if (diff == 0)
+                    diff = Integer.compare(order, n.order);
+                return (diff);
+            }
+        }
+    }
+
+    private static List<Vertex> graph(Random rnd, int obstacles) {
+        byte[][] map = new byte[Map.sz][Map.sz];
+        List<Vertex> vs = new ArrayList<>();
+        for (int i = 0; i < obstacles; i++) {
+            int w = 3 + rnd.nextInt(12), h = 3 + rnd.nextInt(12);
+            int x = 20 + rnd.nextInt(Map.sz - 60), y = 20 + rnd.nextInt(Map.sz - 60);
+            for (int px = x; px <= x + w; px++) {
+                for (int py = y; py <= y + h; py++)
+                    map[px][py] = Map.CELL_BLK;
+            }
+            vs.add(new Vertex(x - 2, y - 2));
+            vs.add(new Vertex(x + w + 2, y - 2));
+            vs.add(new Vertex(x + w + 2, y + h + 2));
+            vs.add(new Vertex(x - 2, y + h + 2));
+        }
+        List<Vertex> free = new ArrayList<>();
+        for (Vertex v : vs) {
+            if (map[v.x][v.y] == Map.CELL_FREE)
+                free.add(v);
+        }
+        Dbg dbg = new Dbg(false);
+        for (Vertex a : free) {
+            for (Vertex b : free) {
+                if ((a != b) && Utils.isVisible(map, dbg, a.x, a.y, b.x, b.y, Map.CELL_BLK)) {
+                    double dx = a.x - b.x, dy = a.y - b.y;
+                    a.edges.add(new Edge(a, b, Math.sqrt(dx * dx + dy * dy)));
+                }
+            }
+        }
+        return (free);
+    }
+
+    public static void main(String[] args) {
+        int routes = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        Random rnd = new Random(4711);
+        System.out.printf("%10s %8s %8s %12s %12s\n", "obstacles", "verts", "edges", "legacy", "indexed");
+        for (int obs : new int[] {50, 100, 200, 400}) {
+            List<Vertex> vs = graph(rnd, obs);
+            int edges = 0;
+            for (Vertex v : vs)
+                edges += v.edges.size();
+            Vertex[][] qs = new Vertex[routes][];
+            for (int i = 0; i < routes; i++)
+                qs[i] = new Vertex[] {vs.get(rnd.nextInt(vs.size())), vs.get(rnd.nextInt(vs.size()))};
+            Legacy legacy = new Legacy();
+            AStar astar = new AStar();
+            for (int i = 0; i < Math.min(routes, 200); i++) {
+                Legacy.Node ln = legacy.find(qs[i][0], qs[i][1]);
+                double lc = (ln == null) ? -1 : ln.g, nc = (ln == null) ? -1 : 0;
+                boolean any = false;
+                for (Edge e : astar.route(qs[i][0], qs[i][1])) {
+                    nc += e.weight;
+                    any = true;
+                }
+                if ((ln != null) && (qs[i][0] != qs[i][1]) && (!any || (Math.abs(lc - nc) > 1e-6)))
+                    throw (new AssertionError("route cost mismatch: " + lc + " != " + nc));
+            }
+            double[] res = new double[2];
+            long sink = 0;
+            for (int pass = 0; pass < 3; pass++) {
+                long st = System.nanoTime();
+                for (Vertex[] q : qs)
+                    sink += (legacy.find(q[0], q[1]) != null) ? 1 : 0;
+                res[0] = (System.nanoTime() - st) / 1e3 / routes;
+                st = System.nanoTime();
+                for (Vertex[] q : qs)
+                    sink += astar.route(q[0], q[1]).iterator().hasNext() ? 1 : 0;
+                res[1] = (System.nanoTime() - st) / 1e3 / routes;
+            }
+            System.out.printf("%10d %8d %8d %10.1fus %10.1fus  (%d)\n", obs, vs.size(), edges, res[0], res[1], sink & 1);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.GAttrib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.function.Supplier;
+
+/*
+ * Compares gob attribute storage in slot arrays against the
+ * synchronized HashMap it replaced, over a frame of 5000 gobs: each
+ * gob's attributes are cticked, a few percent of the gobs get a new
+ * movement attribute as from object deltas, and every gob is then
+ * queried for the attributes that rendering and Gob setup look up.
+ * The frame is also run with a second thread doing the lookups
+ * concurrently, as the render and tick threads do.
+ *
+ * Usage: GobAttrBench [GOBS] [FRAMES]
+ */
+public class GobAttrBench {
+    /* Stand-ins for Drawable, Moving, Following and so on, some subclassed to exercise slot sharing. */
+    private static class A0 extends GAttrib {
+        int n;
+
+        A0() {
+            super(null);
+        }
+
+        public void ctick(int dt) {
+            n += dt;
+        }
+    }
+
+    private static class A0s extends A0 {
+    }
+
+    private static class A1 extends A0 {
+    }
+
+    private static class B0 extends GAttrib {
+        B0() {
+            super(null);
+        }
+    }
+
+    private static class B1 extends B0 {
+    }
+
+    private static class C0 extends GAttrib {
+        C0() {
+            super(null);
+        }
+    }
+
+    private static class D0 extends GAttrib {
+        D0() {
+            super(null);
+        }
+    }
+
+    private static class E0 extends GAttrib {
+        E0() {
+            super(null);
+        }
+    }
+
+    private static class F0 extends GAttrib {
+        F0() {
+            super(null);
+        }
+    }
+
+    private static class G0 extends GAttrib {
+        G0() {
+            super(null);
+        }
+    }
+
+    private static class H0 extends GAttrib {
+        H0() {
+            super(null);
+        }
+    }
+
+    private static class I0 extends GAttrib {
+        I0() {
+            super(null);
+        }
+    }
+
+    private static class J0 extends GAttrib {
+        J0() {
+            super(null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends GAttrib>[] queried = (Class<? extends GAttrib>[]) new Class<?>[] {
+            A0.class, B0.class, B1.class, C0.class, D0.class, E0.class, F0.class, G0.class,
+            H0.class, I0.class, J0.class, A1.class, B0.class, C0.class, A0.class,
+    };
+
+    private interface Store {
+        void put(GAttrib a);
+
+        <C extends GAttrib> C get(Class<C> c);
+
+        void ctick(int dt);
+    }
+
+    /* The previous implementation, minus its Gob plumbing. */
+    private static class Legacy implements Store {
+        final Map<Class<? extends GAttrib>, GAttrib> attr = new HashMap<>();
+
+        private Class<? extends GAttrib> attrclass(Class<? extends GAttrib> cl) {
+            while (true) {
+                Class<?> p = cl.getSuperclass();
+                if (p == GAttrib.class)
+                    return (cl);
+                cl = p.asSubclass(GAttrib.class);
+            }
+        }
+
+        public void put(GAttrib a) {
+            Class<? extends GAttrib> ac = attrclass(a.getClass());
+            synchronized (attr) {
+                attr.put(ac, a);
+            }
+        }
+
+        public <C extends GAttrib> C get(Class<C> c) {
+            synchronized (attr) {
+                GAttrib attr = this.attr.get(attrclass(c));
+                if (!c.isInstance(attr))
+                    return (null);
+                return (c.cast(attr));
+            }
+        }
+
+        public void ctick(int dt) {
+            synchronized (attr) {
+                for (GAttrib a : attr.values())
+                    a.ctick(dt);
+            }
+        }
+    }
+
+    private static class Slotted implements Store {
+        final GAttrib.Slots attr = new GAttrib.Slots();
+
+        public void put(GAttrib a) {
+            attr.put(a);
+        }
+
+        public <C extends GAttrib> C get(Class<C> c) {
+            return (attr.get(c));
+        }
+
+        public void ctick(int dt) {
+            for (GAttrib a : attr.all()) {
+                if (a != null)
+                    a.ctick(dt);
+            }
+        }
+    }
+
+    private static final List<Supplier<GAttrib>> kinds = Arrays.asList(A0s::new, B1::new, C0::new, D0::new, E0::new,
+            F0::new, G0::new, H0::new, I0::new, J0::new);
+
+    private static List<Store> populate(int n, boolean legacy) {
+        Random rnd = new Random(4711);
+        List<Store> ret = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Store s = legacy ? new Legacy() : new Slotted();
+            s.put(new A0());
+            for (int o = rnd.nextInt(6); o > 0; o--)
+                s.put(kinds.get(rnd.nextInt(kinds.size())).get());
+            ret.add(s);
+        }
+        return (ret);
+    }
+
+    private static long lookups(List<Store> gobs) {
+        long found = 0;
+        for (Store s : gobs) {
+            for (Class<? extends GAttrib> c : queried) {
+                if (s.get(c) != null)
+                    found++;
+            }
+        }
+        return (found);
+    }
+
+    private static long frame(List<Store> gobs, Random rnd) {
+        for (Store s : gobs)
+            s.ctick(1);
+        for (int i = gobs.size() / 30; i > 0; i--)
+            gobs.get(rnd.nextInt(gobs.size())).put(rnd.nextBoolean() ? new A0() : new A1());
+        return (lookups(gobs));
+    }
+
+    private static double run(List<Store> gobs, int frames, boolean concurrent) throws Exception {
+        Random rnd = new Random(1);
+        Thread render = null;
+        final CyclicBarrier sync = new CyclicBarrier(2);
+        if (concurrent) {
+            render = new Thread(() -> {
+                try {
+                    for (int i = 0; i < frames; i++) {
+                        sync.await();
+                        lookups(gobs);
+                        sync.await();
+                    }
+                } catch (Exception e) {
+                    throw (new RuntimeException(e));
+                }
+            });
+            render.start();
+        }
+        long st = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            if (concurrent)
+                sync.await();
+            frame(gobs, rnd);
+            if (concurrent)
+                sync.await();
+        }
+        long t = System.nanoTime() - st;
+        if (render != null)
+            render.join();
+        return (t / 1e6 / frames);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        int frames = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+        List<Store> legacy = populate(n, true), slotted = populate(n, false);
+        for (int i = 0; i < n; i++) {
+            for (Class<? extends GAttrib> c : queried) {
+                GAttrib a = legacy.get(i).get(c), b = slotted.get(i).get(c);
+                if ((a == null) != (b == null) || ((a != null) && (a.getClass() != b.getClass())))
+                    throw (new AssertionError(i + " " + c));
+            }
+        }
+        System.out.printf("%d gobs\n%-12s %12s %12s\n", n, "storage", "ms/frame", "2 threads");
+        /* The first pass only warms up the JIT. */
+        for (int pass = 0; pass < 2; pass++) {
+            int f = (pass == 0) ? Math.max(frames / 5, 1) : frames;
+            System.out.printf("%-12s %12.3f %12.3f\n", "HashMap", run(legacy, f, false), run(legacy, f, true));
+            System.out.printf("%-12s %12.3f %12.3f\n", "slots", run(slotted, f, false), run(slotted, f, true));
+            if (pass == 0)
+                System.out.println("--");
+        }
+    }
+}
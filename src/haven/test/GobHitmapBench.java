@@ -0,0 +1,229 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.Coord;
+import haven.sloth.script.pathfinding.GobHitmap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/*
+ * Compares the chunked GobHitmap against the per-unit HashMap it
+ * replaced, for placing and moving gobs with rectangular hitboxes at
+ * arbitrary angles over a 3x3 grid area, for point queries, and for
+ * retained heap. Axis-aligned footprints of both versions are
+ * cross-checked to be identical.
+ *
+ * Usage: GobHitmapBench [QUERIES]
+ */
+public class GobHitmapBench {
+    /* The previous implementation, minus its Gob plumbing. */
+    private static class Legacy {
+        final Map<Coord, Set<Long>> map = new HashMap<>();
+
+        boolean checkHit(Coord c) {
+            return (map.containsKey(c));
+        }
+
+        void put(Coord c, long id, List<Coord> coords) {
+            map.computeIfAbsent(c, k -> new HashSet<>()).add(id);
+            coords.add(c);
+        }
+
+        void rem(long id, List<Coord> coords) {
+            for (Coord c : coords) {
+                Set<Long> tile = map.get(c);
+                if (tile != null) {
+                    tile.remove(id);
+                    if (tile.isEmpty())
+                        map.remove(c);
+                }
+            }
+        }
+
+        void drawline(int x0, int y0, int x1, int y1, long id, List<Coord> coords) {
+            boolean steep = Math.abs(y1 - y0) > Math.abs(x1 - x0);
+            int t;
+            if (steep) {
+                t = x0; x0 = y0; y0 = t;
+                t = x1; x1 = y1; y1 = t;
+            }
+            if (x0 > x1) {
+                t = x0; x0 = x1; x1 = t;
+                t = y0; y0 = y1; y1 = t;
+            }
+            float dErr = Math.abs(((float) y1 - y0) / ((float) x1 - x0));
+            int yStep = y0 > y1 ? -1 : 1;
+            float err = 0.0f;
+            int y = y0;
+            for (int x = x0; x <= x1; ++x) {
+                put(steep ? new Coord(y, x) : new Coord(x, y), id, coords);
+                err += dErr;
+                if (err >= 0.5f) {
+                    y += yStep;
+                    err -= 1.0;
+                }
+            }
+        }
+
+        void fillspace(Coord start, long id, List<Coord> coords) {
+            ArrayDeque<Coord> queue = new ArrayDeque<>();
+            queue.push(start);
+            while (queue.size() > 0) {
+                Coord c = queue.pop();
+                if (!map.containsKey(c)) {
+                    put(c, id, coords);
+                    queue.add(c.add(1, 0));
+                    queue.add(c.add(0, 1));
+                    queue.add(c.add(-1, 0));
+                    queue.add(c.add(0, -1));
+                }
+            }
+        }
+
+        List<Coord> add(long id, List<Coord[]> polys) {
+            List<Coord> coords = new ArrayList<>();
+            for (Coord[] p : polys) {
+                for (int i = 0; i < p.length; i++) {
+                    Coord a = p[i], b = p[(i + 1) % p.length];
+                    drawline(a.x, a.y, b.x, b.y, id, coords);
+                }
+                double ax = 0, ay = 0;
+                for (Coord c : p) {
+                    ax += c.x;
+                    ay += c.y;
+                }
+                fillspace(new Coord((int) Math.round(ax / p.length), (int) Math.round(ay / p.length)), id, coords);
+            }
+            return (coords);
+        }
+    }
+
+    private static List<Coord[]> box(Coord gc, int hw, int hh, double a) {
+        Coord[] p = {new Coord(-hw, -hh), new Coord(hw, -hh), new Coord(hw, hh), new Coord(-hw, hh)};
+        for (int i = 0; i < p.length; i++)
+            p[i] = gc.add(p[i].rotate(a));
+        return (Collections.singletonList(p));
+    }
+
+    private static Set<Coord> covered(GobHitmap hm, List<Coord[]> polys) {
+        Set<Coord> ret = new HashSet<>();
+        for (Coord[] p : polys) {
+            for (Coord c : p) {
+                for (int y = c.y - 40; y <= c.y + 40; y++) {
+                    for (int x = c.x - 40; x <= c.x + 40; x++) {
+                        if (hm.checkHit(x, y))
+                            ret.add(new Coord(x, y));
+                    }
+                }
+            }
+        }
+        return (ret);
+    }
+
+    private static long heap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return (rt.totalMemory() - rt.freeMemory());
+    }
+
+    public static void main(String[] args) {
+        int queries = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        Random rnd = new Random(4711);
+        int area = 3300;
+
+        for (int i = 0; i < 200; i++) {
+            Coord gc = new Coord(rnd.nextInt(area), rnd.nextInt(area));
+            List<Coord[]> polys = box(gc, 2 + rnd.nextInt(20), 2 + rnd.nextInt(20), (Math.PI / 2) * rnd.nextInt(4));
+            Legacy lh = new Legacy();
+            GobHitmap nh = new GobHitmap();
+            Set<Coord> lc = new HashSet<>(lh.add(1, polys));
+            nh.place(polys);
+            if (!lc.equals(covered(nh, polys)))
+                throw (new AssertionError("footprint mismatch at " + gc));
+        }
+
+        System.out.printf("%8s %12s %12s %12s %12s %10s %10s\n", "gobs", "lin place", "chunk place", "lin check", "chunk check", "lin heap", "chunk heap");
+        for (int n : new int[] {500, 1000, 2000, 5000, 10000}) {
+            List<List<Coord[]>> gobs = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                gobs.add(box(new Coord(rnd.nextInt(area), rnd.nextInt(area)), 2 + rnd.nextInt(12), 2 + rnd.nextInt(12), rnd.nextDouble() * Math.PI * 2));
+            }
+            Coord[] qs = new Coord[4096];
+            for (int i = 0; i < qs.length; i++)
+                qs[i] = new Coord(rnd.nextInt(area), rnd.nextInt(area));
+            double[] res = new double[4];
+            long[] mem = new long[2];
+            long sink = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                long base = heap();
+                Legacy lh = new Legacy();
+                List<List<Coord>> lfp = new ArrayList<>();
+                long st = System.nanoTime();
+                for (int i = 0; i < n; i++)
+                    lfp.add(lh.add(i, gobs.get(i)));
+                res[0] = (System.nanoTime() - st) / 1e3 / n;
+                mem[0] = heap() - base;
+                st = System.nanoTime();
+                for (int i = 0; i < queries; i++)
+                    sink += lh.checkHit(qs[i & (qs.length - 1)]) ? 1 : 0;
+                res[2] = (System.nanoTime() - st) / 1.0 / queries;
+                for (int i = 0; i < n; i++)
+                    lh.rem(i, lfp.get(i));
+                lh = null;
+                lfp = null;
+
+                base = heap();
+                GobHitmap nh = new GobHitmap();
+                List<GobHitmap.Footprint> nfp = new ArrayList<>();
+                st = System.nanoTime();
+                for (int i = 0; i < n; i++)
+                    nfp.add(nh.place(gobs.get(i)));
+                res[1] = (System.nanoTime() - st) / 1e3 / n;
+                mem[1] = heap() - base;
+                st = System.nanoTime();
+                for (int i = 0; i < queries; i++)
+                    sink += nh.checkHit(qs[i & (qs.length - 1)]) ? 1 : 0;
+                res[3] = (System.nanoTime() - st) / 1.0 / queries;
+                for (int i = 0; i < n; i++)
+                    nh.rem(nfp.get(i));
+                if (nh.chunks() != 0)
+                    throw (new AssertionError("chunks left after removing all gobs"));
+            }
+            System.out.printf("%8d %10.2fus %10.2fus %10.1fns %10.1fns %8dkB %8dkB  (%d)\n", n, res[0], res[1], res[2], res[3], mem[0] >> 10, mem[1] >> 10, sink & 1);
+        }
+    }
+}
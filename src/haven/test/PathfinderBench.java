@@ -0,0 +1,151 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.Coord;
+import haven.Coord2d;
+import haven.sloth.script.pathfinding.JPSPathfinder;
+import haven.sloth.script.pathfinding.Move;
+import haven.sloth.script.pathfinding.NBAPathfinder;
+import haven.sloth.script.pathfinding.Pathfinder;
+import haven.sloth.script.pathfinding.SavedHitmap;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/*
+ * Replays searches over hitmaps saved with the "pfsave" console
+ * command, comparing the script pathfinders on nodes expanded, wall
+ * time and the length of the resulting clicked path. Without any
+ * files, a generated 80x80 tile area with scattered trees, a few
+ * houses and a river with fords is used.
+ *
+ * Usage: PathfinderBench [QUERIES] [HITMAP...]
+ */
+public class PathfinderBench {
+    private static SavedHitmap generate(Random rnd) {
+        Coord sz = new Coord(880, 880);
+        BitSet hits = new BitSet(sz.x * sz.y);
+        /* Obstacles are padded by the player's hitbox, as checkHit sees them. */
+        for (int i = 0; i < 1500; i++)
+            fill(hits, sz, rnd.nextInt(sz.x), rnd.nextInt(sz.y), 10, 10);
+        for (int i = 0; i < 12; i++)
+            fill(hits, sz, rnd.nextInt(sz.x), rnd.nextInt(sz.y), 40 + rnd.nextInt(40), 40 + rnd.nextInt(40));
+        for (int y = 0; y < sz.y; y++) {
+            if ((y / 110) % 3 == 1)
+                continue;
+            fill(hits, sz, 400 + (int) (40 * Math.sin(y / 60.0)), y, 30, 1);
+        }
+        return (new SavedHitmap(Coord.z, sz, hits));
+    }
+
+    private static void fill(BitSet hits, Coord sz, int x, int y, int w, int h) {
+        for (int yy = Math.max(y, 0); yy < Math.min(y + h, sz.y); yy++) {
+            for (int xx = Math.max(x, 0); xx < Math.min(x + w, sz.x); xx++)
+                hits.set(yy * sz.x + xx);
+        }
+    }
+
+    private static Coord free(SavedHitmap map, Random rnd) {
+        while (true) {
+            Coord c = map.ul.add(rnd.nextInt(map.sz.x), rnd.nextInt(map.sz.y));
+            if (!map.check(c))
+                return (c);
+        }
+    }
+
+    private static double length(Coord start, List<Move> moves) {
+        double len = 0;
+        Coord2d p = new Coord2d(start);
+        for (Move m : moves) {
+            len += p.dist(m.dest());
+            p = m.dest();
+        }
+        return (len);
+    }
+
+    private static void run(String name, SavedHitmap map, int queries, Function<SavedHitmap, Pathfinder> mk) {
+        Random rnd = new Random(4711);
+        Coord[][] qs = new Coord[queries][];
+        for (int i = 0; i < queries; i++)
+            qs[i] = new Coord[] {free(map, rnd), free(map, rnd)};
+        /* NBAPathfinder reports every search on stdout. */
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) {}
+        }));
+        long nodes = 0, time = 0;
+        int found = 0;
+        double len = 0;
+        try {
+            for (Coord[] q : qs) {
+                Pathfinder pf = mk.apply(map);
+                long st = System.nanoTime();
+                List<Move> moves = pf.path(q[0], q[1]);
+                time += System.nanoTime() - st;
+                nodes += pf.expanded();
+                if ((moves != null) && !moves.isEmpty() && moves.get(moves.size() - 1).dest().floor().equals(q[1])) {
+                    found++;
+                    len += length(q[0], moves);
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+        System.out.printf("%-16s %6d/%-6d %12.0f %10.2fms %10.1f\n", name, found, queries,
+                (double) nodes / queries, time / 1e6 / queries, (found > 0) ? (len / found) : 0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int queries = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        for (int i = 0; i < Math.max(args.length - 1, 1); i++) {
+            SavedHitmap map;
+            if (args.length > 1) {
+                map = SavedHitmap.load(new File(args[i + 1]));
+                System.out.printf("%s: %s at %s\n", args[i + 1], map.sz, map.ul);
+            } else {
+                map = generate(new Random(1));
+                System.out.printf("generated: %s\n", map.sz);
+            }
+            System.out.printf("%-16s %13s %12s %12s %10s\n", "pathfinder", "found", "expanded", "time", "length");
+            /* The first pass only warms up the JIT. */
+            for (int pass = 0; pass < 2; pass++) {
+                int n = (pass == 0) ? Math.max(queries / 5, 1) : queries;
+                run("NBA*", map, n, NBAPathfinder::new);
+                run("JPS", map, n, m -> new JPSPathfinder(m, false));
+                run("hierarchical JPS", map, n, m -> new JPSPathfinder(m, true));
+                if (pass == 0)
+                    System.out.println("--");
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+
+package haven.test;
+
+import haven.Coord;
+import haven.Coord2d;
+import haven.Coord3f;
+import haven.MCache;
+import haven.MapPick;
+import haven.Matrix4f;
+import haven.PointedCam;
+import haven.Projection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Checks MapPick against hover tests recorded with the "pickrec"
+ * console command, reporting how far its terrain hit lies from the
+ * one the clicklist found and whether they agree on the object under
+ * the cursor. Without any files, generated hilly scenes with
+ * scattered trees are used instead, and each terrain hit is projected
+ * back to the screen to see that it lands under the cursor.
+ *
+ * Usage: PickTest [SCENE...]
+ */
+public class PickTest {
+    private static final Coord sz = new Coord(1280, 800);
+
+    private static MapPick.Scene generate(Random rnd) {
+        Coord tsz = new Coord(97, 97), tul = new Coord(-48, -48);
+        float[] z = new float[tsz.x * tsz.y];
+        double p1 = rnd.nextDouble() * 10, p2 = rnd.nextDouble() * 10;
+        for (int y = 0; y < tsz.y; y++) {
+            for (int x = 0; x < tsz.x; x++)
+                z[x + (y * tsz.x)] = (float) ((Math.sin(x / 7.0 + p1) * 30) + (Math.cos(y / 5.0 + p2) * 20) + (rnd.nextDouble() * 4));
+        }
+        List<MapPick.Solid> solids = new ArrayList<>();
+        MapPick.Scene sc = new MapPick.Scene(sz, Coord.z, null, null, tul, tsz, z, solids, null, -1);
+        double tw = MCache.tilesz.x;
+        for (int i = 0; i < 400; i++) {
+            double x = (rnd.nextDouble() - 0.5) * 80 * tw, y = (rnd.nextDouble() - 0.5) * 80 * tw;
+            float rx = 3 + rnd.nextFloat() * 8, ry = 3 + rnd.nextFloat() * 16, h = 10 + rnd.nextFloat() * 90;
+            solids.add(new MapPick.Solid(i, null, new Coord3f((float) x, (float) -y, (float) sc.z(x, y)),
+                    rnd.nextDouble() * Math.PI * 2, new MapPick.Box(-rx, -ry, 0, rx, ry, h)));
+        }
+        float aspect = ((float) sz.y) / ((float) sz.x);
+        Matrix4f proj = Projection.makefrustum(new Matrix4f(), -0.5f, 0.5f, -aspect * 0.5f, aspect * 0.5f, 1, 5000);
+        Coord3f base = new Coord3f(0, 0, (float) sc.z(0, 0));
+        Matrix4f view = PointedCam.compute(base, 150 + rnd.nextFloat() * 400, 0.2f + rnd.nextFloat() * 1.3f, rnd.nextFloat() * (float) Math.PI * 2);
+        return (new MapPick.Scene(sz, Coord.z, proj, view, tul, tsz, z, solids, null, -1));
+    }
+
+    private static Coord2d toscreen(MapPick.Scene sc, Coord3f mc) {
+        float[] p = sc.proj.mul(sc.view).mul4(new float[] {mc.x, -mc.y, mc.z, 1});
+        return (new Coord2d(((p[0] / p[3] + 1) / 2) * sc.sz.x, ((-p[1] / p[3] + 1) / 2) * sc.sz.y));
+    }
+
+    /* Where a point given in a solid's own coordinates ends up on the map. */
+    private static Coord3f place(MapPick.Solid s, float x, float y, float z) {
+        double ca = Math.cos(-s.a), sa = Math.sin(-s.a);
+        return (new Coord3f((float) (s.c.x + (x * ca) - (y * sa)), (float) -(s.c.y + (x * sa) + (y * ca)), s.c.z + z));
+    }
+
+    private static long timed(MapPick mp, MapPick.Scene sc, Coord c, int n) {
+        long st = System.nanoTime();
+        for (int i = 0; i < n; i++)
+            mp.pick(c, sc, sc.solids);
+        return ((System.nanoTime() - st) / n);
+    }
+
+    public static void main(String[] args) throws Exception {
+        long time = 0;
+        int picks = 0;
+        if (args.length > 0) {
+            int agree = 0, missed = 0;
+            double err = 0;
+            System.out.printf("%-32s %10s %10s %8s %8s\n", "scene", "error", "time", "gob", "cpu gob");
+            for (String arg : args) {
+                MapPick.Scene sc = MapPick.Scene.load(new File(arg));
+                MapPick mp = sc.picker();
+                MapPick.Hit h = mp.pick(sc.sc, sc, sc.solids);
+                long cpu = (h == null) ? -1 : (h.solid == null) ? -1 : h.solid.id;
+                String e;
+                if ((h == null) || (sc.mc == null)) {
+                    e = (h == null) == (sc.mc == null) ? "-" : "miss";
+                    if ((h == null) != (sc.mc == null))
+                        missed++;
+                } else {
+                    double d = h.mc.dist(sc.mc);
+                    err += d;
+                    e = String.format("%.2f", d);
+                }
+                if (cpu == sc.gob)
+                    agree++;
+                long t = timed(mp, sc, sc.sc, 1000);
+                time += t;
+                picks++;
+                System.out.printf("%-32s %10s %8.1fus %8d %8d\n", new File(arg).getName(), e, t / 1e3, sc.gob, cpu);
+            }
+            System.out.printf("%d scenes: %d agree on the object, %d disagree on hitting the map, mean error %.2f, mean time %.1fus\n",
+                    args.length, agree, missed, err / Math.max(args.length - missed, 1), time / 1e3 / Math.max(picks, 1));
+        } else {
+            Random rnd = new Random(4711);
+            double worst = 0, sum = 0;
+            int hits = 0, gobs = 0, aimed = 0, wrong = 0;
+            for (int s = 0; s < 50; s++) {
+                MapPick.Scene sc = generate(rnd);
+                MapPick mp = sc.picker();
+                for (int i = 0; i < 200; i++) {
+                    Coord c = new Coord(rnd.nextInt(sz.x), rnd.nextInt(sz.y));
+                    MapPick.Hit h = mp.pick(c, sc, sc.solids);
+                    if (h == null)
+                        continue;
+                    hits++;
+                    if (h.solid != null)
+                        gobs++;
+                    Coord2d back = toscreen(sc, new Coord3f((float) h.mc.x, (float) h.mc.y, (float) sc.z(h.mc.x, h.mc.y)));
+                    double d = back.dist(new Coord2d(c));
+                    worst = Math.max(worst, d);
+                    sum += d;
+                }
+                /* Aiming off-center at an object must find it, unless something else is in front of it. */
+                for (MapPick.Solid o : sc.solids) {
+                    Coord2d sp = toscreen(sc, place(o, o.box.x2 * 0.8f, o.box.y1 * 0.6f, o.box.z2 * 0.9f));
+                    Coord c = sp.floor();
+                    if ((c.x < 0) || (c.y < 0) || (c.x >= sz.x) || (c.y >= sz.y))
+                        continue;
+                    MapPick.Ray r = mp.ray(c);
+                    double ot = MapPick.solid(r, o);
+                    MapPick.Hit h = mp.pick(c, sc, sc.solids);
+                    if (Double.isNaN(ot) || (h == null) || (ot > h.t))
+                        continue;
+                    aimed++;
+                    if ((h.solid == null) || ((h.solid != o) && (MapPick.solid(r, h.solid) > ot)))
+                        wrong++;
+                }
+                time += timed(mp, sc, sz.div(2), 200);
+                picks++;
+            }
+            System.out.printf("generated: %d terrain hits, %d on objects; reprojection error mean %.3fpx, worst %.3fpx; %.1fus per pick\n",
+                    hits, gobs, sum / Math.max(hits, 1), worst, time / 1e3 / picks);
+            System.out.printf("aimed at %d objects, %d picked wrongly\n", aimed, wrong);
+        }
+    }
+}
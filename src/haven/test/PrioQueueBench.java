@@ -0,0 +1,107 @@
+package haven.test;
+
+import haven.PrioQueue;
+import haven.Prioritized;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Random;
+
+/*
+ * Compares PrioQueue against the old linear-scan list it replaced,
+ * with a queue shaped like a login: many low-priority resource
+ * loads, a few of which get boosted while queued.
+ *
+ * Usage: PrioQueueBench [ITEMS [ROUNDS]]
+ */
+public class PrioQueueBench {
+    private static class Item implements Prioritized {
+        int prio;
+
+        Item(int prio) {
+            this.prio = prio;
+        }
+
+        public int priority() {
+            return (prio);
+        }
+    }
+
+    /* The former haven.PrioQueue, kept here as a baseline. */
+    private static class LinearQueue<E extends Prioritized> extends LinkedList<E> {
+        private static final long serialVersionUID = 1L;
+
+        public E peek() {
+            E rv = null;
+            int mp = 0;
+            for (E e : this) {
+                int ep = e.priority();
+                if ((rv == null) || (ep > mp)) {
+                    mp = ep;
+                    rv = e;
+                }
+            }
+            return (rv);
+        }
+
+        public E poll() {
+            E rv = peek();
+            removeid(rv);
+            return (rv);
+        }
+
+        public boolean removeid(E el) {
+            for (Iterator<E> i = iterator(); i.hasNext(); ) {
+                if (i.next() == el) {
+                    i.remove();
+                    return (true);
+                }
+            }
+            return (false);
+        }
+    }
+
+    private static Item[] items(int n, long seed) {
+        Random rnd = new Random(seed);
+        Item[] ret = new Item[n];
+        for (int i = 0; i < n; i++)
+            ret[i] = new Item((rnd.nextInt(10) == 0) ? rnd.nextInt(10) : -5);
+        return (ret);
+    }
+
+    private static long run(Queue<Item> q, Item[] items, boolean heap) {
+        Random rnd = new Random(items.length);
+        long sum = 0;
+        for (Item it : items)
+            q.add(it);
+        /* Boost a tenth of the items while queued. */
+        for (int i = 0; i < items.length / 10; i++) {
+            Item it = items[rnd.nextInt(items.length)];
+            it.prio += 10;
+            if (heap)
+                ((PrioQueue<Item>) q).update(it);
+        }
+        Item it;
+        while ((it = q.poll()) != null)
+            sum += it.prio;
+        return (sum);
+    }
+
+    private static double time(Queue<Item> q, int n, boolean heap) {
+        Item[] items = items(n, 1);
+        long st = System.nanoTime();
+        run(q, items, heap);
+        return ((System.nanoTime() - st) / 1e6);
+    }
+
+    public static void main(String[] args) {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        for (int r = 0; r < rounds; r++) {
+            double lin = time(new LinearQueue<>(), n, false);
+            double heap = time(new PrioQueue<>(), n, true);
+            System.out.printf("round %d: %d items, linear %.2f ms, heap %.2f ms (%.1fx)%n", r, n, lin, heap, lin / heap);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.Resource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Times Resource layer lookups by class and by ID against the linear
+ * scans over all layers they replaced, over real resources loaded
+ * from a directory of .res files, and cross-checks their results.
+ * Every layer class found, and each of their superclasses and
+ * interfaces, is looked up in every resource, so most lookups miss,
+ * as they mostly do in Gob setup and tooltip building.
+ *
+ * Usage: ResLayerBench [RESDIR] [ROUNDS]
+ */
+public class ResLayerBench {
+    public static volatile long sink;
+
+    private static void find(File dir, String pfx, List<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File f : files) {
+            if (f.isDirectory())
+                find(f, pfx + f.getName() + "/", names);
+            else if (f.getName().endsWith(".res"))
+                names.add(pfx + f.getName().substring(0, f.getName().length() - 4));
+        }
+    }
+
+    private static void supertypes(Class<?> cl, Set<Class<?>> buf) {
+        if ((cl == null) || !buf.add(cl))
+            return;
+        supertypes(cl.getSuperclass(), buf);
+        for (Class<?> iface : cl.getInterfaces())
+            supertypes(iface, buf);
+    }
+
+    private static <L extends Resource.Layer> L linlayer(Resource res, Class<L> cl) {
+        for (Resource.Layer l : res.layers()) {
+            if (cl.isInstance(l))
+                return (cl.cast(l));
+        }
+        return (null);
+    }
+
+    private static <L extends Resource.Layer> int linlayers(Resource res, Class<L> cl) {
+        int n = 0;
+        for (Resource.Layer l : res.layers()) {
+            if (cl.isInstance(l))
+                n++;
+        }
+        return (n);
+    }
+
+    private static Resource.Layer linid(Resource res, Class<?> cl, Object id) {
+        for (Resource.Layer l : res.layers()) {
+            if (cl.isInstance(l) && ((Resource.IDLayer<?>) l).layerid().equals(id))
+                return (l);
+        }
+        return (null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Resource.Layer idxid(Resource res, Class<?> cl, Object id) {
+        return ((Resource.Layer) res.layer((Class<Resource.IDLayer<Object>>) cl, id));
+    }
+
+    private static class Probe {
+        final Resource res;
+        final Class<? extends Resource.Layer> cl;
+
+        Probe(Resource res, Class<? extends Resource.Layer> cl) {
+            this.res = res;
+            this.cl = cl;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void main(String[] args) {
+        File dir = new File((args.length > 0) ? args[0] : "etc/res");
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+        List<String> names = new ArrayList<>();
+        find(dir, "", names);
+        Resource.Pool pool = new Resource.Pool(new Resource.FileSource(dir));
+        List<Resource> ress = new ArrayList<>();
+        Set<Class<?>> types = new LinkedHashSet<>();
+        List<Object[]> ids = new ArrayList<>();
+        for (String name : names) {
+            Resource res;
+            try {
+                res = pool.loadwait(name);
+            } catch (RuntimeException e) {
+                System.err.printf("%s: %s\n", name, e);
+                continue;
+            }
+            ress.add(res);
+            for (Resource.Layer l : res.layers()) {
+                supertypes(l.getClass(), types);
+                if (l instanceof Resource.IDLayer)
+                    ids.add(new Object[] {res, l.getClass(), ((Resource.IDLayer<?>) l).layerid()});
+            }
+        }
+        List<Probe> probes = new ArrayList<>();
+        for (Resource res : ress) {
+            for (Class<?> cl : types) {
+                if (Resource.Layer.class.isAssignableFrom(cl))
+                    probes.add(new Probe(res, (Class<? extends Resource.Layer>) cl));
+            }
+        }
+        System.out.printf("%d resources, %d layers, %d layer classes, %d IDs\n", ress.size(),
+                ress.stream().mapToInt(r -> r.layers().size()).sum(), probes.size() / Math.max(ress.size(), 1), ids.size());
+
+        for (Probe p : probes) {
+            if ((linlayer(p.res, p.cl) != p.res.layer(p.cl)) || (linlayers(p.res, p.cl) != p.res.layers(p.cl).size()))
+                throw (new AssertionError(p.res + " " + p.cl));
+        }
+        for (Object[] id : ids) {
+            Resource res = (Resource) id[0];
+            if (linid(res, (Class<?>) id[1], id[2]) != idxid(res, (Class<?>) id[1], id[2]))
+                throw (new AssertionError(res + " " + id[1] + " " + id[2]));
+        }
+
+        System.out.printf("%-16s %12s %12s\n", "lookup", "linear ns", "indexed ns");
+        /* The first pass only warms up the JIT. */
+        for (int pass = 0; pass < 2; pass++) {
+            int n = (pass == 0) ? Math.max(rounds / 10, 1) : rounds;
+            long sink = 0, lin, idx, st;
+
+            st = System.nanoTime();
+            for (int r = 0; r < n; r++) {
+                for (Probe p : probes)
+                    sink += (linlayer(p.res, p.cl) != null) ? 1 : 0;
+            }
+            lin = System.nanoTime() - st;
+            st = System.nanoTime();
+            for (int r = 0; r < n; r++) {
+                for (Probe p : probes)
+                    sink += (p.res.layer(p.cl) != null) ? 1 : 0;
+            }
+            idx = System.nanoTime() - st;
+            report(pass, "layer(cl)", lin, idx, (long) n * probes.size());
+
+            st = System.nanoTime();
+            for (int r = 0; r < n; r++) {
+                for (Probe p : probes)
+                    sink += linlayers(p.res, p.cl);
+            }
+            lin = System.nanoTime() - st;
+            st = System.nanoTime();
+            for (int r = 0; r < n; r++) {
+                for (Probe p : probes) {
+                    for (Resource.Layer l : p.res.layers(p.cl))
+                        sink++;
+                }
+            }
+            idx = System.nanoTime() - st;
+            report(pass, "layers(cl)", lin, idx, (long) n * probes.size());
+
+            st = System.nanoTime();
+            for (int r = 0; r < n; r++) {
+                for (Object[] id : ids)
+                    sink += (linid((Resource) id[0], (Class<?>) id[1], id[2]) != null) ? 1 : 0;
+            }
+            lin = System.nanoTime() - st;
+            st = System.nanoTime();
+            for (int r = 0; r < n; r++) {
+                for (Object[] id : ids)
+                    sink += (idxid((Resource) id[0], (Class<?>) id[1], id[2]) != null) ? 1 : 0;
+            }
+            idx = System.nanoTime() - st;
+            report(pass, "layer(cl, id)", lin, idx, (long) n * Math.max(ids.size(), 1));
+            ResLayerBench.sink = sink;
+            if (pass == 0)
+                System.out.println("--");
+        }
+        System.exit(0);
+    }
+
+    private static void report(int pass, String what, long lin, long idx, long n) {
+        if (pass > 0)
+            System.out.printf("%-16s %12.1f %12.1f\n", what, (double) lin / n, (double) idx / n);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ *  This file is part of the Haven & Hearth game client.
+ *  Copyright (C) 2009 Fredrik Tolf <fredrik@dolda2000.com>, and
+ *                     Björn Johannessen <johannessen.bjorn@gmail.com>
+ *
+ *  Redistribution and/or modification of this file is subject to the
+ *  terms of the GNU Lesser General Public License, version 3, as
+ *  published by the Free Software Foundation.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  Other parts of this source tree adhere to other copying
+ *  rights. Please see the file `COPYING' in the root directory of the
+ *  source tree for details.
+ *
+ *  A copy the GNU Lesser General Public License is distributed along
+ *  with the source tree of which this file is a part in the file
+ *  `doc/LPGL-3'. If it is missing for any reason, please see the Free
+ *  Software Foundation's website at <http://www.fsf.org/>, or write
+ *  to the Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *  Boston, MA 02111-1307 USA
+ */
+
+package haven.test;
+
+import haven.Coord2d;
+import haven.SpatialHash;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Compares the OCache spatial index against the linear scans it
+ * replaced, for radius and nearest-object queries around a player in
+ * a village-sized area, at increasing object counts. The results of
+ * both methods are cross-checked.
+ *
+ * Usage: SpatialHashBench [QUERIES]
+ */
+public class SpatialHashBench {
+    private static class Ob {
+        Coord2d rc;
+
+        Ob(Coord2d rc) {
+            this.rc = rc;
+        }
+    }
+
+    private static int linradius(List<Ob> obs, Coord2d c, double r) {
+        int n = 0;
+        for (Ob ob : obs) {
+            if (ob.rc.dist(c) < r)
+                n++;
+        }
+        return (n);
+    }
+
+    private static Ob linnearest(List<Ob> obs, Coord2d c, double r) {
+        double min = r;
+        Ob ret = null;
+        for (Ob ob : obs) {
+            double d = ob.rc.dist(c);
+            if (d < min) {
+                min = d;
+                ret = ob;
+            }
+        }
+        return (ret);
+    }
+
+    public static void main(String[] args) {
+        int queries = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        Random rnd = new Random(4711);
+        /* Roughly a 100x100 tile area, with a 15-tile search radius. */
+        double area = 1100, r = 165;
+        System.out.printf("%8s %12s %12s %12s %12s\n", "gobs", "lin radius", "idx radius", "lin nearest", "idx nearest");
+        for (int n : new int[] {500, 1000, 2000, 5000, 10000, 20000}) {
+            List<Ob> obs = new ArrayList<>();
+            SpatialHash<Ob> idx = new SpatialHash<>(88, ob -> ob.rc);
+            for (int i = 0; i < n; i++) {
+                Ob ob = new Ob(new Coord2d(rnd.nextDouble() * area, rnd.nextDouble() * area));
+                obs.add(ob);
+                idx.add(ob);
+            }
+            Coord2d[] qs = new Coord2d[queries];
+            for (int i = 0; i < queries; i++)
+                qs[i] = new Coord2d(rnd.nextDouble() * area, rnd.nextDouble() * area);
+            for (int i = 0; i < 100; i++) {
+                if (linradius(obs, qs[i], r) != idx.radius(qs[i], r, null).size())
+                    throw (new AssertionError("radius mismatch"));
+                if (linnearest(obs, qs[i], r) != idx.nearest(qs[i], r, null))
+                    throw (new AssertionError("nearest mismatch"));
+            }
+            long sink = 0;
+            double[] res = new double[4];
+            for (int pass = 0; pass < 2; pass++) {
+                long st = System.nanoTime();
+                for (Coord2d q : qs)
+                    sink += linradius(obs, q, r);
+                res[0] = (System.nanoTime() - st) / 1e3 / queries;
+                st = System.nanoTime();
+                for (Coord2d q : qs)
+                    sink += idx.radius(q, r, null).size();
+                res[1] = (System.nanoTime() - st) / 1e3 / queries;
+                st = System.nanoTime();
+                for (Coord2d q : qs)
+                    sink += (linnearest(obs, q, r) != null) ? 1 : 0;
+                res[2] = (System.nanoTime() - st) / 1e3 / queries;
+                st = System.nanoTime();
+                for (Coord2d q : qs)
+                    sink += (idx.nearest(q, r, null) != null) ? 1 : 0;
+                res[3] = (System.nanoTime() - st) / 1e3 / queries;
+            }
+            /* Moving objects should be cheap too. */
+            long st = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                Ob ob = obs.get(i % n);
+                ob.rc = ob.rc.add(rnd.nextDouble() * 22 - 11, rnd.nextDouble() * 22 - 11);
+                idx.update(ob);
+            }
+            double mv = (System.nanoTime() - st) / 1e3 / queries;
+            System.out.printf("%8d %10.2fus %10.2fus %10.2fus %10.2fus  (update %.2fus, %d)\n", n, res[0], res[1], res[2], res[3], mv, sink & 1);
+        }
+    }
+}